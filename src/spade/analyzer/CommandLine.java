@@ -269,10 +269,8 @@ public class CommandLine extends AbstractAnalyzer
                                         {
                                             discrepancyDetector.update();
                                         }
-                                        for(Graph graph : finalGraphSet)
-                                        {
-                                            result = Graph.union((Graph) result, graph);
-                                        }
+                                        // remote parts are merged into the result as they arrive
+                                        result = remoteResolver.getResultGraph();
                                         logger.log(Level.INFO, "Remote resolution completed.");
                                     }
                                     if(USE_TRANSFORMER)
@@ -323,6 +321,10 @@ public class CommandLine extends AbstractAnalyzer
                             queryOutputStream.writeObject("Error");
                         }
                     }
+                    // One object per request. Reset so that the handle tables of both ends
+                    // don't keep every object written over a long lived connection
+                    queryOutputStream.reset();
+                    queryOutputStream.flush();
                 }
                 queryInputStream.close();
                 queryOutputStream.close();
@@ -143,7 +143,7 @@ public class Control {
 
             List<Completor> listArguments = new LinkedList<>();
             listArguments.add(new SimpleCompletor(new String[]{"list"}));
-            listArguments.add(new SimpleCompletor(new String[]{"filters", "storages", "reporters", "all",  "transformers", "analyzers"}));
+            listArguments.add(new SimpleCompletor(new String[]{"filters", "storages", "reporters", "all",  "transformers", "analyzers", "metrics"}));
             listArguments.add(new NullCompletor());
 
             List<Completor> configArguments = new LinkedList<>();
@@ -28,6 +28,7 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -156,7 +157,17 @@ public abstract class AbstractAnalyzer
             //TODO: create all query classes with abstractanalyzer beforehand
             if(functionName.equals("GetLineage") || functionName.equals("GetPaths"))
             {
-                className = "spade.query.common." + functionName;
+                // Storage specific implementation if there is one
+                String storageName = AbstractQuery.getCurrentStorage().getClass().getSimpleName().toLowerCase();
+                className = "spade.query." + storageName + "." + functionName;
+                try
+                {
+                    Class.forName(className);
+                }
+                catch(ClassNotFoundException ex)
+                {
+                    className = "spade.query.common." + functionName;
+                }
                 classInfo = Arrays.asList(className, "spade.core.Graph");
             }
             else
@@ -238,30 +249,80 @@ public abstract class AbstractAnalyzer
         {
             synchronized (Kernel.transformers)
             {
+                // consecutive transformers which have views are applied together in a single pass
+                List<AbstractTransformer> fusedTransformers = new ArrayList<>();
+                List<GraphView> fusedViews = new ArrayList<>();
                 for(int i = 0; i < Kernel.transformers.size(); i++)
                 {
                     AbstractTransformer transformer = Kernel.transformers.get(i);
-                    if(graph != null)
+                    GraphView view = null;
+                    try
+                    {
+                        view = transformer.getView(queryMetaData);
+                    }
+                    catch(Exception ex)
                     {
-                        try
-                        {
-                            graph = transformer.putGraph(graph, queryMetaData);
-                            if(graph != null)
-                            {
-                                //commit after every transformer to enable reading without error
-                                graph.commitIndex();
-                            }
-                        }
-                        catch(Exception ex)
-                        {
-                            Logger.getLogger(QueryConnection.class.getName()).log(Level.SEVERE, "Error in applying transformer!", ex);
-                        }
+                        Logger.getLogger(QueryConnection.class.getName()).log(Level.WARNING, "Error in getting transformer view!", ex);
                     }
-                    else
+                    if(view != null)
+                    {
+                        fusedTransformers.add(transformer);
+                        fusedViews.add(view);
+                        continue;
+                    }
+                    graph = applyTransformerViews(graph, fusedTransformers, fusedViews, queryMetaData);
+                    fusedTransformers.clear();
+                    fusedViews.clear();
+                    graph = applyTransformer(graph, transformer, queryMetaData);
+                }
+                graph = applyTransformerViews(graph, fusedTransformers, fusedViews, queryMetaData);
+            }
+            return graph;
+        }
+
+        private Graph applyTransformerViews(Graph graph, List<AbstractTransformer> transformers, List<GraphView> views,
+                                            QueryMetaData queryMetaData)
+        {
+            if(graph == null || views.isEmpty())
+            {
+                return graph;
+            }
+            try
+            {
+                Graph result = GraphView.materialize(graph, views);
+                //commit after every transformer to enable reading without error
+                result.commitIndex();
+                return result;
+            }
+            catch(Exception ex)
+            {
+                Logger.getLogger(QueryConnection.class.getName()).log(Level.SEVERE,
+                        "Error in applying transformer views! Applying transformers one at a time.", ex);
+                for(AbstractTransformer transformer : transformers)
+                {
+                    graph = applyTransformer(graph, transformer, queryMetaData);
+                }
+                return graph;
+            }
+        }
+
+        private Graph applyTransformer(Graph graph, AbstractTransformer transformer, QueryMetaData queryMetaData)
+        {
+            if(graph != null)
+            {
+                try
+                {
+                    graph = transformer.putGraph(graph, queryMetaData);
+                    if(graph != null)
                     {
-                        break;
+                        //commit after every transformer to enable reading without error
+                        graph.commitIndex();
                     }
                 }
+                catch(Exception ex)
+                {
+                    Logger.getLogger(QueryConnection.class.getName()).log(Level.SEVERE, "Error in applying transformer!", ex);
+                }
             }
             return graph;
         }
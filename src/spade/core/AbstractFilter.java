@@ -19,6 +19,10 @@
  */
 package spade.core;
 
+import java.util.concurrent.atomic.LongAdder;
+
+import spade.utility.profile.LatencyHistogram;
+
 /**
  * This is the base class for filters.
  *
@@ -27,6 +31,15 @@ package spade.core;
 public abstract class AbstractFilter {
 
     private AbstractFilter nextFilter;
+    // Time in this filter and the filters after it, and time in the filters after it. Null if metrics are disabled.
+    private final LatencyHistogram latency = Metrics.getHistogram(getMetricName());
+    private final LongAdder downstreamNanos = Metrics.getDownstreamCounter(getMetricName());
+    private final int sampleRate = Metrics.getSampleRate();
+    // Calls since the last timed one, separately for vertices and edges since they often alternate. Filters
+    // start at different counts so that timed calls are not nested. Not shared between threads except by
+    // accident, which is harmless.
+    private int vertexCalls = System.identityHashCode(this) % sampleRate, edgeCalls = vertexCalls;
+    private int entryVertexCalls = 0, entryEdgeCalls = 0;
     /**
      * The arguments that a specific filter instance is initialized with.
      */
@@ -51,6 +64,18 @@ public abstract class AbstractFilter {
         return true;
     }
 
+    /**
+     * Tells whether the filter gives the same output if the elements are split into partitions (by
+     * process for example) and each partition is passed to a different instance of the filter on a
+     * different thread. Such a filter keeps no state across partitions and does not modify elements
+     * that another partition can share. See FilterLanes.
+     *
+     * @return True if the filter can be replicated across partitions. False by default.
+     */
+    public boolean isPartitionSafe() {
+        return false;
+    }
+
     /**
      * This method is used by the Kernel for configuring the filter list.
      *
@@ -60,13 +85,27 @@ public abstract class AbstractFilter {
         nextFilter = next;
     }
 
+    /**
+     * @return The name of the metrics of this filter or null if not measured
+     */
+    String getMetricName() {
+        return "filter." + getClass().getSimpleName();
+    }
+
     /**
      * This method is called by the filters to send elements to the next filter.
      *
      * @param vertex The vertex to be sent to the next filter.
      */
     public final void putInNextFilter(AbstractVertex vertex) {
+        if ((downstreamNanos == null && nextFilter.latency == null) || ++vertexCalls < sampleRate) {
+            nextFilter.putVertex(vertex);
+            return;
+        }
+        vertexCalls = 0;
+        long start = System.nanoTime();
         nextFilter.putVertex(vertex);
+        record(System.nanoTime() - start);
     }
 
     /**
@@ -75,11 +114,59 @@ public abstract class AbstractFilter {
      * @param edge The edge to be sent to the next filter.
      */
     public final void putInNextFilter(AbstractEdge edge) {
+        if ((downstreamNanos == null && nextFilter.latency == null) || ++edgeCalls < sampleRate) {
+            nextFilter.putEdge(edge);
+            return;
+        }
+        edgeCalls = 0;
+        long start = System.nanoTime();
         nextFilter.putEdge(edge);
+        record(System.nanoTime() - start);
+    }
+
+    private void record(long nanos) {
+        if (downstreamNanos != null) {
+            downstreamNanos.add(nanos * sampleRate);
+        }
+        if (nextFilter.latency != null) {
+            nextFilter.latency.record(nanos, sampleRate);
+        }
+    }
+
+
+    /**
+     * Passes the vertex to the filter, measuring the time if metrics are enabled. Used where elements
+     * enter the filter list.
+     */
+    public static void putInFilter(AbstractFilter filter, AbstractVertex vertex) {
+        if (filter.latency == null || ++filter.entryVertexCalls < filter.sampleRate) {
+            filter.putVertex(vertex);
+            return;
+        }
+        filter.entryVertexCalls = 0;
+        long start = System.nanoTime();
+        filter.putVertex(vertex);
+        filter.latency.record(System.nanoTime() - start, filter.sampleRate);
+    }
+
+    /**
+     * Passes the edge to the filter, measuring the time if metrics are enabled. Used where elements
+     * enter the filter list.
+     */
+    public static void putInFilter(AbstractFilter filter, AbstractEdge edge) {
+        if (filter.latency == null || ++filter.entryEdgeCalls < filter.sampleRate) {
+            filter.putEdge(edge);
+            return;
+        }
+        filter.entryEdgeCalls = 0;
+        long start = System.nanoTime();
+        filter.putEdge(edge);
+        filter.latency.record(System.nanoTime() - start, filter.sampleRate);
     }
 
     /**
-     * This method is called when the filter receives a vertex.
+     * This method is called when the filter receives a vertex. The vertex can be shared with the reporter
+     * (a cached process vertex for example) so it must be copied before it is modified.
      *
      * @param incomingVertex The vertex received by this filter.
      */
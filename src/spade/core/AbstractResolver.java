@@ -18,6 +18,14 @@ package spade.core;
 
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * @author raza
@@ -29,9 +37,14 @@ public abstract class AbstractResolver implements Runnable
     public static final String DESTINATION_HOST = "destination_host";
     public static final String DESTINATION_PORT = "destination_port";
 
+    private static final int DEFAULT_RESOLVER_THREADS = 32;
+    private static ExecutorService executor;
+
     // fields required to fetch and return remote parts of result graph
     protected Set<Graph> finalGraph = new HashSet<>();
     protected Graph partialGraph;
+    // partial graph with the remote parts merged into it as they arrive
+    protected Graph resultGraph;
     protected int depth;
     protected String direction;
     protected String function;
@@ -39,6 +52,7 @@ public abstract class AbstractResolver implements Runnable
     protected AbstractResolver(Graph partialGraph, String function, int depth, String direction)
     {
         this.partialGraph = partialGraph;
+        this.resultGraph = partialGraph;
         this.function = function;
         this.depth = depth;
         this.direction = direction;
@@ -49,6 +63,61 @@ public abstract class AbstractResolver implements Runnable
         return finalGraph;
     }
 
+    /**
+     * Returns the partial graph merged, in place, with all the remote parts
+     * fetched so far.
+     *
+     * @return The merged result graph
+     */
+    public Graph getResultGraph()
+    {
+        return resultGraph;
+    }
+
+    /**
+     * Returns the executor shared by all the resolvers for contacting remote hosts.
+     * The number of threads is bounded by the 'resolver_threads' setting and idle
+     * threads exit after a minute.
+     *
+     * @return The shared executor
+     */
+    public static synchronized ExecutorService getExecutor()
+    {
+        if(executor == null)
+        {
+            int threads = DEFAULT_RESOLVER_THREADS;
+            String value = Settings.getProperty("resolver_threads");
+            if(value != null)
+            {
+                try
+                {
+                    threads = Math.max(1, Integer.parseInt(value.trim()));
+                }
+                catch(NumberFormatException ex)
+                {
+                    Logger.getLogger(AbstractResolver.class.getName()).log(Level.WARNING,
+                            "Invalid value for 'resolver_threads': " + value + ". Using default: " + threads);
+                }
+            }
+            ThreadPoolExecutor threadPool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+            {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable)
+                {
+                    Thread thread = new Thread(runnable, "Resolver-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            threadPool.allowCoreThreadTimeOut(true);
+            executor = threadPool;
+        }
+        return executor;
+    }
+
     @Override
     public abstract void run();
 }
@@ -21,6 +21,7 @@ package spade.core;
 
 import spade.query.scaffold.Scaffold;
 import spade.query.scaffold.ScaffoldFactory;
+import spade.utility.profile.LatencyHistogram;
 
 import java.io.FileInputStream;
 import java.util.HashSet;
@@ -69,6 +70,11 @@ public abstract class AbstractStorage
      * The number of edges that this storage instance has successfully received.
      */
     protected long edgeCount;
+    /**
+     * Time spent in putVertex and putEdge. Null if metrics are disabled.
+     */
+    private final LatencyHistogram vertexLatency = Metrics.getHistogram("storage." + getClass().getSimpleName() + ".putVertex");
+    private final LatencyHistogram edgeLatency = Metrics.getHistogram("storage." + getClass().getSimpleName() + ".putEdge");
 
     protected static Properties databaseConfigs = new Properties();
 
@@ -208,6 +214,16 @@ public abstract class AbstractStorage
         return vertexCount;
     }
 
+    public final LatencyHistogram getVertexLatency()
+    {
+        return vertexLatency;
+    }
+
+    public final LatencyHistogram getEdgeLatency()
+    {
+        return edgeLatency;
+    }
+
     /**
      * This method is triggered by the Kernel to flush transactions.
      *
@@ -368,8 +384,9 @@ public abstract class AbstractStorage
         Graph resultGraph = new Graph();
         for (Graph path: allPaths)
         {
-            resultGraph = Graph.union(resultGraph, path);
+            resultGraph.addAll(path);
         }
+        resultGraph.commitIndex();
 
 
         return resultGraph;
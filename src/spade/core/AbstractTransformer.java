@@ -43,6 +43,18 @@ public abstract class AbstractTransformer{
 
 	public abstract Graph putGraph(Graph graph, QueryMetaData digQueryParams);
 
+	/**
+	 * Transformers which work on each vertex and edge independently of the rest of the graph should return
+	 * their transformation as a view so that consecutive transformers can be applied in a single pass.
+	 *
+	 * @param queryMetaData meta data of the query that the graph is the result of
+	 * @return the view OR null if the transformer needs the whole graph (default)
+	 */
+	public GraphView getView(QueryMetaData queryMetaData)
+	{
+		return null;
+	}
+
 	public static String getAnnotationSafe(AbstractVertex vertex, String annotation)
 	{
 		if(vertex != null)
@@ -20,6 +20,7 @@
 package spade.core;
 
 import com.mysql.jdbc.StringUtils;
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.codec.digest.DigestUtils;
 
 import java.io.Serializable;
@@ -46,6 +47,13 @@ public abstract class AbstractVertex implements Serializable
      */
     protected Map<String, String> annotations = new TreeMap<>();
 
+    /**
+     * MD5 digest and hash code of the annotations computed on first use. Reset by the methods of this class
+     * which change the annotations but not by changes made directly to the map of annotations.
+     */
+    private transient byte[] bigHashCodeBytes;
+    private transient int hashCode;
+
     /**
      * An integer indicating the depth of the vertex in the graph
      */
@@ -93,6 +101,7 @@ public abstract class AbstractVertex implements Serializable
                 value = "";
             }
             annotations.put(key, value);
+            resetHashCodes();
         }
     }
 
@@ -126,7 +135,18 @@ public abstract class AbstractVertex implements Serializable
      * existed.
      */
     public final String removeAnnotation(String key) {
-        return annotations.remove(key);
+        String value = annotations.remove(key);
+        if(value != null)
+        {
+            resetHashCodes();
+        }
+        return value;
+    }
+
+    private void resetHashCodes()
+    {
+        bigHashCodeBytes = null;
+        hashCode = 0;
     }
 
     /**
@@ -155,7 +175,7 @@ public abstract class AbstractVertex implements Serializable
      */
     public String bigHashCode()
     {
-        return DigestUtils.md5Hex(this.toString());
+        return Hex.encodeHexString(digest());
     }
 
 
@@ -165,7 +185,18 @@ public abstract class AbstractVertex implements Serializable
      */
     public byte[] bigHashCodeBytes()
     {
-        return DigestUtils.md5(this.toString());
+        return digest().clone();
+    }
+
+    private byte[] digest()
+    {
+        byte[] digest = bigHashCodeBytes;
+        if(digest == null)
+        {
+            digest = DigestUtils.md5(this.toString());
+            bigHashCodeBytes = digest;
+        }
+        return digest;
     }
 
     public boolean isCompleteNetworkVertex()
@@ -201,9 +232,13 @@ public abstract class AbstractVertex implements Serializable
      */
     @Override
 	public int hashCode(){
-		final int prime = 31;
-		int result = 1;
-		result = prime * result + ((annotations == null) ? 0 : annotations.hashCode());
+		int result = hashCode;
+		if(result == 0){
+			final int prime = 31;
+			result = 1;
+			result = prime * result + ((annotations == null) ? 0 : annotations.hashCode());
+			hashCode = result;
+		}
 		return result;
 	}
 
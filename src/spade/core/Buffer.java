@@ -21,6 +21,7 @@ package spade.core;
 
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * This is the buffer class which is used by reporters to send provenance
@@ -31,6 +32,8 @@ import java.util.concurrent.ConcurrentLinkedQueue;
 public class Buffer {
 
     private final Queue<Object> queue;
+    // Number of elements in the queue since the size of the queue takes a traversal
+    private final LongAdder depth = new LongAdder();
 
     /**
      * Empty constructor for this class.
@@ -50,6 +53,7 @@ public class Buffer {
         if (incomingVertex == null) {
             return false;
         } else {
+            depth.increment();
             return queue.add(incomingVertex);
         }
     }
@@ -66,6 +70,7 @@ public class Buffer {
                 || (incomingEdge.getParentVertex() == null)) {
             return false;
         } else {
+            depth.increment();
             return queue.add(incomingEdge);
         }
     }
@@ -76,7 +81,11 @@ public class Buffer {
      * @return The provenance element from the head of the queue.
      */
     public Object getBufferElement() {
-        return queue.poll();
+        Object element = queue.poll();
+        if (element != null) {
+            depth.decrement();
+        }
+        return element;
     }
 
     /**
@@ -95,6 +104,6 @@ public class Buffer {
      * @return the number of elements in the buffer
      */
     public int size() {
-        return queue.size();
+        return (int) Math.max(0, depth.sum());
     }
 }
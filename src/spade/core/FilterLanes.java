@@ -0,0 +1,685 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2017 SRI International
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.core;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import spade.filter.FinalCommitFilter;
+
+/**
+ * Runs the leading filters of the filter list on several lanes, each with its own thread and its own
+ * instances of the filters.
+ *
+ * The leading filters are the ones before the first filter that is not partition safe (see
+ * AbstractFilter.isPartitionSafe). The rest of the list, including the FinalCommitFilter and therefore
+ * the storages, runs on the thread that calls drain (the main thread of the Kernel) in the order in
+ * which the lanes output the elements.
+ *
+ * Elements are assigned to lanes by the value of the partition key annotation: of the vertex, or of the
+ * child vertex of an edge and else of the parent vertex. A vertex without the key goes to the lane of the
+ * previous element. An edge whose vertices have no key goes to the lane of its child vertex if that is
+ * still in a lane, else of its parent vertex, else of the previous element.
+ *
+ * The order of elements is kept within a lane. Across lanes, an edge is passed on only after its vertices:
+ * an edge put while one of its vertices is still in another lane waits (draining the output meanwhile)
+ * until that lane has passed the vertex on. E.g. an Audit artifact vertex has no pid and can be in a
+ * different lane than the edge from the process which used it.
+ *
+ * Enabled with the 'filter_lanes' setting in the Kernel config. 'filter_partition_key' sets the key
+ * (default 'pid') and 'filter_lane_capacity' the number of elements queued per lane.
+ *
+ * Elements are put by one thread. Draining and shutting down can be called from any thread.
+ */
+public class FilterLanes
+{
+    private static final Logger logger = Logger.getLogger(FilterLanes.class.getName());
+
+    private static final String DEFAULT_PARTITION_KEY = "pid";
+    private static final int DEFAULT_LANE_CAPACITY = 10000;
+    private static final long OFFER_WAIT_MILLIS = 1;
+    private static final Object STOP = new Object();
+
+    private final int laneCount;
+    private final String partitionKey;
+    private final int laneCapacity;
+    private final BlockingQueue<Object> output;
+
+    private volatile Lane[] lanes;
+    // Filters in the lanes, by class name. The instances in the filter list are not used.
+    private final List<String> laneFilterNames = new ArrayList<>();
+    // The first filter after the lanes
+    private AbstractFilter tail;
+    private volatile boolean reconfigure = true;
+    private int previousLane = 0;
+    private boolean stopped = false;
+    // Vertices put which may still be in a lane by identity: lane index and position in the lane
+    private final Map<AbstractVertex, long[]> vertexPositions = new IdentityHashMap<>();
+
+    private long tailElements = 0, tailNanos = 0;
+    private long errors = 0;
+
+    public FilterLanes(int laneCount, String partitionKey, int laneCapacity)
+    {
+        this.laneCount = laneCount;
+        this.partitionKey = partitionKey;
+        this.laneCapacity = laneCapacity;
+        this.output = new ArrayBlockingQueue<>(laneCapacity * laneCount);
+    }
+
+    /**
+     * @return The lanes configured in the Kernel settings or null if 'filter_lanes' is not more than 1
+     */
+    public static FilterLanes fromSettings()
+    {
+        int laneCount = getSetting("filter_lanes", 1);
+        if(laneCount <= 1)
+        {
+            return null;
+        }
+        String partitionKey = Settings.getProperty("filter_partition_key");
+        if(partitionKey == null || partitionKey.trim().isEmpty())
+        {
+            partitionKey = DEFAULT_PARTITION_KEY;
+        }
+        int laneCapacity = Math.max(1, getSetting("filter_lane_capacity", DEFAULT_LANE_CAPACITY));
+        logger.log(Level.INFO, "Filter lanes: " + laneCount + ", partition key: " + partitionKey.trim()
+                + ", lane capacity: " + laneCapacity);
+        return new FilterLanes(laneCount, partitionKey.trim(), laneCapacity);
+    }
+
+    private static int getSetting(String name, int defaultValue)
+    {
+        String value = Settings.getProperty(name);
+        if(value != null)
+        {
+            try
+            {
+                return Integer.parseInt(value.trim());
+            }
+            catch(NumberFormatException ex)
+            {
+                logger.log(Level.WARNING, "Invalid value for '" + name + "': " + value + ". Using default: " + defaultValue);
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Marks the lanes to be rebuilt from the filter list on the next call to configure.
+     */
+    public void reconfigure()
+    {
+        reconfigure = true;
+    }
+
+    /**
+     * Rebuilds the lanes if the filter list changed. The elements already in the lanes are passed on
+     * first with the previous filters.
+     *
+     * @param filters The filter list of the Kernel ending with the FinalCommitFilter
+     */
+    public synchronized void configure(List<AbstractFilter> filters)
+    {
+        if(!reconfigure || stopped)
+        {
+            return;
+        }
+        reconfigure = false;
+        stopLanes();
+
+        List<AbstractFilter> safeFilters = new ArrayList<>();
+        synchronized(filters)
+        {
+            for(AbstractFilter filter : filters)
+            {
+                if(filter instanceof FinalCommitFilter || !filter.isPartitionSafe())
+                {
+                    tail = filter;
+                    break;
+                }
+                safeFilters.add(filter);
+            }
+        }
+        laneFilterNames.clear();
+        if(safeFilters.isEmpty())
+        {
+            logger.log(Level.INFO, "No partition safe filters at the start of the filter list. Filter lanes not used");
+            return;
+        }
+        for(AbstractFilter filter : safeFilters)
+        {
+            laneFilterNames.add(filter.getClass().getSimpleName());
+        }
+
+        Lane[] newLanes = new Lane[laneCount];
+        for(int i = 0; i < laneCount; i++)
+        {
+            List<AbstractFilter> replicas = new ArrayList<>();
+            for(AbstractFilter filter : safeFilters)
+            {
+                AbstractFilter replica = replicate(filter);
+                if(replica == null)
+                {
+                    for(int j = 0; j < i; j++)
+                    {
+                        newLanes[j].shutdownFilters();
+                    }
+                    shutdown(replicas);
+                    logger.log(Level.SEVERE, "Filter lanes not used");
+                    return;
+                }
+                replicas.add(replica);
+            }
+            newLanes[i] = new Lane(i, replicas);
+        }
+        lanes = newLanes;
+        for(Lane lane : lanes)
+        {
+            lane.thread.start();
+        }
+        logger.log(Level.INFO, "Filter lanes: " + laneCount + ", filters in lanes: " + laneFilterNames);
+    }
+
+    private static AbstractFilter replicate(AbstractFilter filter)
+    {
+        try
+        {
+            AbstractFilter replica = filter.getClass().getDeclaredConstructor().newInstance();
+            if(!replica.initialize(filter.arguments))
+            {
+                logger.log(Level.SEVERE, "Failed to initialize filter for lane: " + filter.getClass().getName());
+                return null;
+            }
+            replica.arguments = filter.arguments;
+            return replica;
+        }
+        catch(ReflectiveOperationException ex)
+        {
+            logger.log(Level.SEVERE, "Failed to create filter for lane: " + filter.getClass().getName(), ex);
+            return null;
+        }
+    }
+
+    private static void shutdown(List<AbstractFilter> filters)
+    {
+        for(AbstractFilter filter : filters)
+        {
+            filter.shutdown();
+        }
+    }
+
+    public synchronized boolean isActive()
+    {
+        return lanes != null;
+    }
+
+    /**
+     * Passes the element to its lane. Blocks while the lane is full, passing on the output of the
+     * lanes meanwhile.
+     *
+     * @param element A vertex or an edge
+     * @param filters The filter list of the Kernel, used when no lanes are running
+     */
+    public synchronized void put(Object element, List<AbstractFilter> filters)
+    {
+        if(lanes == null)
+        {
+            AbstractFilter first = filters.get(0);
+            if(element instanceof AbstractVertex)
+            {
+                AbstractFilter.putInFilter(first, (AbstractVertex) element);
+            }
+            else if(element instanceof AbstractEdge)
+            {
+                AbstractFilter.putInFilter(first, (AbstractEdge) element);
+            }
+            return;
+        }
+        Lane lane = lanes[selectLane(element)];
+        if(element instanceof AbstractEdge)
+        {
+            AbstractEdge edge = (AbstractEdge) element;
+            awaitVertex(edge.getChildVertex(), lane);
+            awaitVertex(edge.getParentVertex(), lane);
+        }
+        lane.dispatched++;
+        if(element instanceof AbstractVertex)
+        {
+            trackVertex((AbstractVertex) element, lane);
+        }
+        try
+        {
+            while(!lane.queue.offer(element))
+            {
+                if(drain() == 0)
+                {
+                    if(lane.queue.offer(element, OFFER_WAIT_MILLIS, TimeUnit.MILLISECONDS))
+                    {
+                        break;
+                    }
+                }
+            }
+        }
+        catch(InterruptedException ex)
+        {
+            lane.dispatched--;
+            if(element instanceof AbstractVertex)
+            {
+                vertexPositions.remove(element);
+            }
+            Thread.currentThread().interrupt();
+            logger.log(Level.WARNING, "Interrupted while passing element to lane " + lane.index);
+        }
+    }
+
+    private int selectLane(Object element)
+    {
+        String value = null;
+        if(element instanceof AbstractVertex)
+        {
+            value = ((AbstractVertex) element).getAnnotation(partitionKey);
+        }
+        else if(element instanceof AbstractEdge)
+        {
+            AbstractEdge edge = (AbstractEdge) element;
+            if(edge.getChildVertex() != null)
+            {
+                value = edge.getChildVertex().getAnnotation(partitionKey);
+            }
+            if(value == null && edge.getParentVertex() != null)
+            {
+                value = edge.getParentVertex().getAnnotation(partitionKey);
+            }
+            if(value == null)
+            {
+                long[] position = getPendingPosition(edge.getChildVertex());
+                if(position == null)
+                {
+                    position = getPendingPosition(edge.getParentVertex());
+                }
+                if(position != null)
+                {
+                    previousLane = (int) position[0];
+                }
+            }
+        }
+        if(value != null)
+        {
+            previousLane = (value.hashCode() & Integer.MAX_VALUE) % lanes.length;
+        }
+        return previousLane;
+    }
+
+    // Lane and position of the vertex if it has not been passed on by its lane yet, else null
+    private long[] getPendingPosition(AbstractVertex vertex)
+    {
+        long[] position = vertex == null ? null : vertexPositions.get(vertex);
+        if(position != null && lanes[(int) position[0]].completed >= position[1])
+        {
+            vertexPositions.remove(vertex);
+            return null;
+        }
+        return position;
+    }
+
+    private void trackVertex(AbstractVertex vertex, Lane lane)
+    {
+        // At most the elements in the lanes are pending so the rest can be dropped
+        if(vertexPositions.size() >= laneCapacity * laneCount * 2)
+        {
+            Iterator<long[]> iterator = vertexPositions.values().iterator();
+            while(iterator.hasNext())
+            {
+                long[] position = iterator.next();
+                if(lanes[(int) position[0]].completed >= position[1])
+                {
+                    iterator.remove();
+                }
+            }
+        }
+        vertexPositions.put(vertex, new long[]{lane.index, lane.dispatched});
+    }
+
+    // Waits until the vertex is passed on if it is in a lane other than the given one
+    private void awaitVertex(AbstractVertex vertex, Lane lane)
+    {
+        long[] position = getPendingPosition(vertex);
+        if(position == null || position[0] == lane.index)
+        {
+            return;
+        }
+        Lane vertexLane = lanes[(int) position[0]];
+        while(vertexLane.completed < position[1])
+        {
+            if(drain() == 0)
+            {
+                Thread.yield();
+            }
+        }
+        vertexPositions.remove(vertex);
+    }
+
+    /**
+     * Passes the elements output by the lanes to the rest of the filter list.
+     *
+     * @return The number of elements passed
+     */
+    public synchronized int drain()
+    {
+        int count = 0;
+        Object element;
+        while((element = output.poll()) != null)
+        {
+            long start = System.nanoTime();
+            try
+            {
+                if(element instanceof AbstractVertex)
+                {
+                    AbstractFilter.putInFilter(tail, (AbstractVertex) element);
+                }
+                else
+                {
+                    AbstractFilter.putInFilter(tail, (AbstractEdge) element);
+                }
+            }
+            catch(Exception ex)
+            {
+                errors++;
+                logger.log(Level.SEVERE, "Error in filter after lanes", ex);
+            }
+            tailNanos += System.nanoTime() - start;
+            tailElements++;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return True if all the elements put have been passed on by drain
+     */
+    public synchronized boolean isIdle()
+    {
+        if(lanes != null)
+        {
+            for(Lane lane : lanes)
+            {
+                if(lane.completed != lane.dispatched)
+                {
+                    return false;
+                }
+            }
+        }
+        return output.isEmpty();
+    }
+
+    private synchronized void stopLanes()
+    {
+        if(lanes == null)
+        {
+            return;
+        }
+        while(!isIdle())
+        {
+            if(drain() == 0)
+            {
+                Thread.yield();
+            }
+        }
+        logger.log(Level.INFO, getStatistics());
+        for(Lane lane : lanes)
+        {
+            lane.queue.add(STOP);
+        }
+        for(Lane lane : lanes)
+        {
+            try
+            {
+                lane.thread.join();
+            }
+            catch(InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+                logger.log(Level.WARNING, "Interrupted while stopping lane " + lane.index);
+            }
+            lane.shutdownFilters();
+        }
+        lanes = null;
+        vertexPositions.clear();
+    }
+
+    /**
+     * Passes on the elements in the lanes, stops the lane threads and shuts down the filters in the lanes.
+     * Elements put later go to the filter list directly. Can be called more than once.
+     */
+    public synchronized void shutdown()
+    {
+        stopped = true;
+        stopLanes();
+    }
+
+    public String getStatistics()
+    {
+        Lane[] currentLanes = lanes;
+        if(currentLanes == null)
+        {
+            return "Filter lanes: not running";
+        }
+        StringBuilder statistics = new StringBuilder();
+        long total = 0, max = 0;
+        long[] filterNanos = new long[laneFilterNames.size() + 1];
+        statistics.append("Filter lanes: ").append(currentLanes.length).append(" (key '").append(partitionKey).append("')");
+        statistics.append(", elements per lane: [");
+        for(int i = 0; i < currentLanes.length; i++)
+        {
+            long elements = currentLanes[i].completed;
+            total += elements;
+            max = Math.max(max, elements);
+            statistics.append(i == 0 ? "" : ", ").append(elements);
+            currentLanes[i].addFilterNanos(filterNanos);
+        }
+        statistics.append("], busy ms per lane: [");
+        for(int i = 0; i < currentLanes.length; i++)
+        {
+            statistics.append(i == 0 ? "" : ", ").append(currentLanes[i].busyNanos / 1000000);
+        }
+        double mean = (double) total / currentLanes.length;
+        statistics.append(String.format("], imbalance (max/mean): %.2f", mean == 0 ? 1.0 : max / mean));
+        statistics.append(", ms in lanes by filter: {");
+        for(int i = 0; i < laneFilterNames.size(); i++)
+        {
+            statistics.append(i == 0 ? "" : ", ").append(laneFilterNames.get(i)).append("=").append(filterNanos[i] / 1000000);
+        }
+        statistics.append(", output=").append(filterNanos[laneFilterNames.size()] / 1000000);
+        statistics.append("}, after lanes: ").append(tailElements).append(" elements in ").append(tailNanos / 1000000).append(" ms");
+        statistics.append(", errors: ").append(errors);
+        for(Lane lane : currentLanes)
+        {
+            statistics.append(lane.errors == 0 ? "" : ", errors in lane " + lane.index + ": " + lane.errors);
+        }
+        return statistics.toString();
+    }
+
+    /**
+     * Measures the time from a filter to the end of the lane. The time of a filter alone is the difference
+     * with the next probe.
+     */
+    private static class Probe extends AbstractFilter
+    {
+        private volatile long nanos = 0;
+
+        @Override
+        String getMetricName()
+        {
+            return null;
+        }
+
+        @Override
+        public void putVertex(AbstractVertex incomingVertex)
+        {
+            long start = System.nanoTime();
+            putInNextFilter(incomingVertex);
+            nanos += System.nanoTime() - start;
+        }
+
+        @Override
+        public void putEdge(AbstractEdge incomingEdge)
+        {
+            long start = System.nanoTime();
+            putInNextFilter(incomingEdge);
+            nanos += System.nanoTime() - start;
+        }
+    }
+
+    private class Output extends AbstractFilter
+    {
+        @Override
+        String getMetricName()
+        {
+            return null;
+        }
+
+        @Override
+        public void putVertex(AbstractVertex incomingVertex)
+        {
+            put(incomingVertex);
+        }
+
+        @Override
+        public void putEdge(AbstractEdge incomingEdge)
+        {
+            put(incomingEdge);
+        }
+
+        private void put(Object element)
+        {
+            try
+            {
+                output.put(element);
+            }
+            catch(InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+                logger.log(Level.WARNING, "Interrupted while passing element from lane. Element dropped", ex);
+            }
+        }
+    }
+
+    private class Lane implements Runnable
+    {
+        private final int index;
+        private final BlockingQueue<Object> queue;
+        private final List<AbstractFilter> filters;
+        // One probe before each filter and one before the output
+        private final List<Probe> probes = new ArrayList<>();
+        private final Thread thread;
+
+        // Written by the thread that puts elements
+        private volatile long dispatched = 0;
+        // Written by the lane thread
+        private volatile long completed = 0;
+        private volatile long busyNanos = 0;
+        private volatile long errors = 0;
+
+        private Lane(int index, List<AbstractFilter> filters)
+        {
+            this.index = index;
+            this.queue = new ArrayBlockingQueue<>(laneCapacity);
+            this.filters = filters;
+            for(AbstractFilter filter : filters)
+            {
+                Probe probe = new Probe();
+                if(!probes.isEmpty())
+                {
+                    this.filters.get(probes.size() - 1).setNextFilter(probe);
+                }
+                probe.setNextFilter(filter);
+                probes.add(probe);
+            }
+            Probe outputProbe = new Probe();
+            filters.get(filters.size() - 1).setNextFilter(outputProbe);
+            outputProbe.setNextFilter(new Output());
+            probes.add(outputProbe);
+            this.thread = new Thread(this, "FilterLane-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run()
+        {
+            AbstractFilter first = probes.get(0);
+            while(true)
+            {
+                Object element;
+                try
+                {
+                    element = queue.take();
+                }
+                catch(InterruptedException ex)
+                {
+                    logger.log(Level.WARNING, "Lane " + index + " interrupted", ex);
+                    return;
+                }
+                if(element == STOP)
+                {
+                    return;
+                }
+                long start = System.nanoTime();
+                try
+                {
+                    if(element instanceof AbstractVertex)
+                    {
+                        first.putVertex((AbstractVertex) element);
+                    }
+                    else
+                    {
+                        first.putEdge((AbstractEdge) element);
+                    }
+                }
+                catch(Exception ex)
+                {
+                    errors++;
+                    logger.log(Level.SEVERE, "Error in filter in lane " + index, ex);
+                }
+                busyNanos += System.nanoTime() - start;
+                completed++;
+            }
+        }
+
+        private void addFilterNanos(long[] filterNanos)
+        {
+            for(int i = 0; i < filters.size(); i++)
+            {
+                filterNanos[i] += probes.get(i).nanos - probes.get(i + 1).nanos;
+            }
+            filterNanos[filters.size()] += probes.get(filters.size()).nanos;
+        }
+
+        private void shutdownFilters()
+        {
+            shutdown(filters);
+        }
+    }
+}
@@ -390,30 +390,69 @@ public class Graph extends AbstractStorage implements Serializable
     public static Graph union(Graph graph1, Graph graph2)
     {
         Graph resultGraph = new Graph();
-        Set<AbstractVertex> vertices = new HashSet<>();
-        Set<AbstractEdge> edges = new HashSet<>();
+        resultGraph.addAll(graph1);
+        resultGraph.addAll(graph2);
+        resultGraph.commitIndex();
 
-        vertices.addAll(graph1.vertexSet());
-        vertices.addAll(graph2.vertexSet());
-        edges.addAll(graph1.edgeSet());
-        edges.addAll(graph2.edgeSet());
+        return resultGraph;
+    }
 
-        for (AbstractVertex vertex : vertices)
+    /**
+     * This method is used to merge the given graph into this graph in place.
+     * Vertices and edges already present in this graph are skipped and the
+     * network maps are merged. Only the given graph is traversed so merging
+     * many graphs into one is linear in their total size.
+     *
+     * The index is not committed. Call commitIndex when done merging.
+     *
+     * @param graph The graph to merge into this graph
+     * @return The number of vertices and edges added to this graph
+     */
+    public int addAll(Graph graph)
+    {
+        if (graph == null || graph == this)
         {
-            resultGraph.putVertex(vertex);
+            return 0;
         }
-        for (AbstractEdge edge : edges)
+        int added = 0;
+        for (AbstractVertex vertex : graph.vertexSet())
         {
-            resultGraph.putEdge(edge);
+            if (!reverseVertexIdentifiers.containsKey(vertex))
+            {
+                // Reuse the hash computed by the other graph
+                String hashCode = graph.getHash(vertex);
+                if (hashCode == null)
+                {
+                    hashCode = vertex.bigHashCode();
+                }
+                vertexIdentifiers.put(hashCode, vertex);
+                reverseVertexIdentifiers.put(vertex, hashCode);
+                vertexSet.add(vertex);
+                serial_number++;
+                added++;
+            }
+        }
+        for (AbstractEdge edge : graph.edgeSet())
+        {
+            if (!reverseEdgeIdentifiers.containsKey(edge))
+            {
+                String hashCode = graph.getHash(edge);
+                if (hashCode == null)
+                {
+                    hashCode = edge.getChildVertex().bigHashCode() + edge.getParentVertex().bigHashCode();
+                }
+                edgeIdentifiers.put(hashCode, edge);
+                reverseEdgeIdentifiers.put(edge, hashCode);
+                edgeSet.add(edge);
+                serial_number++;
+                added++;
+            }
         }
 
-        // adding network maps
-        resultGraph.networkMap.putAll(graph1.networkMap());
-        resultGraph.networkMap.putAll(graph2.networkMap());
-
-        resultGraph.commitIndex();
+        // adding network map
+        networkMap.putAll(graph.networkMap());
 
-        return resultGraph;
+        return added;
     }
 
     /**
@@ -0,0 +1,245 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2015 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.core;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A lazy view of a graph for transformations which can be applied on each vertex and edge independently
+ * of the rest of the graph i.e. filters, annotation projections and vertex merges (vertices which become
+ * equal after a projection are merged when the graph is materialized).
+ *
+ * A chain of views is applied in a single pass over the graph by {@link #materialize(Graph, List)} which
+ * copies each vertex and edge only once and builds only the final graph.
+ */
+public abstract class GraphView
+{
+
+	/**
+	 * Applies the view on the vertex.
+	 *
+	 * The given vertex is shared and must not be modified. Return a new vertex if the annotations need to change
+	 * (see {@link #withoutAnnotations(AbstractVertex, String...)} and {@link #withAnnotation(AbstractVertex, String, String)}).
+	 *
+	 * @param vertex vertex as seen by this view
+	 * @return the vertex after the view (the same vertex if unchanged) OR null to remove it (and its edges)
+	 */
+	public AbstractVertex viewVertex(AbstractVertex vertex)
+	{
+		return vertex;
+	}
+
+	/**
+	 * Applies the view on the edge in place.
+	 *
+	 * The annotations of the edge can be modified. The end points of the edge are the vertices as seen by this
+	 * view and must not be modified.
+	 *
+	 * @param edge edge as seen by this view
+	 * @return false to remove the edge
+	 */
+	public boolean viewEdge(AbstractEdge edge)
+	{
+		return true;
+	}
+
+	/**
+	 * @return true if vertices which are not end points of any edge are kept by this view
+	 */
+	public boolean keepsUnconnectedVertices()
+	{
+		return false;
+	}
+
+	/**
+	 * Copy-on-write removal of annotations.
+	 *
+	 * @param vertex vertex to remove the annotations from
+	 * @param annotations annotation keys to remove
+	 * @return the same vertex if none of the annotations exist otherwise a new vertex without the annotations
+	 */
+	public static AbstractVertex withoutAnnotations(AbstractVertex vertex, String... annotations)
+	{
+		if(annotations != null)
+		{
+			for(String annotation : annotations)
+			{
+				if(vertex.getAnnotation(annotation) != null)
+				{
+					return AbstractTransformer.createNewWithoutAnnotations(vertex, annotations);
+				}
+			}
+		}
+		return vertex;
+	}
+
+	/**
+	 * Copy-on-write addition of an annotation.
+	 *
+	 * @param vertex vertex to add the annotation to
+	 * @param key annotation key
+	 * @param value annotation value
+	 * @return the same vertex if the annotation already has the value otherwise a new vertex with the annotation
+	 */
+	public static AbstractVertex withAnnotation(AbstractVertex vertex, String key, String value)
+	{
+		if(value == null ? vertex.getAnnotation(key) == null : value.equals(vertex.getAnnotation(key)))
+		{
+			return vertex;
+		}
+		AbstractVertex newVertex = AbstractTransformer.createNewWithoutAnnotations(vertex);
+		newVertex.addAnnotation(key, value);
+		return newVertex;
+	}
+
+	public static Graph materialize(Graph graph, GraphView... views)
+	{
+		return materialize(graph, Arrays.asList(views));
+	}
+
+	/**
+	 * Applies the given views, in order, on the graph and builds the resulting graph.
+	 *
+	 * The result is the same as applying the views one at a time, materializing a graph after each, because
+	 * the vertices and edges are seen by each view exactly as the previous views left them.
+	 *
+	 * @param graph the graph to apply the views on
+	 * @param views views to apply in order
+	 * @return the final graph
+	 */
+	public static Graph materialize(Graph graph, List<GraphView> views)
+	{
+		final int stages = views.size();
+		/*
+		 * The last view that drops unconnected vertices. Vertices must be end points of edges which survive
+		 * till that view to be in the final graph.
+		 */
+		int lastConnectedStage = -1;
+		for(int stage = 0; stage < stages; stage++)
+		{
+			if(!views.get(stage).keepsUnconnectedVertices())
+			{
+				lastConnectedStage = stage;
+			}
+		}
+
+		// Original vertex (by identity because the same instance is the end point of many edges) to its views
+		Map<AbstractVertex, AbstractVertex[]> vertexViews = new IdentityHashMap<>();
+		Graph resultGraph = new Graph();
+
+		if(lastConnectedStage == -1)
+		{
+			for(AbstractVertex vertex : graph.vertexSet())
+			{
+				AbstractVertex finalVertex = getVertexViews(vertex, views, vertexViews)[stages];
+				if(finalVertex != null)
+				{
+					resultGraph.putVertex(finalVertex);
+				}
+			}
+		}
+
+		for(AbstractEdge edge : graph.edgeSet())
+		{
+			if(edge == null || edge.getChildVertex() == null || edge.getParentVertex() == null)
+			{
+				continue;
+			}
+			AbstractVertex[] childViews = getVertexViews(edge.getChildVertex(), views, vertexViews);
+			AbstractVertex[] parentViews = getVertexViews(edge.getParentVertex(), views, vertexViews);
+			AbstractEdge edgeView = createEdgeView(edge, childViews[0], parentViews[0]);
+			int stage = 0;
+			for(; stage < stages; stage++)
+			{
+				AbstractVertex childView = childViews[stage + 1];
+				AbstractVertex parentView = parentViews[stage + 1];
+				if(childView == null || parentView == null)
+				{
+					break;
+				}
+				edgeView.setChildVertex(childView);
+				edgeView.setParentVertex(parentView);
+				if(!views.get(stage).viewEdge(edgeView))
+				{
+					break;
+				}
+			}
+			if(stage == stages)
+			{
+				resultGraph.putVertex(edgeView.getChildVertex());
+				resultGraph.putVertex(edgeView.getParentVertex());
+				resultGraph.putEdge(edgeView);
+			}
+			else if(stage > lastConnectedStage)
+			{
+				// Removed after the last view that drops unconnected vertices so the end points stay
+				putVertexIfNotNull(resultGraph, childViews[stages]);
+				putVertexIfNotNull(resultGraph, parentViews[stages]);
+			}
+		}
+
+		return resultGraph;
+	}
+
+	private static void putVertexIfNotNull(Graph graph, AbstractVertex vertex)
+	{
+		if(vertex != null)
+		{
+			graph.putVertex(vertex);
+		}
+	}
+
+	/**
+	 * The views of the vertex are computed once and shared by all the edges incident on it.
+	 *
+	 * @return array where index 0 is the vertex before the first view and index i is the vertex after view i.
+	 * Null from the view where the vertex was removed.
+	 */
+	private static AbstractVertex[] getVertexViews(AbstractVertex vertex, List<GraphView> views,
+			Map<AbstractVertex, AbstractVertex[]> vertexViews)
+	{
+		AbstractVertex[] stageViews = vertexViews.get(vertex);
+		if(stageViews == null)
+		{
+			stageViews = new AbstractVertex[views.size() + 1];
+			// The only copy of the vertex. Rest of the views copy only if they change it.
+			stageViews[0] = AbstractTransformer.createNewWithoutAnnotations(vertex);
+			for(int stage = 0; stage < views.size() && stageViews[stage] != null; stage++)
+			{
+				stageViews[stage + 1] = views.get(stage).viewVertex(stageViews[stage]);
+			}
+			vertexViews.put(vertex, stageViews);
+		}
+		return stageViews;
+	}
+
+	private static AbstractEdge createEdgeView(AbstractEdge edge, AbstractVertex childVertex, AbstractVertex parentVertex)
+	{
+		AbstractEdge edgeView = new Edge(childVertex, parentVertex);
+		edgeView.addAnnotations(edge.getAnnotations());
+		edgeView.removeAnnotation(AbstractStorage.PARENT_VERTEX_KEY);
+		edgeView.removeAnnotation(AbstractStorage.CHILD_VERTEX_KEY);
+		edgeView.removeAnnotation(AbstractStorage.PRIMARY_KEY);
+		return edgeView;
+	}
+}
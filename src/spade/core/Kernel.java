@@ -144,6 +144,10 @@ public class Kernel
      * Set of filters active on the local SPADE instance.
      */
     private static List<AbstractFilter> filters;
+    /**
+     * Runs the leading filters on several threads if enabled in the settings. Null otherwise.
+     */
+    private static FilterLanes filterLanes;
     /**
      * Set of transformers active on the local SPADE instance.
      */
@@ -192,6 +196,8 @@ public class Kernel
     private static final int FIRST_FILTER = 0;
     private static final Logger logger = Logger.getLogger(Kernel.class.getName());
     private static boolean ANDROID_PLATFORM = false;
+    // Started in-process by startHeadless instead of main
+    private static boolean HEADLESS = false;
 
     /**
      * Strings for control client
@@ -201,7 +207,7 @@ public class Kernel
     private static final String ADD_ANALYZER_SKETCH_STRING = "add analyzer|sketch <class name>";
     private static final String REMOVE_REPORTER_STORAGE_SKETCH_ANALYZER_STRING = "remove reporter|analyzer|storage|sketch <class name>";
     private static final String REMOVE_FILTER_TRANSFORMER_STRING = "remove filter|transformer <position number>";
-    private static final String LIST_STRING = "list reporters|storages|analyzers|filters|sketches|transformers|all";
+    private static final String LIST_STRING = "list reporters|storages|analyzers|filters|sketches|transformers|metrics|all";
     private static final String CONFIG_STRING = "config load|save <filename>";
     public static final String EXIT_STRING = "exit";
 
@@ -273,6 +279,18 @@ public class Kernel
         configCommand("config load " + CONFIG_FILE, NullStream.out);
     }
 
+    /**
+     * Starts SPADE in the calling JVM without the control connection, the keystores and the configuration
+     * file. Modules are added with executeCommand or addReporter and SPADE is stopped with shutdown, which
+     * does not save the configuration or delete the PID file. Used to benchmark SPADE end to end.
+     */
+    public static void startHeadless()
+    {
+        HEADLESS = true;
+        initializeObjects();
+        registerMainThread();
+    }
+
     private static void setupKeyStores() throws Exception
     {
         String KEYSTORE_PATH = CONFIG_PATH + FILE_SEPARATOR + "ssl";
@@ -336,6 +354,8 @@ public class Kernel
         storages = Collections.synchronizedSet(new HashSet<AbstractStorage>());
         transformers = Collections.synchronizedList(new LinkedList<AbstractTransformer>());
         filters = Collections.synchronizedList(new LinkedList<AbstractFilter>());
+        // Before any filter or storage is created so that they are measured
+        Metrics.initialize(filters);
         sketches = Collections.synchronizedSet(new HashSet<AbstractSketch>());
         remoteSketches = Collections.synchronizedMap(new HashMap<String, AbstractSketch>());
         serverSockets = Collections.synchronizedList(new LinkedList<ServerSocket>());
@@ -355,6 +375,7 @@ public class Kernel
         commitFilter.storages = storages;
         commitFilter.sketches = sketches;
         filters.add(commitFilter);
+        filterLanes = FilterLanes.fromSettings();
 
         // The final transformer is used to send vertex and edge objects to
         // their corresponding result Graph.
@@ -422,6 +443,10 @@ public class Kernel
                             }
                         }
 
+                        if (filterLanes != null)
+                        {
+                            filterLanes.configure(filters);
+                        }
                         for (AbstractReporter reporter : reporters)
                         {
                             // This loop performs the actual task of committing provenance data to
@@ -432,15 +457,19 @@ public class Kernel
                             for (int i = 0; i < BATCH_BUFFER_ELEMENTS; i++)
                             {
                                 Object bufferElement = buffer.getBufferElement();
-                                if (bufferElement instanceof AbstractVertex)
+                                if (filterLanes != null && bufferElement != null)
+                                {
+                                    filterLanes.put(bufferElement, filters);
+                                }
+                                else if (bufferElement instanceof AbstractVertex)
                                 {
                                     AbstractVertex tempVertex = (AbstractVertex) bufferElement;
-                                    filters.get(FIRST_FILTER).putVertex(tempVertex);
+                                    AbstractFilter.putInFilter(filters.get(FIRST_FILTER), tempVertex);
                                 }
                                 else if (bufferElement instanceof AbstractEdge)
                                 {
                                     AbstractEdge tempEdge = (AbstractEdge) bufferElement;
-                                    filters.get(FIRST_FILTER).putEdge(tempEdge);
+                                    AbstractFilter.putInFilter(filters.get(FIRST_FILTER), tempEdge);
                                 }
                                 else if (bufferElement == null)
                                 {
@@ -452,6 +481,10 @@ public class Kernel
                                 }
                             }
                         }
+                        if (filterLanes != null)
+                        {
+                            filterLanes.drain();
+                        }
                         Thread.sleep(MAIN_THREAD_SLEEP_DELAY);
                     }
                 }
@@ -462,6 +495,8 @@ public class Kernel
             }
         };
         Thread mainThread = new Thread(mainRunnable, "mainSPADE-Thread");
+        // Does not keep the JVM of the caller running
+        mainThread.setDaemon(HEADLESS);
         mainThread.start();
     }
 
@@ -809,17 +844,8 @@ public class Kernel
                     logger.log(Level.SEVERE, null, ex);
                     return;
                 }
-                // Create a new buffer and allocate it to this reporter.
-                Buffer buffer = new Buffer();
-                reporter.setBuffer(buffer);
-                if (reporter.launch(arguments))
+                if (addReporter(reporter, new Buffer(), arguments))
                 {
-                    // The launch() method must return true to indicate a successful launch.
-                    // On true, the reporter is added to the reporters set and the buffer
-                    // is put into a HashMap keyed by the reporter. This is used by the main
-                    // SPADE thread to extract buffer elements.
-                    reporter.arguments = arguments;
-                    reporters.add(reporter);
                     logger.log(Level.INFO, "Reporter added: {0}", className + " " + arguments);
                     outputStream.println("done");
                 }
@@ -962,6 +988,10 @@ public class Kernel
 	                }
 	
 	                filters.add(index, filter);
+	                if (filterLanes != null)
+	                {
+	                    filterLanes.reconfigure();
+	                }
 	                logger.log(Level.INFO, "Filter added: {0}", className + " " + arguments);
 	                outputStream.println("done");
                 }else{
@@ -1062,6 +1092,38 @@ public class Kernel
         }
     }
 
+    /**
+     * Allocates the buffer to the reporter and launches it. On success the reporter is added to the reporters
+     * whose buffers are read by the main thread.
+     *
+     * @param reporter The reporter to launch.
+     * @param buffer The buffer of the reporter.
+     * @param arguments The arguments to launch the reporter with.
+     * @return True if the reporter was launched.
+     */
+    public static boolean addReporter(AbstractReporter reporter, final Buffer buffer, String arguments)
+    {
+        reporter.setBuffer(buffer);
+        if (!reporter.launch(arguments))
+        {
+            // The launch() method must return true to indicate a successful launch.
+            return false;
+        }
+        // The reporter is added to the reporters set. This is used by the main
+        // SPADE thread to extract buffer elements.
+        reporter.arguments = arguments;
+        reporters.add(reporter);
+        Metrics.registerGauge("buffer." + reporter.getClass().getSimpleName(), new Metrics.Gauge()
+        {
+            @Override
+            public long getValue()
+            {
+                return buffer.size();
+            }
+        });
+        return true;
+    }
+
     /**
      * Method to list modules.
      *
@@ -1165,6 +1227,16 @@ public class Kernel
                     }
                     outputStream.println();
                 }
+                if (filterLanes != null)
+                {
+                    outputStream.println("\t" + filterLanes.getStatistics());
+                }
+
+                break;
+
+            case "metrics":
+                Metrics.sample();
+                outputStream.print(Metrics.getReport());
 
                 break;
 
@@ -1274,6 +1346,7 @@ public class Kernel
                                 Thread.sleep(REMOVE_WAIT_DELAY);
                             }
                             reporterIterator.remove();
+                            Metrics.unregisterGauge("buffer." + className);
                             logger.log(Level.INFO, "Reporter shut down: {0}", className);
                             outputStream.println("done");
                             break;
@@ -1385,6 +1458,10 @@ public class Kernel
                         (filters.get(index - 2)).setNextFilter(filters.get(index));
                     }
                     filters.remove(index - 1);
+                    if (filterLanes != null)
+                    {
+                        filterLanes.reconfigure();
+                    }
                     logger.log(Level.INFO, "Filter Removed: {0}", className.split("\\.")[2]);
                     outputStream.println("done");
 
@@ -1473,7 +1550,10 @@ public class Kernel
         logger.log(Level.INFO, "Shutting down SPADE....");
 
         // Save current configuration.
-        configCommand("config save " + CONFIG_FILE, NullStream.out);
+        if (!HEADLESS)
+        {
+            configCommand("config save " + CONFIG_FILE, NullStream.out);
+        }
         // Shut down all reporters.
         for (AbstractReporter reporter : reporters) {
             reporter.shutdown();
@@ -1494,7 +1574,20 @@ public class Kernel
             }
         }
 
+        // Wait for main thread to pass on the elements in the filter lanes.
+        while (filterLanes != null && !filterLanes.isIdle()) {
+            try {
+                Thread.sleep(MAIN_THREAD_SLEEP_DELAY);
+            } catch (InterruptedException ex) {
+                logger.log(Level.WARNING, null, ex);
+            }
+        }
+
         // Shut down filters.
+        if (filterLanes != null)
+        {
+            filterLanes.shutdown();
+        }
         for (int i = 0; i < filters.size() - 1; i++)
         {
             filters.get(i).shutdown();
@@ -1504,6 +1597,7 @@ public class Kernel
         {
             storage.shutdown();
         }
+        Metrics.shutdown();
         // Shut down analzers.
         for(AbstractAnalyzer analyzer: analyzers)
         {
@@ -1524,11 +1618,15 @@ public class Kernel
         }
         logger.log(Level.INFO, "SPADE stopped.");
 
-        try {
+        // A headless kernel did not write the PID file. It belongs to the daemon, if one is running.
+        if (!HEADLESS)
+        {
+            try {
 
-            Files.deleteIfExists(Paths.get(PID_FILE));
-        } catch (Exception exception) {
-            logger.log(Level.WARNING, "Could not delete PID file.");
+                Files.deleteIfExists(Paths.get(PID_FILE));
+            } catch (Exception exception) {
+                logger.log(Level.WARNING, "Could not delete PID file.");
+            }
         }
 
         // Allow LogManager to complete its response to the shutdown
@@ -27,21 +27,42 @@
  */
 package spade.core;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.nio.charset.Charset;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.BitSet;
 
 /*
+ * A matrix of Bloom filters. Each network vertex is hashed to k rows and each row is a Bloom
+ * filter of the ancestors of the vertices hashed to it. The rows are stored one after the other
+ * in a single long[] so that the row operations are plain loops over contiguous words.
+ *
+ * Sketches are exchanged with Java serialization which uses the compact binary encoding of
+ * writeTo(DataOutput).
+ *
  * @param <E> Object type that is to be inserted into the Bloom filter, e.g.
  * String or Integer. @author Magnus Skjegstad <magnus@skjegstad.com>
  */
 public class MatrixFilter implements Serializable {
 
-    private List<BloomFilter> filterSet;
-    private int filterSetSize;
+    private static final long serialVersionUID = 2L;
+    // version of the binary encoding. Bump when the format changes.
+    private static final byte ENCODING_VERSION = 1;
+
+    private long[] matrix; // row r is matrix[r * wordsPerRow] to matrix[(r + 1) * wordsPerRow - 1]
+    private int wordsPerRow;
+    private int filterSetSize; // number of rows and number of bits in each row
     private double filtersPerElement;
     private int expectedNumberOfElements; // expected (maximum) number of elements to be added
     private int numberOfAddedElements; // number of elements actually added to the Bloom filter
@@ -73,11 +94,9 @@ public class MatrixFilter implements Serializable {
         this.k = k;
         this.filtersPerElement = c;
         this.filterSetSize = (int) Math.ceil(c * n);
+        this.wordsPerRow = (filterSetSize + 63) >>> 6;
+        this.matrix = new long[filterSetSize * wordsPerRow];
         numberOfAddedElements = 0;
-        this.filterSet = new LinkedList<>();
-        for (int i = 0; i < this.filterSetSize; i++) {
-            this.filterSet.add(new BloomFilter(c, n, k));
-        }
     }
 
     /**
@@ -112,14 +131,14 @@ public class MatrixFilter implements Serializable {
                 (int) Math.ceil(-(Math.log(falsePositiveProbability) / Math.log(2)))); // k = ceil(-log_2(false prob.))
     }
 
-    public BloomFilter getAllBloomFilters() {
-        BloomFilter result = new BloomFilter(filtersPerElement, expectedNumberOfElements, k);
-        result.getBitSet().set(0, result.getBitSet().size() - 1, false);
-        for (int i = 0; i < filterSet.size(); i++) {
-            BloomFilter currentFilter = filterSet.get(i);
-            result.getBitSet().or(currentFilter.getBitSet());
+    public synchronized BloomFilter getAllBloomFilters() {
+        long[] result = new long[wordsPerRow];
+        for (int offset = 0; offset < matrix.length; offset += wordsPerRow) {
+            for (int i = 0; i < wordsPerRow; i++) {
+                result[i] |= matrix[offset + i];
+            }
         }
-        return result;
+        return toBloomFilter(result);
     }
 
     /**
@@ -189,10 +208,7 @@ public class MatrixFilter implements Serializable {
         if (this.filterSetSize != other.filterSetSize) {
             return false;
         }
-        if (this.filterSet != other.filterSet && (this.filterSet == null || !this.filterSet.equals(other.filterSet))) {
-            return false;
-        }
-        return true;
+        return Arrays.equals(this.matrix, other.matrix);
     }
 
     /**
@@ -203,7 +219,7 @@ public class MatrixFilter implements Serializable {
     @Override
     public int hashCode() {
         int hash = 7;
-        hash = 61 * hash + (this.filterSet != null ? this.filterSet.hashCode() : 0);
+        hash = 61 * hash + Arrays.hashCode(this.matrix);
         hash = 61 * hash + this.expectedNumberOfElements;
         hash = 61 * hash + this.filterSetSize;
         hash = 61 * hash + this.k;
@@ -264,8 +280,8 @@ public class MatrixFilter implements Serializable {
     /**
      * Sets all bits to false in the Bloom filter.
      */
-    public void clear() {
-        filterSet.clear();
+    public synchronized void clear() {
+        Arrays.fill(matrix, 0L);
         numberOfAddedElements = 0;
     }
 
@@ -277,39 +293,49 @@ public class MatrixFilter implements Serializable {
      * @param childVertex
      */
     public void add(AbstractVertex parentVertex, AbstractVertex childVertex) {
-        long hash;
-        String valString = sketchString(parentVertex);
-        for (int x = 0; x < k; x++) {
-            hash = createHash(valString + Integer.toString(x));
-            hash = hash % (long) filterSetSize;
-            filterSet.get(Math.abs((int) hash)).add(childVertex);
+        // Same bits as BloomFilter.add so that the rows can be queried as Bloom filters
+        int[] columns = BloomFilter.createHashes(childVertex.toString().getBytes(charset), k);
+        long hash = sketchHash(parentVertex);
+        synchronized (this) {
+            for (int x = 0; x < k; x++) {
+                int offset = rowOffset(hash, x);
+                for (int column : columns) {
+                    int bit = Math.abs(column % filterSetSize);
+                    matrix[offset + (bit >>> 6)] |= 1L << bit;
+                }
+            }
+            numberOfAddedElements++;
         }
-        numberOfAddedElements++;
     }
 
     public void updateAncestors(AbstractVertex vertex, BloomFilter ancestorsToAdd) {
-        long hash;
-        String valString = sketchString(vertex);
-        for (int x = 0; x < k; x++) {
-            hash = createHash(valString + Integer.toString(x));
-            hash = hash % (long) filterSetSize;
-            filterSet.get(Math.abs((int) hash)).getBitSet().or(ancestorsToAdd.getBitSet());
+        long[] ancestors = ancestorsToAdd.getBitSet().toLongArray();
+        int words = Math.min(ancestors.length, wordsPerRow);
+        long hash = sketchHash(vertex);
+        synchronized (this) {
+            for (int x = 0; x < k; x++) {
+                int offset = rowOffset(hash, x);
+                for (int i = 0; i < words; i++) {
+                    matrix[offset + i] |= ancestors[i];
+                }
+            }
+            numberOfAddedElements++;
         }
-        numberOfAddedElements++;
     }
 
     public BloomFilter get(AbstractVertex vertex) {
-        BloomFilter result = new BloomFilter(filtersPerElement, expectedNumberOfElements, k);
-        result.getBitSet().set(0, result.getBitSet().size() - 1, true);
-        long hash;
-        String valString = sketchString(vertex);
-        for (int x = 0; x < k; x++) {
-            hash = createHash(valString + Integer.toString(x));
-            hash = hash % (long) filterSetSize;
-            BloomFilter tempBloomFilter = filterSet.get(Math.abs((int) hash));
-            result.getBitSet().and(tempBloomFilter.getBitSet());
+        long[] result = new long[wordsPerRow];
+        long hash = sketchHash(vertex);
+        synchronized (this) {
+            System.arraycopy(matrix, rowOffset(hash, 0), result, 0, wordsPerRow);
+            for (int x = 1; x < k; x++) {
+                int offset = rowOffset(hash, x);
+                for (int i = 0; i < wordsPerRow; i++) {
+                    result[i] &= matrix[offset + i];
+                }
+            }
         }
-        return result;
+        return toBloomFilter(result);
     }
 
     /**
@@ -322,13 +348,17 @@ public class MatrixFilter implements Serializable {
      * filter.
      */
     public boolean contains(AbstractVertex vertex) {
-        long hash;
-        String valString = sketchString(vertex);
-        for (int x = 0; x < k; x++) {
-            hash = createHash(valString + Integer.toString(x));
-            hash = hash % (long) filterSetSize;
-            if (!filterSet.get(Math.abs((int) hash)).contains(vertex)) {
-                return false;
+        int[] columns = BloomFilter.createHashes(vertex.toString().getBytes(charset), k);
+        long hash = sketchHash(vertex);
+        synchronized (this) {
+            for (int x = 0; x < k; x++) {
+                int offset = rowOffset(hash, x);
+                for (int column : columns) {
+                    int bit = Math.abs(column % filterSetSize);
+                    if ((matrix[offset + (bit >>> 6)] & (1L << bit)) == 0) {
+                        return false;
+                    }
+                }
             }
         }
         return true;
@@ -397,4 +427,160 @@ public class MatrixFilter implements Serializable {
         }
         return result;
     }
+
+    /**
+     * Hash of the connection of a network vertex. Both the end points of a connection hash the
+     * same. Computed from the cached hash codes of the annotation values so nothing is allocated.
+     *
+     * @param vertex network vertex
+     * @return 64-bit hash from which the rows of the vertex are derived
+     */
+    static long sketchHash(AbstractVertex vertex) {
+        long source = mix(((long) hashOf(vertex.getAnnotation("source host")) << 32)
+                ^ (hashOf(vertex.getAnnotation("source port")) & 0xFFFFFFFFL));
+        long destination = mix(((long) hashOf(vertex.getAnnotation("destination host")) << 32)
+                ^ (hashOf(vertex.getAnnotation("destination port")) & 0xFFFFFFFFL));
+        return mix(source + destination);
+    }
+
+    private static int hashOf(String value) {
+        return value == null ? 0 : value.hashCode();
+    }
+
+    // MurmurHash3 64-bit finalizer
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    // Start of the x-th row of the vertex with the given hash (double hashing)
+    private int rowOffset(long hash, int x) {
+        long h = hash + x * ((hash >>> 32) | 1L);
+        return (int) ((h & Long.MAX_VALUE) % filterSetSize) * wordsPerRow;
+    }
+
+    private BloomFilter toBloomFilter(long[] words) {
+        BloomFilter result = new BloomFilter(filtersPerElement, expectedNumberOfElements, k);
+        result.getBitSet().or(BitSet.valueOf(words));
+        return result;
+    }
+
+    /**
+     * Writes the filter in a compact versioned binary encoding. Runs of empty words in the
+     * matrix are written as counts.
+     *
+     * @param out output to write to
+     * @throws IOException if writing fails
+     */
+    public synchronized void writeTo(DataOutput out) throws IOException {
+        out.writeByte(ENCODING_VERSION);
+        out.writeInt(k);
+        out.writeInt(expectedNumberOfElements);
+        out.writeDouble(filtersPerElement);
+        out.writeInt(filterSetSize);
+        out.writeInt(numberOfAddedElements);
+        // (number of empty words, number of non-empty words, the non-empty words) till the end
+        int i = 0;
+        while (i < matrix.length) {
+            int start = i;
+            while (i < matrix.length && matrix[i] == 0) {
+                i++;
+            }
+            writeVarInt(out, i - start);
+            start = i;
+            while (i < matrix.length && matrix[i] != 0) {
+                i++;
+            }
+            writeVarInt(out, i - start);
+            for (int j = start; j < i; j++) {
+                out.writeLong(matrix[j]);
+            }
+        }
+    }
+
+    /**
+     * Reads a filter written by writeTo(DataOutput).
+     *
+     * @param in input to read from
+     * @return the filter
+     * @throws IOException if reading fails or the encoding is not supported
+     */
+    public static MatrixFilter readFrom(DataInput in) throws IOException {
+        MatrixFilter filter = new MatrixFilter(1, 0, 0);
+        filter.read(in);
+        return filter;
+    }
+
+    public byte[] toByteArray() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeTo(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    public static MatrixFilter fromByteArray(byte[] bytes) throws IOException {
+        return readFrom(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    private void read(DataInput in) throws IOException {
+        byte version = in.readByte();
+        if (version != ENCODING_VERSION) {
+            throw new IOException("Unsupported MatrixFilter encoding version: " + version);
+        }
+        k = in.readInt();
+        expectedNumberOfElements = in.readInt();
+        filtersPerElement = in.readDouble();
+        filterSetSize = in.readInt();
+        numberOfAddedElements = in.readInt();
+        if (k < 0 || filterSetSize < 0) {
+            throw new IOException("Invalid MatrixFilter encoding: k=" + k + ", size=" + filterSetSize);
+        }
+        wordsPerRow = (filterSetSize + 63) >>> 6;
+        matrix = new long[filterSetSize * wordsPerRow];
+        int i = 0;
+        while (i < matrix.length) {
+            int empty = readVarInt(in);
+            int nonEmpty = readVarInt(in);
+            if (empty < 0 || nonEmpty < 0 || (long) i + empty + nonEmpty > matrix.length) {
+                throw new IOException("Invalid MatrixFilter encoding: run exceeds the matrix");
+            }
+            i += empty;
+            for (int j = 0; j < nonEmpty; j++) {
+                matrix[i++] = in.readLong();
+            }
+        }
+    }
+
+    private static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Invalid MatrixFilter encoding: malformed length");
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        writeTo(out);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException {
+        read(in);
+    }
 }
@@ -0,0 +1,393 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2017 SRI International
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.core;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import spade.utility.profile.LatencyHistogram;
+
+/**
+ * Registry of the metrics of the hot path: latency histograms and striped counters around every filter
+ * and storage call, gauges (buffer depths) and samples of garbage collection and allocation.
+ *
+ * Disabled by default. With the 'metrics' setting false no histograms or counters are created and the
+ * instrumented calls only check for null. Filters and storages created before metrics are enabled are
+ * not measured.
+ *
+ * Reading the clock costs as much as a simple filter, so only one in 'metrics_sample_rate' calls (default
+ * 16) is timed and recorded with that weight. Counts are multiples of the rate and totals are estimates.
+ *
+ * Settings in the Kernel config: 'metrics', 'metrics_sample_rate', 'metrics_interval_seconds' (sampling
+ * interval, default 60) and 'metrics_file' (the report is appended to it at every sample if set).
+ */
+public class Metrics
+{
+    private static final Logger logger = Logger.getLogger(Metrics.class.getName());
+
+    private static final int DEFAULT_INTERVAL_SECONDS = 60;
+    private static final int DEFAULT_SAMPLE_RATE = 16;
+    private static final String FILTER_PREFIX = "filter.";
+    private static final String DOWNSTREAM_SUFFIX = ".downstream";
+
+    public interface Gauge
+    {
+        long getValue();
+    }
+
+    private static volatile boolean enabled = false;
+    private static volatile int sampleRate = DEFAULT_SAMPLE_RATE;
+    private static final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentSkipListMap<>();
+    private static final ConcurrentMap<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+    private static final ConcurrentMap<String, Gauge> gauges = new ConcurrentSkipListMap<>();
+    // Used to list the filters in the order of the filter list
+    private static List<AbstractFilter> filters;
+
+    private static Thread sampler;
+    private static long intervalMillis = DEFAULT_INTERVAL_SECONDS * 1000L;
+    private static String file;
+    private static final long startTime = System.currentTimeMillis();
+    // The last sample and the change since the one before
+    private static long sampleTime = startTime, gcCount = 0, gcMillis = 0, allocatedBytes = 0;
+    private static long intervalGcCount = 0, intervalGcMillis = 0;
+    private static double allocationRate = -1;
+
+    public static boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled)
+    {
+        Metrics.enabled = enabled;
+    }
+
+    /**
+     * @return One in this many calls is timed
+     */
+    public static int getSampleRate()
+    {
+        return sampleRate;
+    }
+
+    public static void setSampleRate(int sampleRate)
+    {
+        Metrics.sampleRate = Math.max(1, sampleRate);
+    }
+
+    /**
+     * Reads the settings and starts sampling if metrics are enabled.
+     *
+     * @param kernelFilters The filter list of the Kernel
+     */
+    public static synchronized void initialize(List<AbstractFilter> kernelFilters)
+    {
+        filters = kernelFilters;
+        enabled = Boolean.parseBoolean(Settings.getProperty("metrics"));
+        if(!enabled)
+        {
+            return;
+        }
+        String rate = Settings.getProperty("metrics_sample_rate");
+        if(rate != null && !rate.trim().isEmpty())
+        {
+            try
+            {
+                setSampleRate(Integer.parseInt(rate.trim()));
+            }
+            catch(NumberFormatException ex)
+            {
+                logger.log(Level.WARNING, "Invalid value for 'metrics_sample_rate': " + rate
+                        + ". Using default: " + DEFAULT_SAMPLE_RATE);
+            }
+        }
+        String interval = Settings.getProperty("metrics_interval_seconds");
+        if(interval != null && !interval.trim().isEmpty())
+        {
+            try
+            {
+                intervalMillis = Math.max(1, Long.parseLong(interval.trim())) * 1000;
+            }
+            catch(NumberFormatException ex)
+            {
+                logger.log(Level.WARNING, "Invalid value for 'metrics_interval_seconds': " + interval
+                        + ". Using default: " + DEFAULT_INTERVAL_SECONDS);
+            }
+        }
+        file = Settings.getProperty("metrics_file");
+        if(file != null && file.trim().isEmpty())
+        {
+            file = null;
+        }
+        sampler = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                while(true)
+                {
+                    try
+                    {
+                        Thread.sleep(intervalMillis);
+                    }
+                    catch(InterruptedException ex)
+                    {
+                        return;
+                    }
+                    sample();
+                    dump();
+                }
+            }
+        }, "Metrics-Sampler");
+        sampler.setDaemon(true);
+        sampler.start();
+        logger.log(Level.INFO, "Metrics enabled. Sample rate: 1 in " + sampleRate + " calls, interval: "
+                + (intervalMillis / 1000) + " s, file: " + file);
+    }
+
+    /**
+     * Stops sampling and appends the final report to the metrics file.
+     */
+    public static synchronized void shutdown()
+    {
+        if(sampler != null)
+        {
+            sampler.interrupt();
+            sampler = null;
+            sample();
+            dump();
+        }
+    }
+
+    /**
+     * @param name Name of the histogram
+     * @return The histogram with the name, created if needed. Null if metrics are disabled or the name is null.
+     */
+    public static LatencyHistogram getHistogram(String name)
+    {
+        if(!enabled || name == null)
+        {
+            return null;
+        }
+        LatencyHistogram histogram = histograms.get(name);
+        if(histogram == null)
+        {
+            histograms.putIfAbsent(name, new LatencyHistogram());
+            histogram = histograms.get(name);
+        }
+        return histogram;
+    }
+
+    /**
+     * @param name Name of the counter
+     * @return The counter with the name, created if needed. Null if metrics are disabled or the name is null.
+     */
+    public static LongAdder getCounter(String name)
+    {
+        if(!enabled || name == null)
+        {
+            return null;
+        }
+        LongAdder counter = counters.get(name);
+        if(counter == null)
+        {
+            counters.putIfAbsent(name, new LongAdder());
+            counter = counters.get(name);
+        }
+        return counter;
+    }
+
+    /**
+     * @return The counter of the time spent in the filters after the named filter
+     */
+    static LongAdder getDownstreamCounter(String filterName)
+    {
+        return filterName == null ? null : getCounter(filterName + DOWNSTREAM_SUFFIX);
+    }
+
+    public static void registerGauge(String name, Gauge gauge)
+    {
+        gauges.put(name, gauge);
+    }
+
+    public static void unregisterGauge(String name)
+    {
+        gauges.remove(name);
+    }
+
+    /**
+     * Samples the collection counts and times of the garbage collectors and the bytes allocated by all threads.
+     */
+    public static synchronized void sample()
+    {
+        long now = System.currentTimeMillis();
+        long count = 0, millis = 0;
+        for(GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+        {
+            count += Math.max(0, collector.getCollectionCount());
+            millis += Math.max(0, collector.getCollectionTime());
+        }
+        intervalGcCount = count - gcCount;
+        intervalGcMillis = millis - gcMillis;
+        gcCount = count;
+        gcMillis = millis;
+
+        long allocated = getAllocatedBytes();
+        if(allocated >= 0 && now > sampleTime)
+        {
+            // Threads that ended take their allocations with them
+            allocationRate = Math.max(0, allocated - allocatedBytes) * 1000.0 / (now - sampleTime);
+        }
+        allocatedBytes = allocated;
+        sampleTime = now;
+    }
+
+    // Bytes allocated by the live threads or -1 if not supported by the JVM
+    private static long getAllocatedBytes()
+    {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if(!(threads instanceof com.sun.management.ThreadMXBean))
+        {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        if(!allocations.isThreadAllocatedMemorySupported() || !allocations.isThreadAllocatedMemoryEnabled())
+        {
+            return -1;
+        }
+        long total = 0;
+        for(long bytes : allocations.getThreadAllocatedBytes(threads.getAllThreadIds()))
+        {
+            total += Math.max(0, bytes);
+        }
+        return total;
+    }
+
+    private static void dump()
+    {
+        if(file == null)
+        {
+            return;
+        }
+        try(PrintWriter writer = new PrintWriter(new FileWriter(file, true)))
+        {
+            writer.println(getReport());
+        }
+        catch(IOException ex)
+        {
+            logger.log(Level.WARNING, "Failed to write metrics to file: " + file, ex);
+        }
+    }
+
+    public static synchronized String getReport()
+    {
+        if(!enabled)
+        {
+            return "Metrics disabled. Set 'metrics = true' in the Kernel config";
+        }
+        StringBuilder report = new StringBuilder();
+        report.append("Metrics at ").append(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss z").format(new Date()));
+        report.append(", uptime ").append((System.currentTimeMillis() - startTime) / 1000).append(" s\n");
+
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        report.append(String.format("JVM: heap used %d MB of %d MB, GC %d collections in %d ms"
+                + " (%d in %d ms in the last interval), allocation rate %s\n",
+                heap.getUsed() >> 20, heap.getCommitted() >> 20, gcCount, gcMillis, intervalGcCount, intervalGcMillis,
+                allocationRate < 0 ? "n/a" : String.format("%.1f MB/s", allocationRate / (1 << 20))));
+
+        if(!gauges.isEmpty())
+        {
+            report.append("Gauges:\n");
+            for(Map.Entry<String, Gauge> entry : gauges.entrySet())
+            {
+                report.append("\t").append(entry.getKey()).append(" = ").append(entry.getValue().getValue()).append("\n");
+            }
+        }
+
+        report.append("Latency (1 in ").append(sampleRate).append(" calls timed; self excludes the filters after a filter;"
+                + " FinalCommitFilter includes the storages):\n");
+        report.append(String.format("\t%-40s %10s %10s %10s %10s %10s %10s %10s %10s\n", "name", "count", "total ms",
+                "self ms", "mean us", "p50 us", "p99 us", "p99.9 us", "max us"));
+        for(String name : getHistogramNames())
+        {
+            LatencyHistogram histogram = histograms.get(name);
+            LongAdder downstream = counters.get(name + DOWNSTREAM_SUFFIX);
+            long total = histogram.getSum();
+            String self = name.startsWith(FILTER_PREFIX)
+                    ? String.valueOf((total - (downstream == null ? 0 : downstream.sum())) / 1000000) : "";
+            report.append(String.format("\t%-40s %10d %10d %10s %10.1f %10.1f %10.1f %10.1f %10.1f\n", name,
+                    histogram.getCount(), total / 1000000, self, histogram.getMean() / 1000,
+                    histogram.getPercentile(50) / 1000.0, histogram.getPercentile(99) / 1000.0,
+                    histogram.getPercentile(99.9) / 1000.0, histogram.getMax() / 1000.0));
+        }
+
+        boolean header = false;
+        for(Map.Entry<String, LongAdder> entry : counters.entrySet())
+        {
+            if(entry.getKey().endsWith(DOWNSTREAM_SUFFIX))
+            {
+                continue;
+            }
+            if(!header)
+            {
+                report.append("Counters:\n");
+                header = true;
+            }
+            report.append("\t").append(entry.getKey()).append(" = ").append(entry.getValue().sum()).append("\n");
+        }
+        return report.toString();
+    }
+
+    // Filters in the order of the filter list first
+    private static List<String> getHistogramNames()
+    {
+        Set<String> names = new LinkedHashSet<>();
+        if(filters != null)
+        {
+            synchronized(filters)
+            {
+                for(AbstractFilter filter : filters)
+                {
+                    String name = filter.getMetricName();
+                    if(name != null && histograms.containsKey(name))
+                    {
+                        names.add(name);
+                    }
+                }
+            }
+        }
+        names.addAll(histograms.keySet());
+        return new ArrayList<>(names);
+    }
+}
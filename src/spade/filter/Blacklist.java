@@ -66,6 +66,12 @@ public class Blacklist extends AbstractFilter{
 		return false;
 	}
 
+	// Elements are only read
+	@Override
+	public boolean isPartitionSafe(){
+		return true;
+	}
+
 	@Override
 	public void putVertex(AbstractVertex incomingVertex) {
 		if(!isVertexInExclusionPattern(incomingVertex)){
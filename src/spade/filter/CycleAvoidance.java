@@ -23,39 +23,162 @@ import spade.core.AbstractEdge;
 import spade.core.AbstractFilter;
 import spade.core.AbstractVertex;
 import spade.core.Edge;
+import spade.core.Settings;
 import spade.core.Vertex;
+import spade.utility.ReachabilityIndex;
+import spade.utility.Result;
+import spade.utility.map.external.ExternalMap;
+import spade.utility.map.external.ExternalMapArgument;
+import spade.utility.map.external.ExternalMapManager;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Objects;
-import java.util.Set;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public class CycleAvoidance extends AbstractFilter {
 
-    // 'ancestors' maps a given vertex to its ancestors.
-    private final Map<AbstractVertex, Set<AbstractVertex>> ancestors;
-    // 'passedVertices' maps a given vertex to a boolean indicating whether it has
-    // been passed to the next filter or not.
-    private final Map<AbstractVertex, Boolean> passedVertices;
+    private static final Logger logger = Logger.getLogger(CycleAvoidance.class.getName());
+
+    // Reachability between the passed vertices. Edges go from child to parent.
+    // Kept in memory since it is only a few ints per vertex and edge.
+    private final ReachabilityIndex index;
+    // 'vertices' maps the base key and the version of a vertex to its state. The base key is the hash
+    // of the annotations of the vertex other than the version.
+    private final String vertexMapId = "CycleAvoidanceVertexMap";
+    private ExternalMap<String, VertexState> vertices;
+    // 'versions' maps the base key of a vertex to all the versions of the vertex.
+    private final String versionMapId = "CycleAvoidanceVersionMap";
+    private ExternalMap<String, Versions> versions;
     private final int initialVersion = 0;
     private final String versionAnnotation = "Version";
 
+    private long discardedEdges = 0, newVersions = 0, cyclicEdges = 0;
+
+    private static final class VertexState implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final AbstractVertex vertex;
+        private final String baseKey;
+        private final int id;
+        private final int version;
+        private boolean passed = false;
+
+        private VertexState(AbstractVertex vertex, String baseKey, int id, int version) {
+            this.vertex = vertex;
+            this.baseKey = baseKey;
+            this.id = id;
+            this.version = version;
+        }
+    }
+
+    // Versions and index ids of the versions of a vertex
+    private static final class Versions implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private int[] versions = new int[1];
+        private int[] ids = new int[1];
+        private int count = 0;
+
+        private void add(int version, int id) {
+            if (count == versions.length) {
+                versions = Arrays.copyOf(versions, count * 2);
+                ids = Arrays.copyOf(ids, count * 2);
+            }
+            versions[count] = version;
+            ids[count] = id;
+            count++;
+        }
+    }
+
     public CycleAvoidance() {
-        ancestors = new HashMap<>();
-        passedVertices = new HashMap<>();
+        index = new ReachabilityIndex();
+    }
+
+    @Override
+    public boolean initialize(String arguments) {
+        String defaultConfigFilePath = Settings.getDefaultConfigFilePath(this.getClass());
+        vertices = createExternalMap(vertexMapId, defaultConfigFilePath);
+        if (vertices == null) {
+            return false;
+        }
+        versions = createExternalMap(versionMapId, defaultConfigFilePath);
+        if (versions == null) {
+            closeExternalMap(vertices, vertexMapId);
+            return false;
+        }
+        return true;
+    }
+
+    private static <V extends Serializable> ExternalMap<String, V> createExternalMap(String mapId, String configFilePath) {
+        Result<ExternalMapArgument> externalMapArgumentResult = ExternalMapManager.parseArgumentFromFile(mapId, configFilePath);
+        if (externalMapArgumentResult.error) {
+            logger.log(Level.SEVERE, "Failed to parse argument for external map: '" + mapId + "'");
+            logger.log(Level.SEVERE, externalMapArgumentResult.toErrorString());
+            return null;
+        }
+        ExternalMapArgument externalMapArgument = externalMapArgumentResult.result;
+        Result<ExternalMap<String, V>> externalMapResult = ExternalMapManager.create(externalMapArgument);
+        if (externalMapResult.error) {
+            logger.log(Level.SEVERE, "Failed to create external map '" + mapId + "' from arguments: " + externalMapArgument);
+            logger.log(Level.SEVERE, externalMapResult.toErrorString());
+            return null;
+        }
+        logger.log(Level.INFO, mapId + ": " + externalMapArgument);
+        return externalMapResult.result;
+    }
+
+    private static void closeExternalMap(ExternalMap<?, ?> map, String mapId) {
+        try {
+            map.close();
+        } catch (Throwable t) {
+            logger.log(Level.SEVERE, "Failed to close external map '" + mapId + "'", t);
+        }
     }
 
     @Override
     public void putVertex(AbstractVertex incomingVertex) {
-        if (passedVertices.containsKey(incomingVertex)) {
-            // We've already seen this vertex.
-            return;
+        getVertexState(incomingVertex);
+    }
+
+    // The incoming vertex can be shared with the reporter so it is copied to add the version instead of
+    // being changed. A vertex without a version is the same as its version 0.
+    private VertexState getVertexState(AbstractVertex incomingVertex) {
+        String versionValue = incomingVertex.getAnnotation(versionAnnotation);
+        String baseKey;
+        int version;
+        if (versionValue == null) {
+            // The hash of the incoming vertex is memoized
+            baseKey = incomingVertex.bigHashCode();
+            version = initialVersion;
+        } else {
+            AbstractVertex base = copyVertex(incomingVertex);
+            base.removeAnnotation(versionAnnotation);
+            baseKey = base.bigHashCode();
+            version = Integer.parseInt(versionValue);
         }
-        if (!incomingVertex.getAnnotations().containsKey(versionAnnotation)) {
-            incomingVertex.addAnnotation(versionAnnotation, Integer.toString(initialVersion));
+        String key = getKey(baseKey, version);
+        VertexState state = vertices.get(key);
+        if (state != null) {
+            return state;
         }
-        passedVertices.put(incomingVertex, Boolean.FALSE);
+        AbstractVertex vertex = incomingVertex;
+        if (versionValue == null) {
+            vertex = copyVertex(incomingVertex);
+            vertex.addAnnotation(versionAnnotation, Integer.toString(initialVersion));
+        }
+        state = new VertexState(vertex, baseKey, index.addVertex(), version);
+        vertices.put(key, state);
+        Versions vertexVersions = versions.get(baseKey);
+        if (vertexVersions == null) {
+            vertexVersions = new Versions();
+        }
+        vertexVersions.add(state.version, state.id);
+        // Put again since the versions might have been read from the store
+        versions.put(baseKey, vertexVersions);
+        return state;
+    }
+
+    private static String getKey(String baseKey, int version) {
+        return baseKey + ":" + version;
     }
 
     // Given an incoming edge A->B(i), CA uses the following rules:
@@ -63,38 +186,40 @@ public class CycleAvoidance extends AbstractFilter {
     // 2) If B(j) exists and j==i, then discard the edge.
     // 3) If B(j) exists and j>i, then discard the edge.
     // 3) If B(j) exists and j<i, then create a new A' and add A'->B(i).
+    // B(j) exists if it is an ancestor of A. With several, j is the latest version.
     @Override
     public void putEdge(AbstractEdge edge) {
-        AbstractVertex source = edge.getChildVertex();
-        AbstractVertex destination = edge.getParentVertex();
+        VertexState source = getVertexState(edge.getChildVertex());
+        VertexState destination = getVertexState(edge.getParentVertex());
         AbstractEdge copyEdge = copyEdge(edge);
-        copyEdge.setChildVertex(source);
-        copyEdge.setParentVertex(destination);
-
-        if (!ancestors.containsKey(source)) {
-            HashSet<AbstractVertex> vertexAncestors = new HashSet<>();
-            ancestors.put(source, vertexAncestors);
-        }
+        copyEdge.setChildVertex(source.vertex);
+        copyEdge.setParentVertex(destination.vertex);
 
-        Map<String, String> currentAnnotations = new HashMap<>();
-        currentAnnotations.putAll(destination.getAnnotations());
-        int currentVersion = Integer.parseInt(currentAnnotations.remove(versionAnnotation));
         // Look for ancestor vertex.
-        for (AbstractVertex ancestor : ancestors.get(source)) {
-            Map<String, String> annotations = new HashMap<>();
-            annotations.putAll(ancestor.getAnnotations());
-            int existingVersion = Integer.parseInt(annotations.remove(versionAnnotation));
-            if (currentAnnotations.equals(annotations)) {
-                if (currentVersion == existingVersion || currentVersion < existingVersion) {
-                    return;
-                } else {
-                    currentVersion++;
-                    destination = copyVertex(destination);
-                    destination.addAnnotation(versionAnnotation, Integer.toString(currentVersion));
-                    copyEdge.setParentVertex(destination);
-                }
-                break;
+        int existingVersion = -1;
+        Versions destinationVersions = versions.get(destination.baseKey);
+        for (int i = 0; i < destinationVersions.count; i++) {
+            int version = destinationVersions.versions[i];
+            if (version > existingVersion && index.reaches(source.id, destinationVersions.ids[i])) {
+                existingVersion = version;
+            }
+        }
+        if (existingVersion >= 0) {
+            if (destination.version <= existingVersion) {
+                discardedEdges++;
+                return;
             }
+            AbstractVertex copy = copyVertex(destination.vertex);
+            copy.removeAnnotation(versionAnnotation);
+            copy.addAnnotation(versionAnnotation, Integer.toString(destination.version + 1));
+            destination = getVertexState(copy);
+            copyEdge.setParentVertex(destination.vertex);
+            newVersions++;
+        }
+
+        if (!index.addEdge(source.id, destination.id)) {
+            // B reaches A. The edge is passed but not indexed to keep the index acyclic.
+            cyclicEdges++;
         }
 
         checkVertexCache(source);
@@ -102,10 +227,12 @@ public class CycleAvoidance extends AbstractFilter {
         putInNextFilter(copyEdge);
     }
 
-    private void checkVertexCache(AbstractVertex vertex) {
-        if (Objects.equals(passedVertices.get(vertex), Boolean.FALSE)) {
-            putInNextFilter(vertex);
-            passedVertices.put(vertex, Boolean.TRUE);
+    private void checkVertexCache(VertexState vertex) {
+        if (!vertex.passed) {
+            putInNextFilter(vertex.vertex);
+            vertex.passed = true;
+            // Put again since the state might have been read from the store
+            vertices.put(getKey(vertex.baseKey, vertex.version), vertex);
         }
     }
 
@@ -122,4 +249,17 @@ public class CycleAvoidance extends AbstractFilter {
         copy.addAnnotations(edge.getAnnotations());
         return copy;
     }
+
+    public String getStatistics() {
+        return index.getStatistics() + ", discarded edges: " + discardedEdges + ", new versions: " + newVersions
+                + ", cyclic edges: " + cyclicEdges;
+    }
+
+    @Override
+    public boolean shutdown() {
+        closeExternalMap(vertices, vertexMapId);
+        closeExternalMap(versions, versionMapId);
+        logger.log(Level.INFO, getStatistics());
+        return true;
+    }
 }
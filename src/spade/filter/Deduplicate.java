@@ -25,23 +25,36 @@ import spade.core.AbstractFilter;
 import spade.core.AbstractVertex;
 import spade.core.Settings;
 import spade.utility.CommonFunctions;
+import spade.utility.Converter;
 import spade.utility.FileUtility;
+import spade.utility.FingerprintIndex;
+import spade.utility.Result;
+import spade.utility.map.external.store.Store;
+import spade.utility.map.external.store.StoreArgument;
+import spade.utility.map.external.store.StoreManager;
 
-import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * A filter to remove 'most' of the duplicate vertices and edges.
+ * A filter to remove the duplicate vertices and edges.
  * 
- * Using 'https://github.com/jmhodges/opposite_of_a_bloom_filter' to find out
+ * Two modes (argument 'mode'):
+ * 
+ * 1) negativeBloomFilter (default): Using 'https://github.com/jmhodges/opposite_of_a_bloom_filter' to find out
  * if we have seen a vertex or an edge before. The data structure can return false negatives but 
  * never false positives.
- * 
  * So, a vertex or an edge is put into the next filter ONLY IF it is not contained in the data structure
  * mentioned above. Since there can be false negatives there can be some duplicates but there would
  * never be a case where we don't put something in the next filter which we haven't seen before.
+ * 
+ * 2) fingerprintIndex: A 128-bit fingerprint of the annotations (and the endpoints for an edge) is looked up
+ * in a {@link FingerprintIndex}. Recent fingerprints are in memory and the rest in the store given by 
+ * 'storeName' and 'storeArgument' (as for the external map). There is no fixed capacity and the index is
+ * kept across restarts if the store is not deleted on close. Duplicate and miss rates are logged every 
+ * 'reportingIntervalSeconds' and at shutdown.
  *
  */
 public class Deduplicate extends AbstractFilter{
@@ -49,6 +62,15 @@ public class Deduplicate extends AbstractFilter{
 	private Logger logger = Logger.getLogger(this.getClass().getName());
 	
 	private final String ARG_EXPECTEDNUMBEROFELEMENTS_KEY = "expectedNumberOfElements";
+	private final String ARG_MODE_KEY = "mode";
+	private final String ARG_MAXMEMORYFINGERPRINTS_KEY = "maxMemoryFingerprints";
+	private final String ARG_SEGMENTS_KEY = "segments";
+	private final String ARG_STORENAME_KEY = "storeName";
+	private final String ARG_STOREARGUMENT_KEY = "storeArgument";
+	private final String ARG_REPORTINGINTERVALSECONDS_KEY = "reportingIntervalSeconds";
+	
+	private final String MODE_NEGATIVE_BLOOM_FILTER = "negativeBloomFilter";
+	private final String MODE_FINGERPRINT_INDEX = "fingerprintIndex";
 	
 	// Source: https://github.com/jmhodges/opposite_of_a_bloom_filter
 	// Source copyright below:
@@ -57,25 +79,48 @@ public class Deduplicate extends AbstractFilter{
 	// license that can be found in the LICENSE file (in the above-mentioned git).
 	private ByteArrayFilter negativeBloomFilter;
 	
+	private FingerprintIndex fingerprintIndex;
+	private long reportingIntervalMillis;
+	private volatile long lastReportedMillis;
+	
 	/**
-	 * Read expectedNumberOfElements from argument, if not found then read from config file. 
+	 * Read arguments from the argument string, if not found then read from config file. 
 	 * 
-	 * @param arguments empty or 'expectedNumberOfElements=100000'
+	 * @param arguments empty or 'expectedNumberOfElements=100000' or 'mode=fingerprintIndex maxMemoryFingerprints=...'
 	 * @return true if internal data structure initialized successfully
 	 */
 	public boolean initialize(String arguments){
-		String expectedNumberOfElementsString = null;
-		Map<String, String> argsMap = CommonFunctions.parseKeyValPairs(arguments);
-		expectedNumberOfElementsString = argsMap.get(ARG_EXPECTEDNUMBEROFELEMENTS_KEY);
-		if(expectedNumberOfElementsString == null){
-			try{
-				Map<String, String> configMap = FileUtility.readConfigFileAsKeyValueMap(Settings.getDefaultConfigFilePath(this.getClass()), "=");
-				expectedNumberOfElementsString = configMap.get(ARG_EXPECTEDNUMBEROFELEMENTS_KEY);
-				logger.log(Level.INFO, "Argument => expectedNumberOfElements: {0}", new Object[]{expectedNumberOfElementsString});
-			}catch(Exception e){
-				logger.log(Level.SEVERE, "Failed to read arguments", e);
+		Map<String, String> configMap = new HashMap<String, String>();
+		Result<HashMap<String, String>> configResult = FileUtility.parseKeysValuesInConfigFile(Settings.getDefaultConfigFilePath(this.getClass()));
+		if(configResult.error){
+			logger.log(Level.WARNING, "Failed to read config file: " + configResult.toErrorString());
+		}else{
+			configMap.putAll(configResult.result);
+		}
+		if(!CommonFunctions.isNullOrEmpty(arguments)){
+			Result<HashMap<String, String>> argsResult = CommonFunctions.parseKeysValuesInString(arguments);
+			if(argsResult.error){
+				logger.log(Level.SEVERE, "Failed to parse arguments: " + argsResult.toErrorString());
+				return false;
 			}
+			configMap.putAll(argsResult.result);
 		}
+		
+		String mode = configMap.get(ARG_MODE_KEY);
+		if(mode == null || mode.equals(MODE_NEGATIVE_BLOOM_FILTER)){
+			return initializeNegativeBloomFilter(configMap);
+		}else if(mode.equals(MODE_FINGERPRINT_INDEX)){
+			return initializeFingerprintIndex(configMap);
+		}else{
+			logger.log(Level.SEVERE, "Invalid '"+ARG_MODE_KEY+"': '"+mode+"'. Must be '"+MODE_NEGATIVE_BLOOM_FILTER
+					+"' or '"+MODE_FINGERPRINT_INDEX+"'");
+			return false;
+		}
+	}
+	
+	private boolean initializeNegativeBloomFilter(Map<String, String> configMap){
+		String expectedNumberOfElementsString = configMap.get(ARG_EXPECTEDNUMBEROFELEMENTS_KEY);
+		logger.log(Level.INFO, "Argument => expectedNumberOfElements: {0}", new Object[]{expectedNumberOfElementsString});
 		if(expectedNumberOfElementsString == null){
 			logger.log(Level.SEVERE, "Must specify '"+ARG_EXPECTEDNUMBEROFELEMENTS_KEY+"' in either argument or in config file");
 			return false;
@@ -94,10 +139,76 @@ public class Deduplicate extends AbstractFilter{
 		}
 	}
 	
+	private boolean initializeFingerprintIndex(Map<String, String> configMap){
+		Result<Long> maxMemoryFingerprintsResult = CommonFunctions.parseLong(configMap.get(ARG_MAXMEMORYFINGERPRINTS_KEY), 10, 1, Long.MAX_VALUE);
+		if(maxMemoryFingerprintsResult.error){
+			logger.log(Level.SEVERE, "Invalid '"+ARG_MAXMEMORYFINGERPRINTS_KEY+"': " + maxMemoryFingerprintsResult.toErrorString());
+			return false;
+		}
+		Result<Long> segmentsResult = CommonFunctions.parseLong(configMap.get(ARG_SEGMENTS_KEY), 10, 1, 1024);
+		if(segmentsResult.error){
+			logger.log(Level.SEVERE, "Invalid '"+ARG_SEGMENTS_KEY+"': " + segmentsResult.toErrorString());
+			return false;
+		}
+		Result<Long> reportingResult = CommonFunctions.parseLong(configMap.get(ARG_REPORTINGINTERVALSECONDS_KEY), 10, 0, Integer.MAX_VALUE);
+		if(reportingResult.error){
+			logger.log(Level.SEVERE, "Invalid '"+ARG_REPORTINGINTERVALSECONDS_KEY+"': " + reportingResult.toErrorString());
+			return false;
+		}
+		Result<StoreArgument> storeArgumentResult = StoreManager.parseArgument(configMap.get(ARG_STORENAME_KEY), configMap.get(ARG_STOREARGUMENT_KEY));
+		if(storeArgumentResult.error){
+			logger.log(Level.SEVERE, "Invalid store arguments: " + storeArgumentResult.toErrorString());
+			return false;
+		}
+		Result<? extends Store<byte[], byte[]>> storeResult = StoreManager.createStore(storeArgumentResult.result, 
+				bytesConverter, bytesConverter);
+		if(storeResult.error){
+			logger.log(Level.SEVERE, "Failed to create store: " + storeResult.toErrorString());
+			return false;
+		}
+		try{
+			fingerprintIndex = new FingerprintIndex(storeResult.result, maxMemoryFingerprintsResult.result, segmentsResult.result.intValue());
+		}catch(Exception e){
+			logger.log(Level.SEVERE, "Failed to initialize fingerprint index", e);
+			try{
+				storeResult.result.close();
+			}catch(Exception closeException){
+				logger.log(Level.WARNING, "Failed to close store", closeException);
+			}
+			return false;
+		}
+		reportingIntervalMillis = reportingResult.result * 1000;
+		lastReportedMillis = System.currentTimeMillis();
+		logger.log(Level.INFO, "Arguments => mode: {0}, maxMemoryFingerprints: {1}, segments: {2}, store: {3}, reportingIntervalSeconds: {4}",
+				new Object[]{MODE_FINGERPRINT_INDEX, maxMemoryFingerprintsResult.result, segmentsResult.result, 
+						storeArgumentResult.result, reportingResult.result});
+		return true;
+	}
+	
+	@Override
+	public boolean shutdown(){
+		if(fingerprintIndex != null){
+			logger.log(Level.INFO, "Deduplicate statistics: " + fingerprintIndex.getStatistics());
+			try{
+				fingerprintIndex.close();
+			}catch(Exception e){
+				logger.log(Level.SEVERE, "Failed to close fingerprint index", e);
+				return false;
+			}
+		}
+		return true;
+	}
+	
 	@Override
 	public void putVertex(AbstractVertex incomingVertex) {
-        boolean contained = false;
-		contained = negativeBloomFilter.containsAndAdd(incomingVertex.bigHashCodeBytes());
+		boolean contained = false;
+		if(fingerprintIndex != null){
+			long[] fingerprint = new long[2];
+			addFingerprint(incomingVertex, fingerprint);
+			contained = containsAndAdd(fingerprint);
+		}else{
+			contained = negativeBloomFilter.containsAndAdd(incomingVertex.bigHashCodeBytes());
+		}
 		if(!contained){
 			putInNextFilter(incomingVertex);
 		}
@@ -105,11 +216,127 @@ public class Deduplicate extends AbstractFilter{
 
 	@Override
 	public void putEdge(AbstractEdge incomingEdge) {
-        boolean contained = false;
-		contained = negativeBloomFilter.containsAndAdd(incomingEdge.bigHashCodeBytes());
+		boolean contained = false;
+		if(fingerprintIndex != null){
+			contained = containsAndAdd(fingerprint(incomingEdge));
+		}else{
+			contained = negativeBloomFilter.containsAndAdd(incomingEdge.bigHashCodeBytes());
+		}
 		if(!contained){
 			putInNextFilter(incomingEdge);
 		}
 	}
 	
+	private boolean containsAndAdd(long[] fingerprint){
+		boolean contained = false;
+		try{
+			contained = fingerprintIndex.containsAndAdd(fingerprint[0], fingerprint[1]);
+		}catch(Exception e){
+			// Pass it on. A duplicate is better than a loss.
+			logger.log(Level.SEVERE, "Failed to look up fingerprint", e);
+		}
+		if(reportingIntervalMillis > 0){
+			long now = System.currentTimeMillis();
+			if(now - lastReportedMillis >= reportingIntervalMillis){
+				lastReportedMillis = now;
+				logger.log(Level.INFO, "Deduplicate statistics: " + fingerprintIndex.getStatistics());
+			}
+		}
+		return contained;
+	}
+	
+	/////////////////////////////////////////////////
+	
+	/**
+	 * Fingerprint of the edge which includes the fingerprints of the endpoints
+	 */
+	private static long[] fingerprint(AbstractEdge edge){
+		long[] fingerprint = new long[2];
+		long[] child = new long[2];
+		long[] parent = new long[2];
+		addFingerprint(edge, fingerprint);
+		addFingerprint(edge.getChildVertex(), child);
+		addFingerprint(edge.getParentVertex(), parent);
+		// Ordered so that the direction of the edge matters
+		long high = fmix64(fingerprint[0] ^ 0x2545F4914F6CDD1DL);
+		long low = fmix64(fingerprint[1] + 0x2545F4914F6CDD1DL);
+		high = fmix64(high + child[0]) ^ parent[1];
+		low = fmix64(low ^ child[1]) + parent[0];
+		fingerprint[0] = fmix64(high);
+		fingerprint[1] = fmix64(low ^ high);
+		return fingerprint;
+	}
+	
+	private static void addFingerprint(AbstractVertex vertex, long[] fingerprint){
+		if(vertex != null){
+			addFingerprint(vertex.getAnnotations(), fingerprint);
+		}
+	}
+	
+	private static void addFingerprint(AbstractEdge edge, long[] fingerprint){
+		addFingerprint(edge.getAnnotations(), fingerprint);
+	}
+	
+	/**
+	 * Adds the 128-bit fingerprint of the annotations to the given one. The entry hashes are added
+	 * so the order of the entries does not matter.
+	 */
+	private static void addFingerprint(Map<String, String> annotations, long[] fingerprint){
+		long high = annotations.size(), low = ~(long)annotations.size();
+		for(Map.Entry<String, String> entry : annotations.entrySet()){
+			long a = 0xCBF29CE484222325L, b = 0x9E3779B97F4A7C15L;
+			String key = entry.getKey();
+			String value = entry.getValue();
+			if(key != null){
+				for(int i = 0; i < key.length(); i++){
+					char c = key.charAt(i);
+					a = (a ^ c) * 0x100000001B3L;
+					b = Long.rotateLeft(b + c, 29) * 0xFF51AFD7ED558CCDL;
+				}
+				a = (a ^ key.length()) * 0xC4CEB9FE1A85EC53L;
+			}
+			b = Long.rotateLeft(b ^ 0x27D4EB2F165667C5L, 31);
+			if(value != null){
+				for(int i = 0; i < value.length(); i++){
+					char c = value.charAt(i);
+					a = (a ^ c) * 0x100000001B3L;
+					b = Long.rotateLeft(b + c, 29) * 0xFF51AFD7ED558CCDL;
+				}
+				a = (a ^ value.length()) * 0xC4CEB9FE1A85EC53L;
+			}
+			high += fmix64(a ^ Long.rotateLeft(b, 17));
+			low += fmix64(b + a);
+		}
+		fingerprint[0] += fmix64(high);
+		fingerprint[1] += fmix64(low);
+	}
+	
+	private static long fmix64(long k){
+		k ^= k >>> 33;
+		k *= 0xFF51AFD7ED558CCDL;
+		k ^= k >>> 33;
+		k *= 0xC4CEB9FE1A85EC53L;
+		k ^= k >>> 33;
+		return k;
+	}
+	
+	private static final Converter<byte[], byte[]> bytesConverter = new Converter<byte[], byte[]>(){
+		@Override
+		public byte[] serialize(byte[] i) throws Exception{
+			return i;
+		}
+		@Override
+		public byte[] deserialize(byte[] j) throws Exception{
+			return j;
+		}
+		@Override
+		public byte[] serializeObject(Object o) throws Exception{
+			return (byte[])o;
+		}
+		@Override
+		public byte[] deserializeObject(Object o) throws Exception{
+			return (byte[])o;
+		}
+	};
+	
 }
@@ -97,6 +97,12 @@ public class DropKeys extends AbstractFilter{
 		
 	}
 	
+	// Elements are copied before the keys are dropped
+	@Override
+	public boolean isPartitionSafe(){
+		return true;
+	}
+
 	@Override
 	public void putVertex(AbstractVertex incomingVertex) {
 		if(incomingVertex != null){
@@ -24,6 +24,8 @@ import spade.core.AbstractFilter;
 import spade.core.AbstractSketch;
 import spade.core.AbstractStorage;
 import spade.core.AbstractVertex;
+import spade.core.Metrics;
+import spade.utility.profile.LatencyHistogram;
 
 import java.util.HashSet;
 import java.util.Set;
@@ -34,15 +36,28 @@ public class FinalCommitFilter extends AbstractFilter {
     public Set<AbstractStorage> storages = new HashSet<>();
     public Set<AbstractSketch> sketches = new HashSet<>();
 
+    // One in this many calls to the storages is timed if metrics are enabled
+    private final int sampleRate = Metrics.getSampleRate();
+    private int vertexCalls = 0, edgeCalls = 0;
+
     // This filter is the last filter in the list so any vertices or edges
     // received by it need to be passed to the storages. On receiving any
     // provenance elements, it is passed to all storages.
     @Override
     public void putVertex(AbstractVertex incomingVertex) {
+        boolean timed = ++vertexCalls >= sampleRate;
+        if (timed) {
+            vertexCalls = 0;
+        }
         for (AbstractStorage storage : storages) {
+            LatencyHistogram latency = timed ? storage.getVertexLatency() : null;
+            long start = (latency == null) ? 0 : System.nanoTime();
             if (storage.putVertex(incomingVertex)) {
                 incrementStorageVertexCount(storage);
             }
+            if (latency != null) {
+                latency.record(System.nanoTime() - start, sampleRate);
+            }
         }
         for (AbstractSketch sketch : sketches) {
             sketch.putVertex(incomingVertex);
@@ -51,10 +66,19 @@ public class FinalCommitFilter extends AbstractFilter {
 
     @Override
     public void putEdge(AbstractEdge incomingEdge) {
+        boolean timed = ++edgeCalls >= sampleRate;
+        if (timed) {
+            edgeCalls = 0;
+        }
         for (AbstractStorage storage : storages) {
+            LatencyHistogram latency = timed ? storage.getEdgeLatency() : null;
+            long start = (latency == null) ? 0 : System.nanoTime();
             if (storage.putEdge(incomingEdge)) {
                 incrementStorageEdgeCount(storage);
             }
+            if (latency != null) {
+                latency.record(System.nanoTime() - start, sampleRate);
+            }
         }
         for (AbstractSketch sketch : sketches) {
             sketch.putEdge(incomingEdge);
@@ -23,56 +23,116 @@ import spade.core.AbstractEdge;
 import spade.core.AbstractFilter;
 import spade.core.AbstractVertex;
 import spade.core.Edge;
+import spade.core.Settings;
 import spade.core.Vertex;
+import spade.utility.ReachabilityIndex;
+import spade.utility.Result;
+import spade.utility.map.external.ExternalMap;
+import spade.utility.map.external.ExternalMapArgument;
+import spade.utility.map.external.ExternalMapManager;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Objects;
-import java.util.Set;
+import java.io.Serializable;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public class GraphFinesse extends AbstractFilter {
 
-    // 'ancestors' maps a given vertex to its ancestors.
-    private final Map<AbstractVertex, Set<AbstractVertex>> ancestors;
-    // 'descendants' maps a given vertex to its descendants. We use this to update
-    // the ancestors map when an edge is added.
-    private final Map<AbstractVertex, Set<AbstractVertex>> descendants;
-    // 'passedVertices' maps a given vertex to a boolean indicating whether it has
-    // been passed to the next filter or not.
-    private final Map<AbstractVertex, Boolean> passedVertices;
-    // 'passedEdges' maps a given edge to a boolean indicating whether it has been 
-    // passed to the next filter or not.
-    private final Map<AbstractEdge, Boolean> passedEdges;
-    // 'vertexVersions' maps a given vertex to it's version number.
-    private final Map<AbstractVertex, Integer> vertexVersions;
-    // 'vertexStrings' maps a string representation of a vertex to the actual vertex.
-    private final Map<String, AbstractVertex> vertexStrings;
+    private static final Logger logger = Logger.getLogger(GraphFinesse.class.getName());
+
+    // Reachability between the current versions of the vertices. Edges go from child to parent.
+    // Kept in memory since it is only a few ints per vertex and edge.
+    private final ReachabilityIndex index;
+    // 'vertices' maps the hash of an incoming vertex to the state of its current version.
+    private final String vertexMapId = "GraphFinesseVertexMap";
+    private ExternalMap<String, VertexState> vertices;
+    // 'passedEdges' contains the hashes of the edges passed to the next filter.
+    private final String edgeMapId = "GraphFinesseEdgeMap";
+    private ExternalMap<String, Boolean> passedEdges;
     private final int initialVersion = 0;
     private final String versionAnnotation = "GFVersion";
 
+    private long newVersions = 0, duplicateEdges = 0;
+
+    private static final class VertexState implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final AbstractVertex copy;
+        private final int id;
+        private final int version;
+        private boolean passed = false;
+
+        private VertexState(AbstractVertex copy, int id, int version) {
+            this.copy = copy;
+            this.id = id;
+            this.version = version;
+        }
+    }
+
     public GraphFinesse() {
-        ancestors = new HashMap<>();
-        descendants = new HashMap<>();
-        passedVertices = new HashMap<>();
-        passedEdges = new HashMap<>();
-        vertexVersions = new HashMap<>();
-        vertexStrings = new HashMap<>();
+        index = new ReachabilityIndex();
+    }
+
+    @Override
+    public boolean initialize(String arguments) {
+        String defaultConfigFilePath = Settings.getDefaultConfigFilePath(this.getClass());
+        vertices = createExternalMap(vertexMapId, defaultConfigFilePath);
+        if (vertices == null) {
+            return false;
+        }
+        passedEdges = createExternalMap(edgeMapId, defaultConfigFilePath);
+        if (passedEdges == null) {
+            closeExternalMap(vertices, vertexMapId);
+            return false;
+        }
+        return true;
+    }
+
+    private static <V extends Serializable> ExternalMap<String, V> createExternalMap(String mapId, String configFilePath) {
+        Result<ExternalMapArgument> externalMapArgumentResult = ExternalMapManager.parseArgumentFromFile(mapId, configFilePath);
+        if (externalMapArgumentResult.error) {
+            logger.log(Level.SEVERE, "Failed to parse argument for external map: '" + mapId + "'");
+            logger.log(Level.SEVERE, externalMapArgumentResult.toErrorString());
+            return null;
+        }
+        ExternalMapArgument externalMapArgument = externalMapArgumentResult.result;
+        Result<ExternalMap<String, V>> externalMapResult = ExternalMapManager.create(externalMapArgument);
+        if (externalMapResult.error) {
+            logger.log(Level.SEVERE, "Failed to create external map '" + mapId + "' from arguments: " + externalMapArgument);
+            logger.log(Level.SEVERE, externalMapResult.toErrorString());
+            return null;
+        }
+        logger.log(Level.INFO, mapId + ": " + externalMapArgument);
+        return externalMapResult.result;
+    }
+
+    private static void closeExternalMap(ExternalMap<?, ?> map, String mapId) {
+        try {
+            map.close();
+        } catch (Throwable t) {
+            logger.log(Level.SEVERE, "Failed to close external map '" + mapId + "'", t);
+        }
     }
 
     @Override
     public void putVertex(AbstractVertex incomingVertex) {
-        if (vertexStrings.containsKey(incomingVertex.toString())) {
-            // We've already seen this vertex.
-            return;
+        getVertexState(incomingVertex.bigHashCode(), incomingVertex);
+    }
+
+    private VertexState getVertexState(String key, AbstractVertex incomingVertex) {
+        // For comparison purposes, we key by the original vertex since the
+        // filter may change the version.
+        VertexState state = vertices.get(key);
+        if (state == null) {
+            state = newVersion(incomingVertex, initialVersion);
+            vertices.put(key, state);
         }
-        AbstractVertex copy = copyVertex(incomingVertex);
-        copy.addAnnotation(versionAnnotation, Integer.toString(initialVersion));
-        // For comparison purposes, we store the string representation of the 
-        // original vertex since the filter may change the version.
-        vertexStrings.put(incomingVertex.toString(), copy);
-        passedVertices.put(copy, Boolean.FALSE);
-        vertexVersions.put(copy, initialVersion);
+        return state;
+    }
+
+    private VertexState newVersion(AbstractVertex vertex, int version) {
+        AbstractVertex copy = copyVertex(vertex);
+        copy.removeAnnotation(versionAnnotation);
+        copy.addAnnotation(versionAnnotation, Integer.toString(version));
+        return new VertexState(copy, index.addVertex(), version);
     }
 
     // Given an incoming edge A->B, GF uses the following rules:
@@ -82,80 +142,46 @@ public class GraphFinesse extends AbstractFilter {
     // 3) If rules (1) and (2) are not met, then add the edge as a normal edge.
     @Override
     public void putEdge(AbstractEdge edge) {
-        AbstractVertex source = vertexStrings.get(edge.getChildVertex().toString());
-        AbstractVertex destination = vertexStrings.get(edge.getParentVertex().toString());
+        String sourceKey = edge.getChildVertex().bigHashCode();
+        String destinationKey = edge.getParentVertex().bigHashCode();
+        VertexState source = getVertexState(sourceKey, edge.getChildVertex());
+        VertexState destination = getVertexState(destinationKey, edge.getParentVertex());
         AbstractEdge copyEdge = copyEdge(edge);
-        copyEdge.setChildVertex(source);
-        copyEdge.setParentVertex(destination);
+        copyEdge.setChildVertex(source.copy);
+        copyEdge.setParentVertex(destination.copy);
 
         // Check for rule 1
-        if (passedEdges.containsKey(copyEdge)) // Check for rule 2
-        {
+        String edgeKey = copyEdge.bigHashCode();
+        if (passedEdges.contains(edgeKey)) {
+            duplicateEdges++;
             return;
         }
 
-        // Check for rule 2
-        if (ancestors.containsKey(destination) && ancestors.get(destination).contains(source)) {
-            // Rule 2 is hit, update the vertex number.
-            int newVersion = vertexVersions.get(source) + 1;
-            source.removeAnnotation(versionAnnotation);
-            source.addAnnotation(versionAnnotation, Integer.toString(newVersion));
-            vertexVersions.put(source, newVersion);
+        // Check for rule 2. The index refuses an edge that would create a cycle.
+        if (!index.addEdge(source.id, destination.id)) {
+            // Rule 2 is hit, the new version replaces A for the following edges.
+            // A' has no edges yet so A'->B can't create a cycle.
+            source = newVersion(source.copy, source.version + 1);
+            vertices.put(sourceKey, source);
+            index.addEdge(source.id, destination.id);
+            copyEdge.setChildVertex(source.copy);
+            edgeKey = copyEdge.bigHashCode();
+            newVersions++;
         }
-
-        updateAncestors(source, destination);
-        updateDescendants(source, destination);
+        passedEdges.put(edgeKey, Boolean.TRUE);
 
         // Pass the edges and vertices.
-        checkVertexCache(source);
-        checkVertexCache(destination);
+        checkVertexCache(sourceKey, source);
+        checkVertexCache(destinationKey, destination);
         putInNextFilter(copyEdge);
     }
 
-    private void updateAncestors(AbstractVertex source, AbstractVertex destination) {
-        // Update the ancestors for this vertex and its descendants.
-        if (!ancestors.containsKey(source)) {
-            HashSet<AbstractVertex> vertexAncestors = new HashSet<>();
-            vertexAncestors.add(destination);
-            ancestors.put(source, vertexAncestors);
-        }
-        // Update the ancestors for this vertex by adding all the ancestors
-        // of the destination vertex.
-        ancestors.get(source).addAll(ancestors.get(destination));
-        // Update the ancestors of the descendants of this vertex since this
-        // edge may have created new descendants.
-        for (AbstractVertex descendant : descendants.get(source)) {
-            if (ancestors.containsKey(descendant)) {
-                ancestors.get(descendant).add(source);
-                ancestors.get(descendant).addAll(ancestors.get(source));
-            }
-        }
-    }
-
-    private void updateDescendants(AbstractVertex source, AbstractVertex destination) {
-        // Update the descendants for this vertex and its ancestors.
-        if (!descendants.containsKey(destination)) {
-            HashSet<AbstractVertex> vertexDescendants = new HashSet<>();
-            vertexDescendants.add(source);
-            descendants.put(destination, vertexDescendants);
-        }
-        // Update the descendants for this vertex by adding all the descendants
-        // of the source vertex.
-        descendants.get(destination).addAll(descendants.get(source));
-        // Update the descendants of the ancestors of this vertex since this
-        // edge may have created new ancestors.
-        for (AbstractVertex ancestor : ancestors.get(source)) {
-            if (descendants.containsKey(ancestor)) {
-                descendants.get(ancestor).add(source);
-                descendants.get(ancestor).addAll(descendants.get(source));
-            }
-        }
-    }
-
-    private void checkVertexCache(AbstractVertex vertex) {
-        if (Objects.equals(passedVertices.get(vertex), Boolean.FALSE)) {
-            putInNextFilter(vertex);
-            passedVertices.put(vertex, Boolean.TRUE);
+    private void checkVertexCache(String key, VertexState vertex) {
+        if (!vertex.passed) {
+            putInNextFilter(vertex.copy);
+            vertex.passed = true;
+            // Put again since the state might have been read from the store
+            vertices.put(key, vertex);
         }
     }
 
@@ -172,4 +198,16 @@ public class GraphFinesse extends AbstractFilter {
         copy.addAnnotations(edge.getAnnotations());
         return copy;
     }
+
+    public String getStatistics() {
+        return index.getStatistics() + ", new versions: " + newVersions + ", duplicate edges: " + duplicateEdges;
+    }
+
+    @Override
+    public boolean shutdown() {
+        closeExternalMap(vertices, vertexMapId);
+        closeExternalMap(passedEdges, edgeMapId);
+        logger.log(Level.INFO, getStatistics());
+        return true;
+    }
 }
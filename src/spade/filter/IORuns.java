@@ -19,23 +19,28 @@
  */
 package spade.filter;
 
+import java.io.Serializable;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Queue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import spade.core.AbstractEdge;
 import spade.core.AbstractFilter;
 import spade.core.AbstractVertex;
+import spade.core.Settings;
 import spade.edge.opm.Used;
 import spade.edge.opm.WasGeneratedBy;
 import spade.utility.CommonFunctions;
 import spade.utility.LoadableField;
 import spade.utility.LoadableFieldHelper;
+import spade.utility.Result;
+import spade.utility.map.external.ExternalMap;
+import spade.utility.map.external.ExternalMapArgument;
+import spade.utility.map.external.ExternalMapManager;
 import spade.vertex.opm.Artifact;
 
 /**
@@ -53,26 +58,64 @@ import spade.vertex.opm.Artifact;
  * 
  * The filter is applied to only those artifacts which contain all the above-mentioned annotations specified in arguments
  * as 'key'.
+ * 
+ * Optional arguments to bound the state kept:
+ * 'windowEvents' or 'windowSeconds': runs on an artifact are closed after this many vertices and edges, or seconds,
+ * without a read or write on it. A read or write after that starts a new run. Artifact vertices not followed by a
+ * read or write within the window are passed on as they are.
+ * 'maxArtifacts': maximum number of artifacts to keep runs for in memory. Runs of the least recently used artifacts
+ * are closed, or moved to the external map 'IORunsMap' (see config) if 'spill=true'.
  */
 public class IORuns extends AbstractFilter {
 
 	private static final Logger logger = Logger.getLogger(IORuns.class.getName());
 	
 	private static final String argNameArtifactKey = "key";
+	private static final String argNameWindowEvents = "windowEvents";
+	private static final String argNameWindowSeconds = "windowSeconds";
+	private static final String argNameMaxArtifacts = "maxArtifacts";
+	private static final String argNameSpill = "spill";
 	
 	@LoadableField(name=argNameArtifactKey, optional=false, splitBy=",")
 	private final String[] artifactsKeysArray = null;
 	
-    private final Map<String, HashSet<String>> writes;
-    private final Map<String, HashSet<String>> reads;
-    private final Queue<AbstractVertex> vertexBuffer;
-
-    public IORuns() {
-        writes = new HashMap<>();
-        reads = new HashMap<>();
-        vertexBuffer = new LinkedList<>();
-    }
-    
+	@LoadableField(name=argNameWindowEvents, optional=true, min=0)
+	private Long windowEvents = null;
+	
+	@LoadableField(name=argNameWindowSeconds, optional=true, min=0)
+	private Long windowSeconds = null;
+	
+	@LoadableField(name=argNameMaxArtifacts, optional=true, min=0)
+	private Integer maxArtifacts = null;
+	
+	@LoadableField(name=argNameSpill, optional=true)
+	private Boolean spill = null;
+	
+	private static final String spillMapId = "IORunsMap";
+	private ExternalMap<String, Runs> spilledRuns;
+	
+	// Artifact vertices waiting for their read or write edge, oldest first, mapped to when they were received
+	private final LinkedHashMap<AbstractVertex, Long> pendingArtifacts = new LinkedHashMap<>();
+	// Runs by the values of the artifact keys, least recently used first
+	private final LinkedHashMap<String, Runs> runs = new LinkedHashMap<>(16, 0.75f, true);
+	
+	// 0 if there is no window
+	private long window = 0;
+	private long eventCount = 0;
+	
+	private long collapsedReads = 0, collapsedWrites = 0, passedReads = 0, passedWrites = 0;
+	private long closedRuns = 0, spilledRunsCount = 0, expiredArtifacts = 0;
+	
+	/**
+	 * Processes (by hashCode) currently in a run of reads and a run of writes on an artifact.
+	 */
+	private static class Runs implements Serializable{
+		private static final long serialVersionUID = 2935411876493307812L;
+		private final HashSet<Integer> readers = new HashSet<>();
+		private final HashSet<Integer> writers = new HashSet<>();
+		private long lastUsed;
+	}
+	
     private boolean printGlobals(){
 		try{
 			String globalsString = LoadableFieldHelper.allLoadableFieldsToString(this);
@@ -93,6 +136,14 @@ public class IORuns extends AbstractFilter {
 			return false;
 		}
 		
+		// Arguments of the external map are read by ExternalMapManager
+		Iterator<String> keysIterator = globalsMap.keySet().iterator();
+		while(keysIterator.hasNext()){
+			if(keysIterator.next().startsWith(spillMapId + ".")){
+				keysIterator.remove();
+			}
+		}
+		
 		try{
 			LoadableFieldHelper.loadAllLoadableFieldsFromMap(this, globalsMap);
 		}catch(Exception e){
@@ -108,6 +159,16 @@ public class IORuns extends AbstractFilter {
 			}
 		}
 		
+		if(windowEvents != null && windowSeconds != null){
+			logger.log(Level.SEVERE, "Only one of '"+argNameWindowEvents+"' and '"+argNameWindowSeconds+"' can be specified");
+			return false;
+		}
+		if(windowEvents != null){
+			window = windowEvents;
+		}else if(windowSeconds != null){
+			window = windowSeconds * 1000;
+		}
+		
 		if(printGlobals()){
 			return true;
 		}else{
@@ -119,9 +180,30 @@ public class IORuns extends AbstractFilter {
     public boolean initialize(String arguments){
     	if(!initGlobals(arguments)){
 			return false;
-		}else{
-			return true;
 		}
+		if(spill != null && spill){
+			if(maxArtifacts == null || maxArtifacts == 0){
+				logger.log(Level.SEVERE, "'"+argNameSpill+"' requires '"+argNameMaxArtifacts+"'");
+				return false;
+			}
+			String defaultConfigFilePath = Settings.getDefaultConfigFilePath(this.getClass());
+			Result<ExternalMapArgument> externalMapArgumentResult = ExternalMapManager.parseArgumentFromFile(spillMapId, defaultConfigFilePath);
+			if(externalMapArgumentResult.error){
+				logger.log(Level.SEVERE, "Failed to parse argument for external map: '"+spillMapId+"'");
+				logger.log(Level.SEVERE, externalMapArgumentResult.toErrorString());
+				return false;
+			}
+			ExternalMapArgument externalMapArgument = externalMapArgumentResult.result;
+			Result<ExternalMap<String, Runs>> externalMapResult = ExternalMapManager.create(externalMapArgument);
+			if(externalMapResult.error){
+				logger.log(Level.SEVERE, "Failed to create external map '"+spillMapId+"' from arguments: " + externalMapArgument);
+				logger.log(Level.SEVERE, externalMapResult.toErrorString());
+				return false;
+			}
+			logger.log(Level.INFO, spillMapId + ": " + externalMapArgument);
+			spilledRuns = externalMapResult.result;
+		}
+		return true;
     }
     
     private boolean artifactContainsAllArtifactKeys(AbstractVertex artifact){
@@ -141,10 +223,106 @@ public class IORuns extends AbstractFilter {
     	return value;
     }
     
+    private long now(){
+    	return windowSeconds != null ? System.currentTimeMillis() : eventCount;
+    }
+    
+    private boolean isExpired(long lastUsed, long now){
+    	return window > 0 && now - lastUsed > window;
+    }
+    
+    /**
+     * Passes on the pending artifacts and closes the runs not used within the window.
+     * Both tables are ordered by last use so only the expired entries are visited.
+     */
+    private void expire(){
+    	if(window == 0){
+    		return;
+    	}
+    	long now = now();
+    	Iterator<Map.Entry<AbstractVertex, Long>> pendingIterator = pendingArtifacts.entrySet().iterator();
+    	while(pendingIterator.hasNext()){
+    		Map.Entry<AbstractVertex, Long> entry = pendingIterator.next();
+    		if(!isExpired(entry.getValue(), now)){
+    			break;
+    		}
+    		pendingIterator.remove();
+    		expiredArtifacts++;
+    		putInNextFilter(entry.getKey());
+    	}
+    	Iterator<Runs> runsIterator = runs.values().iterator();
+    	while(runsIterator.hasNext()){
+    		if(!isExpired(runsIterator.next().lastUsed, now)){
+    			break;
+    		}
+    		runsIterator.remove();
+    		closedRuns++;
+    	}
+    }
+    
+    private Runs getRuns(String artifactKeysValues){
+    	long now = now();
+    	Runs artifactRuns = runs.get(artifactKeysValues);
+    	if(artifactRuns == null && spilledRuns != null){
+    		artifactRuns = spilledRuns.get(artifactKeysValues);
+    		if(artifactRuns != null){
+    			spilledRuns.remove(artifactKeysValues);
+    			if(isExpired(artifactRuns.lastUsed, now)){
+    				closedRuns++;
+    				artifactRuns = null;
+    			}else{
+    				runs.put(artifactKeysValues, artifactRuns);
+    			}
+    		}
+    	}
+    	if(artifactRuns == null){
+    		artifactRuns = new Runs();
+    		runs.put(artifactKeysValues, artifactRuns);
+    	}
+    	artifactRuns.lastUsed = now;
+    	evictLeastRecentlyUsed();
+    	return artifactRuns;
+    }
+    
+    private void evictLeastRecentlyUsed(){
+    	if(maxArtifacts == null || maxArtifacts == 0){
+    		return;
+    	}
+    	Iterator<Map.Entry<String, Runs>> iterator = runs.entrySet().iterator();
+    	while(runs.size() > maxArtifacts && iterator.hasNext()){
+    		Map.Entry<String, Runs> leastRecentlyUsed = iterator.next();
+    		iterator.remove();
+    		if(spilledRuns != null){
+    			spilledRuns.put(leastRecentlyUsed.getKey(), leastRecentlyUsed.getValue());
+    			spilledRunsCount++;
+    		}else{
+    			closedRuns++;
+    		}
+    	}
+    }
+    
+    /**
+     * @return true if the process is already in a run of reads (or writes) on the artifact. Otherwise it starts
+     * one and its run of the other kind ends.
+     */
+    private boolean continuesRun(AbstractVertex artifact, AbstractVertex process, boolean read){
+    	Runs artifactRuns = getRuns(getArtifactKeysValues(artifact));
+    	Integer processHash = process.hashCode();
+    	if(!(read ? artifactRuns.readers : artifactRuns.writers).add(processHash)){
+    		return true;
+    	}
+    	(read ? artifactRuns.writers : artifactRuns.readers).remove(processHash);
+    	return false;
+    }
+    
     @Override
     public void putVertex(AbstractVertex incomingVertex) {
+    	eventCount++;
+    	expire();
         if ((incomingVertex instanceof Artifact) && artifactContainsAllArtifactKeys(incomingVertex)) {
-            vertexBuffer.add(incomingVertex);
+        	// Re-inserted to keep the table ordered by time
+        	pendingArtifacts.remove(incomingVertex);
+        	pendingArtifacts.put(incomingVertex, now());
         } else {
             putInNextFilter(incomingVertex);
         }
@@ -152,61 +330,52 @@ public class IORuns extends AbstractFilter {
 
     @Override
     public void putEdge(AbstractEdge incomingEdge) {
+    	eventCount++;
+    	expire();
         if ((incomingEdge instanceof Used) && artifactContainsAllArtifactKeys(incomingEdge.getParentVertex())) {
-            Used usedEdge = (Used) incomingEdge;
-            String fileVertexHash = getArtifactKeysValues(usedEdge.getParentVertex());
-            String processVertexHash = Integer.toString(usedEdge.getChildVertex().hashCode());
-            if (!reads.containsKey(fileVertexHash)) {
-                HashSet<String> tempSet = new HashSet<>();
-                tempSet.add(processVertexHash);
-                reads.put(fileVertexHash, tempSet);
-            } else {
-                HashSet<String> tempSet = reads.get(fileVertexHash);
-                if (tempSet.contains(processVertexHash)) {
-                    vertexBuffer.remove(usedEdge.getParentVertex());
-                    return;
-                } else {
-                    tempSet.add(processVertexHash);
-                }
-            }
-            vertexBuffer.remove(usedEdge.getParentVertex());
-            putInNextFilter(usedEdge.getParentVertex());
-            putInNextFilter(usedEdge);
-            if (writes.containsKey(fileVertexHash)) {
-                HashSet<String> tempSet = writes.get(fileVertexHash);
-                tempSet.remove(processVertexHash);
-            }
+        	AbstractVertex artifact = incomingEdge.getParentVertex();
+        	pendingArtifacts.remove(artifact);
+        	if(continuesRun(artifact, incomingEdge.getChildVertex(), true)){
+        		collapsedReads++;
+        	}else{
+        		passedReads++;
+        		putInNextFilter(artifact);
+        		putInNextFilter(incomingEdge);
+        	}
         } else if ((incomingEdge instanceof WasGeneratedBy) && artifactContainsAllArtifactKeys(incomingEdge.getChildVertex())){
-            WasGeneratedBy wgb = (WasGeneratedBy) incomingEdge;
-            String fileVertexHash = getArtifactKeysValues(wgb.getChildVertex());
-            String processVertexHash = Integer.toString(wgb.getParentVertex().hashCode());
-            if (!writes.containsKey(fileVertexHash)) {
-                HashSet<String> tempSet = new HashSet<>();
-                tempSet.add(processVertexHash);
-                writes.put(fileVertexHash, tempSet);
-            } else {
-                HashSet<String> tempSet = writes.get(fileVertexHash);
-                if (tempSet.contains(processVertexHash)) {
-                    vertexBuffer.remove(wgb.getChildVertex());
-                    return;
-                } else {
-                    tempSet.add(processVertexHash);
-                }
-            }
-            vertexBuffer.remove(wgb.getChildVertex());
-            putInNextFilter(wgb.getChildVertex());
-            putInNextFilter(wgb);
-            if (reads.containsKey(fileVertexHash)) {
-                HashSet<String> tempSet = reads.get(fileVertexHash);
-                tempSet.remove(processVertexHash);
-            }
+        	AbstractVertex artifact = incomingEdge.getChildVertex();
+        	pendingArtifacts.remove(artifact);
+        	if(continuesRun(artifact, incomingEdge.getParentVertex(), false)){
+        		collapsedWrites++;
+        	}else{
+        		passedWrites++;
+        		putInNextFilter(artifact);
+        		putInNextFilter(incomingEdge);
+        	}
         } else {
             putInNextFilter(incomingEdge);
         }
     }
+    
+    public String getStatistics(){
+    	return String.format("Reads collapsed: %d, passed: %d. Writes collapsed: %d, passed: %d. "
+    			+ "Runs open: %d, closed: %d, spilled: %d. Artifacts pending: %d, passed on expiry: %d.",
+    			collapsedReads, passedReads, collapsedWrites, passedWrites,
+    			runs.size(), closedRuns, spilledRunsCount, pendingArtifacts.size(), expiredArtifacts);
+    }
 
     @Override
     public boolean shutdown() {
+    	logger.log(Level.INFO, getStatistics());
+    	pendingArtifacts.clear();
+    	runs.clear();
+    	if(spilledRuns != null){
+    		try{
+    			spilledRuns.close();
+    		}catch(Throwable t){
+    			logger.log(Level.SEVERE, "Failed to close external map '"+spillMapId+"'", t);
+    		}
+    	}
         return true;
     }
 }
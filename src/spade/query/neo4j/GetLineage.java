@@ -0,0 +1,190 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2017 SRI International
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.query.neo4j;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import spade.core.AbstractVertex;
+import spade.core.Graph;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import static spade.core.AbstractAnalyzer.USE_SCAFFOLD;
+import static spade.core.AbstractAnalyzer.setRemoteResolutionRequired;
+import static spade.core.AbstractStorage.BUILD_SCAFFOLD;
+import static spade.core.AbstractStorage.DIRECTION;
+import static spade.core.AbstractStorage.DIRECTION_ANCESTORS;
+import static spade.core.AbstractStorage.DIRECTION_BOTH;
+import static spade.core.AbstractStorage.DIRECTION_DESCENDANTS;
+import static spade.core.AbstractStorage.MAX_DEPTH;
+import static spade.core.AbstractStorage.scaffold;
+import static spade.storage.Neo4j.RelationshipTypes;
+import static spade.storage.Neo4j.convertNodeToVertex;
+import static spade.storage.Neo4j.convertRelationshipToEdge;
+
+/**
+ * Lineage of a vertex computed with the Neo4j traversal framework in a single transaction instead of a
+ * query per vertex and edge as in spade.query.common.GetLineage. The result is the same: the first vertex
+ * matching the constraints, the vertices within maxDepth in the direction and the edges from the vertices
+ * within maxDepth - 1 to their neighbors. Every node is converted to a vertex once.
+ *
+ * @author raza
+ */
+public class GetLineage extends Neo4j<Graph>
+{
+    private static final Logger logger = Logger.getLogger(GetLineage.class.getName());
+
+    public GetLineage()
+    {
+        register();
+    }
+
+    @Override
+    public Graph execute(String argument_string)
+    {
+        Pattern argument_pattern = Pattern.compile(",");
+        String[] arguments = argument_pattern.split(argument_string);
+        String constraints = arguments[0].trim();
+        Map<String, List<String>> parameters = parseConstraints(constraints);
+        int maxDepth = Integer.parseInt(arguments[1].trim());
+        String direction = arguments[2].trim();
+
+        if(USE_SCAFFOLD && BUILD_SCAFFOLD)
+        {
+            return scaffold.queryManager(parameters);
+        }
+
+        return execute(parameters, direction, maxDepth);
+    }
+
+    @Override
+    public Graph execute(Map<String, List<String>> parameters, Integer limit)
+    {
+        return null;
+    }
+
+    Graph execute(Map<String, List<String>> parameters, String direction, int maxDepth)
+    {
+        boolean ancestors = DIRECTION_ANCESTORS.startsWith(direction.toLowerCase());
+        boolean descendants = DIRECTION_DESCENDANTS.startsWith(direction.toLowerCase());
+        if(DIRECTION_BOTH.startsWith(direction.toLowerCase()))
+        {
+            ancestors = descendants = true;
+        }
+        else if(!ancestors && !descendants)
+        {
+            return null;
+        }
+
+        Map<String, List<String>> vertexParams = new HashMap<>(parameters);
+        vertexParams.remove(DIRECTION);
+        vertexParams.remove(MAX_DEPTH);
+
+        GraphDatabaseService graphDb = ((spade.storage.Neo4j) currentStorage).getGraphDatabase();
+        Graph result = new Graph();
+        try(Transaction tx = graphDb.beginTx())
+        {
+            Node root = findVertexNode(graphDb, vertexParams);
+            if(root == null)
+            {
+                return null;
+            }
+            Map<Node, AbstractVertex> vertices = new HashMap<>();
+            if(ancestors)
+            {
+                addLineage(result, vertices, traverse(graphDb, root, Direction.OUTGOING, maxDepth),
+                        Direction.OUTGOING, maxDepth);
+            }
+            if(descendants)
+            {
+                addLineage(result, vertices, traverse(graphDb, root, Direction.INCOMING, maxDepth),
+                        Direction.INCOMING, maxDepth);
+            }
+            result.setRootVertex(vertices.get(root));
+            tx.success();
+        }
+        catch(Exception ex)
+        {
+            logger.log(Level.SEVERE, "Error retrieving lineage!", ex);
+            return null;
+        }
+
+        result.setMaxDepth(maxDepth);
+        for(AbstractVertex vertex : result.vertexSet())
+        {
+            if(vertex.isCompleteNetworkVertex())
+            {
+                setRemoteResolutionRequired();
+                result.putNetworkVertex(vertex, vertex.getDepth());
+            }
+        }
+        result.setComputeTime(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss z").format(new Date()));
+
+        return result;
+    }
+
+    /**
+     * Adds the traversed nodes as vertices and, for the nodes before the last depth, their edges in the
+     * direction. A vertex already added from the other direction keeps the smaller depth.
+     */
+    private static void addLineage(Graph result, Map<Node, AbstractVertex> vertices, Map<Node, Integer> depths,
+                                   Direction direction, int maxDepth)
+    {
+        for(Map.Entry<Node, Integer> entry : depths.entrySet())
+        {
+            AbstractVertex vertex = getVertex(vertices, entry.getKey());
+            if(!result.vertexSet().contains(vertex) || entry.getValue() < vertex.getDepth())
+            {
+                vertex.setDepth(entry.getValue());
+            }
+            result.putVertex(vertex);
+        }
+        for(Map.Entry<Node, Integer> entry : depths.entrySet())
+        {
+            if(entry.getValue() >= maxDepth)
+            {
+                continue;
+            }
+            for(Relationship relationship : entry.getKey().getRelationships(direction, RelationshipTypes.EDGE))
+            {
+                result.putEdge(convertRelationshipToEdge(relationship, getVertex(vertices, relationship.getStartNode()),
+                        getVertex(vertices, relationship.getEndNode())));
+            }
+        }
+    }
+
+    private static AbstractVertex getVertex(Map<Node, AbstractVertex> vertices, Node node)
+    {
+        AbstractVertex vertex = vertices.get(node);
+        if(vertex == null)
+        {
+            vertex = convertNodeToVertex(node);
+            vertices.put(node, vertex);
+        }
+        return vertex;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2017 SRI International
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.query.neo4j;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import spade.core.AbstractVertex;
+import spade.core.Graph;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import static spade.storage.Neo4j.RelationshipTypes;
+import static spade.storage.Neo4j.convertNodeToVertex;
+import static spade.storage.Neo4j.convertRelationshipToEdge;
+
+/**
+ * Paths from a source vertex to a destination vertex (following edges from child to parent) of at most
+ * maxLength edges, computed with two depth limited traversals in a single transaction instead of
+ * enumerating every simple path.
+ *
+ * The ancestors of the source and the descendants of the destination are found up to maxLength. A vertex
+ * is on a path if its distance from the source plus its distance to the destination is at most maxLength,
+ * and an edge is on a path if the same holds with the edge in between. Vertex depth is the distance from
+ * the source.
+ *
+ * @author raza
+ */
+public class GetPaths extends Neo4j<Graph>
+{
+    private static final Logger logger = Logger.getLogger(GetPaths.class.getName());
+
+    public GetPaths()
+    {
+        register();
+    }
+
+    @Override
+    public Graph execute(String argument_string)
+    {
+        Pattern argument_pattern = Pattern.compile(",");
+        String[] arguments = argument_pattern.split(argument_string);
+        String constraints = arguments[0].trim();
+        int maxLength = Integer.parseInt(arguments[1].trim());
+        Map<String, List<String>> parameters = parseConstraints(constraints);
+        // assumption that 'sourceVertexHash' and 'destinationVertexHash' keys are present
+        List<String> source = parameters.get("sourceVertexHash");
+        List<String> destination = parameters.get("destinationVertexHash");
+        if(source == null || destination == null)
+        {
+            logger.log(Level.SEVERE, "Missing 'sourceVertexHash' or 'destinationVertexHash'");
+            return null;
+        }
+
+        return execute(source.get(COL_VALUE), destination.get(COL_VALUE), maxLength);
+    }
+
+    @Override
+    public Graph execute(Map<String, List<String>> parameters, Integer limit)
+    {
+        return null;
+    }
+
+    Graph execute(String sourceVertexHash, String destinationVertexHash, int maxLength)
+    {
+        spade.storage.Neo4j neo4jStorage = (spade.storage.Neo4j) currentStorage;
+        GraphDatabaseService graphDb = neo4jStorage.getGraphDatabase();
+        Graph result = new Graph();
+        try(Transaction tx = graphDb.beginTx())
+        {
+            Node source = neo4jStorage.findVertexNode(sourceVertexHash);
+            Node destination = neo4jStorage.findVertexNode(destinationVertexHash);
+            if(source != null && destination != null)
+            {
+                Map<Node, Integer> up = traverse(graphDb, source, Direction.OUTGOING, maxLength);
+                Map<Node, Integer> down = traverse(graphDb, destination, Direction.INCOMING, maxLength);
+                Map<Node, AbstractVertex> vertices = new HashMap<>();
+                for(Map.Entry<Node, Integer> entry : up.entrySet())
+                {
+                    Integer downDepth = down.get(entry.getKey());
+                    if(downDepth != null && entry.getValue() + downDepth <= maxLength)
+                    {
+                        AbstractVertex vertex = convertNodeToVertex(entry.getKey());
+                        vertex.setDepth(entry.getValue());
+                        vertices.put(entry.getKey(), vertex);
+                        result.putVertex(vertex);
+                    }
+                }
+                for(Map.Entry<Node, AbstractVertex> entry : vertices.entrySet())
+                {
+                    int upDepth = up.get(entry.getKey());
+                    for(Relationship relationship : entry.getKey().getRelationships(Direction.OUTGOING,
+                            RelationshipTypes.EDGE))
+                    {
+                        Node parent = relationship.getEndNode();
+                        Integer downDepth = down.get(parent);
+                        if(vertices.containsKey(parent) && upDepth + 1 + downDepth <= maxLength)
+                        {
+                            result.putEdge(convertRelationshipToEdge(relationship, entry.getValue(),
+                                    vertices.get(parent)));
+                        }
+                    }
+                }
+            }
+            tx.success();
+        }
+        catch(Exception ex)
+        {
+            logger.log(Level.SEVERE, "Error retrieving paths!", ex);
+            return null;
+        }
+        result.setMaxDepth(maxLength);
+        result.setComputeTime(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss z").format(new Date()));
+
+        return result;
+    }
+}
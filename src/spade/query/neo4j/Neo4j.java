@@ -16,22 +16,31 @@
  */
 package spade.query.neo4j;
 
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Path;
 import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.traversal.Evaluators;
+import org.neo4j.graphdb.traversal.TraversalDescription;
+import org.neo4j.graphdb.traversal.Uniqueness;
 import spade.core.AbstractEdge;
 import spade.core.AbstractQuery;
 import spade.core.AbstractVertex;
 
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import static spade.core.AbstractStorage.PRIMARY_KEY;
 import static spade.storage.Neo4j.NodeTypes;
+import static spade.storage.Neo4j.RelationshipTypes;
 import static spade.storage.Neo4j.convertNodeToVertex;
 import static spade.storage.Neo4j.convertRelationshipToEdge;
 /**
@@ -72,6 +81,65 @@ public abstract class Neo4j<R> extends AbstractQuery<R>
         return query.toString();
     }
 
+    /**
+     * Finds the first vertex matching the constraints. A constraint on the hash alone is looked up in the
+     * schema index, other constraints with a Cypher query. Must be called in a transaction.
+     *
+     * @return the node or NULL if none matches
+     */
+    protected static Node findVertexNode(GraphDatabaseService graphDb, Map<String, List<String>> parameters)
+    {
+        List<String> hash = parameters.get(PRIMARY_KEY);
+        if(parameters.size() == 1 && hash != null && OPERATORS.EQUALS.equals(hash.get(COMPARISON_OPERATOR)))
+        {
+            return graphDb.findNode(NodeTypes.VERTEX, PRIMARY_KEY, hash.get(COL_VALUE));
+        }
+
+        StringBuilder query = new StringBuilder(100);
+        query.append("MATCH (").append(VERTEX_ALIAS).append(":").append(NodeTypes.VERTEX).append(") WHERE ");
+        for(Map.Entry<String, List<String>> entry : parameters.entrySet())
+        {
+            List<String> values = entry.getValue();
+            query.append(VERTEX_ALIAS).append(".`").append(entry.getKey()).append("` ");
+            query.append(values.get(COMPARISON_OPERATOR));
+            query.append(" '").append(values.get(COL_VALUE).replace("\\", "\\\\").replace("'", "\\'")).append("' ");
+            String boolOperator = values.get(BOOLEAN_OPERATOR);
+            if(boolOperator != null)
+            {
+                query.append(boolOperator).append(" ");
+            }
+        }
+        query.append("RETURN ").append(VERTEX_ALIAS).append(" LIMIT 1");
+        Result result = graphDb.execute(query.toString());
+        Iterator<Node> nodes = result.columnAs(VERTEX_ALIAS);
+        Node node = nodes.hasNext() ? nodes.next() : null;
+        result.close();
+        return node;
+    }
+
+    /**
+     * Breadth first traversal from the node over edges in the direction (OUTGOING for ancestors since
+     * edges go from child to parent) up to maxDepth. Every node is visited once, at its shortest depth.
+     * Must be called in a transaction.
+     *
+     * @return nodes in the order of their depth, mapped to their depth
+     */
+    protected static Map<Node, Integer> traverse(GraphDatabaseService graphDb, Node start, Direction direction,
+                                                 int maxDepth)
+    {
+        TraversalDescription traversal = graphDb.traversalDescription()
+                .breadthFirst()
+                .relationships(RelationshipTypes.EDGE, direction)
+                .uniqueness(Uniqueness.NODE_GLOBAL)
+                .evaluator(Evaluators.toDepth(maxDepth));
+        Map<Node, Integer> depths = new LinkedHashMap<>();
+        for(Path path : traversal.traverse(start))
+        {
+            depths.put(path.endNode(), path.length());
+        }
+        return depths;
+    }
+
     protected Set<AbstractVertex> prepareVertexSetFromNeo4jResult(String query)
     {
         Set<AbstractVertex> vertexSet = new HashSet<>();
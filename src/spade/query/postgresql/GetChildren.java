@@ -39,41 +39,33 @@ public class GetChildren extends PostgreSQL<Graph>
     public Graph execute(Map<String, List<String>> parameters, Integer limit)
     {
         // implicit assumption that parameters contain annotation PARENT_VERTEX_KEY
-        StringBuilder query = new StringBuilder(100);
-
-        query.append("SELECT * FROM ");
-        query.append(VERTEX_TABLE);
-        query.append(" WHERE ");
-        query.append("\"");
-        query.append(PRIMARY_KEY);
-        query.append("\"");
-        query.append(" IN(");
-        query.append("SELECT ");
-        query.append("\"");
-        query.append(CHILD_VERTEX_KEY);
-        query.append("\"");
-        query.append(" FROM ");
-        query.append(EDGE_TABLE);
-        query.append(" WHERE ");
-        query.append("\"");
-        query.append(PARENT_VERTEX_KEY);
-        query.append("\"");
-        query.append(" = ");
-        query.append("'");
         List<String> entry = parameters.get(PARENT_VERTEX_KEY);
-        if(entry != null)
-            query.append(entry.get(COL_VALUE));
-        else
+        if(entry == null)
             return null;
-        query.append("'");
-        query.append(")");
-        if(limit != null)
-            query.append(" LIMIT ").append(limit);
-        query.append(";");
 
-        Logger.getLogger(GetChildren.class.getName()).log(Level.INFO, "Following query: " + query.toString());
+        // Same in every table layout since hashes are columns
+        StringBuilder condition = new StringBuilder(100);
+        condition.append("\"");
+        condition.append(PRIMARY_KEY);
+        condition.append("\"");
+        condition.append(" IN(");
+        condition.append("SELECT ");
+        condition.append("\"");
+        condition.append(CHILD_VERTEX_KEY);
+        condition.append("\"");
+        condition.append(" FROM ");
+        condition.append(getTableLayout().edgeTable);
+        condition.append(" WHERE ");
+        condition.append("\"");
+        condition.append(PARENT_VERTEX_KEY);
+        condition.append("\"");
+        condition.append(" = ");
+        condition.append(quote(entry.get(COL_VALUE)));
+        condition.append(")");
+
+        Logger.getLogger(GetChildren.class.getName()).log(Level.INFO, "Following condition: " + condition.toString());
         Graph children = new Graph();
-        children.vertexSet().addAll(prepareVertexSetFromSQLResult(query.toString()));
+        children.vertexSet().addAll(getVertices(condition.toString(), limit).values());
 
 
         return children;
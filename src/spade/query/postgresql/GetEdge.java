@@ -55,34 +55,13 @@ public class GetEdge extends PostgreSQL<Set<AbstractEdge>>
     public Set<AbstractEdge> execute(Map<String, List<String>> parameters, Integer limit)
     {
         Set<AbstractEdge> edgeSet = null;
-        StringBuilder query = new StringBuilder(100);
+        String condition = null;
         try
         {
-            query.append("SELECT * FROM ");
-            query.append(EDGE_TABLE);
-            query.append(" WHERE ");
-            for (Map.Entry<String, List<String>> entry : parameters.entrySet())
-            {
-                List<String> values = entry.getValue();
-                String colName = entry.getKey();
-                query.append("\"");
-                query.append(colName);
-                query.append("\"");
-                query.append(values.get(COMPARISON_OPERATOR));
-                query.append("'");
-                query.append(values.get(COL_VALUE));
-                query.append("'");
-                query.append(" ");
-                String boolOperator = values.get(BOOLEAN_OPERATOR);
-                if (boolOperator != null)
-                    query.append(boolOperator).append(" ");
-            }
-            if (limit != null)
-                query.append(" LIMIT ").append(limit);
-            query.append(";");
+            condition = buildCondition(parameters, false);
 
-            Logger.getLogger(GetEdge.class.getName()).log(Level.INFO, "Following query: " + query.toString());
-            edgeSet = prepareEdgeSetFromSQLResult(query.toString());
+            Logger.getLogger(GetEdge.class.getName()).log(Level.INFO, "Following condition: " + condition);
+            edgeSet = getEdges(condition, limit);
             if(!CollectionUtils.isEmpty(edgeSet))
                 return edgeSet;
         }
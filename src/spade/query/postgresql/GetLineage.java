@@ -0,0 +1,176 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2017 SRI International
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.query.postgresql;
+
+import spade.core.AbstractVertex;
+import spade.core.Graph;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import static spade.core.AbstractAnalyzer.USE_SCAFFOLD;
+import static spade.core.AbstractAnalyzer.setRemoteResolutionRequired;
+import static spade.core.AbstractStorage.BUILD_SCAFFOLD;
+import static spade.core.AbstractStorage.CHILD_VERTEX_KEY;
+import static spade.core.AbstractStorage.DIRECTION;
+import static spade.core.AbstractStorage.DIRECTION_ANCESTORS;
+import static spade.core.AbstractStorage.DIRECTION_BOTH;
+import static spade.core.AbstractStorage.DIRECTION_DESCENDANTS;
+import static spade.core.AbstractStorage.MAX_DEPTH;
+import static spade.core.AbstractStorage.PARENT_VERTEX_KEY;
+import static spade.core.AbstractStorage.PRIMARY_KEY;
+import static spade.core.AbstractStorage.scaffold;
+
+/**
+ * Lineage of a vertex computed by PostgreSQL with one recursive query instead of a query per vertex
+ * and edge as in spade.query.common.GetLineage. The result is the same: the first vertex matching the
+ * constraints, the vertices within maxDepth in the direction and the edges from the vertices within
+ * maxDepth - 1 to their neighbors.
+ *
+ * @author raza
+ */
+public class GetLineage extends PostgreSQL<Graph>
+{
+    private static final Logger logger = Logger.getLogger(GetLineage.class.getName());
+
+    public GetLineage()
+    {
+        register();
+    }
+
+    @Override
+    public Graph execute(String argument_string)
+    {
+        Pattern argument_pattern = Pattern.compile(",");
+        String[] arguments = argument_pattern.split(argument_string);
+        String constraints = arguments[0].trim();
+        Map<String, List<String>> parameters = parseConstraints(constraints);
+        int maxDepth = Integer.parseInt(arguments[1].trim());
+        String direction = arguments[2].trim();
+
+        if(USE_SCAFFOLD && BUILD_SCAFFOLD)
+        {
+            return scaffold.queryManager(parameters);
+        }
+
+        return execute(parameters, direction, maxDepth);
+    }
+
+    @Override
+    public Graph execute(Map<String, List<String>> parameters, Integer limit)
+    {
+        return null;
+    }
+
+    Graph execute(Map<String, List<String>> parameters, String direction, int maxDepth)
+    {
+        boolean ancestors = DIRECTION_ANCESTORS.startsWith(direction.toLowerCase());
+        boolean descendants = DIRECTION_DESCENDANTS.startsWith(direction.toLowerCase());
+        if(DIRECTION_BOTH.startsWith(direction.toLowerCase()))
+        {
+            ancestors = descendants = true;
+        }
+        else if(!ancestors && !descendants)
+        {
+            return null;
+        }
+
+        Map<String, List<String>> vertexParams = new HashMap<>(parameters);
+        vertexParams.remove(DIRECTION);
+        vertexParams.remove(MAX_DEPTH);
+
+        StringBuilder query = new StringBuilder(2000);
+        query.append("WITH RECURSIVE root AS (SELECT \"");
+        query.append(PRIMARY_KEY);
+        query.append("\" FROM ");
+        query.append(getTableLayout().vertexTable);
+        query.append(" WHERE ");
+        query.append(buildCondition(vertexParams, true));
+        query.append(" LIMIT 1)");
+        if(ancestors)
+        {
+            query.append(", ").append(buildTraversal("ancestors", "root", true, maxDepth));
+        }
+        if(descendants)
+        {
+            query.append(", ").append(buildTraversal("descendants", "root", false, maxDepth));
+        }
+        // A vertex in both directions gets the smaller depth
+        query.append(", visited AS (SELECT \"").append(PRIMARY_KEY).append("\", MIN(depth) AS depth FROM (");
+        if(ancestors)
+        {
+            query.append("SELECT * FROM ancestors");
+        }
+        if(descendants)
+        {
+            query.append(ancestors ? " UNION ALL " : "").append("SELECT * FROM descendants");
+        }
+        query.append(") t GROUP BY \"").append(PRIMARY_KEY).append("\")");
+        // Edges from the vertices before the last depth to their neighbors in the direction
+        query.append(", lineage_edge AS (SELECT * FROM ").append(getTableLayout().edgeTable).append(" WHERE ");
+        if(ancestors)
+        {
+            appendEdgeCondition(query, "ancestors", CHILD_VERTEX_KEY, maxDepth);
+        }
+        if(descendants)
+        {
+            query.append(ancestors ? " OR " : "");
+            appendEdgeCondition(query, "descendants", PARENT_VERTEX_KEY, maxDepth);
+        }
+        query.append(") ");
+        query.append(buildGraphSelect("visited", "lineage_edge"));
+        query.append(";");
+
+        logger.log(Level.INFO, "Following query: " + query.toString());
+        Graph result = readGraph(query.toString());
+        if(result == null || result.getRootVertex() == null)
+        {
+            return null;
+        }
+        result.setMaxDepth(maxDepth);
+        for(AbstractVertex vertex : result.vertexSet())
+        {
+            if(vertex.isCompleteNetworkVertex())
+            {
+                setRemoteResolutionRequired();
+                result.putNetworkVertex(vertex, vertex.getDepth());
+            }
+        }
+        result.setComputeTime(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss z").format(new Date()));
+
+        return result;
+    }
+
+    private static void appendEdgeCondition(StringBuilder query, String traversal, String key, int maxDepth)
+    {
+        query.append("\"");
+        query.append(key);
+        query.append("\" IN (SELECT \"");
+        query.append(PRIMARY_KEY);
+        query.append("\" FROM ");
+        query.append(traversal);
+        query.append(" WHERE depth < ");
+        query.append(maxDepth);
+        query.append(")");
+    }
+}
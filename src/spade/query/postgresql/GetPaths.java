@@ -0,0 +1,113 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2017 SRI International
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.query.postgresql;
+
+import spade.core.Graph;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import static spade.core.AbstractStorage.CHILD_VERTEX_KEY;
+import static spade.core.AbstractStorage.PARENT_VERTEX_KEY;
+import static spade.core.AbstractStorage.PRIMARY_KEY;
+
+/**
+ * Paths from a source vertex to a destination vertex (following edges from child to parent) of at most
+ * maxLength edges, computed by PostgreSQL with one recursive query.
+ *
+ * The ancestors of the source and the descendants of the destination are found up to maxLength. A vertex
+ * is on a path if its distance from the source plus its distance to the destination is at most maxLength,
+ * and an edge is on a path if the same holds with the edge in between. Vertex depth is the distance from
+ * the source.
+ *
+ * @author raza
+ */
+public class GetPaths extends PostgreSQL<Graph>
+{
+    private static final Logger logger = Logger.getLogger(GetPaths.class.getName());
+
+    public GetPaths()
+    {
+        register();
+    }
+
+    @Override
+    public Graph execute(String argument_string)
+    {
+        Pattern argument_pattern = Pattern.compile(",");
+        String[] arguments = argument_pattern.split(argument_string);
+        String constraints = arguments[0].trim();
+        int maxLength = Integer.parseInt(arguments[1].trim());
+        Map<String, List<String>> parameters = parseConstraints(constraints);
+        // assumption that 'sourceVertexHash' and 'destinationVertexHash' keys are present
+        List<String> source = parameters.get("sourceVertexHash");
+        List<String> destination = parameters.get("destinationVertexHash");
+        if(source == null || destination == null)
+        {
+            logger.log(Level.SEVERE, "Missing 'sourceVertexHash' or 'destinationVertexHash'");
+            return null;
+        }
+
+        return execute(source.get(COL_VALUE), destination.get(COL_VALUE), maxLength);
+    }
+
+    @Override
+    public Graph execute(Map<String, List<String>> parameters, Integer limit)
+    {
+        return null;
+    }
+
+    Graph execute(String sourceVertexHash, String destinationVertexHash, int maxLength)
+    {
+        StringBuilder query = new StringBuilder(2000);
+        query.append("WITH RECURSIVE source AS (SELECT CAST(").append(quote(sourceVertexHash));
+        query.append(" AS UUID) AS \"").append(PRIMARY_KEY).append("\")");
+        query.append(", destination AS (SELECT CAST(").append(quote(destinationVertexHash));
+        query.append(" AS UUID) AS \"").append(PRIMARY_KEY).append("\")");
+        query.append(", ").append(buildTraversal("up", "source", true, maxLength));
+        query.append(", ").append(buildTraversal("down", "destination", false, maxLength));
+        query.append(", up_min AS (SELECT \"").append(PRIMARY_KEY).append("\", MIN(depth) AS depth FROM up GROUP BY \"");
+        query.append(PRIMARY_KEY).append("\")");
+        query.append(", down_min AS (SELECT \"").append(PRIMARY_KEY).append("\", MIN(depth) AS depth FROM down GROUP BY \"");
+        query.append(PRIMARY_KEY).append("\")");
+        query.append(", path_vertex AS (SELECT u.\"").append(PRIMARY_KEY).append("\", u.depth FROM up_min u");
+        query.append(" JOIN down_min d ON u.\"").append(PRIMARY_KEY).append("\" = d.\"").append(PRIMARY_KEY).append("\"");
+        query.append(" WHERE u.depth + d.depth <= ").append(maxLength).append(")");
+        query.append(", path_edge AS (SELECT e.* FROM ").append(getTableLayout().edgeTable).append(" e");
+        query.append(" JOIN up_min u ON e.\"").append(CHILD_VERTEX_KEY).append("\" = u.\"").append(PRIMARY_KEY).append("\"");
+        query.append(" JOIN down_min d ON e.\"").append(PARENT_VERTEX_KEY).append("\" = d.\"").append(PRIMARY_KEY).append("\"");
+        query.append(" WHERE u.depth + 1 + d.depth <= ").append(maxLength).append(") ");
+        query.append(buildGraphSelect("path_vertex", "path_edge"));
+        query.append(";");
+
+        logger.log(Level.INFO, "Following query: " + query.toString());
+        Graph result = readGraph(query.toString());
+        if(result == null)
+        {
+            return null;
+        }
+        result.setMaxDepth(maxLength);
+        result.setComputeTime(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss z").format(new Date()));
+
+        return result;
+    }
+}
@@ -19,6 +19,7 @@ package spade.query.postgresql;
 import org.apache.commons.collections.CollectionUtils;
 import spade.core.AbstractVertex;
 
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -54,40 +55,19 @@ public class GetVertex extends PostgreSQL<Set<AbstractVertex>>
     public Set<AbstractVertex> execute(Map<String, List<String>> parameters, Integer limit)
     {
         Set<AbstractVertex> vertexSet = null;
-        StringBuilder query = new StringBuilder(100);
+        String condition = null;
         try
         {
-            query.append("SELECT * FROM ");
-            query.append(VERTEX_TABLE);
-            query.append(" WHERE ");
-            for (Map.Entry<String, List<String>> entry : parameters.entrySet())
-            {
-                String colName = entry.getKey();
-                List<String> values = entry.getValue();
-                query.append("\"");
-                query.append(colName);
-                query.append("\"");
-                query.append(values.get(COMPARISON_OPERATOR));
-                query.append("'");
-                query.append(values.get(COL_VALUE));
-                query.append("'");
-                query.append(" ");
-                String boolOperator = values.get(BOOLEAN_OPERATOR);
-                if (boolOperator != null)
-                    query.append(boolOperator).append(" ");
-            }
-            if (limit != null)
-                query.append(" LIMIT ").append(limit);
-            query.append(";");
+            condition = buildCondition(parameters, true);
 
-            Logger.getLogger(GetVertex.class.getName()).log(Level.INFO, "Following query: " + query.toString());
-            vertexSet = prepareVertexSetFromSQLResult(query.toString());
+            Logger.getLogger(GetVertex.class.getName()).log(Level.INFO, "Following condition: " + condition);
+            vertexSet = new HashSet<>(getVertices(condition, limit).values());
             if (!CollectionUtils.isEmpty(vertexSet))
                 return vertexSet;
         }
         catch (Exception ex)
         {
-            Logger.getLogger(GetVertex.class.getName()).log(Level.SEVERE, "Error creating vertex set from the following query: \n" + query.toString(), ex);
+            Logger.getLogger(GetVertex.class.getName()).log(Level.SEVERE, "Error creating vertex set from the following condition: \n" + condition, ex);
         }
 
         return vertexSet;
@@ -16,22 +16,23 @@
  */
 package spade.query.postgresql;
 
-import com.mysql.jdbc.StringUtils;
-import org.apache.commons.collections.CollectionUtils;
+import org.json.JSONObject;
 import spade.core.AbstractEdge;
 import spade.core.AbstractQuery;
 import spade.core.AbstractVertex;
 import spade.core.Edge;
 import spade.core.Graph;
 import spade.core.Vertex;
+import spade.storage.PostgreSQL.TableLayout;
 
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -42,65 +43,257 @@ import static spade.core.AbstractStorage.CHILD_VERTEX_KEY;
 import static spade.core.AbstractStorage.DIRECTION_ANCESTORS;
 import static spade.core.AbstractStorage.PARENT_VERTEX_KEY;
 import static spade.core.AbstractStorage.PRIMARY_KEY;
-import static spade.storage.SQL.stripDashes;
+import static spade.storage.PostgreSQL.ANNOTATIONS_COLUMN;
+import static spade.storage.PostgreSQL.ANNOTATION_KEY_TABLE;
 
 /**
+ * Queries work with every table layout of the PostgreSQL storage. Selections are built as conditions on
+ * the vertex or edge table of the layout and the elements are read back by the layout.
+ *
  * @author raza
  */
 public abstract class PostgreSQL<R> extends AbstractQuery<R>
 {
     public static final String VERTEX_TABLE = "vertex";
     public static final String EDGE_TABLE = "edge";
+    // Rows fetched at a time by graph queries
+    protected static final int GRAPH_FETCH_SIZE = 10000;
 
-    public static Set<AbstractVertex> prepareVertexSetFromSQLResult(String query)
+    /**
+     * @return table layout of the current storage
+     */
+    public static TableLayout getTableLayout()
     {
-        Set<AbstractVertex> vertexSet = new HashSet<>();
-        try
+        if(currentStorage instanceof spade.storage.PostgreSQL)
         {
-            ResultSet result = (ResultSet) currentStorage.executeQuery(query);
-            ResultSetMetaData metadata = result.getMetaData();
-            int columnCount = metadata.getColumnCount();
+            return ((spade.storage.PostgreSQL) currentStorage).getTableLayout();
+        }
+        return TableLayout.COLUMNS;
+    }
 
-            Map<Integer, String> columnLabels = new HashMap<>();
-            for (int i = 1; i <= columnCount; i++)
+    /**
+     * Builds the condition for the parsed constraints on the vertex or edge table.
+     * Hashes are columns in every layout. Other keys are annotations.
+     *
+     * @param parameters constraints as returned by parseConstraints
+     * @param vertices true for the vertex table and false for the edge table
+     * @return SQL condition
+     */
+    protected static String buildCondition(Map<String, List<String>> parameters, boolean vertices)
+    {
+        TableLayout layout = getTableLayout();
+        String table = vertices ? layout.vertexTable : layout.edgeTable;
+        StringBuilder condition = new StringBuilder(100);
+        for (Map.Entry<String, List<String>> entry : parameters.entrySet())
+        {
+            String colName = entry.getKey();
+            List<String> values = entry.getValue();
+            String operator = values.get(COMPARISON_OPERATOR);
+            String value = values.get(COL_VALUE);
+            boolean elementColumn = colName.equals(PRIMARY_KEY) ||
+                    (!vertices && (colName.equals(CHILD_VERTEX_KEY) || colName.equals(PARENT_VERTEX_KEY)));
+            if (layout == TableLayout.COLUMNS)
             {
-                columnLabels.put(i, metadata.getColumnName(i));
+                condition.append("\"").append(colName).append("\"");
+                condition.append(operator);
+                condition.append("'").append(value).append("'");
+            }
+            else if (elementColumn)
+            {
+                condition.append(table).append(".\"").append(colName).append("\"");
+                condition.append(operator).append(quote(value));
             }
+            else if (layout == TableLayout.KEY_VALUE)
+            {
+                // Looked up by the (key_id, md5(value)) index for equality
+                condition.append(table).append(".\"").append(PRIMARY_KEY).append("\" IN (SELECT \"");
+                condition.append(PRIMARY_KEY).append("\" FROM ");
+                condition.append(vertices ? layout.vertexAnnotationTable : layout.edgeAnnotationTable);
+                condition.append(" WHERE key_id = (SELECT id FROM ").append(ANNOTATION_KEY_TABLE);
+                condition.append(" WHERE name = ").append(quote(colName)).append(")");
+                if (operator.equals(OPERATORS.EQUALS))
+                {
+                    condition.append(" AND md5(value) = md5(").append(quote(value)).append(")");
+                }
+                condition.append(" AND value").append(operator).append(quote(value)).append(")");
+            }
+            else
+            {
+                condition.append(table).append(".").append(ANNOTATIONS_COLUMN);
+                if (operator.equals(OPERATORS.EQUALS))
+                {
+                    // Containment is answered by the GIN index
+                    String annotation = "{" + JSONObject.quote(colName) + ":" + JSONObject.quote(value) + "}";
+                    condition.append(" @> ").append(quote(annotation)).append("::jsonb");
+                }
+                else
+                {
+                    condition.append(" ->> ").append(quote(colName)).append(operator).append(quote(value));
+                }
+            }
+            condition.append(" ");
+            String boolOperator = values.get(BOOLEAN_OPERATOR);
+            if (boolOperator != null)
+                condition.append(boolOperator).append(" ");
+        }
 
-            while (result.next())
+        return condition.toString();
+    }
+
+    protected static String quote(String value)
+    {
+        return "'" + value.replace("'", "''") + "'";
+    }
+
+    /**
+     * @param condition condition on the vertex table of the layout
+     * @param limit maximum number of vertices. NULL for no limit.
+     * @return vertices by hash
+     */
+    public static Map<String, AbstractVertex> getVertices(String condition, Integer limit)
+    {
+        TableLayout layout = getTableLayout();
+        String limitClause = (limit != null) ? " LIMIT " + limit : "";
+        String query;
+        if (layout == TableLayout.KEY_VALUE)
+        {
+            query = "SELECT e.\"" + PRIMARY_KEY + "\", k.name, a.value FROM " +
+                    "(SELECT DISTINCT \"" + PRIMARY_KEY + "\" FROM " + layout.vertexTable +
+                    " WHERE " + condition + limitClause + ") e" +
+                    " LEFT JOIN " + layout.vertexAnnotationTable + " a ON a.\"" + PRIMARY_KEY + "\" = e.\"" + PRIMARY_KEY + "\"" +
+                    " LEFT JOIN " + ANNOTATION_KEY_TABLE + " k ON k.id = a.key_id;";
+        }
+        else if (layout == TableLayout.JSONB)
+        {
+            query = "SELECT \"" + PRIMARY_KEY + "\", " + ANNOTATIONS_COLUMN + "::text FROM " + layout.vertexTable +
+                    " WHERE " + condition + limitClause + ";";
+        }
+        else
+        {
+            query = "SELECT * FROM " + layout.vertexTable + " WHERE " + condition + limitClause + ";";
+        }
+
+        Map<String, AbstractVertex> vertices = new LinkedHashMap<>();
+        try
+        {
+            for (Map.Entry<String, Map<String, String>> element : readElements(query, layout).entrySet())
             {
                 AbstractVertex vertex = new Vertex();
-                for (int i = 1; i <= columnCount; i++)
+                Map<String, String> annotations = element.getValue();
+                annotations.remove(PRIMARY_KEY);
+                vertex.addAnnotations(annotations);
+                vertices.put(element.getKey(), vertex);
+            }
+        }
+        catch (SQLException ex)
+        {
+            Logger.getLogger(PostgreSQL.class.getName()).log(Level.SEVERE, "Vertex set querying unsuccessful!", ex);
+        }
+
+        return vertices;
+    }
+
+    /**
+     * Endpoints of all the edges are read with one query.
+     *
+     * @param condition condition on the edge table of the layout
+     * @param limit maximum number of edges. NULL for no limit.
+     * @return edges whose endpoints were found
+     */
+    public static Set<AbstractEdge> getEdges(String condition, Integer limit)
+    {
+        TableLayout layout = getTableLayout();
+        String limitClause = (limit != null) ? " LIMIT " + limit : "";
+        String edgeColumns = "\"" + PRIMARY_KEY + "\", \"" + CHILD_VERTEX_KEY + "\", \"" + PARENT_VERTEX_KEY + "\"";
+        String query;
+        if (layout == TableLayout.KEY_VALUE)
+        {
+            query = "SELECT e.\"" + PRIMARY_KEY + "\", e.\"" + CHILD_VERTEX_KEY + "\", e.\"" + PARENT_VERTEX_KEY + "\"" +
+                    ", k.name, a.value FROM " +
+                    "(SELECT DISTINCT " + edgeColumns + " FROM " + layout.edgeTable +
+                    " WHERE " + condition + limitClause + ") e" +
+                    " LEFT JOIN " + layout.edgeAnnotationTable + " a ON a.\"" + PRIMARY_KEY + "\" = e.\"" + PRIMARY_KEY + "\"" +
+                    " LEFT JOIN " + ANNOTATION_KEY_TABLE + " k ON k.id = a.key_id;";
+        }
+        else if (layout == TableLayout.JSONB)
+        {
+            query = "SELECT " + edgeColumns + ", " + ANNOTATIONS_COLUMN + "::text FROM " + layout.edgeTable +
+                    " WHERE " + condition + limitClause + ";";
+        }
+        else
+        {
+            query = "SELECT * FROM " + layout.edgeTable + " WHERE " + condition + limitClause + ";";
+        }
+
+        Set<AbstractEdge> edgeSet = new HashSet<>();
+        try
+        {
+            Map<String, Map<String, String>> elements = readElements(query, layout);
+            if (elements.isEmpty())
+                return edgeSet;
+
+            StringBuilder endpointCondition = new StringBuilder(elements.size() * 80);
+            endpointCondition.append("\"").append(PRIMARY_KEY).append("\" IN (");
+            Set<String> endpointHashes = new HashSet<>();
+            for (Map<String, String> annotations : elements.values())
+            {
+                for (String endpointKey : new String[]{CHILD_VERTEX_KEY, PARENT_VERTEX_KEY})
                 {
-                    String colName = columnLabels.get(i);
-                    String value = result.getString(i);
-                    if (value != null)
+                    String endpointHash = annotations.get(endpointKey);
+                    if (endpointHash != null && endpointHashes.add(endpointHash))
                     {
-                        if(colName != null && !colName.equals(PRIMARY_KEY))
-                        {
-                            vertex.addAnnotation(colName, value);
-                        }
+                        endpointCondition.append(quote(endpointHash)).append(", ");
                     }
                 }
-                vertexSet.add(vertex);
+            }
+            if (endpointHashes.isEmpty())
+                return edgeSet;
+            endpointCondition.setLength(endpointCondition.length() - 2);
+            endpointCondition.append(")");
+            Map<String, AbstractVertex> endpoints = getVertices(endpointCondition.toString(), null);
+
+            for (Map<String, String> annotations : elements.values())
+            {
+                annotations.remove(PRIMARY_KEY);
+                AbstractVertex childVertex = endpoints.get(annotations.remove(CHILD_VERTEX_KEY));
+                AbstractVertex parentVertex = endpoints.get(annotations.remove(PARENT_VERTEX_KEY));
+                if (childVertex == null || parentVertex == null)
+                    continue;
+                AbstractEdge edge = new Edge(childVertex, parentVertex);
+                edge.addAnnotations(annotations);
+                edgeSet.add(edge);
             }
         }
         catch (SQLException ex)
         {
-            Logger.getLogger(PostgreSQL.class.getName()).log(Level.SEVERE, "Vertex set querying unsuccessful!", ex);
+            Logger.getLogger(PostgreSQL.class.getName()).log(Level.SEVERE, "Edge set querying unsuccessful!", ex);
         }
 
-        return vertexSet;
+        return edgeSet;
     }
 
-    public static Set<AbstractEdge> prepareEdgeSetFromSQLResult(String query)
+    /**
+     * Reads the result of a query built by getVertices or getEdges.
+     * The columns of the vertex or edge table are included in the annotations.
+     *
+     * @return annotations by hash
+     */
+    private static Map<String, Map<String, String>> readElements(String query, TableLayout layout) throws SQLException
     {
-        Set<AbstractEdge> edgeSet = new HashSet<>();
+        Map<String, Map<String, String>> elements = new LinkedHashMap<>();
+        ResultSet result = (ResultSet) currentStorage.executeQuery(query);
+        if (result == null)
+            return elements;
         try
         {
-            ResultSet result = (ResultSet) currentStorage.executeQuery(query);
             ResultSetMetaData metadata = result.getMetaData();
             int columnCount = metadata.getColumnCount();
+            // The key/value or JSONB columns are last
+            int tableColumnCount = columnCount;
+            if (layout == TableLayout.KEY_VALUE)
+                tableColumnCount = columnCount - 2;
+            else if (layout == TableLayout.JSONB)
+                tableColumnCount = columnCount - 1;
 
             Map<Integer, String> columnLabels = new HashMap<>();
             for (int i = 1; i <= columnCount; i++)
@@ -110,71 +303,220 @@ public abstract class PostgreSQL<R> extends AbstractQuery<R>
 
             while (result.next())
             {
-                Map<String, String> annotations = new HashMap<>();
-                for (int i = 1; i <= columnCount; i++)
+                String hash = result.getString(PRIMARY_KEY);
+                Map<String, String> annotations = elements.get(hash);
+                if (annotations == null)
+                {
+                    annotations = new HashMap<>();
+                    elements.put(hash, annotations);
+                }
+                for (int i = 1; i <= tableColumnCount; i++)
                 {
-                    String colName = columnLabels.get(i);
                     String value = result.getString(i);
-                    if (value != null)
+                    if (value != null && columnLabels.get(i) != null)
+                        annotations.put(columnLabels.get(i), value);
+                }
+                if (layout == TableLayout.KEY_VALUE)
+                {
+                    String key = result.getString(columnCount - 1);
+                    String value = result.getString(columnCount);
+                    if (key != null && value != null)
+                        annotations.put(key, value);
+                }
+                else if (layout == TableLayout.JSONB)
+                {
+                    JSONObject json = new JSONObject(result.getString(columnCount));
+                    Iterator<?> keys = json.keys();
+                    while (keys.hasNext())
                     {
-                        if (!(colName == null || colName.equals(PRIMARY_KEY) ||
-                                colName.equals(CHILD_VERTEX_KEY) ||
-                                colName.equals(PARENT_VERTEX_KEY)))
-                        {
-                            annotations.put(colName, value);
-                        }
+                        String key = (String) keys.next();
+                        annotations.put(key, json.getString(key));
                     }
                 }
-                GetVertex getVertex = new GetVertex();
-                Map<String, List<String>> childMap = new HashMap<>();
-                // Note: implicit assumption that CHILD_VERTEX_KEY and PARENT_VERTEX_KEY are present in annotations
-                childMap.put(PRIMARY_KEY, new ArrayList<>(
-                        Arrays.asList(OPERATORS.EQUALS, annotations.get(CHILD_VERTEX_KEY), null)));
-                Set<AbstractVertex> childVertexSet = getVertex.execute(childMap, null);
-                AbstractVertex childVertex;
-                if(!CollectionUtils.isEmpty(childVertexSet))
-                    childVertex = childVertexSet.iterator().next();
-                else
-                    continue;
+            }
+        }
+        catch (Exception ex)
+        {
+            if (ex instanceof SQLException)
+                throw (SQLException) ex;
+            throw new SQLException("Unable to read query result", ex);
+        }
+        finally
+        {
+            result.close();
+        }
 
-                Map<String, List<String>> parentMap = new HashMap<>();
-                parentMap.put(PRIMARY_KEY, new ArrayList<>(
-                        Arrays.asList(OPERATORS.EQUALS, annotations.get(PARENT_VERTEX_KEY), null)));
-                Set<AbstractVertex> parentVertexSet = getVertex.execute(parentMap, null);
-                AbstractVertex parentVertex;
-                if(!CollectionUtils.isEmpty(parentVertexSet))
-                    parentVertex = parentVertexSet.iterator().next();
+        return elements;
+    }
+
+    /**
+     * Builds a recursive query for the WITH clause: name("hash", depth) has the vertices reachable from the
+     * vertices in 'start' (a relation with a "hash" column) in at most maxDepth steps.
+     * UNION keeps one row per (hash, depth) so that cycles end at maxDepth and a vertex reachable by
+     * many paths of the same length is expanded once per depth.
+     *
+     * @param name name of the relation
+     * @param start relation with the hashes of the vertices at depth 0
+     * @param ancestors true to go from children to parents and false for the opposite
+     * @param maxDepth maximum depth
+     * @return WITH clause entry
+     */
+    protected static String buildTraversal(String name, String start, boolean ancestors, int maxDepth)
+    {
+        String fromKey = ancestors ? CHILD_VERTEX_KEY : PARENT_VERTEX_KEY;
+        String toKey = ancestors ? PARENT_VERTEX_KEY : CHILD_VERTEX_KEY;
+        return name + "(\"" + PRIMARY_KEY + "\", depth) AS (" +
+                "SELECT \"" + PRIMARY_KEY + "\", 0 FROM " + start +
+                " UNION SELECT e.\"" + toKey + "\", l.depth + 1 FROM " + name + " l" +
+                " JOIN " + getTableLayout().edgeTable + " e ON e.\"" + fromKey + "\" = l.\"" + PRIMARY_KEY + "\"" +
+                " WHERE l.depth < " + maxDepth + ")";
+    }
+
+    /**
+     * Builds the select of a graph query. Every row is a vertex or an edge in the same columns for every
+     * layout: kind ('v' or 'e'), hash, depth, child hash, parent hash and the annotations as JSON.
+     *
+     * @param vertices relation with "hash" and depth columns, one row per vertex
+     * @param edges relation with the rows of the edge table for the edges
+     * @return query without the WITH clause
+     */
+    protected static String buildGraphSelect(String vertices, String edges)
+    {
+        TableLayout layout = getTableLayout();
+        String vertexAnnotations;
+        String edgeAnnotations;
+        String vertexJoin = "";
+        if (layout == TableLayout.KEY_VALUE)
+        {
+            vertexAnnotations = keyValueAnnotations(layout.vertexAnnotationTable, "l");
+            edgeAnnotations = keyValueAnnotations(layout.edgeAnnotationTable, "le");
+        }
+        else if (layout == TableLayout.JSONB)
+        {
+            vertexAnnotations = "v." + ANNOTATIONS_COLUMN + "::text";
+            edgeAnnotations = "le." + ANNOTATIONS_COLUMN + "::text";
+            vertexJoin = " JOIN " + layout.vertexTable + " v ON v.\"" + PRIMARY_KEY + "\" = l.\"" + PRIMARY_KEY + "\"";
+        }
+        else
+        {
+            vertexAnnotations = "row_to_json(v)::text";
+            edgeAnnotations = "row_to_json(le)::text";
+            vertexJoin = " JOIN " + layout.vertexTable + " v ON v.\"" + PRIMARY_KEY + "\" = l.\"" + PRIMARY_KEY + "\"";
+        }
+        return "SELECT 'v' AS kind, l.\"" + PRIMARY_KEY + "\"::text, l.depth, NULL::text, NULL::text, " +
+                vertexAnnotations + " FROM " + vertices + " l" + vertexJoin +
+                " UNION ALL SELECT 'e', le.\"" + PRIMARY_KEY + "\"::text, NULL::int, le.\"" + CHILD_VERTEX_KEY +
+                "\"::text, le.\"" + PARENT_VERTEX_KEY + "\"::text, " + edgeAnnotations + " FROM " + edges + " le";
+    }
+
+    private static String keyValueAnnotations(String annotationTable, String alias)
+    {
+        // DISTINCT since rows of an element inserted twice are not removed
+        return "(SELECT json_object_agg(x.name, x.value) FROM (SELECT DISTINCT k.name, a.value FROM " +
+                annotationTable + " a JOIN " + ANNOTATION_KEY_TABLE + " k ON k.id = a.key_id WHERE a.\"" +
+                PRIMARY_KEY + "\" = " + alias + ".\"" + PRIMARY_KEY + "\") x)::text";
+    }
+
+    /**
+     * Runs a query built with buildGraphSelect. The result is read through a server-side cursor.
+     * Vertices get their depth. The vertex at depth 0 is the root if there is one.
+     *
+     * @param query query to run
+     * @return graph or NULL on error
+     */
+    protected static Graph readGraph(String query)
+    {
+        if (!(currentStorage instanceof spade.storage.PostgreSQL))
+            return null;
+        ResultSet result = ((spade.storage.PostgreSQL) currentStorage).executeQuery(query, GRAPH_FETCH_SIZE);
+        if (result == null)
+            return null;
+
+        Graph graph = new Graph();
+        Map<String, AbstractVertex> vertices = new HashMap<>();
+        // Edges are added after all the vertices are read
+        List<String[]> edgeRows = new ArrayList<>();
+        try
+        {
+            while (result.next())
+            {
+                String hash = result.getString(2);
+                String annotations = result.getString(6);
+                if ("v".equals(result.getString(1)))
+                {
+                    if (annotations == null || vertices.containsKey(hash))
+                        continue;
+                    AbstractVertex vertex = new Vertex();
+                    vertex.addAnnotations(parseAnnotations(annotations));
+                    vertex.setDepth(result.getInt(3));
+                    vertices.put(hash, vertex);
+                    graph.vertexSet().add(vertex);
+                    if (vertex.getDepth() == 0)
+                        graph.setRootVertex(vertex);
+                }
                 else
+                {
+                    edgeRows.add(new String[]{hash, result.getString(4), result.getString(5), annotations});
+                }
+            }
+            Set<String> edgeHashes = new HashSet<>();
+            for (String[] edgeRow : edgeRows)
+            {
+                AbstractVertex childVertex = vertices.get(edgeRow[1]);
+                AbstractVertex parentVertex = vertices.get(edgeRow[2]);
+                if (childVertex == null || parentVertex == null || !edgeHashes.add(edgeRow[0]))
                     continue;
-
                 AbstractEdge edge = new Edge(childVertex, parentVertex);
-                edge.addAnnotations(annotations);
-                edgeSet.add(edge);
+                if (edgeRow[3] != null)
+                    edge.addAnnotations(parseAnnotations(edgeRow[3]));
+                graph.edgeSet().add(edge);
             }
         }
-        catch (SQLException ex)
+        catch (Exception ex)
         {
-            Logger.getLogger(PostgreSQL.class.getName()).log(Level.SEVERE, "Edge set querying unsuccessful!", ex);
+            Logger.getLogger(PostgreSQL.class.getName()).log(Level.SEVERE, "Graph querying unsuccessful!", ex);
+            return null;
+        }
+        finally
+        {
+            try
+            {
+                result.getStatement().close();
+            }
+            catch (SQLException ex)
+            {
+                Logger.getLogger(PostgreSQL.class.getName()).log(Level.WARNING, "Unable to close statement", ex);
+            }
         }
 
-        return edgeSet;
+        return graph;
+    }
+
+    // Columns of the vertex and edge tables are not annotations. NULL values are columns the element does not have.
+    private static Map<String, String> parseAnnotations(String json) throws Exception
+    {
+        Map<String, String> annotations = new HashMap<>();
+        JSONObject object = new JSONObject(json);
+        Iterator<?> keys = object.keys();
+        while (keys.hasNext())
+        {
+            String key = (String) keys.next();
+            if (object.isNull(key) || key.equals(PRIMARY_KEY) || key.equals(CHILD_VERTEX_KEY) ||
+                    key.equals(PARENT_VERTEX_KEY))
+                continue;
+            annotations.put(key, object.get(key).toString());
+        }
+        return annotations;
     }
 
     public static Graph constructGraphFromLineageMap(Map<String, Set<String>> lineageMap, String direction)
     {
         Graph result = new Graph();
-        StringBuilder vertexQueryBuilder = new StringBuilder(500);
-        StringBuilder edgeQueryBuilder = new StringBuilder(1000);
+        StringBuilder vertexConditionBuilder = new StringBuilder(500);
+        StringBuilder edgeConditionBuilder = new StringBuilder(1000);
         try
         {
-            boolean edgeFound = false;
-            vertexQueryBuilder.append("SELECT * FROM ");
-            vertexQueryBuilder.append(VERTEX_TABLE);
-            vertexQueryBuilder.append(" WHERE ");
-            vertexQueryBuilder.append(PRIMARY_KEY + " IN (");
-            edgeQueryBuilder.append("SELECT * FROM ");
-            edgeQueryBuilder.append(EDGE_TABLE);
-            edgeQueryBuilder.append(" WHERE (");
+            vertexConditionBuilder.append("\"").append(PRIMARY_KEY).append("\" IN (");
             String vertexKey;
             String neighborKey;
             if(DIRECTION_ANCESTORS.startsWith(direction.toLowerCase()))
@@ -191,44 +533,39 @@ public abstract class PostgreSQL<R> extends AbstractQuery<R>
             {
                 String vertexHash = entry.getKey();
                 Set<String> neighbors = entry.getValue();
-                vertexQueryBuilder.append("'");
-                vertexQueryBuilder.append(vertexHash);
-                vertexQueryBuilder.append("'");
-                vertexQueryBuilder.append(", ");
+                vertexConditionBuilder.append(quote(vertexHash));
+                vertexConditionBuilder.append(", ");
 
                 if(neighbors.size() > 0)
                 {
-                    edgeFound = true;
-                    edgeQueryBuilder.append(vertexKey);
-                    edgeQueryBuilder.append(AbstractQuery.OPERATORS.EQUALS);
-                    edgeQueryBuilder.append("'");
-                    edgeQueryBuilder.append(vertexHash);
-                    edgeQueryBuilder.append("'");
-                    edgeQueryBuilder.append(" AND ");
-                    edgeQueryBuilder.append(neighborKey);
-                    edgeQueryBuilder.append(" IN (");
+                    if(edgeConditionBuilder.length() > 0)
+                        edgeConditionBuilder.append(" OR ");
+                    edgeConditionBuilder.append("(\"");
+                    edgeConditionBuilder.append(vertexKey);
+                    edgeConditionBuilder.append("\"");
+                    edgeConditionBuilder.append(AbstractQuery.OPERATORS.EQUALS);
+                    edgeConditionBuilder.append(quote(vertexHash));
+                    edgeConditionBuilder.append(" AND \"");
+                    edgeConditionBuilder.append(neighborKey);
+                    edgeConditionBuilder.append("\" IN (");
                     for(String neighborHash : neighbors)
                     {
-                        edgeQueryBuilder.append("'");
-                        edgeQueryBuilder.append(neighborHash);
-                        edgeQueryBuilder.append("'");
-                        edgeQueryBuilder.append(", ");
+                        edgeConditionBuilder.append(quote(neighborHash));
+                        edgeConditionBuilder.append(", ");
                     }
-                    String edge_query = edgeQueryBuilder.substring(0, edgeQueryBuilder.length() - 2);
-                    edgeQueryBuilder = new StringBuilder(edge_query + ")) OR (");
+                    edgeConditionBuilder.setLength(edgeConditionBuilder.length() - 2);
+                    edgeConditionBuilder.append("))");
                 }
             }
-            String vertex_query = vertexQueryBuilder.substring(0, vertexQueryBuilder.length() - 2);
-            vertexQueryBuilder = new StringBuilder(vertex_query + ");");
-            Set<AbstractVertex> vertexSet = prepareVertexSetFromSQLResult(vertexQueryBuilder.toString());
-            result.vertexSet().addAll(vertexSet);
+            if(lineageMap.isEmpty())
+                return result;
+            vertexConditionBuilder.setLength(vertexConditionBuilder.length() - 2);
+            vertexConditionBuilder.append(")");
+            result.vertexSet().addAll(getVertices(vertexConditionBuilder.toString(), null).values());
 
-            if(edgeFound)
+            if(edgeConditionBuilder.length() > 0)
             {
-                String edge_query = edgeQueryBuilder.substring(0, edgeQueryBuilder.length() - 4);
-                edgeQueryBuilder = new StringBuilder(edge_query + ";");
-                Set<AbstractEdge> edgeSet = prepareEdgeSetFromSQLResult(edgeQueryBuilder.toString());
-                result.edgeSet().addAll(edgeSet);
+                result.edgeSet().addAll(getEdges(edgeConditionBuilder.toString(), null));
             }
         }
         catch(Exception ex)
@@ -53,8 +53,6 @@ import static spade.core.AbstractQuery.COL_VALUE;
 import static spade.core.AbstractQuery.getCurrentStorage;
 import static spade.core.AbstractStorage.CHILD_VERTEX_KEY;
 import static spade.core.AbstractStorage.DIRECTION;
-import static spade.core.AbstractStorage.DIRECTION_ANCESTORS;
-import static spade.core.AbstractStorage.DIRECTION_DESCENDANTS;
 import static spade.core.AbstractStorage.MAX_DEPTH;
 import static spade.core.AbstractStorage.PARENT_VERTEX_KEY;
 import static spade.core.AbstractStorage.PRIMARY_KEY;
@@ -254,99 +252,23 @@ public class BerkeleyDB extends Scaffold
         return null;
     }
 
+    /**
+     * Reads are made outside of a transaction on the database handle, which can be used by several
+     * threads at once.
+     */
     @Override
-    public Set<String> getNeighbors(String hash)
-    {
-        Set<String> neighbors = getChildren(hash);
-        neighbors.addAll(getParents(hash));
-
-        return neighbors;
-    }
-
-    @Override
-    public Map<String, Set<String>> getLineage(String hash, String direction, int maxDepth)
+    public boolean supportsConcurrentReads()
     {
-        try
-        {
-            // Instantiate class catalog
-            StoredClassCatalog neighborCatalog = new StoredClassCatalog(neighborDatabase);
-            // Create the binding
-            EntryBinding<Neighbors> neighborBinding = new SerialBinding<>(neighborCatalog, Neighbors.class);
-            // Create DatabaseEntry for the key
-            DatabaseEntry key = new DatabaseEntry(hash.getBytes("UTF-8"));
-            // Create the DatabaseEntry for the data.
-            DatabaseEntry data = new DatabaseEntry();
-            // query database to get the key-value
-            OperationStatus operationStatus = scaffoldDatabase.get(null, key, data, LockMode.DEFAULT);
-            if(operationStatus != OperationStatus.NOTFOUND)
-            {
-                Set<String> remainingVertices = new HashSet<>();
-                Set<String> visitedVertices = new HashSet<>();
-                Map<String, Set<String>> lineageMap = new HashMap<>();
-                remainingVertices.add(hash);
-                int current_depth = 0;
-                while(!remainingVertices.isEmpty() && current_depth < maxDepth)
-                {
-                    visitedVertices.addAll(remainingVertices);
-                    Set<String> currentSet = new HashSet<>();
-                    for(String current_hash: remainingVertices)
-                    {
-                        Set<String> neighbors = null;
-                        if(DIRECTION_ANCESTORS.startsWith(direction.toLowerCase()))
-                            neighbors = getParents(current_hash);
-                        else if(DIRECTION_DESCENDANTS.startsWith(direction.toLowerCase()))
-                            neighbors = getChildren(current_hash);
-
-                        if(neighbors != null)
-                        {
-                            lineageMap.put(current_hash, neighbors);
-                            for(String vertexHash: neighbors)
-                            {
-                                if(!visitedVertices.contains(vertexHash))
-                                {
-                                    currentSet.addAll(neighbors);
-                                }
-                            }
-                        }
-                    }
-                    remainingVertices.clear();
-                    remainingVertices.addAll(currentSet);
-                    current_depth++;
-                }
-
-                return lineageMap;
-            }
-        }
-        catch(UnsupportedEncodingException ex)
-        {
-            logger.log(Level.SEVERE, "Scaffold Get Lineage error!", ex);
-        }
-
-        return null;
+        return true;
     }
 
     @Override
-    public Map<String, Set<String>> getPaths(String source_hash, String destination_hash, int maxLength)
+    public Set<String> getNeighbors(String hash)
     {
+        Set<String> neighbors = getChildren(hash);
+        neighbors.addAll(getParents(hash));
 
-        Map<String, Set<String>> lineageUp = getLineage(source_hash, DIRECTION_ANCESTORS, maxLength);
-        Map<String, Set<String>> lineageDown = getLineage(destination_hash, DIRECTION_DESCENDANTS, maxLength);
-        Map<String, Set<String>> paths = new HashMap<>();
-        Set<String> keys = lineageUp.keySet();
-        keys.retainAll(lineageDown.keySet());
-
-        for(String key: keys)
-        {
-            Set<String> pathEntry = paths.get(key);
-            if(pathEntry == null)
-            {
-                pathEntry = new HashSet<>();
-            }
-            pathEntry.addAll(lineageUp.get(key));
-            pathEntry.addAll(lineageDown.get(key));
-        }
-
-        return paths;
+        return neighbors;
     }
 
     public boolean flushBulkEntries(boolean forcedFlush)
@@ -29,6 +29,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -45,8 +46,9 @@ public class InMemory extends Scaffold
     private static final String LIST_SEPARATOR = "-";
     private static final String HASH_SEPARATOR = ",";
 
-    private static Map<String, Set<String>> childList = new HashMap<>();
-    private static Map<String, Set<String>> parentList = new HashMap<>();
+    // Concurrent so that the lookups of a query do not race with the inserts of the storage or each other
+    private static Map<String, Set<String>> childList = new ConcurrentHashMap<>();
+    private static Map<String, Set<String>> parentList = new ConcurrentHashMap<>();
     private static Logger logger = Logger.getLogger(InMemory.class.getName());
 
     /**
@@ -101,31 +103,38 @@ public class InMemory extends Scaffold
     @Override
     public Set<String> getChildren(String parentHash)
     {
-        return null;
+        Set<String> children = parentList.get(parentHash);
+        return children == null ? null : new HashSet<>(children);
     }
 
     @Override
     public Set<String> getParents(String childHash)
     {
-        return null;
-    }
-
-    @Override
-    public Set<String> getNeighbors(String hash)
-    {
-        return null;
+        Set<String> parents = childList.get(childHash);
+        return parents == null ? null : new HashSet<>(parents);
     }
 
     @Override
-    public Map<String, Set<String>> getLineage(String hash, String direction, int maxDepth)
+    public boolean supportsConcurrentReads()
     {
-        return null;
+        return true;
     }
 
     @Override
-    public Map<String, Set<String>> getPaths(String source_hash, String destination_hash, int maxLength)
+    public Set<String> getNeighbors(String hash)
     {
-        return null;
+        Set<String> neighbors = new HashSet<>();
+        Set<String> children = parentList.get(hash);
+        if(children != null)
+        {
+            neighbors.addAll(children);
+        }
+        Set<String> parents = childList.get(hash);
+        if(parents != null)
+        {
+            neighbors.addAll(parents);
+        }
+        return neighbors;
     }
 
     public boolean insertEntry2(AbstractEdge incomingEdge)
@@ -250,7 +259,7 @@ public class InMemory extends Scaffold
             Set<String> childEntry = childList.get(childHash);
             if(childEntry == null)
             {
-                childEntry = new HashSet<>();
+                childEntry = ConcurrentHashMap.newKeySet();
                 childList.put(childHash, childEntry);
             }
             childEntry.add(parentHash);
@@ -260,7 +269,7 @@ public class InMemory extends Scaffold
             Set<String> parentEntry = parentList.get(parentHash);
             if(parentEntry == null)
             {
-                parentEntry = new HashSet<>();
+                parentEntry = ConcurrentHashMap.newKeySet();
                 parentList.put(parentHash, parentEntry);
             }
             parentEntry.add(childHash);
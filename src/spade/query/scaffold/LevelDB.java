@@ -28,8 +28,6 @@ import static org.fusesource.leveldbjni.JniDBFactory.asString;
 import static org.fusesource.leveldbjni.JniDBFactory.bytes;
 import static org.fusesource.leveldbjni.JniDBFactory.factory;
 
-import static spade.core.AbstractStorage.DIRECTION_ANCESTORS;
-import static spade.core.AbstractStorage.DIRECTION_DESCENDANTS;
 
 public class LevelDB extends Scaffold
 {
@@ -198,72 +196,22 @@ public class LevelDB extends Scaffold
         return parentHashesSet;
     }
 
+    /**
+     * LevelDB serves point reads from several threads at once.
+     */
     @Override
-    public Set<String> getNeighbors(String hash)
+    public boolean supportsConcurrentReads()
     {
-        Set<String> neighbors = getChildren(hash);
-        neighbors.addAll(getParents(hash));
-
-        return neighbors;
+        return true;
     }
 
     @Override
-    public Map<String, Set<String>> getLineage(String hash, String direction, int maxDepth)
+    public Set<String> getNeighbors(String hash)
     {
-        try
-        {
-            byte[] scaffoldEntry = scaffoldDatabase.get(bytes(hash));
-            if(scaffoldEntry != null)
-            {
-                Set<String> remainingVertices = new HashSet<>();
-                Set<String> visitedVertices = new HashSet<>();
-                Map<String, Set<String>> lineageMap = new HashMap<>();
-                remainingVertices.add(hash);
-                int current_depth = 0;
-                while(!remainingVertices.isEmpty() && current_depth < maxDepth)
-                {
-                    visitedVertices.addAll(remainingVertices);
-                    Set<String> currentSet = new HashSet<>();
-                    for(String current_hash: remainingVertices)
-                    {
-                        Set<String> neighbors = null;
-                        if(DIRECTION_ANCESTORS.startsWith(direction.toLowerCase()))
-                            neighbors = getParents(current_hash);
-                        else if(DIRECTION_DESCENDANTS.startsWith(direction.toLowerCase()))
-                            neighbors = getChildren(current_hash);
-
-                        if(neighbors != null)
-                        {
-                            lineageMap.put(current_hash, neighbors);
-                            for(String vertexHash: neighbors)
-                            {
-                                if(!visitedVertices.contains(vertexHash))
-                                {
-                                    currentSet.add(vertexHash);
-                                }
-                            }
-                        }
-                    }
-                    remainingVertices.clear();
-                    remainingVertices.addAll(currentSet);
-                    current_depth++;
-                }
-
-                return lineageMap;
-            }
-        }
-        catch(Exception ex)
-        {
-            logger.log(Level.SEVERE, "Scaffold Get Lineage error!", ex);
-        }
-
-        return null;
-    }
+        Set<String> neighbors = getChildren(hash);
+        neighbors.addAll(getParents(hash));
 
-    @Override
-    public Map<String, Set<String>> getPaths(String source_hash, String destination_hash, int maxLength)
-    {
-        return null;
+        return neighbors;
     }
 
     private boolean flushBulkEntries(boolean forcedFlush)
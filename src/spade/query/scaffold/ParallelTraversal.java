@@ -0,0 +1,290 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2017 SRI International
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.query.scaffold;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static spade.core.AbstractStorage.DIRECTION_ANCESTORS;
+import static spade.core.AbstractStorage.DIRECTION_DESCENDANTS;
+
+/**
+ * Level synchronous breadth first traversal over a scaffold, shared by all scaffold implementations.
+ *
+ * Every level of the traversal is split into batches of BATCH_SIZE vertices. The neighbors of a batch are
+ * looked up with one call to the scaffold (see Scaffold.getParents(Collection)) and batches are looked up in
+ * parallel in a fork-join pool when the scaffold supports concurrent reads. Visited vertices are kept in a
+ * concurrent set keyed by the 128 bits of their hash instead of the hash string.
+ *
+ * @author raza
+ */
+public class ParallelTraversal
+{
+    public static final int BATCH_SIZE = 256;
+    public static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+    private static final ForkJoinPool pool = new ForkJoinPool(PARALLELISM);
+
+    private final Scaffold scaffold;
+    private final boolean ancestors;
+    private final int maxDepth;
+    // Vertices at depth less than maxDepth mapped to their neighbors in the direction
+    private final Map<String, Set<String>> lineageMap = new ConcurrentHashMap<>();
+    // Compact id of every visited vertex mapped to its depth
+    private final Map<Object, Integer> depths = new ConcurrentHashMap<>();
+
+    private ParallelTraversal(Scaffold scaffold, boolean ancestors, int maxDepth)
+    {
+        this.scaffold = scaffold;
+        this.ancestors = ancestors;
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * @return vertices within maxDepth - 1 of the given vertex mapped to their parents (ancestors) or
+     * children (descendants). NULL if the direction is not one of the two or the vertex is not in the scaffold.
+     */
+    public static Map<String, Set<String>> getLineage(Scaffold scaffold, String hash, String direction, int maxDepth)
+    {
+        Boolean ancestors = isAncestors(direction);
+        if(ancestors == null)
+        {
+            return null;
+        }
+        ParallelTraversal traversal = new ParallelTraversal(scaffold, ancestors, maxDepth);
+        traversal.run(hash);
+        if(traversal.lineageMap.isEmpty())
+        {
+            // Either no neighbors in the direction or not in the scaffold at all
+            Set<String> neighbors = scaffold.getNeighbors(hash);
+            if(neighbors == null || neighbors.isEmpty())
+            {
+                return null;
+            }
+        }
+        return traversal.lineageMap;
+    }
+
+    /**
+     * Vertices and edges on paths of at most maxLength edges from the source (child) to the destination
+     * (ancestor). A vertex is on a path if its distance from the source plus its distance to the destination
+     * is at most maxLength, and an edge if the same holds with the edge in between.
+     *
+     * @return vertices on the paths mapped to their parents on the paths. Empty if there is no path.
+     */
+    public static Map<String, Set<String>> getPaths(Scaffold scaffold, String sourceHash, String destinationHash,
+                                                    int maxLength)
+    {
+        ParallelTraversal up = new ParallelTraversal(scaffold, true, maxLength);
+        up.run(sourceHash);
+        ParallelTraversal down = new ParallelTraversal(scaffold, false, maxLength);
+        down.run(destinationHash);
+
+        Map<String, Set<String>> paths = new HashMap<>();
+        if(!down.depths.containsKey(compactId(sourceHash)))
+        {
+            return paths;
+        }
+        for(Map.Entry<String, Set<String>> entry : up.lineageMap.entrySet())
+        {
+            Object id = compactId(entry.getKey());
+            int upDepth = up.depths.get(id);
+            Integer downDepth = down.depths.get(id);
+            if(downDepth == null || upDepth + downDepth > maxLength)
+            {
+                continue;
+            }
+            Set<String> parents = new HashSet<>();
+            for(String parentHash : entry.getValue())
+            {
+                Integer parentDownDepth = down.depths.get(compactId(parentHash));
+                if(parentDownDepth != null && upDepth + 1 + parentDownDepth <= maxLength)
+                {
+                    parents.add(parentHash);
+                }
+            }
+            paths.put(entry.getKey(), parents);
+        }
+        // The destination is not expanded if it is maxLength away from the source
+        if(!paths.containsKey(destinationHash))
+        {
+            paths.put(destinationHash, new HashSet<String>());
+        }
+
+        return paths;
+    }
+
+    private void run(String hash)
+    {
+        depths.put(compactId(hash), 0);
+        List<String> frontier = Collections.singletonList(hash);
+        for(int depth = 0; depth < maxDepth && !frontier.isEmpty(); depth++)
+        {
+            ConcurrentLinkedQueue<String> next = new ConcurrentLinkedQueue<>();
+            if(frontier.size() > BATCH_SIZE && scaffold.supportsConcurrentReads())
+            {
+                pool.invoke(new ExpandTask(frontier, 0, frontier.size(), depth + 1, next));
+            }
+            else
+            {
+                for(int start = 0; start < frontier.size(); start += BATCH_SIZE)
+                {
+                    expand(frontier.subList(start, Math.min(frontier.size(), start + BATCH_SIZE)), depth + 1, next);
+                }
+            }
+            frontier = new ArrayList<>(next);
+        }
+    }
+
+    /**
+     * Looks up the neighbors of a batch of vertices and adds the unvisited ones to the next level.
+     */
+    private void expand(List<String> batch, int nextDepth, ConcurrentLinkedQueue<String> next)
+    {
+        Map<String, Set<String>> neighbors = ancestors ? scaffold.getParents(batch) : scaffold.getChildren(batch);
+        for(Map.Entry<String, Set<String>> entry : neighbors.entrySet())
+        {
+            Set<String> neighborSet = entry.getValue();
+            if(neighborSet == null)
+            {
+                continue;
+            }
+            neighborSet.remove("");
+            lineageMap.put(entry.getKey(), neighborSet);
+            for(String neighborHash : neighborSet)
+            {
+                if(depths.putIfAbsent(compactId(neighborHash), nextDepth) == null)
+                {
+                    next.add(neighborHash);
+                }
+            }
+        }
+    }
+
+    private class ExpandTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> frontier;
+        private final int start;
+        private final int end;
+        private final int nextDepth;
+        private final ConcurrentLinkedQueue<String> next;
+
+        ExpandTask(List<String> frontier, int start, int end, int nextDepth, ConcurrentLinkedQueue<String> next)
+        {
+            this.frontier = frontier;
+            this.start = start;
+            this.end = end;
+            this.nextDepth = nextDepth;
+            this.next = next;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if(end - start <= BATCH_SIZE)
+            {
+                expand(frontier.subList(start, end), nextDepth, next);
+                return;
+            }
+            int middle = (start + end) >>> 1;
+            invokeAll(new ExpandTask(frontier, start, middle, nextDepth, next),
+                    new ExpandTask(frontier, middle, end, nextDepth, next));
+        }
+    }
+
+    private static Boolean isAncestors(String direction)
+    {
+        String lowerCaseDirection = direction.toLowerCase();
+        if(DIRECTION_ANCESTORS.startsWith(lowerCaseDirection))
+        {
+            return true;
+        }
+        if(DIRECTION_DESCENDANTS.startsWith(lowerCaseDirection))
+        {
+            return false;
+        }
+        return null;
+    }
+
+    /**
+     * @return the 128 bits of an MD5 hex hash as a VertexId, or the hash itself if it is not one
+     */
+    static Object compactId(String hash)
+    {
+        if(hash.length() != 32)
+        {
+            return hash;
+        }
+        long high = 0, low = 0;
+        for(int i = 0; i < 32; i++)
+        {
+            int digit = Character.digit(hash.charAt(i), 16);
+            if(digit < 0)
+            {
+                return hash;
+            }
+            if(i < 16)
+            {
+                high = (high << 4) | digit;
+            }
+            else
+            {
+                low = (low << 4) | digit;
+            }
+        }
+        return new VertexId(high, low);
+    }
+
+    private static final class VertexId
+    {
+        private final long high;
+        private final long low;
+
+        VertexId(long high, long low)
+        {
+            this.high = high;
+            this.low = low;
+        }
+
+        @Override
+        public boolean equals(Object other)
+        {
+            if(!(other instanceof VertexId))
+            {
+                return false;
+            }
+            VertexId otherId = (VertexId) other;
+            return high == otherId.high && low == otherId.low;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return (int) (high ^ (high >>> 32) ^ low ^ (low >>> 32));
+        }
+    }
+}
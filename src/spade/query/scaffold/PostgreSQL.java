@@ -27,9 +27,13 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -44,6 +48,22 @@ public class PostgreSQL extends Scaffold
 {
     private Logger logger = Logger.getLogger(Scaffold.class.getName());
     private Connection dbConnection;
+    private String databaseURL;
+    private String databaseUsername;
+    private String databasePassword;
+    // Read-only connections for the lookups, so that the lookups of a parallel traversal are not
+    // serialized on one connection
+    private final ReadConnectionPool<Connection> readConnections = new ReadConnectionPool<>(
+            new ReadConnectionPool.Opener<Connection>()
+            {
+                @Override
+                public Connection open() throws SQLException
+                {
+                    Connection connection = DriverManager.getConnection(databaseURL, databaseUsername, databasePassword);
+                    connection.setReadOnly(true);
+                    return connection;
+                }
+            });
     private static String PARENTS_TABLE = "parents";
     private static String CHILDREN_TABLE = "children";
     private static String HASH = "hash";
@@ -79,10 +99,10 @@ public class PostgreSQL extends Scaffold
 
         try
         {
-            String databaseURL = "scaffold";
+            databaseURL = "scaffold";
             databaseURL = databaseConfigs.getProperty("databaseURLPrefix") + databaseURL;
-            String databaseUsername = "raza";
-            String databasePassword = "12345";
+            databaseUsername = "raza";
+            databasePassword = "12345";
 
             Class.forName(databaseConfigs.getProperty("databaseDriver")).newInstance();
             dbConnection = DriverManager.getConnection(databaseURL, databaseUsername, databasePassword);
@@ -163,6 +183,7 @@ public class PostgreSQL extends Scaffold
     {
         try
         {
+            readConnections.close();
             dbConnection.commit();
             dbConnection.close();
         }
@@ -177,31 +198,134 @@ public class PostgreSQL extends Scaffold
     @Override
     public Set<String> getChildren(String parentHash)
     {
-        return null;
+        return getChildren(Collections.singletonList(parentHash)).get(parentHash);
     }
 
     @Override
     public Set<String> getParents(String childHash)
     {
-        return null;
+        return getParents(Collections.singletonList(childHash)).get(childHash);
     }
 
     @Override
     public Set<String> getNeighbors(String hash)
     {
-        return null;
+        Set<String> neighbors = new HashSet<>();
+        Set<String> children = getChildren(hash);
+        if(children != null)
+        {
+            neighbors.addAll(children);
+        }
+        Set<String> parents = getParents(hash);
+        if(parents != null)
+        {
+            neighbors.addAll(parents);
+        }
+        return neighbors;
+    }
+
+    @Override
+    public Map<String, Set<String>> getChildren(Collection<String> parentHashes)
+    {
+        return getNeighbors(CHILDREN_TABLE, CHILD_HASH, parentHashes);
+    }
+
+    @Override
+    public Map<String, Set<String>> getParents(Collection<String> childHashes)
+    {
+        return getNeighbors(PARENTS_TABLE, PARENT_HASH, childHashes);
     }
 
+    /**
+     * Every lookup borrows a read-only connection of its own.
+     */
+    @Override
+    public boolean supportsConcurrentReads()
+    {
+        return true;
+    }
+
+    /**
+     * Commits the inserted entries first because the lookups are made on other connections.
+     */
     @Override
     public Map<String, Set<String>> getLineage(String hash, String direction, int maxDepth)
     {
-        return null;
+        globalTxCheckin(true);
+        return super.getLineage(hash, direction, maxDepth);
     }
 
+    /**
+     * Commits the inserted entries first because the lookups are made on other connections.
+     */
     @Override
     public Map<String, Set<String>> getPaths(String source_hash, String destination_hash, int maxLength)
     {
-        return null;
+        globalTxCheckin(true);
+        return super.getPaths(source_hash, destination_hash, maxLength);
+    }
+
+    /**
+     * Looks up the neighbors of all the given vertices with one query.
+     */
+    private Map<String, Set<String>> getNeighbors(String table, String neighborColumn, Collection<String> hashes)
+    {
+        Map<String, Set<String>> neighbors = new HashMap<>();
+        if(hashes.isEmpty())
+        {
+            return neighbors;
+        }
+        // UUIDs are returned with dashes, vertex hashes are without them
+        StringBuilder query = new StringBuilder(100 + 40 * hashes.size());
+        query.append("SELECT replace(\"").append(HASH).append("\"::text, '-', ''), replace(\"");
+        query.append(neighborColumn).append("\"::text, '-', '') FROM ").append(table);
+        query.append(" WHERE \"").append(HASH).append("\" IN (");
+        for(String hash : hashes)
+        {
+            query.append("'").append(hash.replace("'", "''")).append("', ");
+        }
+        query.setLength(query.length() - 2);
+        query.append(")");
+        Connection connection;
+        try
+        {
+            connection = readConnections.borrow();
+        }
+        catch(Exception ex)
+        {
+            logger.log(Level.SEVERE, "Unable to get a scaffold read connection!", ex);
+            return neighbors;
+        }
+        boolean broken = false;
+        try
+        {
+            Statement statement = connection.createStatement();
+            ResultSet result = statement.executeQuery(query.toString());
+            while(result.next())
+            {
+                String hash = result.getString(1);
+                Set<String> neighborHashes = neighbors.get(hash);
+                if(neighborHashes == null)
+                {
+                    neighborHashes = new HashSet<>();
+                    neighbors.put(hash, neighborHashes);
+                }
+                neighborHashes.add(result.getString(2));
+            }
+            result.close();
+            statement.close();
+        }
+        catch(SQLException ex)
+        {
+            broken = true;
+            logger.log(Level.SEVERE, "Error retrieving neighbors from scaffold!", ex);
+        }
+        finally
+        {
+            readConnections.giveBack(connection, broken);
+        }
+
+        return neighbors;
     }
 
     /**
@@ -0,0 +1,138 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2017 SRI International
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.query.scaffold;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * At most ParallelTraversal.PARALLELISM read connections of a scaffold, opened when first needed. A lookup
+ * borrows a connection and gives it back when done, waiting if all of them are borrowed. The threads of
+ * the traversal pool and of the query clients come and go, so connections are not kept per thread.
+ */
+class ReadConnectionPool<C extends AutoCloseable>
+{
+    interface Opener<C>
+    {
+        C open() throws Exception;
+    }
+
+    private static final Logger logger = Logger.getLogger(ReadConnectionPool.class.getName());
+
+    private static final long WAIT_MILLIS = 1000;
+
+    private final Opener<C> opener;
+    private final int size;
+    private final BlockingQueue<C> idle = new LinkedBlockingQueue<>();
+    // Open connections, borrowed or idle
+    private final List<C> connections = new ArrayList<>();
+    private boolean closed = false;
+
+    ReadConnectionPool(Opener<C> opener)
+    {
+        this(opener, ParallelTraversal.PARALLELISM);
+    }
+
+    ReadConnectionPool(Opener<C> opener, int size)
+    {
+        this.opener = opener;
+        this.size = size;
+    }
+
+    C borrow() throws Exception
+    {
+        while(true)
+        {
+            C connection = idle.poll();
+            if(connection != null)
+            {
+                return connection;
+            }
+            synchronized(connections)
+            {
+                if(closed)
+                {
+                    throw new IllegalStateException("Read connections closed");
+                }
+                if(connections.size() < size)
+                {
+                    connection = opener.open();
+                    connections.add(connection);
+                    return connection;
+                }
+            }
+            // Checks again in a while in case a broken connection was closed or the pool was closed
+            connection = idle.poll(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            if(connection != null)
+            {
+                return connection;
+            }
+        }
+    }
+
+    /**
+     * @param broken true to close the connection instead of reusing it (after an error for example)
+     */
+    void giveBack(C connection, boolean broken)
+    {
+        synchronized(connections)
+        {
+            if(!closed && !broken)
+            {
+                idle.add(connection);
+                return;
+            }
+            connections.remove(connection);
+        }
+        close(connection);
+    }
+
+    /**
+     * Closes the idle connections, and the borrowed ones when they are given back.
+     */
+    void close()
+    {
+        List<C> idleConnections = new ArrayList<>();
+        synchronized(connections)
+        {
+            closed = true;
+            idle.drainTo(idleConnections);
+            connections.removeAll(idleConnections);
+        }
+        for(C connection : idleConnections)
+        {
+            close(connection);
+        }
+    }
+
+    private static void close(AutoCloseable connection)
+    {
+        try
+        {
+            connection.close();
+        }
+        catch(Exception ex)
+        {
+            logger.log(Level.WARNING, "Error closing scaffold read connection", ex);
+        }
+    }
+}
@@ -17,9 +17,15 @@
 package spade.query.scaffold;
 
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
 import spade.core.AbstractEdge;
 import spade.core.Graph;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -29,8 +35,17 @@ import java.util.logging.Logger;
 public class Redis extends Scaffold
 {
     private static Logger logger = Logger.getLogger(Redis.class.getName());
+    private static final String HOST = "localhost";
+    // The parents of a vertex are kept in one database and its children in another, so that the two
+    // directions are not merged into one set for a vertex with both parents and children
+    private static final int PARENTS_DB = 0;
+    private static final int CHILDREN_DB = 1;
     private static Jedis childScaffold;
     private static Jedis parentScaffold;
+    // Connections for the lookups, so that the lookups of a parallel traversal are not serialized on
+    // one connection. Writes stay on the two connections above.
+    private final ReadConnectionPool<Jedis> parentsReadConnections = createReadConnections(PARENTS_DB);
+    private final ReadConnectionPool<Jedis> childrenReadConnections = createReadConnections(CHILDREN_DB);
 
     /**
      * This method is invoked by the kernel to initialize the storage.
@@ -43,8 +58,10 @@ public class Redis extends Scaffold
     {
         try
         {
-            childScaffold = new Jedis("localhost");
-            parentScaffold = new Jedis("localhost");
+            childScaffold = new Jedis(HOST);
+            childScaffold.select(PARENTS_DB);
+            parentScaffold = new Jedis(HOST);
+            parentScaffold.select(CHILDREN_DB);
 
             childScaffold.configSet("dir", "/space/spade/tc/SPADE_v3/db/scaffold/");
             childScaffold.configSet("maxmemory", "5GB" );
@@ -77,6 +94,8 @@ public class Redis extends Scaffold
     {
         try
         {
+            parentsReadConnections.close();
+            childrenReadConnections.close();
             childScaffold.close();
             parentScaffold.close();
             logger.log(Level.INFO, "Scaffold closed successfully!");
@@ -93,31 +112,121 @@ public class Redis extends Scaffold
     @Override
     public Set<String> getChildren(String parentHash)
     {
-        return null;
+        Set<String> children = getMembers(childrenReadConnections, parentHash);
+        return children == null || children.isEmpty() ? null : children;
     }
 
     @Override
     public Set<String> getParents(String childHash)
     {
-        return null;
+        Set<String> parents = getMembers(parentsReadConnections, childHash);
+        return parents == null || parents.isEmpty() ? null : parents;
     }
 
     @Override
     public Set<String> getNeighbors(String hash)
     {
-        return null;
+        Set<String> neighbors = new HashSet<>();
+        Set<String> children = getChildren(hash);
+        if(children != null)
+        {
+            neighbors.addAll(children);
+        }
+        Set<String> parents = getParents(hash);
+        if(parents != null)
+        {
+            neighbors.addAll(parents);
+        }
+        return neighbors;
     }
 
     @Override
-    public Map<String, Set<String>> getLineage(String hash, String direction, int maxDepth)
+    public Map<String, Set<String>> getChildren(Collection<String> parentHashes)
     {
-        return null;
+        return getMembers(childrenReadConnections, parentHashes);
     }
 
     @Override
-    public Map<String, Set<String>> getPaths(String source_hash, String destination_hash, int maxLength)
+    public Map<String, Set<String>> getParents(Collection<String> childHashes)
     {
-        return null;
+        return getMembers(parentsReadConnections, childHashes);
+    }
+
+    /**
+     * Every lookup borrows a connection of its own.
+     */
+    @Override
+    public boolean supportsConcurrentReads()
+    {
+        return true;
+    }
+
+    private static ReadConnectionPool<Jedis> createReadConnections(final int db)
+    {
+        return new ReadConnectionPool<>(new ReadConnectionPool.Opener<Jedis>()
+        {
+            @Override
+            public Jedis open()
+            {
+                Jedis connection = new Jedis(HOST);
+                connection.select(db);
+                return connection;
+            }
+        });
+    }
+
+    private Set<String> getMembers(ReadConnectionPool<Jedis> readConnections, String hash)
+    {
+        return getMembers(readConnections, Collections.singletonList(hash)).get(hash);
+    }
+
+    /**
+     * Looks up the sets of all the given keys in one round trip.
+     */
+    private Map<String, Set<String>> getMembers(ReadConnectionPool<Jedis> readConnections, Collection<String> hashes)
+    {
+        Jedis scaffold;
+        try
+        {
+            scaffold = readConnections.borrow();
+        }
+        catch(Exception ex)
+        {
+            logger.log(Level.SEVERE, "Unable to get a scaffold read connection!", ex);
+            return new HashMap<>();
+        }
+        boolean broken = true;
+        try
+        {
+            Map<String, Set<String>> members = getMembers(scaffold, hashes);
+            broken = false;
+            return members;
+        }
+        finally
+        {
+            readConnections.giveBack(scaffold, broken);
+        }
+    }
+
+    private static Map<String, Set<String>> getMembers(Jedis scaffold, Collection<String> hashes)
+    {
+        Map<String, Response<Set<String>>> responses = new HashMap<>();
+        Pipeline pipeline = scaffold.pipelined();
+        for(String hash : hashes)
+        {
+            responses.put(hash, pipeline.smembers(hash));
+        }
+        pipeline.sync();
+        Map<String, Set<String>> members = new HashMap<>();
+        for(Map.Entry<String, Response<Set<String>>> response : responses.entrySet())
+        {
+            Set<String> hashSet = response.getValue().get();
+            if(hashSet != null && !hashSet.isEmpty())
+            {
+                members.put(response.getKey(), hashSet);
+            }
+        }
+        return members;
     }
 
     /**
@@ -135,8 +244,14 @@ public class Redis extends Scaffold
         {
             String childVertexHash = incomingEdge.getChildVertex().bigHashCode();
             String parentVertexHash = incomingEdge.getParentVertex().bigHashCode();
-            childScaffold.sadd(childVertexHash, parentVertexHash);
-            parentScaffold.sadd(parentVertexHash, childVertexHash);
+            synchronized(childScaffold)
+            {
+                childScaffold.sadd(childVertexHash, parentVertexHash);
+            }
+            synchronized(parentScaffold)
+            {
+                parentScaffold.sadd(parentVertexHash, childVertexHash);
+            }
         }
         catch(Exception ex)
         {
@@ -74,18 +74,6 @@ public class SSDB extends Scaffold
         return null;
     }
 
-    @Override
-    public Map<String, Set<String>> getLineage(String hash, String direction, int maxDepth)
-    {
-        return null;
-    }
-
-    @Override
-    public Map<String, Set<String>> getPaths(String source_hash, String destination_hash, int maxLength)
-    {
-        return null;
-    }
-
     /**
      * This function inserts hashes of the end vertices of given edge
      * into the scaffold storage.
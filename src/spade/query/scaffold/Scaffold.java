@@ -22,7 +22,9 @@ import spade.core.Edge;
 import spade.core.Graph;
 import spade.core.Vertex;
 
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -70,9 +72,66 @@ public abstract class Scaffold
 
     public abstract Set<String> getNeighbors(String hash);
 
-    public abstract Map<String, Set<String>> getLineage(String hash, String direction, int maxDepth);
+    /**
+     * Looks up the parents of a batch of vertices. Scaffolds that can answer a batch with a single
+     * request to the backing store override this.
+     *
+     * @param childHashes hashes of the vertices
+     * @return vertices mapped to their parents. Vertices not in the scaffold are left out.
+     */
+    public Map<String, Set<String>> getParents(Collection<String> childHashes)
+    {
+        Map<String, Set<String>> parents = new HashMap<>();
+        for(String childHash : childHashes)
+        {
+            Set<String> parentHashes = getParents(childHash);
+            if(parentHashes != null)
+            {
+                parents.put(childHash, parentHashes);
+            }
+        }
+        return parents;
+    }
+
+    /**
+     * Looks up the children of a batch of vertices. Scaffolds that can answer a batch with a single
+     * request to the backing store override this.
+     *
+     * @param parentHashes hashes of the vertices
+     * @return vertices mapped to their children. Vertices not in the scaffold are left out.
+     */
+    public Map<String, Set<String>> getChildren(Collection<String> parentHashes)
+    {
+        Map<String, Set<String>> children = new HashMap<>();
+        for(String parentHash : parentHashes)
+        {
+            Set<String> childHashes = getChildren(parentHash);
+            if(childHashes != null)
+            {
+                children.put(parentHash, childHashes);
+            }
+        }
+        return children;
+    }
 
-    public abstract Map<String, Set<String>> getPaths(String source_hash, String destination_hash, int maxLength);
+    /**
+     * @return true if neighbors can be looked up from several threads at once. Lookups are made from
+     * the calling thread only otherwise.
+     */
+    public boolean supportsConcurrentReads()
+    {
+        return false;
+    }
+
+    public Map<String, Set<String>> getLineage(String hash, String direction, int maxDepth)
+    {
+        return ParallelTraversal.getLineage(this, hash, direction, maxDepth);
+    }
+
+    public Map<String, Set<String>> getPaths(String source_hash, String destination_hash, int maxLength)
+    {
+        return ParallelTraversal.getPaths(this, source_hash, destination_hash, maxLength);
+    }
 
     /**
      * This function inserts hashes of the end vertices of given edge
@@ -23,6 +23,7 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.math.BigInteger;
 import java.text.SimpleDateFormat;
@@ -35,6 +36,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.locks.Lock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -51,8 +53,10 @@ import spade.edge.opm.WasGeneratedBy;
 import spade.edge.opm.WasTriggeredBy;
 import spade.reporter.audit.AuditEventReader;
 import spade.reporter.audit.Globals;
+import spade.reporter.audit.IndexedLogReplay;
 import spade.reporter.audit.MalformedAuditDataException;
 import spade.reporter.audit.OPMConstants;
+import spade.reporter.audit.OutputLogWriter;
 import spade.reporter.audit.SYSCALL;
 import spade.reporter.audit.artifact.ArtifactIdentifier;
 import spade.reporter.audit.artifact.ArtifactManager;
@@ -247,6 +251,8 @@ public class Audit extends AbstractReporter {
 	private Set<String> namesOfProcessesToIgnoreFromConfig = new HashSet<String>();
 	
 	private String spadeAuditBridgeProcessPid = null;
+	// Feeds the records in the requested time range to spadeAuditBridge. null if not replaying a time range.
+	private IndexedLogReplay indexedLogReplay = null;
 	// true if live audit, false if log file. null not set.
 	private Boolean isLiveAudit = null;
 	// a flag to block on shutdown call if buffers are being emptied and events are still being read
@@ -711,7 +717,7 @@ public class Audit extends AbstractReporter {
 			if(NETFILTER_RULES){
 				removeIptablesRules(iptablesRules);
 			}
-		}else{
+		}else if(logListFile != null){
 			try{
 				if(FileUtility.doesPathExist(logListFile)){
 					if(FileUtility.isFile(logListFile)){
@@ -744,6 +750,9 @@ public class Audit extends AbstractReporter {
 		String spadeAuditBridgeBinaryPath = null;
 		String outputLogFilePath = null;
 		long recordsToRotateOutputLogAfter = 0;
+		long bytesToRotateOutputLogAfter = 0;
+		long secondsToRotateOutputLogAfter = 0;
+		boolean compressOutputLog = false;
 		String spadeAuditBridgeCommand = null;
 		String rulesType = null;
 		String logListFile = null;
@@ -815,6 +824,35 @@ public class Audit extends AbstractReporter {
 					recordsToRotateOutputLogAfter = parsedOutputLogRotate;
 				}
 			}
+			String bytesToRotateOutputLogAfterArgument = argsMap.get("outputLogRotateBytes");
+			if(bytesToRotateOutputLogAfterArgument != null){
+				Long parsedOutputLogRotateBytes = CommonFunctions.parseLong(bytesToRotateOutputLogAfterArgument, null);
+				if(parsedOutputLogRotateBytes == null){
+					logger.log(Level.SEVERE, "Invalid value for 'outputLogRotateBytes': "+ bytesToRotateOutputLogAfterArgument);
+					return false;
+				}else{
+					bytesToRotateOutputLogAfter = parsedOutputLogRotateBytes;
+				}
+			}
+			String secondsToRotateOutputLogAfterArgument = argsMap.get("outputLogRotateSeconds");
+			if(secondsToRotateOutputLogAfterArgument != null){
+				Long parsedOutputLogRotateSeconds = CommonFunctions.parseLong(secondsToRotateOutputLogAfterArgument, null);
+				if(parsedOutputLogRotateSeconds == null){
+					logger.log(Level.SEVERE, "Invalid value for 'outputLogRotateSeconds': "+ secondsToRotateOutputLogAfterArgument);
+					return false;
+				}else{
+					secondsToRotateOutputLogAfter = parsedOutputLogRotateSeconds;
+				}
+			}
+			String compressOutputLogArgument = argsMap.get("outputLogCompress");
+			if(compressOutputLogArgument != null){
+				if(isValidBoolean(compressOutputLogArgument)){
+					compressOutputLog = parseBoolean(compressOutputLogArgument, compressOutputLog);
+				}else{
+					logger.log(Level.SEVERE, "Invalid flag value for 'outputLogCompress': " + compressOutputLogArgument);
+					return false;
+				}
+			}
 		}
 
 		String inputLogDirectoryArgument = argsMap.get("inputDir");
@@ -855,41 +893,88 @@ public class Audit extends AbstractReporter {
 					logger.log(Level.INFO, "Total logs to process: " + inputAuditLogFiles.size() + " and list = " + inputAuditLogFiles);
 				}
 	
-				// Only needed in case of audit log files and not in case of live audit
-				String tempDirPath = configMap.get("tempDir");
-				try{
-					if(!FileUtility.createDirectories(tempDirPath)){
+				// Replay only the records in a time range using the block index of the logs
+				String inputStartTimeArgument = argsMap.get("inputStartTime");
+				String inputEndTimeArgument = argsMap.get("inputEndTime");
+				if(inputStartTimeArgument != null || inputEndTimeArgument != null){
+					Double inputStartTime = Double.NEGATIVE_INFINITY, inputEndTime = Double.POSITIVE_INFINITY;
+					if(inputStartTimeArgument != null){
+						inputStartTime = parseReplayTime(inputStartTimeArgument);
+						if(inputStartTime == null){
+							logger.log(Level.SEVERE, "Invalid value for 'inputStartTime': " + inputStartTimeArgument
+									+ ". Expected: seconds since epoch or yyyy-MM-dd:HH:mm:ss");
+							return false;
+						}
+					}
+					if(inputEndTimeArgument != null){
+						inputEndTime = parseReplayTime(inputEndTimeArgument);
+						if(inputEndTime == null){
+							logger.log(Level.SEVERE, "Invalid value for 'inputEndTime': " + inputEndTimeArgument
+									+ ". Expected: seconds since epoch or yyyy-MM-dd:HH:mm:ss");
+							return false;
+						}
+					}
+					if(inputStartTime > inputEndTime){
+						logger.log(Level.SEVERE, "'inputStartTime' must not be after 'inputEndTime'");
+						return false;
+					}
+					indexedLogReplay = new IndexedLogReplay(inputAuditLogFiles, inputStartTime, inputEndTime, 
+							Runtime.getRuntime().availableProcessors());
+					// No input specified so spadeAuditBridge reads the records from its standard input
+					spadeAuditBridgeCommand = spadeAuditBridgeBinaryPath + 
+									((CREATE_BEEP_UNITS) ? " -u" : "") + 
+									((WAIT_FOR_LOG_END) ? " -w" : "");
+				}else{
+					// Only needed in case of audit log files and not in case of live audit
+					String tempDirPath = configMap.get("tempDir");
+					try{
+						if(!FileUtility.createDirectories(tempDirPath)){
+							logger.log(Level.SEVERE, "Failed to create temp directory defined in config with key 'tempDir': "
+									+ tempDirPath);
+							return false;
+						}
+					}catch(Exception e){
 						logger.log(Level.SEVERE, "Failed to create temp directory defined in config with key 'tempDir': "
-								+ tempDirPath);
+								+ tempDirPath, e);
 						return false;
 					}
-				}catch(Exception e){
-					logger.log(Level.SEVERE, "Failed to create temp directory defined in config with key 'tempDir': "
-							+ tempDirPath, e);
-					return false;
-				}
 				
-				// Create the input file for spadeAuditBridge to read the audit logs from 
-				logListFile = createLogListFileForSpadeAuditBridge(spadeAuditBridgeBinaryName, inputAuditLogFiles, tempDirPath);
-				if(logListFile == null){
-					return false;
-				}
+					// Create the input file for spadeAuditBridge to read the audit logs from 
+					logListFile = createLogListFileForSpadeAuditBridge(spadeAuditBridgeBinaryName, inputAuditLogFiles, tempDirPath);
+					if(logListFile == null){
+						return false;
+					}
 				
-				// Build the command to use
-				spadeAuditBridgeCommand = spadeAuditBridgeBinaryPath + 
-								((CREATE_BEEP_UNITS) ? " -u" : "") + 
-								((WAIT_FOR_LOG_END) ? " -w" : "") + 
-								" -f " + logListFile;
+					// Build the command to use
+					spadeAuditBridgeCommand = spadeAuditBridgeBinaryPath + 
+									((CREATE_BEEP_UNITS) ? " -u" : "") + 
+									((WAIT_FOR_LOG_END) ? " -w" : "") + 
+									" -f " + logListFile;
+				}
 			}else{
 				// Input log directory section
 				
+				// The time range is only applied with the block index of the logs given with 'inputLog'
+				if(argsMap.get("inputStartTime") != null || argsMap.get("inputEndTime") != null){
+					logger.log(Level.SEVERE, "'inputStartTime' and 'inputEndTime' are only supported with 'inputLog' "
+							+ "and not with 'inputDir'");
+					return false;
+				}
+				
 				try{
 					File dir = new File(inputLogDirectoryArgument);
 					
 					if(dir.exists() && dir.isDirectory()){
 						
-						// Check if logs exist
-						if(dir.list().length != 0){
+						// Check if logs exist. Index files written next to the logs are skipped by spadeAuditBridge too
+						boolean logExists = false;
+						for(String fileName : dir.list()){
+							if(!OutputLogWriter.isIndexFile(fileName)){
+								logExists = true;
+								break;
+							}
+						}
+						if(logExists){
 							
 							// Confirm timestamp
 							String inputLogTimeArgument = argsMap.get("inputTime");
@@ -993,9 +1078,15 @@ public class Audit extends AbstractReporter {
 						spadeAuditBridgeProcess.getErrorStream());
 				errorReaderThread.start();
 				
+				if(indexedLogReplay != null){
+					getIndexedLogReplayThread(spadeAuditBridgeBinaryName, indexedLogReplay, 
+							spadeAuditBridgeProcess.getOutputStream()).start();
+				}
+				
 				AuditEventReader auditEventReader = getAuditEventReader(spadeAuditBridgeCommand,
 						spadeAuditBridgeProcess.getInputStream(), outputLogFilePath,
-						recordsToRotateOutputLogAfter);
+						recordsToRotateOutputLogAfter, bytesToRotateOutputLogAfter, 
+						secondsToRotateOutputLogAfter * 1000, compressOutputLog);
 				
 				Thread auditEventReaderThread = getAuditEventReaderThread(spadeAuditBridgeBinaryName, 
 						auditEventReader, 
@@ -1115,14 +1206,18 @@ public class Audit extends AbstractReporter {
 	private AuditEventReader getAuditEventReader(String spadeAuditBridgeCommand, 
 			InputStream stdoutStream,
 			String outputLogFilePath,
-			Long recordsToRotateOutputLogAfter){
+			Long recordsToRotateOutputLogAfter,
+			Long bytesToRotateOutputLogAfter,
+			Long millisToRotateOutputLogAfter,
+			boolean compressOutputLog){
 		
 		try{
 			// Create the audit event reader using the STDOUT of the spadeAuditBridge process
 			AuditEventReader auditEventReader = new AuditEventReader(spadeAuditBridgeCommand, 
 					stdoutStream, FAIL_FAST);
 			if(outputLogFilePath != null){
-				auditEventReader.setOutputLog(outputLogFilePath, recordsToRotateOutputLogAfter);
+				auditEventReader.setOutputLog(outputLogFilePath, recordsToRotateOutputLogAfter, 
+						bytesToRotateOutputLogAfter, millisToRotateOutputLogAfter, compressOutputLog);
 			}
 			return auditEventReader;
 		}catch(Exception e){
@@ -1203,6 +1298,11 @@ public class Audit extends AbstractReporter {
 							// EOF
 							break;
 						}else{
+							// Processes from /proc are being put concurrently
+							Lock procFsLock = processManager.getProcFsLock();
+							if(procFsLock != null){
+								procFsLock.lock();
+							}
 							try{
 								finishEvent(eventData);
 							}catch(Exception e){
@@ -1210,6 +1310,10 @@ public class Audit extends AbstractReporter {
 								if(FAIL_FAST){
 									break;
 								}
+							}finally{
+								if(procFsLock != null){
+									procFsLock.unlock();
+								}
 							}
 						}
 					}catch(MalformedAuditDataException made){
@@ -1240,6 +1344,50 @@ public class Audit extends AbstractReporter {
 		return new Thread(runnable);
 	}
 
+	private Thread getIndexedLogReplayThread(final String processName, final IndexedLogReplay replay, 
+			final OutputStream processInputStream){
+		Thread replayThread = new Thread(new Runnable(){
+			public void run(){
+				try{
+					replay.writeTo(processInputStream);
+				}catch(Exception e){
+					logger.log(Level.SEVERE, "Failed to replay logs to " + processName, e);
+				}finally{
+					try{
+						// EOF for the process
+						processInputStream.close();
+					}catch(Exception e){
+						logger.log(Level.WARNING, "Failed to close input stream of " + processName, e);
+					}
+				}
+			}
+		}, "IndexedLogReplay");
+		replayThread.setDaemon(true);
+		return replayThread;
+	}
+	
+	/**
+	 * Parses the time for indexed replay
+	 * 
+	 * @param value seconds since epoch (as in audit records) or time in the format yyyy-MM-dd:HH:mm:ss
+	 * @return time in seconds or null if invalid
+	 */
+	private Double parseReplayTime(String value){
+		value = value.trim();
+		try{
+			return Double.parseDouble(value);
+		}catch(Exception e){
+			// not in seconds
+		}
+		try{
+			SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd:HH:mm:ss");
+			dateFormat.setLenient(false);
+			return dateFormat.parse(value).getTime() / 1000.0;
+		}catch(Exception e){
+			return null;
+		}
+	}
+
 	private java.lang.Process runSpadeAuditBridge(String command){
 		try{
 			java.lang.Process spadeAuditBridgeProcess = Runtime.getRuntime().exec(command);
@@ -1926,6 +2074,10 @@ public class Audit extends AbstractReporter {
 			}
 		}
 		
+		if(indexedLogReplay != null){
+			indexedLogReplay.stop();
+		}
+		
 		// Send an interrupt to the spadeAuditBridgeProcess
 		
 		sendSignalToPid(spadeAuditBridgeProcessPid, "2");
@@ -1946,6 +2098,13 @@ public class Audit extends AbstractReporter {
 		return true;
 	}
 
+	/**
+	 * @return true until the event reader thread has read the last event of the input logs or has been stopped
+	 */
+	public boolean isReadingEvents(){
+		return eventReaderThreadRunning;
+	}
+
 	private void printStats(boolean forcePrint){
 		if(reportingEnabled || forcePrint){
 			long currentTime = System.currentTimeMillis();
@@ -0,0 +1,145 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2015 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.reporter;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import spade.core.AbstractEdge;
+import spade.core.AbstractReporter;
+import spade.core.AbstractVertex;
+import spade.core.Edge;
+import spade.core.Vertex;
+import spade.storage.binary.BinaryFrameReader;
+import spade.utility.CommonFunctions;
+
+/**
+ * Replays a file written by the storage spade.storage.BinaryFile.
+ *
+ * Arguments: input=[path] bufferSize=[bytes] vertexCacheSize=[vertices]
+ *
+ * Edges are connected to the vertices read before them. Only the last vertexCacheSize (default 1000000)
+ * vertices used are kept so an edge to a vertex used longer ago than that is skipped.
+ */
+public class BinaryFile extends AbstractReporter {
+
+    private static final Logger logger = Logger.getLogger(BinaryFile.class.getName());
+    private static final long DEFAULT_VERTEX_CACHE_SIZE = 1000000;
+
+    private volatile boolean shutdown = false;
+
+    @Override
+    public boolean launch(String arguments) {
+        Map<String, String> argsMap = CommonFunctions.parseKeyValPairs(arguments);
+        String inputPath = argsMap.get("input");
+        if (inputPath == null && arguments != null && !arguments.contains("=")) {
+            inputPath = arguments.trim();
+        }
+        if (CommonFunctions.isNullOrEmpty(inputPath)) {
+            logger.log(Level.SEVERE, "NULL/Empty 'input' argument");
+            return false;
+        }
+        if (!new File(inputPath).isFile()) {
+            logger.log(Level.SEVERE, "No file at path: " + inputPath);
+            return false;
+        }
+        Long bufferSize = CommonFunctions.parseLong(argsMap.get("bufferSize"), 1L << 20);
+        if (bufferSize < 1 || bufferSize > Integer.MAX_VALUE) {
+            logger.log(Level.SEVERE, "Invalid 'bufferSize' argument: " + bufferSize);
+            return false;
+        }
+        final Long vertexCacheSize = CommonFunctions.parseLong(argsMap.get("vertexCacheSize"), DEFAULT_VERTEX_CACHE_SIZE);
+        if (vertexCacheSize < 1 || vertexCacheSize > Integer.MAX_VALUE) {
+            logger.log(Level.SEVERE, "Invalid 'vertexCacheSize' argument: " + vertexCacheSize);
+            return false;
+        }
+
+        final BinaryFrameReader reader;
+        try {
+            reader = new BinaryFrameReader(inputPath, bufferSize.intValue());
+        } catch (Exception exception) {
+            logger.log(Level.SEVERE, "Failed to open file: " + inputPath, exception);
+            return false;
+        }
+        final String path = inputPath;
+        Thread readerThread = new Thread(new Runnable() {
+            public void run() {
+                // Vertices by hash to connect the edges to. Least recently used first.
+                Map<ByteBuffer, AbstractVertex> vertices = new LinkedHashMap<ByteBuffer, AbstractVertex>(16, 0.75f, true) {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<ByteBuffer, AbstractVertex> eldest) {
+                        return size() > vertexCacheSize;
+                    }
+                };
+                long vertexCount = 0, edgeCount = 0, skippedEdgeCount = 0;
+                try {
+                    BinaryFrameReader.Frame frame;
+                    while (!shutdown && (frame = reader.read()) != null) {
+                        if (frame.isVertex()) {
+                            AbstractVertex vertex = new Vertex();
+                            vertex.addAnnotations(frame.getAnnotations());
+                            vertices.put(ByteBuffer.wrap(frame.getHash()), vertex);
+                            putVertex(vertex);
+                            vertexCount++;
+                        } else {
+                            AbstractVertex child = vertices.get(ByteBuffer.wrap(frame.getChildHash()));
+                            AbstractVertex parent = vertices.get(ByteBuffer.wrap(frame.getParentHash()));
+                            if (child == null || parent == null) {
+                                skippedEdgeCount++;
+                                continue;
+                            }
+                            AbstractEdge edge = new Edge(child, parent);
+                            edge.addAnnotations(frame.getAnnotations());
+                            putEdge(edge);
+                            edgeCount++;
+                        }
+                    }
+                } catch (Exception exception) {
+                    logger.log(Level.SEVERE, "Failed to read file: " + path, exception);
+                } finally {
+                    try {
+                        reader.close();
+                    } catch (Exception exception) {
+                        logger.log(Level.WARNING, "Failed to close file: " + path, exception);
+                    }
+                }
+                if (skippedEdgeCount > 0) {
+                    logger.log(Level.WARNING, "Skipped " + skippedEdgeCount
+                            + " edges with an endpoint not in the file or no longer cached");
+                }
+                logger.log(Level.INFO, "Read " + vertexCount + " vertices and " + edgeCount + " edges from: " + path);
+            }
+        }, "BinaryFile-Reporter");
+        readerThread.start();
+        return true;
+    }
+
+    @Override
+    public boolean shutdown() {
+        shutdown = true;
+        return true;
+    }
+}
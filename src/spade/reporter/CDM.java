@@ -23,16 +23,29 @@ import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.avro.Schema;
 import org.apache.avro.Schema.Parser;
 import org.apache.avro.file.DataFileReader;
+import org.apache.avro.io.BinaryDecoder;
 import org.apache.avro.io.DatumReader;
 import org.apache.avro.io.Decoder;
 import org.apache.avro.io.DecoderFactory;
@@ -78,6 +91,9 @@ import spade.utility.map.external.ExternalMapManager;
  *	
  * Assumes that all vertices are seen before the edges they are a part of.
  * If a vertex is not found then edge is not put.
+ * 
+ * Arguments 'decoderThreads' (default 0 i.e. decode sequentially) and 'readAhead' (default 64 blocks) can be 
+ * used to decode the input file(s) in parallel while processing the datums in the same order as sequential.
  *
  */
 public class CDM extends AbstractReporter{
@@ -103,6 +119,62 @@ public class CDM extends AbstractReporter{
 	
 	private LinkedList<DataReader> dataReaders = new LinkedList<DataReader>();
 	private boolean waitForLog = true;
+	
+	// Parallel decoding variables. Sequential decoding if 'decoderThreads' is 0.
+	private int decoderThreads = 0;
+	private int readAheadBlocks = 64;
+	
+	/**
+	 * Decodes the blocks of all the data files on a pool of worker threads while the calling thread 
+	 * processes the decoded datums. 
+	 * 
+	 * The datums are processed in exactly the same order as in sequential mode (files in order, blocks in
+	 * order within the file, datums in order within a block) so the uuidToVertexMap resolution remains
+	 * deterministic.
+	 * 
+	 * @return true if shutdown was called and the processing stopped because of it
+	 * @throws Exception
+	 */
+	private boolean processInParallel() throws Exception{
+		ReadAheadPipeline pipeline = new ReadAheadPipeline(dataReaders, decoderThreads, readAheadBlocks);
+		pipeline.start();
+		logger.log(Level.INFO, "Started parallel decoding with "+decoderThreads+" thread(s) and "
+				+ "read-ahead of "+readAheadBlocks+" block(s)");
+		boolean shutdownCalledAndSucceeded = false;
+		ReadAheadPipeline.FileStats totalStats = new ReadAheadPipeline.FileStats(null);
+		try{
+			ReadAheadPipeline.PendingBlock pendingBlock = null;
+			while(!shutdownCalledAndSucceeded && (pendingBlock = pipeline.take()) != null){
+				ReadAheadPipeline.FileStats fileStats = pendingBlock.fileStats;
+				if(pendingBlock.isEndOfFile()){
+					logger.log(Level.INFO, "Finished reading file: " + fileStats.filePath);
+					logger.log(Level.INFO, fileStats.toString());
+					totalStats.add(fileStats);
+					continue;
+				}
+				if(fileStats.blocksEmitted == 0){
+					logger.log(Level.INFO, "Started reading file: " + fileStats.filePath);
+				}
+				List<Object> datums = pendingBlock.get();
+				long startNanos = System.nanoTime();
+				for(Object datum : datums){
+					if(shutdown && !waitForLog){
+						shutdownCalledAndSucceeded = true;
+						logger.log(Level.INFO, "Shutting down the data reader thread");
+						break;
+					}
+					processDatum((TCCDMDatum)datum);
+					fileStats.emittedDatums++;
+				}
+				fileStats.emitNanos += System.nanoTime() - startNanos;
+				fileStats.blocksEmitted++;
+			}
+		}finally{
+			pipeline.stop();
+		}
+		logger.log(Level.INFO, totalStats.toString());
+		return shutdownCalledAndSucceeded;
+	}
 		
 	// The main thread that processes the file
 	private Thread datumProcessorThread = new Thread(new Runnable(){
@@ -110,7 +182,10 @@ public class CDM extends AbstractReporter{
 		public void run(){
 			boolean shutdownCalledAndSucceeded = false;
 			try{
-				while(!dataReaders.isEmpty()){
+				if(decoderThreads > 0){
+					shutdownCalledAndSucceeded = processInParallel();
+				}
+				while(!shutdownCalledAndSucceeded && !dataReaders.isEmpty()){
 					DataReader dataReader = dataReaders.removeFirst();
 					String currentFilePath = dataReader.getDataFilePath();
 					logger.log(Level.INFO, "Started reading file: " + currentFilePath);
@@ -178,6 +253,8 @@ public class CDM extends AbstractReporter{
 		String inputFileArgument = argsMap.get("inputFile");
 		String rotateArgument = argsMap.get("rotate");
 		String waitForLogArgument = argsMap.get("waitForLog");
+		String decoderThreadsArgument = argsMap.get("decoderThreads");
+		String readAheadArgument = argsMap.get("readAhead");
 		
 		if(CommonFunctions.isNullOrEmpty(inputFileArgument)){
 			logger.log(Level.SEVERE, "NULL/Empty 'inputFile' argument: " + inputFileArgument);
@@ -220,6 +297,23 @@ public class CDM extends AbstractReporter{
 					return false;
 				}
 			}
+			if(decoderThreadsArgument != null){
+				Integer decoderThreadsValue = CommonFunctions.parseInt(decoderThreadsArgument.trim(), null);
+				if(decoderThreadsValue == null || decoderThreadsValue < 0){
+					logger.log(Level.SEVERE, "Invalid 'decoderThreads' (only non-negative integer) argument: " 
+							+ decoderThreadsArgument);
+					return false;
+				}
+				decoderThreads = decoderThreadsValue;
+			}
+			if(readAheadArgument != null){
+				Integer readAheadValue = CommonFunctions.parseInt(readAheadArgument.trim(), null);
+				if(readAheadValue == null || readAheadValue < 1){
+					logger.log(Level.SEVERE, "Invalid 'readAhead' (only positive integer) argument: " + readAheadArgument);
+					return false;
+				}
+				readAheadBlocks = readAheadValue;
+			}
 			LinkedList<String> inputFilePaths = new LinkedList<String>(); // ordered
 			inputFilePaths.addLast(inputFile.getAbsolutePath());
 			if(rotate){
@@ -319,7 +413,8 @@ public class CDM extends AbstractReporter{
 			}
 			
 			logger.log(Level.INFO, 
-					"Arguments: rotate='"+rotate+"', waitForLog='"+waitForLog+"', inputFile='"+inputFileArgument+"'");
+					"Arguments: rotate='"+rotate+"', waitForLog='"+waitForLog+"', inputFile='"+inputFileArgument+"'"
+					+ ", decoderThreads='"+decoderThreads+"', readAhead='"+readAheadBlocks+"'");
 			logger.log(Level.INFO, "Input files: " + inputFilePaths);
 			
 			return true;
@@ -843,6 +938,21 @@ public class CDM extends AbstractReporter{
 	}	
 }
 
+/**
+ * A chunk of datums read from a data file which can be decoded on any thread.
+ */
+interface DataBlock{
+	
+	/**
+	 * Must be safe to call from a thread other than the one that read the block
+	 * 
+	 * @return list of TCCDMDatum objects in the order in which they appear in the file
+	 * @throws Exception
+	 */
+	public List<Object> decode() throws Exception;
+	
+}
+
 interface DataReader{
 
 	/**
@@ -853,6 +963,15 @@ interface DataReader{
 	 */
 	public Object read() throws Exception;
 	
+	/**
+	 * Reads the next block of the file without decoding it (where possible). 
+	 * Must return null to indicate EOF
+	 * 
+	 * @return DataBlock object
+	 * @throws Exception
+	 */
+	public DataBlock readBlock() throws Exception;
+	
 	public void close() throws Exception;
 	
 	/**
@@ -864,6 +983,8 @@ interface DataReader{
 
 class JsonReader implements DataReader{
 	
+	private static final int BLOCK_SIZE = 1000;
+	
 	private String filepath;
 	private DatumReader<Object> datumReader;
 	private Decoder decoder;
@@ -887,6 +1008,26 @@ class JsonReader implements DataReader{
 		}
 	}
 	
+	/**
+	 * Json decoding can't be split so the datums are decoded here (on the read-ahead thread) in batches
+	 */
+	public DataBlock readBlock() throws Exception{
+		final List<Object> datums = new ArrayList<Object>(BLOCK_SIZE);
+		Object datum = null;
+		while(datums.size() < BLOCK_SIZE && (datum = read()) != null){
+			datums.add(datum);
+		}
+		if(datums.isEmpty()){
+			return null;
+		}
+		return new DataBlock(){
+			@Override
+			public List<Object> decode() throws Exception{
+				return datums;
+			}
+		};
+	}
+	
 	public void close() throws Exception{
 		// Nothing
 	}
@@ -901,13 +1042,21 @@ class BinaryReader implements DataReader{
 	
 	private String filepath;
 	private DataFileReader<Object> dataFileReader;
+	// Datum readers for blocks decoded on other threads
+	private final ThreadLocal<DatumReader<Object>> blockDatumReaders;
 	
 	public BinaryReader(String dataFilepath, String schemaFilepath) throws Exception{
 		this.filepath = dataFilepath;
 		Parser parser = new Schema.Parser();
-		Schema schema = parser.parse(new File(schemaFilepath));
+		final Schema schema = parser.parse(new File(schemaFilepath));
 		DatumReader<Object> datumReader = new SpecificDatumReader<Object>(schema);
 		this.dataFileReader = new DataFileReader<>(new File(dataFilepath), datumReader);
+		this.blockDatumReaders = new ThreadLocal<DatumReader<Object>>(){
+			@Override
+			protected DatumReader<Object> initialValue(){
+				return new SpecificDatumReader<Object>(schema);
+			}
+		};
 	}
 	
 	public Object read() throws Exception{
@@ -918,6 +1067,32 @@ class BinaryReader implements DataReader{
 		}
 	}
 	
+	/**
+	 * Returns the (decompressed) bytes of the next avro block. The datums are only decoded on DataBlock#decode.
+	 */
+	public DataBlock readBlock() throws Exception{
+		if(!dataFileReader.hasNext()){
+			return null;
+		}
+		final long datumCount = dataFileReader.getBlockCount();
+		// Copy because the buffer is reused by the reader for the next block
+		ByteBuffer blockBuffer = dataFileReader.nextBlock().duplicate();
+		final byte[] blockBytes = new byte[blockBuffer.remaining()];
+		blockBuffer.get(blockBytes);
+		return new DataBlock(){
+			@Override
+			public List<Object> decode() throws Exception{
+				DatumReader<Object> datumReader = blockDatumReaders.get();
+				BinaryDecoder decoder = DecoderFactory.get().binaryDecoder(blockBytes, null);
+				List<Object> datums = new ArrayList<Object>((int)datumCount);
+				for(long i = 0; i < datumCount; i++){
+					datums.add(datumReader.read(null, decoder));
+				}
+				return datums;
+			}
+		};
+	}
+	
 	public void close() throws Exception{
 		dataFileReader.close();
 	}
@@ -926,3 +1101,214 @@ class BinaryReader implements DataReader{
 		return filepath;
 	}
 }
+
+/**
+ * Reads blocks from the data readers (in the given order) on a read-ahead thread and decodes them on a pool
+ * of worker threads. 
+ * 
+ * Blocks are handed to the consumer in the same order in which they were read irrespective of the order in
+ * which the workers finish decoding them. The number of blocks read but not yet consumed is bounded by 
+ * 'readAheadBlocks'.
+ */
+class ReadAheadPipeline{
+	
+	private final Logger logger = Logger.getLogger(this.getClass().getName());
+	
+	private final PendingBlock endOfAllFiles = new PendingBlock(null, null);
+	
+	private final LinkedList<DataReader> dataReaders;
+	private final BlockingQueue<PendingBlock> pendingBlocks;
+	private final ExecutorService decoders;
+	private final Thread readAheadThread;
+	
+	private volatile boolean stopped = false;
+	private volatile Exception readError = null;
+	
+	/**
+	 * @param dataReaders readers removed from this list as they are read
+	 * @param decoderThreads number of threads to decode blocks on
+	 * @param readAheadBlocks max number of blocks read but not yet consumed
+	 */
+	ReadAheadPipeline(final LinkedList<DataReader> dataReaders, final int decoderThreads, final int readAheadBlocks){
+		this.dataReaders = dataReaders;
+		this.pendingBlocks = new ArrayBlockingQueue<PendingBlock>(readAheadBlocks);
+		this.decoders = Executors.newFixedThreadPool(decoderThreads, new ThreadFactory(){
+			private final AtomicInteger threadCount = new AtomicInteger(0);
+			@Override
+			public Thread newThread(Runnable runnable){
+				Thread thread = new Thread(runnable, "CDM-Reporter-Decoder-" + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.readAheadThread = new Thread(new Runnable(){
+			@Override
+			public void run(){
+				readAllFiles();
+			}
+		}, "CDM-Reporter-ReadAhead");
+	}
+	
+	void start(){
+		readAheadThread.start();
+	}
+	
+	/**
+	 * Blocks until the next block is available
+	 * 
+	 * @return the next block (or end of file marker) in order. Null if all files have been read.
+	 * @throws Exception the error that stopped the reading of files (if any)
+	 */
+	PendingBlock take() throws Exception{
+		PendingBlock pendingBlock = pendingBlocks.take();
+		if(pendingBlock == endOfAllFiles){
+			if(readError != null){
+				throw readError;
+			}
+			return null;
+		}
+		return pendingBlock;
+	}
+	
+	/**
+	 * Stops reading and decoding. Unconsumed blocks are discarded. Idempotent.
+	 */
+	void stop(){
+		stopped = true;
+		readAheadThread.interrupt();
+		try{
+			readAheadThread.join();
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+		decoders.shutdownNow();
+		pendingBlocks.clear();
+	}
+	
+	private void readAllFiles(){
+		try{
+			DataReader dataReader = null;
+			while(!stopped && (dataReader = dataReaders.pollFirst()) != null){
+				final FileStats fileStats = new FileStats(dataReader.getDataFilePath());
+				try{
+					DataBlock dataBlock = null;
+					while(!stopped && (dataBlock = dataReader.readBlock()) != null){
+						pendingBlocks.put(new PendingBlock(fileStats, decoders.submit(new DecodeTask(dataBlock, fileStats))));
+					}
+				}finally{
+					try{
+						dataReader.close();
+					}catch(Exception e){
+						logger.log(Level.WARNING, "Continuing but FAILED to close data reader for file: " + 
+								fileStats.filePath, e);
+					}
+				}
+				pendingBlocks.put(new PendingBlock(fileStats, null));
+			}
+		}catch(InterruptedException ie){
+			// Stopped by the consumer
+		}catch(Exception e){
+			readError = e;
+		}
+		// Consumer might have stopped taking. Don't wait for it in that case
+		try{
+			while(!stopped && !pendingBlocks.offer(endOfAllFiles, 100, TimeUnit.MILLISECONDS)){
+				// Retry until consumed or stopped
+			}
+		}catch(InterruptedException ie){
+			// Stopped by the consumer
+		}
+	}
+	
+	private static class DecodeTask implements Callable<List<Object>>{
+		private final DataBlock dataBlock;
+		private final FileStats fileStats;
+		private DecodeTask(DataBlock dataBlock, FileStats fileStats){
+			this.dataBlock = dataBlock;
+			this.fileStats = fileStats;
+		}
+		@Override
+		public List<Object> call() throws Exception{
+			long startNanos = System.nanoTime();
+			List<Object> datums = dataBlock.decode();
+			fileStats.decodeNanos.addAndGet(System.nanoTime() - startNanos);
+			fileStats.decodedDatums.addAndGet(datums.size());
+			return datums;
+		}
+	}
+	
+	/**
+	 * A block that has been read and submitted for decoding. End of file marker if no future.
+	 */
+	static class PendingBlock{
+		final FileStats fileStats;
+		private final Future<List<Object>> decodedDatums;
+		private PendingBlock(FileStats fileStats, Future<List<Object>> decodedDatums){
+			this.fileStats = fileStats;
+			this.decodedDatums = decodedDatums;
+		}
+		boolean isEndOfFile(){
+			return decodedDatums == null;
+		}
+		/**
+		 * Blocks until decoded
+		 * 
+		 * @return decoded datums in order
+		 * @throws Exception the exception thrown by the decoder
+		 */
+		List<Object> get() throws Exception{
+			try{
+				return decodedDatums.get();
+			}catch(ExecutionException ee){
+				Throwable cause = ee.getCause();
+				if(cause instanceof Exception){
+					throw (Exception)cause;
+				}
+				throw ee;
+			}
+		}
+	}
+	
+	/**
+	 * Decode stats are updated by the decoder threads and emit stats only by the consumer thread.
+	 */
+	static class FileStats{
+		final String filePath;
+		final long startMillis = System.currentTimeMillis();
+		final AtomicLong decodedDatums = new AtomicLong(0);
+		final AtomicLong decodeNanos = new AtomicLong(0);
+		long blocksEmitted = 0;
+		long emittedDatums = 0;
+		long emitNanos = 0;
+		
+		/**
+		 * @param filePath null for aggregate of all files
+		 */
+		FileStats(String filePath){
+			this.filePath = filePath;
+		}
+		
+		void add(FileStats fileStats){
+			decodedDatums.addAndGet(fileStats.decodedDatums.get());
+			decodeNanos.addAndGet(fileStats.decodeNanos.get());
+			blocksEmitted += fileStats.blocksEmitted;
+			emittedDatums += fileStats.emittedDatums;
+			emitNanos += fileStats.emitNanos;
+		}
+		
+		private static long perSecond(long count, long nanos){
+			return nanos <= 0 ? 0 : (long)(count / (nanos / 1000000000.0));
+		}
+		
+		@Override
+		public String toString(){
+			long elapsedMillis = System.currentTimeMillis() - startMillis;
+			return (filePath == null ? "All files" : "File: " + filePath)
+					+ ", blocks: " + blocksEmitted
+					+ ", datums: " + emittedDatums
+					+ ", decode rate (per thread): " + perSecond(decodedDatums.get(), decodeNanos.get()) + " datums/sec"
+					+ ", emit rate: " + perSecond(emittedDatums, emitNanos) + " datums/sec"
+					+ ", overall rate: " + perSecond(emittedDatums, elapsedMillis * 1000000L) + " datums/sec";
+		}
+	}
+}
@@ -25,158 +25,490 @@ import spade.core.AbstractVertex;
 import spade.edge.opm.Used;
 import spade.edge.opm.WasGeneratedBy;
 import spade.edge.opm.WasTriggeredBy;
+import spade.utility.CommonFunctions;
 import spade.vertex.opm.Artifact;
 import spade.vertex.opm.Process;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+/**
+ * Reports function calls and returns sent by programs instrumented with the LLVM pass, one event per line.
+ *
+ * All connections are read by a single thread with a selector. Lines are framed in the (direct) read buffer
+ * of each connection and handed in batches to a small pool of workers which create the vertices and edges.
+ * Each connection is always handled by the same worker so its events are processed in order.
+ *
+ * The queue of each worker is bounded. A connection whose worker is saturated is not read until the worker
+ * catches up, which slows down the instrumented program through TCP flow control instead of queueing its
+ * events in memory. Lines longer than the largest read buffer (4 MB) are discarded.
+ *
+ * Arguments (all optional):
+ * forcedremoval=true|false: if false, the data already sent by instrumented programs is read before the
+ * reporter shuts down. Default true.
+ * port: port to listen on. Default 5000.
+ * workers: number of threads creating vertices and edges. Default min(4, number of processors).
+ * reportingIntervalSeconds: interval to log connection and event rates after. Off by default.
+ */
 public class LLVM extends AbstractReporter {
 
+    private static final Logger logger = Logger.getLogger(LLVM.class.getName());
+
     public static volatile boolean shutdown;
     public Map<String, Stack> functionStackMap; // Each Stack holds the function call stack for a thread.
-    ServerSocket server;
-    public static final int THREAD_SLEEP_DELAY = 400;
     public static LLVM reporter = null;
-    public final int socketNumber = 5000;
-    public static volatile ArrayList<BufferedReader> threadBufferReaders;
+    public static final int DEFAULT_PORT = 5000;
+    // Initial size of the read buffer of a connection. Doubled when a line does not fit.
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_READ_BUFFER_SIZE = 4 * 1024 * 1024;
+    // Batches of lines queued per worker
+    private static final int WORKER_QUEUE_CAPACITY = 64;
+    // Time to wait for workers to process pending events on shutdown
+    private static final long WORKER_SHUTDOWN_WAIT_SECONDS = 60;
     boolean forcedRemoval = true;
 
+    private int socketNumber = DEFAULT_PORT;
+    private Selector selector;
+    private ServerSocketChannel server;
+    private Thread selectorThread;
+    private ThreadPoolExecutor[] workers;
+    // Connections not being read because their worker is saturated. Selector thread only.
+    private final List<Connection> pausedConnections = new ArrayList<>();
+    private final AtomicInteger pausedCount = new AtomicInteger();
+    private long connectionCount = 0;
+    private long reportEveryMs = 0;
+    private long lastReportedTime;
+
+    // Metrics
+    private final AtomicLong connectionsAccepted = new AtomicLong();
+    private final AtomicInteger connectionsOpen = new AtomicInteger();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong linesRead = new AtomicLong();
+    private final AtomicLong eventsProcessed = new AtomicLong();
+    private long reportedEventsProcessed = 0;
+    private long reportedBytesRead = 0;
+
     @Override
     public boolean launch(String arguments) {
         /*
         * argument can be 'forcedremoval=true' (default) or 'forcedremoval=false'
-        * if forcedremoval is specified as false, on removal of the reporter, reporter won't 
+        * if forcedremoval is specified as false, on removal of the reporter, reporter won't
         * shutdown unless the socket buffer from where instrumented programs sends in
         * provenance data is empitited.
         * if forcedremoval is true, it will discard this buffer and proceed to shutdown
         */
-        try{
-            String[] pairs = arguments.split("\\s+");
-            for (String pair : pairs) {                 
-                String[] keyvalue = pair.split("=");
-                String key = keyvalue[0];
-                String value = keyvalue[1];
-    
-                if (key.equals("forcedremoval") && value.equals("false")) {
-                    forcedRemoval = false;
-                }
-                        
+        Map<String, String> argsMap = CommonFunctions.parseKeyValPairs(arguments);
+        if ("false".equals(argsMap.get("forcedremoval"))) {
+            forcedRemoval = false;
+        }
+        int workerCount = Math.min(4, Runtime.getRuntime().availableProcessors());
+        try {
+            if (argsMap.get("port") != null) {
+                socketNumber = Integer.parseInt(argsMap.get("port"));
+            }
+            if (argsMap.get("workers") != null) {
+                workerCount = Integer.parseInt(argsMap.get("workers"));
             }
-            } catch (NullPointerException e) {
-            } catch (ArrayIndexOutOfBoundsException e) {
+            if (argsMap.get("reportingIntervalSeconds") != null) {
+                reportEveryMs = Long.parseLong(argsMap.get("reportingIntervalSeconds")) * 1000;
+            }
+        } catch (NumberFormatException e) {
+            logger.log(Level.SEVERE, "Invalid value for 'port', 'workers' or 'reportingIntervalSeconds'", e);
+            return false;
+        }
+        if (workerCount < 1) {
+            logger.log(Level.SEVERE, "'workers' must be at least 1");
+            return false;
         }
 
-        threadBufferReaders = new ArrayList<BufferedReader>();
         reporter = this;
+        functionStackMap = new ConcurrentHashMap<String, Stack>();
         try {
-            server = new ServerSocket(socketNumber);
-            server.setReuseAddress(true);
+            selector = Selector.open();
+            server = ServerSocketChannel.open();
+            server.socket().setReuseAddress(true);
+            server.bind(new InetSocketAddress(socketNumber));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
             shutdown = false;
         } catch (Exception e) {
-            e.printStackTrace(System.err);
+            logger.log(Level.SEVERE, "Unable to listen on port " + socketNumber, e);
+            closeQuietly();
             return false;
         }
-        //
-        functionStackMap = Collections.synchronizedMap(new HashMap<String, Stack>());
+
+        workers = new ThreadPoolExecutor[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(WORKER_QUEUE_CAPACITY));
+        }
+        lastReportedTime = System.currentTimeMillis();
+        selectorThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                selectLoop();
+            }
+        }, "LLVM-selector");
+        selectorThread.start();
+        return true;
+    }
+
+    private void selectLoop() {
         try {
-            // Create connectionThread to listen on the socket and create EventHandlers
-            Runnable connectionThread = new Runnable() {
-
-                public void run() {
-                    while (!shutdown) {
-                        try {
-                            Socket socket = server.accept();
-                            EventHandler eventHandler = new EventHandler(socket);
-                            new Thread(eventHandler).start();
-                            Thread.sleep(THREAD_SLEEP_DELAY);
-                        } catch (Exception exception) {
-                            // exception.printStackTrace(System.err);
+            while (true) {
+                resumeConnections();
+                if (shutdown) {
+                    // Stop accepting. Without forced removal, read until no connection has pending data.
+                    if (server.isOpen()) {
+                        server.close();
+                    }
+                    if (forcedRemoval) {
+                        break;
+                    }
+                    if (selector.selectNow() == 0) {
+                        if (pausedConnections.isEmpty()) {
+                            break;
                         }
+                        // Woken up when a worker finishes a batch
+                        selector.select(100);
                     }
+                } else {
+                    selector.select(1000);
                 }
-            };
-            new Thread(connectionThread).start();
-            return true;
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else if (key.isReadable()) {
+                        read(key);
+                    }
+                }
+                reportMetrics(false);
+            }
         } catch (Exception exception) {
-            exception.printStackTrace(System.err);
-            return false;
+            logger.log(Level.SEVERE, "Error in LLVM reporter selector loop", exception);
+        } finally {
+            closeQuietly();
         }
     }
 
-    @Override
-    public boolean shutdown() {
-        shutdown = true;
-        if (forcedRemoval==false) {
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            ThreadPoolExecutor worker = workers[(int) (connectionCount++ % workers.length)];
+            Connection connection = new Connection(worker);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            connectionsAccepted.incrementAndGet();
+            connectionsOpen.incrementAndGet();
+        }
+    }
+
+    private void read(SelectionKey key) {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+        int count;
+        try {
+            count = channel.read(connection.buffer);
+        } catch (IOException e) {
+            count = -1;
+        }
+        if (count > 0) {
+            bytesRead.addAndGet(count);
+            if (!connection.frameLines(false)) {
+                pause(connection);
+            }
+        } else if (count < 0) {
+            if (!connection.frameLines(true)) {
+                pause(connection);
+            }
+            key.cancel();
             try {
-                for (BufferedReader br : threadBufferReaders) {
-                    while (br.ready()) {
-                        Thread.sleep(LLVM.THREAD_SLEEP_DELAY);
-                    }
+                channel.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+            connectionsOpen.decrementAndGet();
+        }
+    }
+
+    // Stops reading the connection until its worker takes the lines already framed
+    private void pause(Connection connection) {
+        if (connection.key.isValid()) {
+            connection.key.interestOps(0);
+        }
+        pausedConnections.add(connection);
+        pausedCount.incrementAndGet();
+    }
+
+    private void resumeConnections() {
+        Iterator<Connection> iterator = pausedConnections.iterator();
+        while (iterator.hasNext()) {
+            Connection connection = iterator.next();
+            if (connection.submitPending()) {
+                iterator.remove();
+                pausedCount.decrementAndGet();
+                if (connection.key.isValid()) {
+                    connection.key.interestOps(SelectionKey.OP_READ);
                 }
-            } catch (Exception exception) {}
+            }
+        }
+    }
+
+    private void reportMetrics(boolean force) {
+        if (reportEveryMs <= 0 && !force) {
+            return;
+        }
+        long currentTime = System.currentTimeMillis();
+        long elapsed = currentTime - lastReportedTime;
+        if (elapsed < reportEveryMs && !force) {
+            return;
         }
+        long events = eventsProcessed.get();
+        long bytes = bytesRead.get();
+        double seconds = Math.max(elapsed, 1) / 1000.0;
+        logger.log(Level.INFO, String.format("Connections accepted: %d, open: %d. Lines read: %d, events processed: %d"
+                + " (%.0f events/s, %.0f KB/s)", connectionsAccepted.get(), connectionsOpen.get(), linesRead.get(),
+                events, (events - reportedEventsProcessed) / seconds, (bytes - reportedBytesRead) / 1024.0 / seconds));
+        reportedEventsProcessed = events;
+        reportedBytesRead = bytes;
+        lastReportedTime = currentTime;
+    }
+
+    private void closeQuietly() {
         try {
+            if (selector != null) {
+                for (SelectionKey key : selector.keys()) {
+                    key.channel().close();
+                }
+                selector.close();
+            }
             if (server != null) {
                 server.close();
             }
-        } catch (Exception exception) {
-
-        } finally {
+        } catch (IOException exception) {
+            logger.log(Level.WARNING, "Error closing LLVM reporter sockets", exception);
         }
-        return true;
     }
-}
 
-class EventHandler implements Runnable {
+    public long getConnectionsAccepted() {
+        return connectionsAccepted.get();
+    }
 
-    Socket threadSocket;
-    int FunctionId = 0;
-    BufferedReader inFromClient;
+    public int getConnectionsOpen() {
+        return connectionsOpen.get();
+    }
 
-    EventHandler(Socket socket) {
-        threadSocket = socket;
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    public long getLinesRead() {
+        return linesRead.get();
+    }
+
+    public long getEventsProcessed() {
+        return eventsProcessed.get();
     }
 
     @Override
-    public void run() {
+    public boolean shutdown() {
+        shutdown = true;
+        if (selector != null) {
+            selector.wakeup();
+        }
         try {
-            inFromClient = new BufferedReader(new InputStreamReader(threadSocket.getInputStream()));
-            LLVM.threadBufferReaders.add(inFromClient);
-            int adaptitive_pause_step = 10;
-            int adaptitive_pause = 10;
-            while (!LLVM.shutdown || inFromClient.ready() ) {
-                String line = inFromClient.readLine();
-                if (line != null) {
-                    parseEvent(line);
-                    adaptitive_pause=0;
-                } else {
-                    Thread.sleep(adaptitive_pause);
-                    if (adaptitive_pause < LLVM.THREAD_SLEEP_DELAY) {
-                        adaptitive_pause += adaptitive_pause_step;
+            if (selectorThread != null) {
+                selectorThread.join();
+            }
+            if (workers != null) {
+                for (ThreadPoolExecutor worker : workers) {
+                    if (forcedRemoval) {
+                        worker.shutdownNow();
+                    } else {
+                        worker.shutdown();
                     }
                 }
+                for (ThreadPoolExecutor worker : workers) {
+                    worker.awaitTermination(WORKER_SHUTDOWN_WAIT_SECONDS, TimeUnit.SECONDS);
+                }
             }
-            LLVM.threadBufferReaders.add(inFromClient);
-            inFromClient.close();
-            threadSocket.close();
-        } catch (Exception exception) {
-            exception.printStackTrace(System.err);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
         }
+        reportMetrics(true);
+        return true;
     }
 
+    /**
+     * Read buffer and event handler of a connection. Used by the selector thread only except for the
+     * event handler which is used by the worker only.
+     */
+    private class Connection {
+
+        // Direct so that the socket reads into it without a copy through a temporary direct buffer
+        ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        // Bytes of the line being decoded. Grows with the longest line up to the largest buffer.
+        private byte[] lineBytes = new byte[256];
+        SelectionKey key;
+        private final ThreadPoolExecutor worker;
+        private final EventHandler eventHandler = new EventHandler();
+        // Lines framed but not taken by the saturated worker
+        private List<String> pendingLines;
+        // True while skipping the rest of a line longer than the largest buffer
+        private boolean discardingLine = false;
+
+        Connection(ThreadPoolExecutor worker) {
+            this.worker = worker;
+        }
+
+        /**
+         * Hands the complete lines in the buffer to the worker and keeps the incomplete last line.
+         * At the end of the stream the last line is handed over too.
+         *
+         * @return false if the worker is saturated. The lines are kept until {@link #submitPending()}.
+         */
+        boolean frameLines(boolean endOfStream) {
+            buffer.flip();
+            List<String> lines = new ArrayList<>();
+            int start = buffer.position();
+            int limit = buffer.limit();
+            for (int i = start; i < limit; i++) {
+                if (buffer.get(i) == '\n') {
+                    if (discardingLine) {
+                        discardingLine = false;
+                    } else {
+                        lines.add(decode(start, i));
+                    }
+                    start = i + 1;
+                }
+            }
+            if (endOfStream && start < limit) {
+                if (!discardingLine) {
+                    lines.add(decode(start, limit));
+                }
+                start = limit;
+            }
+            buffer.position(start);
+            buffer.compact();
+            if (!buffer.hasRemaining()) {
+                // A line longer than the buffer
+                grow();
+            }
+            if (lines.isEmpty()) {
+                return true;
+            }
+            linesRead.addAndGet(lines.size());
+            pendingLines = lines;
+            return submitPending();
+        }
+
+        /**
+         * @return true if there are no lines left to hand to the worker
+         */
+        boolean submitPending() {
+            if (pendingLines == null) {
+                return true;
+            }
+            final List<String> lines = pendingLines;
+            try {
+                worker.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (String line : lines) {
+                            eventHandler.parseEvent(line);
+                        }
+                        eventsProcessed.addAndGet(lines.size());
+                        if (pausedCount.get() > 0) {
+                            selector.wakeup();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                if (worker.isShutdown()) {
+                    // Forced removal. The lines are dropped.
+                    pendingLines = null;
+                    return true;
+                }
+                return false;
+            }
+            pendingLines = null;
+            return true;
+        }
+
+        private String decode(int start, int end) {
+            if (end > start && buffer.get(end - 1) == '\r') {
+                end--;
+            }
+            int length = end - start;
+            if (lineBytes.length < length) {
+                lineBytes = new byte[Math.max(length, lineBytes.length * 2)];
+            }
+            // One bulk copy out of the direct buffer
+            ByteBuffer line = buffer.duplicate();
+            line.limit(end);
+            line.position(start);
+            line.get(lineBytes, 0, length);
+            return new String(lineBytes, 0, length, StandardCharsets.UTF_8);
+        }
+
+        void grow() {
+            if (buffer.capacity() >= MAX_READ_BUFFER_SIZE) {
+                logger.log(Level.WARNING, "Discarding line longer than " + MAX_READ_BUFFER_SIZE + " bytes");
+                buffer.clear();
+                discardingLine = true;
+                return;
+            }
+            ByteBuffer larger = ByteBuffer.allocateDirect(Math.min(buffer.capacity() * 2, MAX_READ_BUFFER_SIZE));
+            buffer.flip();
+            larger.put(buffer);
+            buffer = larger;
+        }
+    }
+}
+
+/**
+ * Creates vertices and edges from the events of one connection. Not thread safe.
+ */
+class EventHandler {
+
+    // Expecting Argument number, arg type, arg name and arg value. eg: Arg #0: i32 %a =123
+    private static final Pattern ARGUMENT_PATTERN = Pattern.compile("Arg #([0-9]+): ([^ ]+) %([^ ]+) =([^ ]+)");
+    // Expecting ret type, ret name and ret value. "R:  i32 %ret =2". Ret name is ignored
+    private static final Pattern RETURN_PATTERN = Pattern.compile("R:  ([^ ]+) %([^ ]+) =(.+)");
+
+    int FunctionId = 0;
+
     //trace contains thread id, function entry or exit, function name and arguments or return value.
     //trace looks like "123 E: $foo Arg #0: i32 %a =123".
-    private void parseEvent(String line) {
+    void parseEvent(String line) {
         try {
             AbstractVertex function;
             AbstractVertex argument;
@@ -206,11 +538,8 @@ class EventHandler implements Runnable {
                     functionName = line;
                 }
 
-                Pattern pattern;
                 if (EventType == 'E') {
-                    // Expecting Argument number, arg type, arg name and arg value. eg: Arg #0: i32 %a =123
-                    pattern = Pattern.compile("Arg #([0-9]+): ([^ ]+) %([^ ]+) =([^ ]+)");
-                    Matcher items = pattern.matcher(line);
+                    Matcher items = ARGUMENT_PATTERN.matcher(line);
 
                     function = new Process();
                     // process id is a combination of functionName, functionId, and thread ID
@@ -252,9 +581,7 @@ class EventHandler implements Runnable {
                     FunctionId++;
                 } else // in case of EventType being Return
                 {
-                    // Expecting ret type, ret name and ret value. "R:  i32 %ret =2". Ret name is ignored
-                    pattern = Pattern.compile("R:  ([^ ]+) %([^ ]+) =(.+)");
-                    Matcher items = pattern.matcher(line);
+                    Matcher items = RETURN_PATTERN.matcher(line);
                     if (items.find()) {
                         argument = new Artifact();
                         String RetType = items.group(1);
@@ -23,7 +23,6 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -132,6 +131,9 @@ public class AuditEventReader {
 			KMODULE_REMOTE_SADDR = "remote_saddr";
 	
 	//Reporting variables
+	private int outputLogQueueCapacity = OutputLogWriter.DEFAULT_QUEUE_CAPACITY;
+	private int outputLogBlockSize = OutputLogWriter.DEFAULT_BLOCK_SIZE;
+	
 	private boolean reportingEnabled = false;
 	private long reportEveryMs;
 	private long startTime, lastReportedTime;
@@ -186,11 +188,10 @@ public class AuditEventReader {
 	 */
 	private BufferedReader stream;
 	
-	private long rotateAfterRecordCount = 0;
-	private String outputLogFile = null;
-	private PrintWriter outputLogWriter = null;
-	private int currentOutputLogFileCount = 0;
-	private long recordsWrittenToOutputLog = 0;
+	/**
+	 * Writes the raw records read to the output log (if any) on a separate thread
+	 */
+	private OutputLogWriter outputLogWriter = null;
 
 	/**
 	 * Used to find out if there is pending UBSI event before reading more 
@@ -248,6 +249,14 @@ public class AuditEventReader {
 							recordCount = lastReportedRecordCount = 0;
 						}
 					}
+					Long queueCapacity = CommonFunctions.parseLong(properties.get("outputLogQueueCapacity"), null);
+					if(queueCapacity != null && queueCapacity > 0 && queueCapacity <= Integer.MAX_VALUE){
+						outputLogQueueCapacity = queueCapacity.intValue();
+					}
+					Long blockSize = CommonFunctions.parseLong(properties.get("outputLogBlockSize"), null);
+					if(blockSize != null && blockSize > 0 && blockSize <= Integer.MAX_VALUE){
+						outputLogBlockSize = blockSize.intValue();
+					}
 				}
 			}
 		}catch(Exception e){
@@ -266,25 +275,32 @@ public class AuditEventReader {
 	 * @throws Exception IOException
 	 */
 	public void setOutputLog(String outputLogFile, long rotateAfterRecordCount) throws Exception{
-		this.outputLogFile = outputLogFile;
-		this.rotateAfterRecordCount = rotateAfterRecordCount < 1 ? 0 : rotateAfterRecordCount;
-		outputLogWriter = new PrintWriter(outputLogFile);
+		setOutputLog(outputLogFile, rotateAfterRecordCount, 0, 0, false);
+	}
+	
+	/**
+	 * Function to set the output log file to which the log is written
+	 * 
+	 * The log is written by a separate thread. Rotation happens on whichever of the limits
+	 * is reached first. A limit less than 1 is ignored.
+	 * 
+	 * @param outputLogFile output log file to write to
+	 * @param rotateAfterRecordCount number of records to create a new log after
+	 * @param rotateAfterBytes number of bytes to create a new log after
+	 * @param rotateAfterMillis time in milliseconds to create a new log after
+	 * @param compress gzip compress the output log
+	 * @throws Exception IOException
+	 */
+	public void setOutputLog(String outputLogFile, long rotateAfterRecordCount, long rotateAfterBytes, 
+			long rotateAfterMillis, boolean compress) throws Exception{
+		outputLogWriter = new OutputLogWriter(outputLogFile, rotateAfterRecordCount, rotateAfterBytes, 
+				rotateAfterMillis, compress, outputLogQueueCapacity, outputLogBlockSize);
 	}
 	
-	private void writeToOutputLog(String record){
+	private void writeToOutputLog(String record, String eventTime, long eventId){
 		if(outputLogWriter != null){
-			try{
-				outputLogWriter.println(record);
-				recordsWrittenToOutputLog++;
-				if(rotateAfterRecordCount > 0 && recordsWrittenToOutputLog >= rotateAfterRecordCount){
-					recordsWrittenToOutputLog = 0;
-					currentOutputLogFileCount++;
-					outputLogWriter.flush();
-					outputLogWriter.close();
-					outputLogWriter = new PrintWriter(outputLogFile + "." + currentOutputLogFileCount);
-				}
-			}catch(Exception e){
-				logger.log(Level.WARNING, "Failed to write out to output log", e);
+			if(!outputLogWriter.write(record, eventTime, eventId)){
+				outputLogWriter = null; // the writer has already logged the reason
 			}
 		}
 	}
@@ -408,7 +424,7 @@ public class AuditEventReader {
 						}
 					}
 					
-					writeToOutputLog(line);
+					writeToOutputLog(line, eventTime, eventId);
 					if(reportingEnabled){
 						recordCount++;
 					}
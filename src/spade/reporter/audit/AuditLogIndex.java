@@ -0,0 +1,429 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2015 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.reporter.audit;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Block index of an audit log: for every block of the log its offset, length, time range,
+ * event id range and number of records. The format is the one written by {@link OutputLogWriter}.
+ *
+ * Index of a log without one is built by scanning the log once and is saved next to the log
+ * (log path + '.index') for the next time.
+ */
+public class AuditLogIndex{
+
+	private static final Logger logger = Logger.getLogger(AuditLogIndex.class.getName());
+
+	private static final String RECORD_TIME_PREFIX = "audit(";
+
+	public static class Block{
+		public final long offset, length;
+		public final double minTime, maxTime;
+		public final long minEventId, maxEventId;
+		public final long records;
+
+		public Block(long offset, long length, double minTime, double maxTime, long minEventId, long maxEventId, long records){
+			this.offset = offset;
+			this.length = length;
+			this.minTime = minTime;
+			this.maxTime = maxTime;
+			this.minEventId = minEventId;
+			this.maxEventId = maxEventId;
+			this.records = records;
+		}
+
+		/**
+		 * @return true if any record in the block can be in the time range (inclusive)
+		 */
+		public boolean overlaps(double startTime, double endTime){
+			return !(maxTime < startTime || minTime > endTime);
+		}
+
+		@Override
+		public String toString(){
+			return offset + " " + length + " " + minTime + " " + maxTime + " " + minEventId + " " + maxEventId + " " + records;
+		}
+	}
+
+	private final String logPath;
+	private final boolean compressed;
+	private final List<Block> blocks;
+
+	private AuditLogIndex(String logPath, boolean compressed, List<Block> blocks){
+		this.logPath = logPath;
+		this.compressed = compressed;
+		this.blocks = Collections.unmodifiableList(blocks);
+	}
+
+	public String getLogPath(){
+		return logPath;
+	}
+
+	/**
+	 * @return true if the blocks are gzip members
+	 */
+	public boolean isCompressed(){
+		return compressed;
+	}
+
+	public List<Block> getBlocks(){
+		return blocks;
+	}
+
+	/**
+	 * @param startTime start of the time range in seconds (inclusive)
+	 * @param endTime end of the time range in seconds (inclusive)
+	 * @return blocks, in order, which can have records in the time range
+	 */
+	public List<Block> getBlocks(double startTime, double endTime){
+		List<Block> result = new ArrayList<Block>();
+		for(Block block : blocks){
+			if(block.overlaps(startTime, endTime)){
+				result.add(block);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Opens a stream over the block which decompresses it (if needed). Only the bytes of the block are
+	 * read from the log and they are not buffered whole so a block can be of any size.
+	 *
+	 * @param block block of this log
+	 * @return stream of the records of the block separated by new lines. Must be closed by the caller.
+	 * @throws IOException if the log cannot be opened
+	 */
+	public InputStream openBlock(Block block) throws IOException{
+		InputStream stream = new BlockInputStream(new RandomAccessFile(logPath, "r").getChannel(), block.offset, block.length);
+		if(!compressed){
+			return stream;
+		}
+		try{
+			return new GZIPInputStream(stream, 65536);
+		}catch(IOException e){
+			stream.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the index of the log. Uses the saved index if it is not older than the log. Otherwise
+	 * builds the index and saves it.
+	 *
+	 * @param logPath path of the audit log
+	 * @return the index
+	 * @throws IOException if the log cannot be read
+	 */
+	public static AuditLogIndex load(String logPath) throws IOException{
+		File logFile = new File(logPath);
+		File indexFile = new File(logPath + OutputLogWriter.INDEX_FILE_SUFFIX);
+		boolean compressed = isGzip(logFile);
+		if(indexFile.isFile() && indexFile.lastModified() >= logFile.lastModified()){
+			try{
+				List<Block> blocks = readIndexFile(indexFile);
+				if(blocks != null && covers(blocks, logFile.length())){
+					return new AuditLogIndex(logPath, compressed, blocks);
+				}
+				logger.log(Level.INFO, "Index does not match the log. Rebuilding: " + indexFile);
+			}catch(Exception e){
+				logger.log(Level.WARNING, "Failed to read index: " + indexFile + ". Rebuilding.", e);
+			}
+		}
+		AuditLogIndex index = build(logPath, OutputLogWriter.DEFAULT_BLOCK_SIZE);
+		try{
+			index.save(indexFile);
+		}catch(Exception e){
+			logger.log(Level.WARNING, "Failed to save index: " + indexFile + ". Index will be rebuilt next time.", e);
+		}
+		return index;
+	}
+
+	/**
+	 * Builds the index by scanning the log.
+	 *
+	 * A plain text log is split into blocks of at least blockSize bytes at line boundaries. The members
+	 * of a gzip log cannot be found without decompressing it so the whole gzip log is one block, which
+	 * is read as a stream by {@link #openBlock(Block)}.
+	 *
+	 * @param logPath path of the audit log
+	 * @param blockSize size of a block in bytes
+	 * @return the index
+	 * @throws IOException if the log cannot be read
+	 */
+	public static AuditLogIndex build(String logPath, int blockSize) throws IOException{
+		File logFile = new File(logPath);
+		boolean compressed = isGzip(logFile);
+		List<Block> blocks = new ArrayList<Block>();
+		if(compressed){
+			BlockBuilder builder = new BlockBuilder();
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					new GZIPInputStream(new FileInputStream(logFile), 65536), StandardCharsets.UTF_8));
+			try{
+				String line;
+				while((line = reader.readLine()) != null){
+					builder.addRecord(line);
+				}
+			}finally{
+				reader.close();
+			}
+			if(logFile.length() > 0){
+				blocks.add(builder.toBlock(0, logFile.length()));
+			}
+		}else{
+			InputStream stream = new FileInputStream(logFile);
+			try{
+				BlockBuilder builder = new BlockBuilder();
+				ByteArrayOutputStream line = new ByteArrayOutputStream(512);
+				byte[] buffer = new byte[65536];
+				long offset = 0, blockOffset = 0;
+				int read;
+				while((read = stream.read(buffer)) != -1){
+					int lineStart = 0;
+					for(int i = 0; i < read; i++){
+						if(buffer[i] == '\n'){
+							line.write(buffer, lineStart, i - lineStart);
+							builder.addRecord(new String(line.toByteArray(), StandardCharsets.UTF_8));
+							line.reset();
+							lineStart = i + 1;
+							long lineEnd = offset + lineStart;
+							if(lineEnd - blockOffset >= blockSize){
+								blocks.add(builder.toBlock(blockOffset, lineEnd - blockOffset));
+								builder = new BlockBuilder();
+								blockOffset = lineEnd;
+							}
+						}
+					}
+					line.write(buffer, lineStart, read - lineStart);
+					offset += read;
+				}
+				if(line.size() > 0){
+					builder.addRecord(new String(line.toByteArray(), StandardCharsets.UTF_8));
+				}
+				if(offset > blockOffset){
+					blocks.add(builder.toBlock(blockOffset, offset - blockOffset));
+				}
+			}finally{
+				stream.close();
+			}
+		}
+		return new AuditLogIndex(logPath, compressed, blocks);
+	}
+
+	private void save(File indexFile) throws IOException{
+		File tempFile = new File(indexFile.getPath() + ".tmp");
+		PrintWriter writer = new PrintWriter(tempFile, StandardCharsets.UTF_8.name());
+		try{
+			for(Block block : blocks){
+				writer.println(block);
+			}
+		}finally{
+			writer.close();
+		}
+		if(!tempFile.renameTo(indexFile)){
+			tempFile.delete();
+			throw new IOException("Failed to rename '" + tempFile + "' to '" + indexFile + "'");
+		}
+	}
+
+	private static List<Block> readIndexFile(File indexFile) throws IOException{
+		List<Block> blocks = new ArrayList<Block>();
+		BufferedReader reader = new BufferedReader(new FileReader(indexFile));
+		try{
+			String line;
+			while((line = reader.readLine()) != null){
+				line = line.trim();
+				if(line.isEmpty()){
+					continue;
+				}
+				String[] tokens = line.split("\\s+");
+				if(tokens.length != 7){
+					return null;
+				}
+				blocks.add(new Block(Long.parseLong(tokens[0]), Long.parseLong(tokens[1]),
+						Double.parseDouble(tokens[2]), Double.parseDouble(tokens[3]),
+						Long.parseLong(tokens[4]), Long.parseLong(tokens[5]), Long.parseLong(tokens[6])));
+			}
+		}finally{
+			reader.close();
+		}
+		return blocks;
+	}
+
+	// The blocks must be contiguous and end at the end of the log
+	private static boolean covers(List<Block> blocks, long logLength){
+		long offset = 0;
+		for(Block block : blocks){
+			if(block.offset != offset || block.length < 0){
+				return false;
+			}
+			offset += block.length;
+		}
+		return offset == logLength;
+	}
+
+	private static boolean isGzip(File file) throws IOException{
+		InputStream stream = new FileInputStream(file);
+		try{
+			return stream.read() == 0x1f && stream.read() == 0x8b;
+		}finally{
+			stream.close();
+		}
+	}
+
+	/**
+	 * Returns the time from the audit record.
+	 *
+	 * Expected format of line -> "type='TYPE' msg=audit('time':'eventid'):"
+	 *
+	 * @param line audit record
+	 * @return time in seconds. NaN if not found
+	 */
+	public static double getRecordTime(String line){
+		int start = line.indexOf(RECORD_TIME_PREFIX);
+		if(start < 0){
+			return Double.NaN;
+		}
+		start += RECORD_TIME_PREFIX.length();
+		int end = line.indexOf(':', start);
+		if(end < 0){
+			return Double.NaN;
+		}
+		try{
+			return Double.parseDouble(line.substring(start, end));
+		}catch(NumberFormatException e){
+			return Double.NaN;
+		}
+	}
+
+	/**
+	 * Returns the event id from the audit record.
+	 *
+	 * Expected format of line -> "type='TYPE' msg=audit('time':'eventid'):"
+	 *
+	 * @param line audit record
+	 * @return event id. -1 if not found
+	 */
+	public static long getRecordEventId(String line){
+		int start = line.indexOf(RECORD_TIME_PREFIX);
+		if(start < 0){
+			return -1;
+		}
+		start = line.indexOf(':', start);
+		int end = start < 0 ? -1 : line.indexOf(')', start);
+		if(end < 0){
+			return -1;
+		}
+		try{
+			return Long.parseLong(line.substring(start + 1, end));
+		}catch(NumberFormatException e){
+			return -1;
+		}
+	}
+
+	// Bytes [offset, offset + length) of the file. Closes the channel when closed.
+	private static class BlockInputStream extends InputStream{
+		private final FileChannel channel;
+		private long position;
+		private final long end;
+
+		private BlockInputStream(FileChannel channel, long offset, long length){
+			this.channel = channel;
+			this.position = offset;
+			this.end = offset + length;
+		}
+
+		@Override
+		public int read() throws IOException{
+			byte[] single = new byte[1];
+			return read(single, 0, 1) == -1 ? -1 : (single[0] & 0xff);
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException{
+			if(length == 0){
+				return 0;
+			}
+			if(position >= end){
+				return -1;
+			}
+			int toRead = (int)Math.min(length, end - position);
+			int read = channel.read(ByteBuffer.wrap(buffer, offset, toRead), position);
+			if(read == -1){
+				throw new EOFException("Log truncated at " + position + " (block ends at " + end + ")");
+			}
+			position += read;
+			return read;
+		}
+
+		@Override
+		public int available(){
+			return (int)Math.min(Integer.MAX_VALUE, end - position);
+		}
+
+		@Override
+		public void close() throws IOException{
+			channel.close();
+		}
+	}
+
+	private static class BlockBuilder{
+		private double minTime = Double.NaN, maxTime = Double.NaN;
+		private long minEventId = -1, maxEventId = -1;
+		private long records;
+
+		private void addRecord(String line){
+			double time = getRecordTime(line);
+			long eventId = getRecordEventId(line);
+			if(!Double.isNaN(time)){
+				minTime = Double.isNaN(minTime) ? time : Math.min(minTime, time);
+				maxTime = Double.isNaN(maxTime) ? time : Math.max(maxTime, time);
+			}
+			if(eventId >= 0){
+				minEventId = minEventId < 0 ? eventId : Math.min(minEventId, eventId);
+				maxEventId = maxEventId < 0 ? eventId : Math.max(maxEventId, eventId);
+			}
+			records++;
+		}
+
+		private Block toBlock(long offset, long length){
+			return new Block(offset, length, minTime, maxTime, minEventId, maxEventId, records);
+		}
+	}
+}
@@ -0,0 +1,243 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2015 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.reporter.audit;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Streams the records in a time range from a list of audit logs.
+ *
+ * Only the blocks of the logs which overlap the time range (as per {@link AuditLogIndex}) are read.
+ * The blocks are read, decompressed and filtered by a pool of threads a few blocks ahead of the
+ * block being written. Blocks larger than {@link #MAX_BUFFERED_BLOCK_LENGTH} (e.g. a gzip log
+ * without an index) are not buffered but filtered straight to the output after the earlier blocks.
+ * Records are written in the order of the logs and the blocks.
+ */
+public class IndexedLogReplay{
+
+	private static final Logger logger = Logger.getLogger(IndexedLogReplay.class.getName());
+
+	// Bytes in the log. Blocks written by OutputLogWriter or split by AuditLogIndex are much smaller
+	private static final long MAX_BUFFERED_BLOCK_LENGTH = 4 * 1024 * 1024;
+
+	private final List<String> logPaths;
+	private final double startTime, endTime;
+	private final int threads;
+	private volatile boolean stopped = false;
+
+	/**
+	 * @param logPaths logs in the order to read them in
+	 * @param startTime start of the time range in seconds (inclusive). Negative infinity for no start.
+	 * @param endTime end of the time range in seconds (inclusive). Positive infinity for no end.
+	 * @param threads number of threads to index and decode with
+	 */
+	public IndexedLogReplay(List<String> logPaths, double startTime, double endTime, int threads){
+		this.logPaths = new ArrayList<String>(logPaths);
+		this.startTime = startTime;
+		this.endTime = endTime;
+		this.threads = threads < 1 ? 1 : threads;
+	}
+
+	/**
+	 * Stops the replay after the block being written. A block which is not buffered is stopped
+	 * within the next read.
+	 */
+	public void stop(){
+		stopped = true;
+	}
+
+	/**
+	 * Writes the records in the time range to the stream. The stream is not closed.
+	 *
+	 * @param outputStream stream to write the records to (one per line)
+	 * @return number of records written
+	 * @throws Exception if a log cannot be read or the stream cannot be written to
+	 */
+	public long writeTo(OutputStream outputStream) throws Exception{
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory(){
+			private final AtomicInteger count = new AtomicInteger();
+			public Thread newThread(Runnable runnable){
+				Thread thread = new Thread(runnable, "IndexedLogReplay-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try{
+			// Index the logs in parallel. Only the ones without a saved index need a scan.
+			List<Future<AuditLogIndex>> indexFutures = new ArrayList<Future<AuditLogIndex>>();
+			for(final String logPath : logPaths){
+				indexFutures.add(executor.submit(new Callable<AuditLogIndex>(){
+					public AuditLogIndex call() throws Exception{
+						return AuditLogIndex.load(logPath);
+					}
+				}));
+			}
+
+			long totalBlocks = 0;
+			List<AuditLogIndex> indexes = new ArrayList<AuditLogIndex>();
+			List<List<AuditLogIndex.Block>> selectedBlocks = new ArrayList<List<AuditLogIndex.Block>>();
+			for(Future<AuditLogIndex> indexFuture : indexFutures){
+				AuditLogIndex index = getResult(indexFuture);
+				List<AuditLogIndex.Block> blocks = index.getBlocks(startTime, endTime);
+				indexes.add(index);
+				selectedBlocks.add(blocks);
+				totalBlocks += index.getBlocks().size();
+				if(!blocks.isEmpty()){
+					logger.log(Level.INFO, "Replaying {0} of {1} blocks from log: {2}",
+							new Object[]{blocks.size(), index.getBlocks().size(), index.getLogPath()});
+				}
+			}
+
+			OutputStream stream = new BufferedOutputStream(outputStream, 65536);
+			Deque<Future<FilteredBlock>> pending = new ArrayDeque<Future<FilteredBlock>>();
+			int readAhead = threads * 2;
+			long selected = 0, records = 0;
+			for(int i = 0; i < indexes.size() && !stopped; i++){
+				final AuditLogIndex index = indexes.get(i);
+				for(final AuditLogIndex.Block block : selectedBlocks.get(i)){
+					if(stopped){
+						break;
+					}
+					selected++;
+					if(block.length > MAX_BUFFERED_BLOCK_LENGTH){
+						while(!pending.isEmpty() && !stopped){
+							records += write(getResult(pending.removeFirst()), stream);
+						}
+						if(!stopped){
+							records += filter(index, block, stream);
+						}
+						continue;
+					}
+					pending.addLast(executor.submit(new Callable<FilteredBlock>(){
+						public FilteredBlock call() throws Exception{
+							FilteredBlock filtered = new FilteredBlock();
+							filtered.records = filter(index, block, filtered.bytes);
+							return filtered;
+						}
+					}));
+					if(pending.size() >= readAhead){
+						records += write(getResult(pending.removeFirst()), stream);
+					}
+				}
+			}
+			while(!pending.isEmpty() && !stopped){
+				records += write(getResult(pending.removeFirst()), stream);
+			}
+			stream.flush();
+			logger.log(Level.INFO, "Replayed {0} records from {1} of {2} blocks",
+					new Object[]{records, selected, totalBlocks});
+			return records;
+		}finally{
+			executor.shutdownNow();
+		}
+	}
+
+	private long write(FilteredBlock filtered, OutputStream stream) throws IOException{
+		filtered.bytes.writeTo(stream);
+		return filtered.records;
+	}
+
+	/**
+	 * @param index index of the log of the block
+	 * @param block block to read
+	 * @param output stream to write the records in the time range to, each followed by a new line
+	 * @return number of records written
+	 */
+	private long filter(AuditLogIndex index, AuditLogIndex.Block block, OutputStream output) throws IOException{
+		InputStream input = index.openBlock(block);
+		try{
+			long records = 0;
+			// Part of a line which continues in the next read
+			ByteArrayOutputStream partial = new ByteArrayOutputStream(512);
+			byte[] buffer = new byte[65536];
+			int read;
+			while(!stopped && (read = input.read(buffer)) != -1){
+				int lineStart = 0;
+				for(int i = 0; i < read; i++){
+					if(buffer[i] == '\n'){
+						if(partial.size() > 0){
+							partial.write(buffer, lineStart, i - lineStart);
+							records += filterLine(partial.toByteArray(), 0, partial.size(), output);
+							partial.reset();
+						}else{
+							records += filterLine(buffer, lineStart, i - lineStart, output);
+						}
+						lineStart = i + 1;
+					}
+				}
+				partial.write(buffer, lineStart, read - lineStart);
+			}
+			if(partial.size() > 0){
+				records += filterLine(partial.toByteArray(), 0, partial.size(), output);
+			}
+			return records;
+		}finally{
+			input.close();
+		}
+	}
+
+	private long filterLine(byte[] bytes, int offset, int length, OutputStream output) throws IOException{
+		if(length == 0){
+			return 0;
+		}
+		double time = AuditLogIndex.getRecordTime(new String(bytes, offset, length, StandardCharsets.UTF_8));
+		if(time >= startTime && time <= endTime){
+			output.write(bytes, offset, length);
+			output.write('\n');
+			return 1;
+		}
+		return 0;
+	}
+
+	private static <T> T getResult(Future<T> future) throws Exception{
+		try{
+			return future.get();
+		}catch(ExecutionException e){
+			Throwable cause = e.getCause();
+			if(cause instanceof Exception){
+				throw (Exception)cause;
+			}
+			throw e;
+		}
+	}
+
+	private static class FilteredBlock{
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(65536);
+		private long records;
+	}
+}
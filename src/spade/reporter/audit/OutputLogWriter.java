@@ -0,0 +1,344 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2015 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.reporter.audit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the raw audit records to the output log on a dedicated thread.
+ *
+ * The reading thread only adds records to a bounded queue. The writer thread groups the records
+ * into blocks which are written as separate gzip members if compression is enabled (the log is
+ * still a valid gzip file and can be read with zcat) or as plain text otherwise.
+ *
+ * For every block a line is appended to the index file of the log (log path + '.index'):
+ *
+ * 'offset length minTime maxTime minEventId maxEventId records'
+ *
+ * where offset and length are in bytes in the log file. Times of records without one are written as NaN.
+ * Each block can be read independently of
+ * the rest of the log which allows a replay to seek to the blocks in a time or event id range.
+ *
+ * The log is rotated (path.1, path.2 and so on) after the given number of records, bytes or time.
+ */
+public class OutputLogWriter{
+
+	private static final Logger logger = Logger.getLogger(OutputLogWriter.class.getName());
+
+	public static final String INDEX_FILE_SUFFIX = ".index";
+	/**
+	 * Suffix of an index being written by {@link AuditLogIndex} before it is renamed
+	 */
+	public static final String TEMP_INDEX_FILE_SUFFIX = INDEX_FILE_SUFFIX + ".tmp";
+
+	public static final int DEFAULT_QUEUE_CAPACITY = 65536;
+	public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+	/**
+	 * A partial block is written out if no record arrives for this long
+	 */
+	private static final long FLUSH_INTERVAL_MILLIS = 1000;
+	/**
+	 * Added to the queue to tell the writer thread to finish
+	 */
+	private static final Record END_OF_LOG = new Record(null, null, -1);
+
+	private final String outputLogPath;
+	private final long rotateAfterRecordCount, rotateAfterBytes, rotateAfterMillis;
+	private final boolean compress;
+	private final int blockSize;
+
+	private final BlockingQueue<Record> queue;
+	private final Thread writerThread;
+	private volatile boolean closed = false;
+	private volatile boolean failed = false;
+
+	// State below is only used by the writer thread
+	private int currentOutputLogFileCount = 0;
+	private String currentOutputLogPath;
+	private OutputStream logStream;
+	private PrintWriter indexWriter;
+	private long logBytes, logRecords, logOpenedAtMillis;
+
+	private final ByteArrayOutputStream block = new ByteArrayOutputStream();
+	private final ByteArrayOutputStream compressedBlock = new ByteArrayOutputStream();
+	private long blockRecords, blockMinEventId, blockMaxEventId;
+	private double blockMinTime, blockMaxTime;
+	private String blockMinTimeString, blockMaxTimeString;
+
+	/**
+	 * @param outputLogPath path of the (first) output log
+	 * @param rotateAfterRecordCount number of records after which to rotate. Less than 1 to disable.
+	 * @param rotateAfterBytes number of bytes (written to disk) after which to rotate. Less than 1 to disable.
+	 * @param rotateAfterMillis time in milliseconds after which to rotate. Less than 1 to disable.
+	 * @param compress compress the blocks with gzip
+	 * @param queueCapacity maximum number of records waiting to be written
+	 * @param blockSize uncompressed size of a block in bytes
+	 * @throws IOException if the first log or its index cannot be created
+	 */
+	public OutputLogWriter(String outputLogPath, long rotateAfterRecordCount, long rotateAfterBytes,
+			long rotateAfterMillis, boolean compress, int queueCapacity, int blockSize) throws IOException{
+		if(outputLogPath == null){
+			throw new IllegalArgumentException("Output log path cannot be NULL");
+		}
+		this.outputLogPath = outputLogPath;
+		this.rotateAfterRecordCount = rotateAfterRecordCount < 1 ? 0 : rotateAfterRecordCount;
+		this.rotateAfterBytes = rotateAfterBytes < 1 ? 0 : rotateAfterBytes;
+		this.rotateAfterMillis = rotateAfterMillis < 1 ? 0 : rotateAfterMillis;
+		this.compress = compress;
+		this.queue = new ArrayBlockingQueue<Record>(queueCapacity < 1 ? DEFAULT_QUEUE_CAPACITY : queueCapacity);
+		this.blockSize = blockSize < 1 ? DEFAULT_BLOCK_SIZE : blockSize;
+
+		openOutputLog(outputLogPath);
+
+		writerThread = new Thread(new Runnable(){
+			public void run(){
+				writeLoop();
+			}
+		}, "OutputLogWriter");
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	/**
+	 * Adds the record to the queue of the writer thread. Blocks if the queue is full.
+	 *
+	 * @param record raw audit record
+	 * @param eventTime time of the audit event
+	 * @param eventId id of the audit event
+	 * @return false if the writer has been closed or has failed
+	 */
+	public boolean write(String record, String eventTime, long eventId){
+		if(closed || failed){
+			return false;
+		}
+		Record entry = new Record(record, eventTime, eventId);
+		try{
+			while(!queue.offer(entry, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)){
+				if(failed || !writerThread.isAlive()){
+					return false;
+				}
+			}
+			return true;
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	/**
+	 * Writes out all the queued records and closes the log
+	 */
+	public void close(){
+		if(closed){
+			return;
+		}
+		closed = true;
+		try{
+			while(writerThread.isAlive() && !queue.offer(END_OF_LOG, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)){
+				// wait for space in the queue
+			}
+			writerThread.join();
+		}catch(InterruptedException e){
+			logger.log(Level.WARNING, "Interrupted while waiting for the output log writer to finish", e);
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void writeLoop(){
+		List<Record> records = new ArrayList<Record>();
+		try{
+			boolean endOfLog = false;
+			while(!endOfLog){
+				Record first = queue.poll(FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+				if(first == null){
+					// Idle. Write out the partial block so that the log is not behind by much.
+					flushBlock();
+					rotateIfNeeded();
+					continue;
+				}
+				records.add(first);
+				queue.drainTo(records);
+				for(int i = 0; i < records.size(); i++){
+					Record record = records.get(i);
+					if(record == END_OF_LOG){
+						endOfLog = true;
+						break;
+					}
+					addToBlock(record);
+				}
+				records.clear();
+			}
+			flushBlock();
+		}catch(Exception e){
+			failed = true;
+			logger.log(Level.SEVERE, "Failed to write to output log: " + currentOutputLogPath + ". Output log disabled.", e);
+			queue.clear();
+		}finally{
+			closeOutputLog();
+		}
+	}
+
+	private void addToBlock(Record record) throws IOException{
+		byte[] bytes = record.line.getBytes(StandardCharsets.UTF_8);
+		block.write(bytes, 0, bytes.length);
+		block.write('\n');
+
+		double time;
+		try{
+			time = Double.parseDouble(record.eventTime);
+		}catch(Exception e){
+			time = Double.NaN;
+		}
+		// Written as is to the index so that the time is not changed by double to string conversion
+		String timeString = Double.isNaN(time) ? "NaN" : record.eventTime;
+		if(blockRecords == 0){
+			blockMinEventId = blockMaxEventId = record.eventId;
+			blockMinTime = blockMaxTime = time;
+			blockMinTimeString = blockMaxTimeString = timeString;
+		}else{
+			blockMinEventId = Math.min(blockMinEventId, record.eventId);
+			blockMaxEventId = Math.max(blockMaxEventId, record.eventId);
+			if(time < blockMinTime || Double.isNaN(blockMinTime)){
+				blockMinTime = time;
+				blockMinTimeString = timeString;
+			}
+			if(time > blockMaxTime || Double.isNaN(blockMaxTime)){
+				blockMaxTime = time;
+				blockMaxTimeString = timeString;
+			}
+		}
+		blockRecords++;
+
+		if(rotateAfterRecordCount > 0 && logRecords + blockRecords >= rotateAfterRecordCount){
+			flushBlock();
+			rotate();
+		}else if(block.size() >= blockSize){
+			flushBlock();
+			rotateIfNeeded();
+		}
+	}
+
+	/**
+	 * Index files are in the same directory as the logs and must be skipped when reading a directory of logs
+	 *
+	 * @param fileName name or path of a file
+	 * @return true if the file is an index of a log
+	 */
+	public static boolean isIndexFile(String fileName){
+		return fileName != null && (fileName.endsWith(INDEX_FILE_SUFFIX) || fileName.endsWith(TEMP_INDEX_FILE_SUFFIX));
+	}
+
+	private void flushBlock() throws IOException{
+		if(blockRecords == 0){
+			return;
+		}
+		long offset = logBytes;
+		long length;
+		if(compress){
+			compressedBlock.reset();
+			GZIPOutputStream gzipStream = new GZIPOutputStream(compressedBlock, 8192){
+				{
+					def.setLevel(Deflater.BEST_SPEED);
+				}
+			};
+			block.writeTo(gzipStream);
+			gzipStream.close();
+			compressedBlock.writeTo(logStream);
+			length = compressedBlock.size();
+		}else{
+			block.writeTo(logStream);
+			length = block.size();
+		}
+		logStream.flush();
+		indexWriter.println(offset + " " + length + " " + blockMinTimeString + " " + blockMaxTimeString + " "
+				+ blockMinEventId + " " + blockMaxEventId + " " + blockRecords);
+		indexWriter.flush();
+
+		logBytes += length;
+		logRecords += blockRecords;
+		block.reset();
+		blockRecords = 0;
+	}
+
+	private void rotateIfNeeded() throws IOException{
+		if(logRecords == 0){
+			return;
+		}
+		if((rotateAfterBytes > 0 && logBytes >= rotateAfterBytes)
+				|| (rotateAfterMillis > 0 && System.currentTimeMillis() - logOpenedAtMillis >= rotateAfterMillis)){
+			rotate();
+		}
+	}
+
+	private void rotate() throws IOException{
+		closeOutputLog();
+		currentOutputLogFileCount++;
+		openOutputLog(outputLogPath + "." + currentOutputLogFileCount);
+	}
+
+	private void openOutputLog(String path) throws IOException{
+		currentOutputLogPath = path;
+		logStream = new FileOutputStream(path);
+		indexWriter = new PrintWriter(path + INDEX_FILE_SUFFIX, StandardCharsets.UTF_8.name());
+		logBytes = 0;
+		logRecords = 0;
+		logOpenedAtMillis = System.currentTimeMillis();
+	}
+
+	private void closeOutputLog(){
+		if(logStream != null){
+			try{
+				logStream.close();
+			}catch(Exception e){
+				logger.log(Level.WARNING, "Failed to close output log: " + currentOutputLogPath, e);
+			}
+			logStream = null;
+		}
+		if(indexWriter != null){
+			indexWriter.close();
+			indexWriter = null;
+		}
+	}
+
+	private static class Record{
+		private final String line;
+		private final String eventTime;
+		private final long eventId;
+		private Record(String line, String eventTime, long eventId){
+			this.line = line;
+			this.eventTime = eventTime;
+			this.eventId = eventId;
+		}
+	}
+}
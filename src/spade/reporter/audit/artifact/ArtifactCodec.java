@@ -0,0 +1,604 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2015 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.reporter.audit.artifact;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import spade.utility.Converter;
+
+/**
+ * Binary encoding of artifact identifiers and artifact states for the artifacts external map.
+ *
+ * Every encoding starts with the VERSION byte. An identifier then has the tag byte of its class followed by
+ * its fields in the order of the constructor. A state has a flags byte followed by the epochs, versions,
+ * permissions and the previous permissions.
+ *
+ * A string field starts with a varint header:
+ * 0 for null, 1 for a decimal number, 2 for a lowercase hex number (both followed by the varint value),
+ * 3 for an IPv4 address (followed by 4 bytes), and otherwise the length of the UTF-8 bytes plus 4.
+ * Numbers and addresses are only encoded that way when the string is their canonical form so that decoding
+ * gives the same string back.
+ *
+ * A path is the index of its longest prefix in PATH_PREFIXES (0 for none) followed by the rest as a
+ * string field.
+ *
+ * The encoding of equal identifiers is equal so it can be used as the key in the store and the screen.
+ * For that reason wasOpenedForRead isn't encoded since it isn't part of the identity.
+ *
+ * Changing the tags, the field order, or PATH_PREFIXES changes the encoding and needs a new VERSION.
+ * FORMAT is saved with the screen and the store of the map so that a screen or store written with another
+ * encoding is refused instead of giving misses.
+ */
+public class ArtifactCodec{
+
+	public static final byte VERSION = 1;
+
+	/**
+	 * Name of the encoding of the keys and values for the external map
+	 */
+	public static final String FORMAT = "ArtifactCodec-" + VERSION;
+
+	private static final byte
+			TAG_FILE = 1,
+			TAG_DIRECTORY = 2,
+			TAG_LINK = 3,
+			TAG_NAMED_PIPE = 4,
+			TAG_UNIX_SOCKET = 5,
+			TAG_BLOCK_DEVICE = 6,
+			TAG_CHARACTER_DEVICE = 7,
+			TAG_NETWORK_SOCKET = 8,
+			TAG_MEMORY = 9,
+			TAG_UNKNOWN = 10,
+			TAG_UNNAMED_PIPE = 11,
+			TAG_UNNAMED_UNIX_SOCKET_PAIR = 12,
+			TAG_UNNAMED_NETWORK_SOCKET_PAIR = 13;
+
+	private static final int
+			FIELD_NULL = 0,
+			FIELD_DECIMAL = 1,
+			FIELD_HEX = 2,
+			FIELD_IPV4 = 3,
+			FIELD_STRING = 4;
+
+	private static final int
+			BIG_INTEGER_NULL = 0,
+			BIG_INTEGER_LONG = 1,
+			BIG_INTEGER_BYTES = 2;
+
+	private static final int FLAG_HAS_BEEN_PUT = 1;
+
+	/**
+	 * Common directories of the paths seen in Audit. Index + 1 is written for the longest matching prefix.
+	 */
+	private static final String[] PATH_PREFIXES = {
+			"/proc/",
+			"/dev/",
+			"/dev/pts/",
+			"/dev/shm/",
+			"/sys/",
+			"/sys/devices/",
+			"/etc/",
+			"/tmp/",
+			"/run/",
+			"/var/",
+			"/var/lib/",
+			"/var/log/",
+			"/var/run/",
+			"/var/cache/",
+			"/home/",
+			"/root/",
+			"/opt/",
+			"/bin/",
+			"/sbin/",
+			"/lib/",
+			"/lib64/",
+			"/lib/x86_64-linux-gnu/",
+			"/usr/",
+			"/usr/bin/",
+			"/usr/sbin/",
+			"/usr/lib/",
+			"/usr/lib64/",
+			"/usr/lib/x86_64-linux-gnu/",
+			"/usr/lib/python3/",
+			"/usr/local/",
+			"/usr/local/bin/",
+			"/usr/local/lib/",
+			"/usr/share/",
+			"/usr/share/locale/",
+			"/usr/include/"
+	};
+
+	/**
+	 * Indices into PATH_PREFIXES by the character after the leading '/', longest prefix first
+	 */
+	private static final int[][] PATH_PREFIXES_BY_CHAR = new int[128][];
+	static{
+		for(int c = 0; c < PATH_PREFIXES_BY_CHAR.length; c++){
+			List<Integer> indices = new ArrayList<Integer>();
+			for(int i = 0; i < PATH_PREFIXES.length; i++){
+				if(PATH_PREFIXES[i].charAt(1) == c){
+					indices.add(i);
+				}
+			}
+			Collections.sort(indices, new Comparator<Integer>(){
+				@Override
+				public int compare(Integer a, Integer b){
+					return PATH_PREFIXES[b].length() - PATH_PREFIXES[a].length();
+				}
+			});
+			PATH_PREFIXES_BY_CHAR[c] = new int[indices.size()];
+			for(int i = 0; i < indices.size(); i++){
+				PATH_PREFIXES_BY_CHAR[c][i] = indices.get(i);
+			}
+		}
+	}
+
+	public static final Converter<ArtifactIdentifier, byte[]> identifierConverter =
+			new Converter<ArtifactIdentifier, byte[]>(){
+				@Override
+				public byte[] serialize(ArtifactIdentifier i) throws Exception{
+					return i == null ? null : encodeIdentifier(i);
+				}
+				@Override
+				public ArtifactIdentifier deserialize(byte[] j) throws Exception{
+					return j == null ? null : decodeIdentifier(j);
+				}
+				@Override
+				public byte[] serializeObject(Object o) throws Exception{
+					return serialize((ArtifactIdentifier)o);
+				}
+				@Override
+				public ArtifactIdentifier deserializeObject(Object o) throws Exception{
+					return deserialize((byte[])o);
+				}
+			};
+
+	public static final Converter<ArtifactState, byte[]> stateConverter =
+			new Converter<ArtifactState, byte[]>(){
+				@Override
+				public byte[] serialize(ArtifactState i) throws Exception{
+					return i == null ? null : encodeState(i);
+				}
+				@Override
+				public ArtifactState deserialize(byte[] j) throws Exception{
+					return j == null ? null : decodeState(j);
+				}
+				@Override
+				public byte[] serializeObject(Object o) throws Exception{
+					return serialize((ArtifactState)o);
+				}
+				@Override
+				public ArtifactState deserializeObject(Object o) throws Exception{
+					return deserialize((byte[])o);
+				}
+			};
+
+	private ArtifactCodec(){}
+
+	public static byte[] encodeIdentifier(ArtifactIdentifier identifier) throws Exception{
+		Writer writer = new Writer();
+		writer.writeByte(VERSION);
+		Class<?> clazz = identifier.getClass();
+		if(identifier instanceof PathIdentifier){
+			byte tag;
+			if(clazz == FileIdentifier.class){
+				tag = TAG_FILE;
+			}else if(clazz == DirectoryIdentifier.class){
+				tag = TAG_DIRECTORY;
+			}else if(clazz == LinkIdentifier.class){
+				tag = TAG_LINK;
+			}else if(clazz == NamedPipeIdentifier.class){
+				tag = TAG_NAMED_PIPE;
+			}else if(clazz == UnixSocketIdentifier.class){
+				tag = TAG_UNIX_SOCKET;
+			}else if(clazz == BlockDeviceIdentifier.class){
+				tag = TAG_BLOCK_DEVICE;
+			}else if(clazz == CharacterDeviceIdentifier.class){
+				tag = TAG_CHARACTER_DEVICE;
+			}else{
+				throw new Exception("Unhandled artifact identifier class: " + clazz.getName());
+			}
+			writer.writeByte(tag);
+			writer.writePath(((PathIdentifier)identifier).getPath());
+		}else if(clazz == NetworkSocketIdentifier.class){
+			NetworkSocketIdentifier socket = (NetworkSocketIdentifier)identifier;
+			writer.writeByte(TAG_NETWORK_SOCKET);
+			writer.writeField(socket.getLocalHost());
+			writer.writeField(socket.getLocalPort());
+			writer.writeField(socket.getRemoteHost());
+			writer.writeField(socket.getRemotePort());
+			writer.writeField(socket.getProtocol());
+		}else if(clazz == MemoryIdentifier.class){
+			MemoryIdentifier memory = (MemoryIdentifier)identifier;
+			writer.writeByte(TAG_MEMORY);
+			writer.writeField(memory.getTgid());
+			writer.writeField(memory.getMemoryAddress());
+			writer.writeField(memory.getSize());
+		}else if(clazz == UnknownIdentifier.class){
+			UnknownIdentifier unknown = (UnknownIdentifier)identifier;
+			writer.writeByte(TAG_UNKNOWN);
+			writer.writeField(unknown.getTgid());
+			writer.writeField(unknown.getFD());
+		}else if(identifier instanceof FdPairIdentifier){
+			FdPairIdentifier pair = (FdPairIdentifier)identifier;
+			if(clazz == UnnamedPipeIdentifier.class){
+				writer.writeByte(TAG_UNNAMED_PIPE);
+			}else if(clazz == UnnamedUnixSocketPairIdentifier.class){
+				writer.writeByte(TAG_UNNAMED_UNIX_SOCKET_PAIR);
+			}else if(clazz == UnnamedNetworkSocketPairIdentifier.class){
+				writer.writeByte(TAG_UNNAMED_NETWORK_SOCKET_PAIR);
+			}else{
+				throw new Exception("Unhandled artifact identifier class: " + clazz.getName());
+			}
+			writer.writeField(pair.tgid);
+			writer.writeField(pair.fd0);
+			writer.writeField(pair.fd1);
+			if(clazz == UnnamedNetworkSocketPairIdentifier.class){
+				writer.writeField(((UnnamedNetworkSocketPairIdentifier)pair).protocol);
+			}
+		}else{
+			throw new Exception("Unhandled artifact identifier class: " + clazz.getName());
+		}
+		return writer.toByteArray();
+	}
+
+	/**
+	 * Path identifiers are built with their constructors which normalize the path again. That only changes
+	 * paths which still had '//' after the first normalization.
+	 *
+	 * @param bytes encoded identifier
+	 * @return identifier
+	 * @throws Exception unsupported version, unknown tag or truncated bytes
+	 */
+	public static ArtifactIdentifier decodeIdentifier(byte[] bytes) throws Exception{
+		Reader reader = new Reader(bytes);
+		byte tag = reader.readByte();
+		switch(tag){
+			case TAG_FILE: return new FileIdentifier(reader.readPath());
+			case TAG_DIRECTORY: return new DirectoryIdentifier(reader.readPath());
+			case TAG_LINK: return new LinkIdentifier(reader.readPath());
+			case TAG_NAMED_PIPE: return new NamedPipeIdentifier(reader.readPath());
+			case TAG_UNIX_SOCKET: return new UnixSocketIdentifier(reader.readPath());
+			case TAG_BLOCK_DEVICE: return new BlockDeviceIdentifier(reader.readPath());
+			case TAG_CHARACTER_DEVICE: return new CharacterDeviceIdentifier(reader.readPath());
+			case TAG_NETWORK_SOCKET:
+				return new NetworkSocketIdentifier(reader.readField(), reader.readField(), reader.readField(),
+						reader.readField(), reader.readField());
+			case TAG_MEMORY: return new MemoryIdentifier(reader.readField(), reader.readField(), reader.readField());
+			case TAG_UNKNOWN: return new UnknownIdentifier(reader.readField(), reader.readField());
+			case TAG_UNNAMED_PIPE:
+				return new UnnamedPipeIdentifier(reader.readField(), reader.readField(), reader.readField());
+			case TAG_UNNAMED_UNIX_SOCKET_PAIR:
+				return new UnnamedUnixSocketPairIdentifier(reader.readField(), reader.readField(), reader.readField());
+			case TAG_UNNAMED_NETWORK_SOCKET_PAIR:
+				return new UnnamedNetworkSocketPairIdentifier(reader.readField(), reader.readField(), reader.readField(),
+						reader.readField());
+			default: throw new Exception("Unknown artifact identifier tag: " + tag);
+		}
+	}
+
+	public static byte[] encodeState(ArtifactState state) throws Exception{
+		Writer writer = new Writer();
+		writer.writeByte(VERSION);
+		writer.writeByte((byte)(state.hasBeenPut() ? FLAG_HAS_BEEN_PUT : 0));
+		writer.writeBigInteger(state.getEpoch());
+		writer.writeBigInteger(state.getVersion());
+		writer.writeBigInteger(state.getLastPutEpoch());
+		writer.writeBigInteger(state.getLastPutVersion());
+		writer.writeField(state.getPermissions());
+		writer.writeField(state.getLastPutPermissions());
+		Set<String> previousPutPermissions = state.getPreviousPutPermissions();
+		if(previousPutPermissions == null){
+			writer.writeVarint(0);
+		}else{
+			writer.writeVarint(previousPutPermissions.size() + 1);
+			for(String permissions : previousPutPermissions){
+				writer.writeField(permissions);
+			}
+		}
+		return writer.toByteArray();
+	}
+
+	public static ArtifactState decodeState(byte[] bytes) throws Exception{
+		Reader reader = new Reader(bytes);
+		boolean hasBeenPut = (reader.readByte() & FLAG_HAS_BEEN_PUT) != 0;
+		BigInteger epoch = reader.readBigInteger();
+		BigInteger version = reader.readBigInteger();
+		BigInteger lastPutEpoch = reader.readBigInteger();
+		BigInteger lastPutVersion = reader.readBigInteger();
+		String permissions = reader.readField();
+		String lastPutPermissions = reader.readField();
+		Set<String> previousPutPermissions = null;
+		long count = reader.readVarint();
+		if(count > 0){
+			previousPutPermissions = new HashSet<String>();
+			for(long i = 1; i < count; i++){
+				previousPutPermissions.add(reader.readField());
+			}
+		}
+		return new ArtifactState(hasBeenPut, epoch, version, lastPutEpoch, lastPutVersion,
+				permissions, lastPutPermissions, previousPutPermissions);
+	}
+
+	private static boolean isDecimal(String value){
+		int length = value.length();
+		if(length == 0 || length > 18 || (length > 1 && value.charAt(0) == '0')){
+			return false;
+		}
+		for(int i = 0; i < length; i++){
+			char c = value.charAt(i);
+			if(c < '0' || c > '9'){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isHex(String value){
+		int length = value.length();
+		if(length == 0 || length > 15 || (length > 1 && value.charAt(0) == '0')){
+			return false;
+		}
+		for(int i = 0; i < length; i++){
+			char c = value.charAt(i);
+			if((c < '0' || c > '9') && (c < 'a' || c > 'f')){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param value string
+	 * @return the address as an int or -1 if the string is not an IPv4 address in dotted decimal form
+	 */
+	private static long parseIPv4(String value){
+		int length = value.length();
+		if(length < 7 || length > 15){
+			return -1;
+		}
+		long address = 0;
+		int octets = 0;
+		int start = 0;
+		for(int i = 0; i <= length; i++){
+			if(i == length || value.charAt(i) == '.'){
+				int digits = i - start;
+				if(digits == 0 || digits > 3 || (digits > 1 && value.charAt(start) == '0') || ++octets > 4){
+					return -1;
+				}
+				int octet = 0;
+				for(int j = start; j < i; j++){
+					char c = value.charAt(j);
+					if(c < '0' || c > '9'){
+						return -1;
+					}
+					octet = octet * 10 + (c - '0');
+				}
+				if(octet > 255){
+					return -1;
+				}
+				address = (address << 8) | octet;
+				start = i + 1;
+			}
+		}
+		return octets == 4 ? address : -1;
+	}
+
+	private static class Writer{
+		private byte[] bytes = new byte[64];
+		private int length = 0;
+
+		private void ensure(int extra){
+			if(length + extra > bytes.length){
+				bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+			}
+		}
+
+		private void writeByte(byte value){
+			ensure(1);
+			bytes[length++] = value;
+		}
+
+		private void writeBytes(byte[] value){
+			ensure(value.length);
+			System.arraycopy(value, 0, bytes, length, value.length);
+			length += value.length;
+		}
+
+		private void writeVarint(long value){
+			ensure(10);
+			while((value & ~0x7FL) != 0){
+				bytes[length++] = (byte)((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			bytes[length++] = (byte)value;
+		}
+
+		private void writeField(String value){
+			if(value == null){
+				writeVarint(FIELD_NULL);
+			}else if(isDecimal(value)){
+				writeVarint(FIELD_DECIMAL);
+				writeVarint(Long.parseLong(value));
+			}else if(isHex(value)){
+				writeVarint(FIELD_HEX);
+				writeVarint(Long.parseLong(value, 16));
+			}else{
+				long address = parseIPv4(value);
+				if(address >= 0){
+					writeVarint(FIELD_IPV4);
+					ensure(4);
+					bytes[length++] = (byte)(address >>> 24);
+					bytes[length++] = (byte)(address >>> 16);
+					bytes[length++] = (byte)(address >>> 8);
+					bytes[length++] = (byte)address;
+				}else{
+					writeString(value);
+				}
+			}
+		}
+
+		private void writeString(String value){
+			int count = value.length();
+			for(int i = 0; i < count; i++){
+				if(value.charAt(i) >= 0x80){
+					byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+					writeVarint(FIELD_STRING + utf8.length);
+					writeBytes(utf8);
+					return;
+				}
+			}
+			// ASCII is its own UTF-8
+			writeVarint(FIELD_STRING + count);
+			ensure(count);
+			for(int i = 0; i < count; i++){
+				bytes[length++] = (byte)value.charAt(i);
+			}
+		}
+
+		private void writePath(String path){
+			int prefix = -1;
+			if(path.length() > 1 && path.charAt(0) == '/' && path.charAt(1) < PATH_PREFIXES_BY_CHAR.length){
+				for(int i : PATH_PREFIXES_BY_CHAR[path.charAt(1)]){
+					if(path.startsWith(PATH_PREFIXES[i])){
+						prefix = i;
+						break;
+					}
+				}
+			}
+			writeVarint(prefix + 1);
+			writeField(prefix == -1 ? path : path.substring(PATH_PREFIXES[prefix].length()));
+		}
+
+		private void writeBigInteger(BigInteger value){
+			if(value == null){
+				writeVarint(BIG_INTEGER_NULL);
+			}else if(value.signum() >= 0 && value.bitLength() < 64){
+				writeVarint(BIG_INTEGER_LONG);
+				writeVarint(value.longValue());
+			}else{
+				byte[] twosComplement = value.toByteArray();
+				writeVarint(BIG_INTEGER_BYTES);
+				writeVarint(twosComplement.length);
+				writeBytes(twosComplement);
+			}
+		}
+
+		private byte[] toByteArray(){
+			return Arrays.copyOf(bytes, length);
+		}
+	}
+
+	private static class Reader{
+		private final byte[] bytes;
+		private int offset = 0;
+
+		private Reader(byte[] bytes) throws Exception{
+			this.bytes = bytes;
+			byte version = readByte();
+			if(version != VERSION){
+				throw new Exception("Unsupported artifact codec version: " + version);
+			}
+		}
+
+		private void require(long count) throws Exception{
+			if(count < 0 || offset + count > bytes.length){
+				throw new Exception("Truncated artifact encoding at offset " + offset);
+			}
+		}
+
+		private byte readByte() throws Exception{
+			require(1);
+			return bytes[offset++];
+		}
+
+		private long readVarint() throws Exception{
+			long value = 0;
+			for(int shift = 0; shift < 64; shift += 7){
+				byte b = readByte();
+				value |= (long)(b & 0x7F) << shift;
+				if((b & 0x80) == 0){
+					return value;
+				}
+			}
+			throw new Exception("Malformed varint in artifact encoding at offset " + offset);
+		}
+
+		private String readField() throws Exception{
+			long header = readVarint();
+			if(header == FIELD_NULL){
+				return null;
+			}else if(header == FIELD_DECIMAL){
+				return Long.toString(readVarint());
+			}else if(header == FIELD_HEX){
+				return Long.toHexString(readVarint());
+			}else if(header == FIELD_IPV4){
+				require(4);
+				String address = (bytes[offset] & 0xFF) + "." + (bytes[offset + 1] & 0xFF) + "."
+						+ (bytes[offset + 2] & 0xFF) + "." + (bytes[offset + 3] & 0xFF);
+				offset += 4;
+				return address;
+			}else{
+				long utf8Length = header - FIELD_STRING;
+				require(utf8Length);
+				String value = new String(bytes, offset, (int)utf8Length, StandardCharsets.UTF_8);
+				offset += (int)utf8Length;
+				return value;
+			}
+		}
+
+		private String readPath() throws Exception{
+			long prefix = readVarint();
+			String rest = readField();
+			if(prefix == 0){
+				return rest;
+			}else if(prefix > PATH_PREFIXES.length || rest == null){
+				throw new Exception("Malformed path in artifact encoding at offset " + offset);
+			}else{
+				return PATH_PREFIXES[(int)prefix - 1].concat(rest);
+			}
+		}
+
+		private BigInteger readBigInteger() throws Exception{
+			long header = readVarint();
+			if(header == BIG_INTEGER_NULL){
+				return null;
+			}else if(header == BIG_INTEGER_LONG){
+				return BigInteger.valueOf(readVarint());
+			}else if(header == BIG_INTEGER_BYTES){
+				long byteCount = readVarint();
+				require(byteCount);
+				BigInteger value = new BigInteger(Arrays.copyOfRange(bytes, offset, offset + (int)byteCount));
+				offset += (int)byteCount;
+				return value;
+			}else{
+				throw new Exception("Malformed integer in artifact encoding at offset " + offset);
+			}
+		}
+	}
+}
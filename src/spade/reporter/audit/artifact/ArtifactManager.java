@@ -41,9 +41,7 @@ import spade.reporter.Audit;
 import spade.reporter.audit.Globals;
 import spade.reporter.audit.OPMConstants;
 import spade.utility.CommonFunctions;
-import spade.utility.Converter;
 import spade.utility.Result;
-import spade.utility.Serializable2ByteArrayConverter;
 import spade.utility.map.external.ExternalMap;
 import spade.utility.map.external.ExternalMapArgument;
 import spade.utility.map.external.ExternalMapManager;
@@ -59,12 +57,12 @@ public class ArtifactManager{
 	private static void testArtifactStateConverter() throws Exception{
 		boolean hasBeenPuts [] = {true, false};
 		BigInteger bigInts [] = {null, new BigInteger("261783")};
-		String strs [] = {null, "", "null","random"}; // no commas!!!
+		String strs [] = {null, "", "null","random,with,commas"};
 		Set<Set<String>> sets = new HashSet<Set<String>>();
 		sets.add(null);
 		sets.add(new HashSet<String>());
 		Set<String> subset = new HashSet<String>();
-		subset.add(null);subset.add("");subset.add("null");subset.add("random"); // no commas!!!
+		subset.add(null);subset.add("");subset.add("null");subset.add("random,with,commas");
 		for(int x = 0; x < 10; x++){
 			subset.add(String.valueOf(x));
 		}
@@ -89,11 +87,11 @@ public class ArtifactManager{
 										ArtifactState s1 = new ArtifactState(hasBeenPut, epoch, version, lastEpoch,
 												lastVersion, permissions, lastPermissions, previousPermissions);
 										long start = System.currentTimeMillis();
-										byte[] s1bytes = artifactStateConverter.serialize(s1);
+										byte[] s1bytes = ArtifactCodec.stateConverter.serialize(s1);
 										serializeTimeMillis += (System.currentTimeMillis() - start);
 										totalBytes+=s1bytes.length;
 										start = System.currentTimeMillis();
-										ArtifactState s2 = artifactStateConverter.deserialize(s1bytes);
+										ArtifactState s2 = ArtifactCodec.stateConverter.deserialize(s1bytes);
 										deserializeTimeMillis += (System.currentTimeMillis() - start);
 										if(!s1.equals(s2)){
 											failed++;
@@ -123,10 +121,10 @@ public class ArtifactManager{
 		total++;
 		ArtifactState s1 = null;
 		long start = System.currentTimeMillis();
-		byte[] s1bytes = artifactStateConverter.serialize(s1);
+		byte[] s1bytes = ArtifactCodec.stateConverter.serialize(s1);
 		serializeTimeMillis += (System.currentTimeMillis() - start);
 		start = System.currentTimeMillis();
-		ArtifactState s2 = artifactStateConverter.deserialize(s1bytes);
+		ArtifactState s2 = ArtifactCodec.stateConverter.deserialize(s1bytes);
 		deserializeTimeMillis += (System.currentTimeMillis() - start);
 		if(s1 != s2){
 			failed++;
@@ -178,161 +176,6 @@ public class ArtifactManager{
 		}
 	}
 	
-	private static final Converter<ArtifactState, byte[]> artifactStateConverter = 
-			new Converter<ArtifactState, byte[]>(){
-				private final String nullStr = "null";
-				@Override
-				public byte[] serialize(ArtifactState i) throws Exception{
-					if(i != null){
-						String str = "";
-						str += formatBoolean(i.hasBeenPut()) + ",";
-						str += formatBigInteger(i.getEpoch()) + ",";
-						str += formatBigInteger(i.getVersion()) + ",";
-						str += formatBigInteger(i.getLastPutEpoch()) + ",";
-						str += formatBigInteger(i.getLastPutVersion()) + ",";
-						str += formatString(i.getPermissions()) + ",";
-						str += formatString(i.getLastPutPermissions()) + ",";
-						str += formatStringSet(i.getPreviousPutPermissions());
-						return str.getBytes();
-					}else{
-						return null;
-					}
-				}
-				@Override
-				public byte[] serializeObject(Object o) throws Exception{
-					return serialize((ArtifactState)o);
-				}
-				private int readUntil(String str, char delimiter, int offset, StringBuffer result){
-					for(int i = offset; i < str.length(); i++){
-						char c = str.charAt(i);
-						if(c == delimiter){
-							return i + 1;
-						}else{
-							result.append(c);
-						}
-					}
-					return -1;
-				}
-				private String formatStringSet(Set<String> set){
-					if(set == null){
-						return nullStr;
-					}else{
-						String str = "[";
-						for(String s : set){
-							str += formatString(s) + ",";
-						}
-						str += "]";
-						return str;
-					}
-				}
-				private Set<String> parseStringSet(String buffer){
-					if(buffer.equals(nullStr)){
-						return null;
-					}else{
-						buffer = buffer.substring(1, buffer.length());
-						Set<String> set = new HashSet<String>();
-						StringBuffer str = new StringBuffer();
-						int offset = readUntil(buffer, ',', 0, str);
-						while(offset < buffer.length() && offset > -1){
-							String v = parseString(str.toString());
-							set.add(v);
-							str.setLength(0);
-							offset = readUntil(buffer, ',', offset, str);
-						}
-						return set;
-					}
-				}
-				private String formatBigInteger(BigInteger bigInt){
-					if(bigInt == null){
-						return nullStr;
-					}else{
-						return bigInt.toString();
-					}
-				}
-				private BigInteger parseBigInteger(String buffer){
-					if(buffer.equals(nullStr)){
-						return null;
-					}else{
-						return new BigInteger(buffer);
-					}
-				}
-				private String formatBoolean(boolean value){
-					return value ? "1" : "0";
-				}
-				private boolean parseBoolean(String buffer){
-					return buffer.equals("1");
-				}
-				private String formatString(String buffer){
-					if(buffer == null){
-						return nullStr;
-					}else{
-						return "'" + buffer + "'";
-					}
-				}
-				private String parseString(String buffer){
-					if(buffer.equals(nullStr)){
-						return null;
-					}else{
-						return buffer.substring(1, buffer.length() - 1);
-					}
-				}
-				@Override
-				public ArtifactState deserialize(byte[] j) throws Exception{
-					if(j == null){
-						return null;
-					}else{
-						String str = new String(j);
-						int offset = 0;
-						StringBuffer parsed = new StringBuffer();
-
-						offset = readUntil(str, ',', offset, parsed);
-						boolean hasBeenPut = parseBoolean(parsed.toString());
-						
-						parsed.setLength(0);
-						
-						offset = readUntil(str, ',', offset, parsed);
-						BigInteger epoch = parseBigInteger(parsed.toString());
-						
-						parsed.setLength(0);
-						
-						offset = readUntil(str, ',', offset, parsed);
-						BigInteger version = parseBigInteger(parsed.toString());
-						
-						parsed.setLength(0);
-						
-						offset = readUntil(str, ',', offset, parsed);
-						BigInteger lastPutEpoch = parseBigInteger(parsed.toString());
-						
-						parsed.setLength(0);
-						
-						offset = readUntil(str, ',', offset, parsed);
-						BigInteger lastPutVersion = parseBigInteger(parsed.toString());
-						
-						parsed.setLength(0);
-						
-						offset = readUntil(str, ',', offset, parsed);
-						String permissions = parseString(parsed.toString());
-						
-						parsed.setLength(0);
-						
-						offset = readUntil(str, ',', offset, parsed);
-						String lastPutPermissions = parseString(parsed.toString());
-						
-						parsed.setLength(0);
-						
-						parsed.append(str.substring(offset));
-						Set<String> previousPutPermissions = parseStringSet(parsed.toString());
-						
-						return new ArtifactState(hasBeenPut, epoch, version, lastPutEpoch, 
-								lastPutVersion, permissions, lastPutPermissions, previousPutPermissions);
-					}
-				}
-				@Override
-				public ArtifactState deserializeObject(Object o) throws Exception{
-					return deserialize((byte[])o);
-				}
-			};
-	
 	private final Audit reporter;
 	
 	private final Map<Class<? extends ArtifactIdentifier>, ArtifactConfig> artifactConfigs;
@@ -360,8 +203,10 @@ public class ArtifactManager{
 				throw new Exception("Failed to parse external map arguments");
 			}else{
 				ExternalMapArgument externalMapArgument = externalMapArgumentResult.result;
+				// Equal identifiers have equal bytes so the screen hashes the same bytes as the store key.
+				// A saved screen or a kept store with another encoding is refused.
 				Result<ExternalMap<ArtifactIdentifier, ArtifactState>> externalMapResult = ExternalMapManager.create(externalMapArgument,
-						new Serializable2ByteArrayConverter<ArtifactIdentifier>(), artifactStateConverter);
+						ArtifactCodec.identifierConverter, ArtifactCodec.stateConverter, true, ArtifactCodec.FORMAT);
 				if(externalMapResult.error){
 					logger.log(Level.SEVERE, "Failed to create external map '"+artifactsMapId+"' from arguments: " + externalMapArgument);
 					logger.log(Level.SEVERE, externalMapResult.toErrorString());
@@ -0,0 +1,369 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2015 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.reporter.audit.process;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import spade.reporter.audit.OPMConstants;
+import spade.reporter.audit.artifact.ArtifactIdentifier;
+import spade.reporter.audit.artifact.BlockDeviceIdentifier;
+import spade.reporter.audit.artifact.CharacterDeviceIdentifier;
+import spade.reporter.audit.artifact.DirectoryIdentifier;
+import spade.reporter.audit.artifact.FileIdentifier;
+import spade.reporter.audit.artifact.LinkIdentifier;
+import spade.reporter.audit.artifact.NamedPipeIdentifier;
+import spade.reporter.audit.artifact.NetworkSocketIdentifier;
+import spade.reporter.audit.artifact.UnixSocketIdentifier;
+import spade.reporter.audit.artifact.UnnamedPipeIdentifier;
+
+/**
+ * Reads the state of processes from /proc.
+ *
+ * Stateless after construction so that multiple threads can read different pids at the same time.
+ * The socket tables are read once in the constructor. Sockets are only resolved for the network namespace
+ * of SPADE.
+ */
+class ProcFsReader{
+
+	private static final Logger logger = Logger.getLogger(ProcFsReader.class.getName());
+
+	private static final Path PROC = Paths.get("/proc");
+
+	// File types from st_mode. See: http://man7.org/linux/man-pages/man7/inode.7.html
+	private static final int S_IFMT = 0170000, S_IFLNK = 0120000, S_IFREG = 0100000,
+			S_IFBLK = 0060000, S_IFDIR = 0040000, S_IFCHR = 0020000, S_IFIFO = 0010000;
+
+	private static final String TCP_ESTABLISHED = "01";
+	private static final String DELETED_SUFFIX = " (deleted)";
+
+	/**
+	 * State of a process read from /proc
+	 */
+	static class Snapshot{
+		final ProcessIdentifier process;
+		final AgentIdentifier agent;
+		/**
+		 * Start time in milliseconds. Same value as in the process identifier.
+		 */
+		final double startMillis;
+		/**
+		 * fd to artifact. Only for the fds that can be resolved.
+		 */
+		final Map<String, ArtifactIdentifier> fds;
+
+		private Snapshot(ProcessIdentifier process, AgentIdentifier agent, double startMillis,
+				Map<String, ArtifactIdentifier> fds){
+			this.process = process;
+			this.agent = agent;
+			this.startMillis = startMillis;
+			this.fds = fds;
+		}
+	}
+
+	private final long boottimeMillis;
+	private final boolean simplify;
+	private final String unitId;
+
+	/**
+	 * Socket inode to artifact for established TCP sockets and named unix sockets
+	 */
+	private final Map<String, ArtifactIdentifier> sockets = new HashMap<String, ArtifactIdentifier>();
+
+	ProcFsReader(long boottimeMillis, boolean simplify, String unitId){
+		this.boottimeMillis = boottimeMillis;
+		this.simplify = simplify;
+		this.unitId = unitId;
+		readTcpSockets(PROC.resolve("net/tcp"), false);
+		readTcpSockets(PROC.resolve("net/tcp6"), true);
+		readUnixSockets(PROC.resolve("net/unix"));
+	}
+
+	/**
+	 * @return boot time in milliseconds or null if it couldn't be read
+	 */
+	static Long readBootTime(){
+		try{
+			for(String line : Files.readAllLines(PROC.resolve("stat"), StandardCharsets.UTF_8)){
+				if(line.startsWith("btime ")){
+					return Long.parseLong(line.substring(6).trim()) * 1000;
+				}
+			}
+			logger.log(Level.WARNING, "No boot time in /proc/stat");
+		}catch(Exception e){
+			logger.log(Level.WARNING, "Error reading boot time information from /proc/", e);
+		}
+		return null;
+	}
+
+	/**
+	 * @return the numeric directory names in /proc
+	 */
+	static List<String> listPids() throws IOException{
+		List<String> pids = new ArrayList<String>();
+		try(DirectoryStream<Path> stream = Files.newDirectoryStream(PROC)){
+			for(Path path : stream){
+				String name = path.getFileName().toString();
+				if(isNumber(name)){
+					pids.add(name);
+				}
+			}
+		}
+		return pids;
+	}
+
+	/**
+	 * Reads the process, its agent and its fds.
+	 *
+	 * @param pid process id
+	 * @return snapshot or null if the process exited or couldn't be read
+	 */
+	Snapshot read(String pid){
+		Path directory = PROC.resolve(pid);
+		try{
+			// 'comm' is in parentheses and can contain spaces. Fields after it are space separated.
+			String stat = readString(directory.resolve("stat"));
+			String stats[] = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+			String ppid = stats[1]; // field 4
+			double startMillis = boottimeMillis + Double.parseDouble(stats[19]) * 10; // field 22 in clock ticks
+
+			String name = null;
+			String uidTokens[] = null, gidTokens[] = null;
+			for(String line : readString(directory.resolve("status")).split("\n")){
+				if(line.startsWith("Name:")){
+					name = line.substring(5).trim();
+				}else if(line.startsWith("Uid:")){
+					uidTokens = line.substring(4).trim().split("\\s+");
+				}else if(line.startsWith("Gid:")){
+					gidTokens = line.substring(4).trim().split("\\s+");
+					break; // Always after name and uid
+				}
+			}
+			if(name == null || uidTokens == null || gidTokens == null || uidTokens.length < 4 || gidTokens.length < 4){
+				logger.log(Level.WARNING, "Missing name/uid/gid in /proc status for pid: " + pid);
+				return null;
+			}
+
+			String commandLine = readString(directory.resolve("cmdline")).replace('\0', ' ').replace('"', '\'').trim();
+
+			String cwd = null;
+			try{
+				cwd = Files.readSymbolicLink(directory.resolve("cwd")).toString();
+			}catch(NoSuchFileException nsfe){
+				throw nsfe;
+			}catch(IOException ioe){
+				// Kernel thread or not permitted
+			}
+
+			ProcessIdentifier process = new ProcessIdentifier(pid, ppid, name, cwd, commandLine,
+					String.valueOf(startMillis), null, unitId, OPMConstants.SOURCE_PROCFS);
+
+			// see for order of uid, euid, suid, fsiud: http://man7.org/linux/man-pages/man5/proc.5.html
+			AgentIdentifier agent = null;
+			if(simplify){
+				agent = new AgentIdentifier(uidTokens[0], uidTokens[1], gidTokens[0], gidTokens[1]);
+			}else{
+				agent = new AgentIdentifier(uidTokens[0], uidTokens[1], gidTokens[0], gidTokens[1],
+						uidTokens[2], uidTokens[3], gidTokens[2], gidTokens[3]);
+			}
+
+			Map<String, ArtifactIdentifier> fds;
+			try{
+				fds = readFileDescriptors(pid, directory.resolve("fd"));
+			}catch(NoSuchFileException nsfe){
+				throw nsfe;
+			}catch(IOException ioe){
+				logger.log(Level.WARNING, "Unable to read fds from /proc for pid: " + pid, ioe);
+				fds = new HashMap<String, ArtifactIdentifier>();
+			}
+
+			return new Snapshot(process, agent, startMillis, fds);
+		}catch(NoSuchFileException nsfe){
+			// Exited after the listing
+			return null;
+		}catch(Exception e){
+			logger.log(Level.WARNING, "Unable to read process from /proc for pid: " + pid, e);
+			return null;
+		}
+	}
+
+	private Map<String, ArtifactIdentifier> readFileDescriptors(String pid, Path fdDirectory) throws IOException{
+		// Sorted to pair the pipe ends in the order in which they are returned by pipe
+		Map<Integer, Path> fdPaths = new TreeMap<Integer, Path>();
+		try(DirectoryStream<Path> stream = Files.newDirectoryStream(fdDirectory)){
+			for(Path path : stream){
+				String name = path.getFileName().toString();
+				if(isNumber(name)){
+					fdPaths.put(Integer.valueOf(name), path);
+				}
+			}
+		}
+
+		Map<String, ArtifactIdentifier> fds = new HashMap<String, ArtifactIdentifier>();
+		Map<String, String> inodeToFd0 = new HashMap<String, String>();
+		for(Map.Entry<Integer, Path> entry : fdPaths.entrySet()){
+			String fd = String.valueOf(entry.getKey());
+			String target;
+			int mode;
+			try{
+				target = Files.readSymbolicLink(entry.getValue()).toString();
+				// Follows the link so the type is of the open file
+				mode = ((Integer)Files.getAttribute(entry.getValue(), "unix:mode")) & S_IFMT;
+			}catch(IOException ioe){
+				// Closed after the listing
+				continue;
+			}
+			if(target.startsWith("pipe:[")){
+				String inode = target.substring(6, target.length() - 1);
+				String fd0 = inodeToFd0.remove(inode);
+				if(fd0 == null){
+					inodeToFd0.put(inode, fd);
+				}else{
+					ArtifactIdentifier pipeIdentifier = new UnnamedPipeIdentifier(pid, fd0, fd);
+					fds.put(fd0, pipeIdentifier);
+					fds.put(fd, pipeIdentifier);
+				}
+			}else if(target.startsWith("socket:[")){
+				ArtifactIdentifier socketIdentifier = sockets.get(target.substring(8, target.length() - 1));
+				if(socketIdentifier != null){
+					fds.put(fd, socketIdentifier);
+				}
+			}else if(target.startsWith("/")){
+				if(target.endsWith(DELETED_SUFFIX)){
+					target = target.substring(0, target.length() - DELETED_SUFFIX.length());
+				}
+				ArtifactIdentifier identifier = null;
+				switch(mode){
+					case S_IFREG: identifier = new FileIdentifier(target); break;
+					case S_IFDIR: identifier = new DirectoryIdentifier(target); break;
+					case S_IFCHR: identifier = new CharacterDeviceIdentifier(target); break;
+					case S_IFBLK: identifier = new BlockDeviceIdentifier(target); break;
+					case S_IFIFO: identifier = new NamedPipeIdentifier(target); break;
+					case S_IFLNK: identifier = new LinkIdentifier(target); break;
+					default: break;
+				}
+				if(identifier != null){
+					fds.put(fd, identifier);
+				}
+			}
+			// anon_inode:[...] and others are not artifacts
+		}
+		return fds;
+	}
+
+	/**
+	 * Line format: 'sl local_address rem_address st tx_queue:rx_queue tr:tm->when retrnsmt uid timeout inode ...'
+	 * where the addresses are hex in network byte order per 32-bit word, and the ports are hex.
+	 *
+	 * Addresses are formatted like in the audit log saddr so that the artifacts match the ones from system calls.
+	 */
+	private void readTcpSockets(Path path, boolean ipv6){
+		try{
+			List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+			for(int i = 1; i < lines.size(); i++){
+				String tokens[] = lines.get(i).trim().split("\\s+");
+				if(tokens.length > 9 && TCP_ESTABLISHED.equals(tokens[3])){
+					String local[] = tokens[1].split(":");
+					String remote[] = tokens[2].split(":");
+					sockets.put(tokens[9], new NetworkSocketIdentifier(
+							formatAddress(local[0], ipv6), String.valueOf(Integer.parseInt(local[1], 16)),
+							formatAddress(remote[0], ipv6), String.valueOf(Integer.parseInt(remote[1], 16)),
+							"tcp"));
+				}
+			}
+		}catch(NoSuchFileException nsfe){
+			// No ipv6
+		}catch(Exception e){
+			logger.log(Level.WARNING, "Failed to read sockets from " + path, e);
+		}
+	}
+
+	private static String formatAddress(String hex, boolean ipv6){
+		if(!ipv6){
+			return String.format("%d.%d.%d.%d", Integer.parseInt(hex.substring(6, 8), 16),
+					Integer.parseInt(hex.substring(4, 6), 16), Integer.parseInt(hex.substring(2, 4), 16),
+					Integer.parseInt(hex.substring(0, 2), 16));
+		}else{
+			// Reverse the bytes of each of the four words
+			StringBuilder bytes = new StringBuilder(32);
+			for(int word = 0; word < 32; word += 8){
+				for(int b = word + 6; b >= word; b -= 2){
+					bytes.append(hex, b, b + 2);
+				}
+			}
+			StringBuilder address = new StringBuilder(39);
+			for(int hextet = 0; hextet < 32; hextet += 4){
+				if(hextet > 0){
+					address.append(':');
+				}
+				address.append(bytes, hextet, hextet + 4);
+			}
+			return address.toString();
+		}
+	}
+
+	/**
+	 * Line format: 'Num RefCount Protocol Flags Type St Inode [Path]'. Only the sockets with a path are added.
+	 * Abstract socket paths start with '@' which is removed like in the audit log saddr.
+	 */
+	private void readUnixSockets(Path path){
+		try{
+			List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+			for(int i = 1; i < lines.size(); i++){
+				String tokens[] = lines.get(i).trim().split("\\s+", 8);
+				if(tokens.length == 8){
+					String socketPath = tokens[7].startsWith("@") ? tokens[7].substring(1) : tokens[7];
+					sockets.put(tokens[6], new UnixSocketIdentifier(socketPath));
+				}
+			}
+		}catch(Exception e){
+			logger.log(Level.WARNING, "Failed to read sockets from " + path, e);
+		}
+	}
+
+	private static String readString(Path path) throws IOException{
+		return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+	}
+
+	private static boolean isNumber(String string){
+		if(string.isEmpty()){
+			return false;
+		}
+		for(int i = 0; i < string.length(); i++){
+			char c = string.charAt(i);
+			if(c < '0' || c > '9'){
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -19,17 +19,19 @@
  */
 package spade.reporter.audit.process;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
 import java.io.Serializable;
-import java.util.AbstractMap.SimpleEntry;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.StringTokenizer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -40,17 +42,8 @@ import spade.reporter.audit.AuditEventReader;
 import spade.reporter.audit.OPMConstants;
 import spade.reporter.audit.SYSCALL;
 import spade.reporter.audit.artifact.ArtifactIdentifier;
-import spade.reporter.audit.artifact.BlockDeviceIdentifier;
-import spade.reporter.audit.artifact.CharacterDeviceIdentifier;
-import spade.reporter.audit.artifact.DirectoryIdentifier;
-import spade.reporter.audit.artifact.FileIdentifier;
-import spade.reporter.audit.artifact.LinkIdentifier;
-import spade.reporter.audit.artifact.NamedPipeIdentifier;
-import spade.reporter.audit.artifact.NetworkSocketIdentifier;
-import spade.reporter.audit.artifact.UnixSocketIdentifier;
-import spade.reporter.audit.artifact.UnnamedPipeIdentifier;
 import spade.utility.CommonFunctions;
-import spade.utility.Execute;
+import spade.utility.IntHashMap;
 import spade.utility.Result;
 import spade.utility.map.external.ExternalMap;
 import spade.utility.map.external.ExternalMapArgument;
@@ -101,20 +94,20 @@ public abstract class ProcessManager extends ProcessStateManager{
 	private Audit reporter;
 	
 	/**
-	 * Contains a mapping from pid to the keys of currently active processes
+	 * Contains a mapping from pid to the key and the state of currently active processes
 	 */
-	private Map<String, ProcessKey> activeProcesses = new HashMap<String, ProcessKey>();
+	private final IntHashMap<ActiveProcess> activeProcesses = new IntHashMap<ActiveProcess>(1024);
 
 	/**
 	 * Map from thread group id to set of active members of the thread group.
 	 * Since number of thread group ids is limited by the number of pids, not using an external memory map.
 	 */
-	private Map<String, Set<ProcessKey>> activeThreadGroups = new HashMap<String, Set<ProcessKey>>();
+	private final IntHashMap<Set<ProcessKey>> activeThreadGroups = new IntHashMap<Set<ProcessKey>>();
 	
 	/**
-	 * Contains a mapping from keys of all (needed) processes to actual state.
+	 * Contains a mapping from keys of processes, which are not active anymore, to their state.
 	 * Needed to keep some process states in case of a unit dependency event because we need
-	 * to recreate the unit vertex as it was.
+	 * to recreate the unit vertex as it was. Only the states of the processes which had units are kept.
 	 */
 	private ExternalMap<ProcessKey, ProcessUnitState> processUnitStates;
 	private final String processUnitStateMapId = "AuditProcessesMap";
@@ -129,6 +122,36 @@ public abstract class ProcessManager extends ProcessStateManager{
 	 */
 	private final boolean units;
 	
+	/**
+	 * Agent identifiers shared by the process states. Agents are few and same for many processes.
+	 */
+	private final Map<AgentIdentifier, AgentIdentifier> agents = new HashMap<AgentIdentifier, AgentIdentifier>();
+	private static final int MAX_AGENTS = 4096;
+	
+	/**
+	 * Difference in the start time of the same process in /proc and in the events. /proc start time is in clock
+	 * ticks (usually 10 milliseconds).
+	 */
+	private static final double PROCFS_START_TIME_TOLERANCE_MILLIS = 20;
+	
+	/**
+	 * Held by the /proc readers to put a process and by the event handler while the processes are being put.
+	 */
+	private final ReentrantLock procFsLock = new ReentrantLock();
+	private volatile boolean procFsSeeding = false;
+	private ExecutorService procFsReaders;
+	private int procFsProcessesPut = 0;
+	
+	/**
+	 * Exit time (in milliseconds) of the processes that exited in the events while the processes are being put.
+	 */
+	private final Map<String, Double> procFsExitTimes = new HashMap<String, Double>();
+	
+	/**
+	 * Parent pid to the processes from /proc whose parent hasn't been put yet.
+	 */
+	private final Map<String, List<ProcessIdentifier>> procFsChildren = new HashMap<String, List<ProcessIdentifier>>();
+	
 	protected ProcessManager(Audit reporter, boolean simplify, boolean units) throws Exception{
 		this.reporter = reporter;
 		this.simplify = simplify;
@@ -232,6 +255,14 @@ public abstract class ProcessManager extends ProcessStateManager{
 			String operation);
 	
 	public void doCleanUp(){
+		procFsLock.lock();
+		try{
+			if(procFsSeeding){
+				stopProcFsSeeding(true);
+			}
+		}finally{
+			procFsLock.unlock();
+		}
 		if(processUnitStates != null){
 			processUnitStates.close();
 			processUnitStates = null;
@@ -250,16 +281,24 @@ public abstract class ProcessManager extends ProcessStateManager{
 	 */
 	public void removeProcessUnitState(String pid){
 		super.processExited(pid);
-		ProcessKey key = activeProcesses.remove(pid);
-		if(key != null){
-			ProcessUnitState state = processUnitStates.get(key);
-			if(state != null){
-				if(!state.hadUnits()){
-					processUnitStates.remove(key);
-				}else{
-					state.partialClean();
-				}
-			}
+		ActiveProcess activeProcess = activeProcesses.remove(toPid(pid));
+		if(activeProcess != null){
+			retireProcessUnitState(activeProcess.key, activeProcess.state);
+		}
+	}
+	
+	/**
+	 * Keeps the state of a process which is not active anymore only if it had units.
+	 * 
+	 * @param key key of the process
+	 * @param state state of the process or null
+	 */
+	private void retireProcessUnitState(ProcessKey key, ProcessUnitState state){
+		if(state != null && state.hadUnits()){
+			state.partialClean();
+			processUnitStates.put(key, state);
+		}else{
+			processUnitStates.remove(key);
 		}
 	}
 	
@@ -272,9 +311,9 @@ public abstract class ProcessManager extends ProcessStateManager{
 		String pid = eventData.get(AuditEventReader.PID);
 		String time = eventData.get(AuditEventReader.TIME);
 
-		ProcessKey existingProcessKey = activeProcesses.get(pid);
-		if(existingProcessKey == null){
-			activeProcesses.put(pid, new ProcessKey(pid, time));
+		int pidKey = toPid(pid);
+		if(activeProcesses.get(pidKey) == null){
+			activeProcesses.put(pidKey, new ActiveProcess(new ProcessKey(pid, time), null));
 		}
 	}
 	
@@ -292,20 +331,24 @@ public abstract class ProcessManager extends ProcessStateManager{
 	protected void setProcessUnitState(ProcessUnitState state){
 		ProcessIdentifier process = state.getProcess();
 		String pid = process.pid;
+		int pidKey = toPid(pid);
+		ActiveProcess existing = activeProcesses.get(pidKey);
 		String time = process.startTime;
 		// Time logic: Use start time first, then check if there is an existing key, then use the current seen time
 		if(time == null){
 			// Check if there is an existing active mapping
-			ProcessKey existingKey = activeProcesses.get(pid);
-			if(existingKey == null){
+			if(existing == null){
 				time = process.seenTime;
 			}else{
-				time = existingKey.time;
+				time = existing.key.time;
 			}
 		}
 		ProcessKey key = new ProcessKey(pid, time);
-		processUnitStates.put(key, state);
-		activeProcesses.put(pid, key);
+		if(existing != null && existing.state != null && !existing.key.equals(key)){
+			// Replaced without exit i.e. execve
+			retireProcessUnitState(existing.key, existing.state);
+		}
+		activeProcesses.put(pidKey, new ActiveProcess(key, state));
 	}
 	
 	/**
@@ -315,9 +358,9 @@ public abstract class ProcessManager extends ProcessStateManager{
 	 * @return process unit state
 	 */
 	protected ProcessUnitState getProcessUnitState(String pid){
-		ProcessKey key = activeProcesses.get(pid);
-		if(key != null){
-			return processUnitStates.get(key);
+		ActiveProcess activeProcess = activeProcesses.get(toPid(pid));
+		if(activeProcess != null){
+			return activeProcess.state;
 		}else{
 			return null;
 		}
@@ -332,24 +375,40 @@ public abstract class ProcessManager extends ProcessStateManager{
 	 */
 	private ProcessUnitState getProcessUnitState(String pid, String startTime){
 		ProcessKey key = new ProcessKey(pid, startTime);
+		ActiveProcess activeProcess = activeProcesses.get(toPid(pid));
+		if(activeProcess != null && activeProcess.state != null && activeProcess.key.equals(key)){
+			return activeProcess.state;
+		}
 		return processUnitStates.get(key);
 	}
 	
 	/**
 	 * Returns the vertex for the currently active process with pid.
 	 * 
+	 * The vertex is built once for the current process, agent, and unit of the state, and then the same instance
+	 * is returned. It must not be modified.
+	 * 
 	 * @param pid process id
 	 * @return vertex
 	 */
 	public Process getVertex(String pid){
 		ProcessUnitState state = getProcessUnitState(pid);
 		if(state != null){
-			return buildVertex(state.getProcess(), state.getAgent(), state.getUnit());
+			return getVertex(state);
 		}else{
 			return null;
 		}
 	}
 	
+	private Process getVertex(ProcessUnitState state){
+		Process vertex = state.getVertex();
+		if(vertex == null){
+			vertex = buildVertex(state.getProcess(), state.getAgent(), state.getUnit());
+			state.setVertex(vertex);
+		}
+		return vertex;
+	}
+	
 	/**
 	 * Clears all state for every process. ALL.
 	 */
@@ -357,9 +416,30 @@ public abstract class ProcessManager extends ProcessStateManager{
 		super.clearAll();
 		clearAll();
 		activeProcesses.clear();
+		activeThreadGroups.clear();
+		agents.clear();
 		processUnitStates.clear();
 	}
 	
+	/**
+	 * @param pid process id
+	 * @return pid as int or -1 if not a valid pid
+	 */
+	private static int toPid(String pid){
+		if(pid == null || pid.isEmpty() || pid.length() > 10){
+			return -1;
+		}
+		long value = 0;
+		for(int i = 0; i < pid.length(); i++){
+			char c = pid.charAt(i);
+			if(c < '0' || c > '9'){
+				return -1;
+			}
+			value = value * 10 + (c - '0');
+		}
+		return value > Integer.MAX_VALUE ? -1 : (int)value;
+	}
+	
 	/**
 	 * Returns either null (if unit==false) or 0 (if unit==true)
 	 * 
@@ -401,13 +481,56 @@ public abstract class ProcessManager extends ProcessStateManager{
 		String euid = eventData.get(AuditEventReader.EUID);
 		String gid = eventData.get(AuditEventReader.GID);
 		String egid = eventData.get(AuditEventReader.EGID);
+		AgentIdentifier agent;
 		if(simplify){
-			return new AgentIdentifier(uid, euid, gid, egid);
+			agent = new AgentIdentifier(uid, euid, gid, egid);
 		}else{
-			return new AgentIdentifier(uid, euid, gid, egid, 
+			agent = new AgentIdentifier(uid, euid, gid, egid, 
 					eventData.get(AuditEventReader.SUID), eventData.get(AuditEventReader.FSUID), 
 					eventData.get(AuditEventReader.SGID), eventData.get(AuditEventReader.FSGID));
 		}
+		return internAgent(agent);
+	}
+	
+	/**
+	 * Returns the existing agent identifier equal to the given one so that the process states share it.
+	 * 
+	 * @param agent agent identifier
+	 * @return the shared agent identifier
+	 */
+	protected AgentIdentifier internAgent(AgentIdentifier agent){
+		AgentIdentifier existing = agents.get(agent);
+		if(existing != null){
+			return existing;
+		}
+		if(agents.size() < MAX_AGENTS){
+			agents.put(agent, agent);
+		}
+		return agent;
+	}
+	
+	/**
+	 * Compares without creating an agent identifier from the event data.
+	 * 
+	 * @param agent existing agent identifier
+	 * @param eventData event data from a system call event
+	 * @return true if the agent in the event data is equal to the given one
+	 */
+	private boolean isSameAgent(AgentIdentifier agent, Map<String, String> eventData){
+		if(agent == null){
+			return false;
+		}
+		boolean same = CommonFunctions.objectsEqual(agent.uid, eventData.get(AuditEventReader.UID))
+				&& CommonFunctions.objectsEqual(agent.euid, eventData.get(AuditEventReader.EUID))
+				&& CommonFunctions.objectsEqual(agent.gid, eventData.get(AuditEventReader.GID))
+				&& CommonFunctions.objectsEqual(agent.egid, eventData.get(AuditEventReader.EGID));
+		if(same && !simplify){
+			same = CommonFunctions.objectsEqual(agent.suid, eventData.get(AuditEventReader.SUID))
+					&& CommonFunctions.objectsEqual(agent.fsuid, eventData.get(AuditEventReader.FSUID))
+					&& CommonFunctions.objectsEqual(agent.sgid, eventData.get(AuditEventReader.SGID))
+					&& CommonFunctions.objectsEqual(agent.fsgid, eventData.get(AuditEventReader.FSGID));
+		}
+		return same;
 	}
 	
 	/**
@@ -442,16 +565,16 @@ public abstract class ProcessManager extends ProcessStateManager{
 		String pid = eventData.get(AuditEventReader.PID);
 		String source = OPMConstants.SOURCE_AUDIT_SYSCALL;
 		
-		AgentIdentifier agentIdentifier = buildAgentIdentifierFromSyscall(eventData);
-		ProcessIdentifier processIdentifier = null;
 		ProcessUnitState state = getProcessUnitState(pid);
 		if(state == null){
-			processIdentifier = buildProcessIdentifierFromSyscall(eventData);
-			putProcessVertex(time, eventId, processIdentifier, agentIdentifier, source);
+			ProcessIdentifier processIdentifier = buildProcessIdentifierFromSyscall(eventData);
+			putProcessVertex(time, eventId, processIdentifier, buildAgentIdentifierFromSyscall(eventData), source);
 		}else{
-			AgentIdentifier existingAgent = state.getAgent();
-			if(!existingAgent.equals(agentIdentifier)){
-				handleAgentUpdate(time, eventId, pid, agentIdentifier, operation);
+			if(!isSameAgent(state.getAgent(), eventData)){
+				handleAgentUpdate(time, eventId, pid, buildAgentIdentifierFromSyscall(eventData), operation);
+			}else{
+				// Common case. Same state and the vertex already built for it.
+				return getVertex(state);
 			}
 		}
 		
@@ -589,13 +712,16 @@ public abstract class ProcessManager extends ProcessStateManager{
 			boolean isThread = (flags & CLONE_THREAD) == CLONE_THREAD;
 			if(isThread){
 				String threadGroupId = parentState.getThreadGroupId(); // Can't be null
-				ProcessUnitState childState = getProcessUnitState(childPid); // State already added above using putProcessVertex
-				childState.setThreadGroupId(threadGroupId); // Update the thread group id for child
-				if(activeThreadGroups.get(threadGroupId) == null){
-					activeThreadGroups.put(threadGroupId, new HashSet<ProcessKey>());
+				int threadGroupKey = toPid(threadGroupId);
+				ActiveProcess child = activeProcesses.get(toPid(childPid)); // State already added above using putProcessVertex
+				child.state.setThreadGroupId(threadGroupId); // Update the thread group id for child
+				Set<ProcessKey> threadGroup = activeThreadGroups.get(threadGroupKey);
+				if(threadGroup == null){
+					threadGroup = new HashSet<ProcessKey>();
+					activeThreadGroups.put(threadGroupKey, threadGroup);
 				}
 				// Add the process key for the child against the active thread group
-				activeThreadGroups.get(threadGroupId).add(activeProcesses.get(childPid));
+				threadGroup.add(child.key);
 			}
 		}else{
 			handle = false;
@@ -671,6 +797,13 @@ public abstract class ProcessManager extends ProcessStateManager{
 		String time = eventData.get(AuditEventReader.TIME);
 		String eventId = eventData.get(AuditEventReader.EVENT_ID);
 		
+		if(procFsSeeding){
+			Double exitTime = CommonFunctions.parseDouble(time, null);
+			if(exitTime != null){
+				procFsExitTimes.put(pid, exitTime * 1000);
+			}
+		}
+		
 		if(outputOPM){
 			Process processVertex = handleProcessFromSyscall(eventData);
 			
@@ -683,13 +816,15 @@ public abstract class ProcessManager extends ProcessStateManager{
 		String threadGroupId = null;
 		Set<ProcessKey> threadGroupsKeys = null;
 		
-		activeKey = activeProcesses.get(pid);
-		if(activeKey != null){
-			state = processUnitStates.get(activeKey);
+		int pidKey = toPid(pid);
+		ActiveProcess activeProcess = activeProcesses.get(pidKey);
+		if(activeProcess != null){
+			activeKey = activeProcess.key;
+			state = activeProcess.state;
 			if(state != null){
 				threadGroupId = state.getThreadGroupId();
 				if(threadGroupId != null){
-					threadGroupsKeys = activeThreadGroups.get(threadGroupId);
+					threadGroupsKeys = activeThreadGroups.get(toPid(threadGroupId));
 				}
 			}
 		}
@@ -698,17 +833,17 @@ public abstract class ProcessManager extends ProcessStateManager{
 			if(threadGroupsKeys != null){
 				for(ProcessKey threadGroupMemberKey : threadGroupsKeys){
 					if(threadGroupMemberKey != null){
-						String threadGroupMemberPid = threadGroupMemberKey.pid;
-						ProcessKey activeThreadGroupMemberKey = activeProcesses.get(threadGroupMemberPid);
-						if(threadGroupMemberKey.equals(activeThreadGroupMemberKey)){
+						int threadGroupMemberPid = toPid(threadGroupMemberKey.pid);
+						ActiveProcess activeThreadGroupMember = activeProcesses.get(threadGroupMemberPid);
+						if(activeThreadGroupMember != null && threadGroupMemberKey.equals(activeThreadGroupMember.key)){
 							activeProcesses.remove(threadGroupMemberPid);
 						}
 						processUnitStates.remove(threadGroupMemberKey);
 					}
 				}
 			}
-			activeThreadGroups.remove(threadGroupId);
-			activeProcesses.remove(pid);
+			activeThreadGroups.remove(toPid(threadGroupId));
+			activeProcesses.remove(pidKey);
 			if(activeKey != null){
 				processUnitStates.remove(activeKey);
 			}
@@ -718,11 +853,11 @@ public abstract class ProcessManager extends ProcessStateManager{
 				threadGroupsKeys.remove(activeKey);
 				if(threadGroupsKeys.isEmpty()){
 					// remove group
-					activeThreadGroups.remove(threadGroupId);
+					activeThreadGroups.remove(toPid(threadGroupId));
 				}
 			}
-			if(activeThreadGroups.get(threadGroupId) == null){
-				activeProcesses.remove(pid);
+			if(activeThreadGroups.get(toPid(threadGroupId)) == null){
+				activeProcesses.remove(pidKey);
 				if(activeKey != null){
 					processUnitStates.remove(activeKey);
 				}
@@ -765,7 +900,7 @@ public abstract class ProcessManager extends ProcessStateManager{
 			if(state.isUnitActive()){
 				state.unitExit();
 			}
-			processVertex = buildVertex(state.getProcess(), state.getAgent(), state.getUnit());
+			processVertex = getVertex(state);
 		}else{
 			processVertex = handleProcessFromSyscall(eventData);
 		}
@@ -868,252 +1003,202 @@ public abstract class ProcessManager extends ProcessStateManager{
 	
 	/*  PROCFS code below */
 	
+	/**
+	 * Starts putting the processes, and their fds from /proc. Returns without waiting for it to finish.
+	 * 
+	 * Pids are read in parallel and each process is put as soon as it is read. While that is happening, the
+	 * caller must hold the lock returned by getProcFsLock when handling an event.
+	 * 
+	 * Races with the events are resolved by the start time of the process in /proc:
+	 * 1) If the creation of the process was seen in the events then the process from /proc is ignored.
+	 * 2) If the process was only seen in the events (before it was read from /proc) then only its fds which
+	 * are not known yet are added.
+	 * 3) If the process has exited in the events then the process from /proc is ignored.
+	 * 4) Otherwise, the process from /proc is put (replacing the state of any older process with the same pid).
+	 */
 	public void putProcessesFromProcFs(){
-		Long boottime = getBootTime();
+		final Long boottime = ProcFsReader.readBootTime();
 		if(boottime == null){
 			logger.log(Level.SEVERE, "Missing boottime. Failed to build process information from /proc");
-		}else{
-			String source = OPMConstants.SOURCE_PROCFS;
-			try{
-				Map<String, String> pidToPpid = new HashMap<String, String>();
-				
-				java.io.File directory = new java.io.File("/proc");
-				java.io.File[] listOfFiles = directory.listFiles();
-				for(int i = 0; i < listOfFiles.length; i++){
-					if(listOfFiles[i].isDirectory()){
-						String pid = listOfFiles[i].getName();
-						// Only handle numeric directory names
-						Integer pidInt = CommonFunctions.parseInt(pid, null);
-						if(pidInt != null){
-							SimpleEntry<ProcessIdentifier, AgentIdentifier> processAndAgent = 
-									createProcessFromProcFS(pid, boottime);
-							if(processAndAgent != null){
-								ProcessIdentifier process = processAndAgent.getKey();
-								AgentIdentifier agent = processAndAgent.getValue();
-								pidToPpid.put(process.pid, process.ppid);
-								
-								putProcessVertex(null, null, process, agent, source);
-								
-								Map<String, ArtifactIdentifier> fds = getFileDescriptors(pid);
-								if(fds != null){
-									for(Map.Entry<String, ArtifactIdentifier> entry : fds.entrySet()){
-										ArtifactIdentifier fdIdentifier = entry.getValue();
-										fdIdentifier.setOpenedForRead(null); // Don't want the close edge
-										setFd(pid, entry.getKey(), fdIdentifier);
-									}
-								}
-							}else{
-								logger.log(Level.WARNING, "Failed to read /proc to build process with pid: " + pid);
-							}
+			return;
+		}
+		final List<String> pids;
+		try{
+			pids = ProcFsReader.listPids();
+		}catch(Exception e){
+			logger.log(Level.WARNING, "Failed to read /proc to build processes", e);
+			return;
+		}
+		final ProcFsReader procFsReader = new ProcFsReader(boottime, simplify, getUnitId());
+		final int threads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), pids.size()));
+		procFsReaders = Executors.newFixedThreadPool(threads, new ThreadFactory(){
+			private final AtomicInteger count = new AtomicInteger();
+			@Override
+			public Thread newThread(Runnable runnable){
+				Thread thread = new Thread(runnable, "procfs-reader-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		procFsSeeding = true;
+		final long startNanos = System.nanoTime();
+		final AtomicInteger remaining = new AtomicInteger(pids.size());
+		for(final String pid : pids){
+			procFsReaders.execute(new Runnable(){
+				@Override
+				public void run(){
+					ProcFsReader.Snapshot snapshot = procFsReader.read(pid);
+					procFsLock.lock();
+					try{
+						if(procFsSeeding && snapshot != null){
+							putProcessFromProcFs(snapshot);
 						}
+					}catch(Exception e){
+						logger.log(Level.WARNING, "Failed to put process from /proc with pid: " + pid, e);
+					}finally{
+						if(procFsSeeding && remaining.decrementAndGet() == 0){
+							logger.log(Level.INFO, "Read " + pids.size() + " pids from /proc in "
+									+ ((System.nanoTime() - startNanos) / 1000000) + " ms using " + threads + " threads. "
+									+ "Put " + procFsProcessesPut + " processes");
+							stopProcFsSeeding(false);
+						}
+						procFsLock.unlock();
 					}
 				}
-				
-				for(Map.Entry<String, String> pidAndPpid : pidToPpid.entrySet()){
-					String pid = pidAndPpid.getKey();
-					String ppid = pidAndPpid.getValue();
-					Process processVertex = getVertex(pid);
-					Process parentProcessVertex = getVertex(ppid);
-					if(processVertex != null && parentProcessVertex != null){
-						WasTriggeredBy childToParent = new WasTriggeredBy(processVertex, parentProcessVertex);
-						reporter.putEdge(childToParent, reporter.getOperation(SYSCALL.UNKNOWN), null, null, source);
-					}
-				}
-			}catch(Exception e){
-				logger.log(Level.WARNING, "Failed to read /proc to build processes", e);
+			});
+		}
+		if(pids.isEmpty()){
+			procFsLock.lock();
+			try{
+				stopProcFsSeeding(false);
+			}finally{
+				procFsLock.unlock();
 			}
 		}
 	}
 	
-	private Map<String, ArtifactIdentifier> getFileDescriptors(String pid){
-		try{
-			//LSOF args -> n = no DNS resolution, P = no port user-friendly naming, p = pid of process
-			Execute.Output output = Execute.getOutput("lsof -nPp " + pid);
-			if(!output.hasError()){
-				List<String> stdOutLines = output.getStdOut();
-				stdOutLines.remove(0); //remove the heading line
-				
-				Map<String, ArtifactIdentifier> fds = new HashMap<String, ArtifactIdentifier>();
-				Map<String, String> inodefd0 = new HashMap<String, String>();
-				
-				for(String stdOutLine : stdOutLines){
-					String tokens[] = stdOutLine.split("\\s+");
-					if(tokens.length >= 10){
-						String type = tokens[4].toLowerCase().trim();
-						// fd ends with r(read), w(write), u(read and write), W (lock)
-						String fdString = tokens[3].trim().replaceAll("[^0-9]", ""); 
-						if("fifo".equals(type)){
-							String path = tokens[8];
-							if("pipe".equals(path)){ //unnamed pipe
-								String inode = tokens[7];
-								if(inodefd0.get(inode) == null){
-									inodefd0.put(inode, fdString);
-								}else{
-									ArtifactIdentifier pipeInfo = new UnnamedPipeIdentifier(pid, fdString, inodefd0.get(inode));
-									fds.put(fdString, pipeInfo);
-									fds.put(inodefd0.get(inode), pipeInfo);
-									inodefd0.remove(inode);
-								}
-							}else{ //named pipe
-								fds.put(fdString, new NamedPipeIdentifier(path));
-							}	    						
-						}else if("ipv4".equals(type) && stdOutLine.contains("(ESTABLISHED)")){
-							String protocol = String.valueOf(tokens[7]).toLowerCase();
-							//example of this token = 10.0.2.15:35859->172.231.72.152:443 (ESTABLISHED)
-							String[] srchostport = tokens[8].split("->")[0].split(":");
-							String[] dsthostport = tokens[8].split("->")[1].split(":");
-							fds.put(fdString, new NetworkSocketIdentifier(srchostport[0], srchostport[1], 
-									dsthostport[0], dsthostport[1], protocol));
-						}else if("ipv6".equals(type) && stdOutLine.contains("(ESTABLISHED)")){
-							String protocol = String.valueOf(tokens[8]).toLowerCase();
-							//example of this token = [::1]:48644->[::1]:631 (ESTABLISHED)
-							String src = tokens[9].split("->")[0];
-							String dst = tokens[9].split("->")[1];
-							String srcaddr = src.split("\\]:")[0].substring(1);
-							String srcport = src.split("\\]:")[1];
-							String dstaddr = dst.split("\\]:")[0].substring(1);
-							String dstport = dst.split("\\]:")[1];
-							fds.put(fdString, new NetworkSocketIdentifier(srcaddr, srcport, dstaddr, dstport, 
-									protocol));
-						}else if(type != null){
-							ArtifactIdentifier identifier = null;
-							String path = tokens[8];
-							switch (type) {
-								case "unix": 
-									if(!"socket".equals(path)){ // abstract socket and don't know the name
-										identifier = new UnixSocketIdentifier(path);
-									}else{
-										// identifying unnamed unix socket pairs how? TODO
-									}
-									break;
-								case "blk": identifier = new BlockDeviceIdentifier(path); break;
-								case "chr": identifier = new CharacterDeviceIdentifier(path); break;
-								case "dir": identifier = new DirectoryIdentifier(path); break;
-								case "link": identifier = new LinkIdentifier(path); break;
-								case "reg": identifier = new FileIdentifier(path); break;
-								default: break;
-							}
-							if(identifier != null){
-								fds.put(fdString, identifier);
-							}
-						}
-					}
-				}
-				return fds;
+	/**
+	 * The lock that must be held to handle an event while the processes from /proc are being put.
+	 * 
+	 * @return the lock or null if no processes are being put from /proc
+	 */
+	public Lock getProcFsLock(){
+		return procFsSeeding ? procFsLock : null;
+	}
+	
+	/**
+	 * Must be called with procFsLock held
+	 * 
+	 * @param interrupt true if the pids not read yet are to be discarded
+	 */
+	private void stopProcFsSeeding(boolean interrupt){
+		procFsSeeding = false;
+		procFsExitTimes.clear();
+		procFsChildren.clear();
+		if(procFsReaders != null){
+			if(interrupt){
+				procFsReaders.shutdownNow();
 			}else{
-				output.log();
+				procFsReaders.shutdown();
 			}
-		}catch(Exception e){
-			logger.log(Level.WARNING, "Failed to read file descriptors for pid: " + pid, e);
+			procFsReaders = null;
 		}
-		return null;
 	}
 	
-	private SimpleEntry<ProcessIdentifier, AgentIdentifier> createProcessFromProcFS(String pid, long boottime){
-		try{
-			File procFile = new File("/proc/" + pid);
-			if(procFile.exists()){
-				String source = OPMConstants.SOURCE_PROCFS;
-				
-				// order of keys in the status file changed. So, now looping through the file to get the necessary ones
-				int keysGottenCount = 0; // Used to stop reading the file once all the required keys have been gotten
-				String line = null, nameline = null, ppidline = null, uidline = null, gidline = null;
-				BufferedReader procReader = new BufferedReader(new FileReader(procFile.getAbsolutePath() + "/status"));
-				while((line = procReader.readLine()) != null && keysGottenCount < 4){
-					String tokens[] = line.split(":");
-					String key = tokens[0].trim().toLowerCase();
-					switch (key) {
-					case "name":
-						nameline = line;
-						keysGottenCount++;
-						break;
-					case "ppid":
-						ppidline = line;
-						keysGottenCount++;
-						break;
-					case "uid":
-						uidline = line;
-						keysGottenCount++;
-						break;
-					case "gid":
-						gidline = line;
-						keysGottenCount++;
-						break;
-					default:
-						break;
-					}
-				}
-				procReader.close();
-
-				File cwdFile = new File(procFile.getAbsolutePath() + "/cwd");
-				String cwd = cwdFile.getCanonicalPath();
-				
-				BufferedReader statReader = new BufferedReader(new FileReader(procFile.getAbsolutePath() + "/stat"));
-				String statline = statReader.readLine();
-				statReader.close();
-
-				BufferedReader cmdlineReader = new BufferedReader(new FileReader(procFile.getAbsolutePath() + "/cmdline"));
-				String commandLine = cmdlineReader.readLine();
-				cmdlineReader.close();
-
-				String stats[] = statline.split("\\s+");
-				double elapsedtime = CommonFunctions.parseDouble(stats[21], null) * 10;
-				String startTime = String.valueOf(boottime + elapsedtime);
-				
-				String ppidString = ppidline.split("\\s+")[1];
-
-				// see for order of uid, euid, suid, fsiud: http://man7.org/linux/man-pages/man5/proc.5.html
-				String gidTokens[] = gidline.split("\\s+");
-				String uidTokens[] = uidline.split("\\s+");
-				
-				String name = nameline.split("name:")[1].trim();
-				commandLine = (commandLine == null) ? "" : commandLine.replace("\0", " ").replace("\"", "'").trim();
-
-				ProcessIdentifier process = new ProcessIdentifier(pid, ppidString, name, cwd, commandLine, startTime, 
-						null, getUnitId(), source);
-
-				AgentIdentifier agent = null;
-				if(simplify){
-					agent = new AgentIdentifier(uidTokens[0], uidTokens[1], gidTokens[0], gidTokens[1]);
-				}else{
-					agent = new AgentIdentifier(uidTokens[0], uidTokens[1], gidTokens[0], gidTokens[1], 
-							uidTokens[2], uidTokens[3], gidTokens[2], gidTokens[3]);
+	/**
+	 * Called with procFsLock held
+	 * 
+	 * @param snapshot process read from /proc
+	 */
+	private void putProcessFromProcFs(ProcFsReader.Snapshot snapshot){
+		String source = OPMConstants.SOURCE_PROCFS;
+		ProcessIdentifier process = snapshot.process;
+		String pid = process.pid;
+		
+		ProcessUnitState existingState = getProcessUnitState(pid);
+		if(existingState == null){
+			Double exitTime = procFsExitTimes.get(pid);
+			if(exitTime != null && exitTime >= snapshot.startMillis - PROCFS_START_TIME_TOLERANCE_MILLIS){
+				// Exited after it was read
+				return;
+			}
+		}else{
+			ProcessIdentifier existingProcess = existingState.getProcess();
+			if(existingProcess.startTime != null){
+				if(snapshot.startMillis <= getStartMillis(existingProcess) + PROCFS_START_TIME_TOLERANCE_MILLIS){
+					// Same process seen being created, or an older one
+					return;
 				}
-				
-				return new SimpleEntry<ProcessIdentifier, AgentIdentifier>(process, agent);
 			}else{
-				logger.log(Level.WARNING, "No /proc entry for pid: " + pid);
-				return null;
+				Double seenTime = CommonFunctions.parseDouble(existingProcess.seenTime, null);
+				if(seenTime == null 
+						|| snapshot.startMillis <= seenTime * 1000 + PROCFS_START_TIME_TOLERANCE_MILLIS){
+					// Same process seen before it was read. Only add the fds which haven't been seen.
+					for(Map.Entry<String, ArtifactIdentifier> entry : snapshot.fds.entrySet()){
+						if(getFd(pid, entry.getKey()) == null){
+							setFd(pid, entry.getKey(), entry.getValue(), null); // Don't want the close edge
+						}
+					}
+					return;
+				}
 			}
-		}catch(Exception e){
-			logger.log(Level.WARNING, "Unable to create process vertex from /proc for pid: " + pid, e);
-			return null;
+			// The pid has been reused after the existing state
+			removeProcessUnitState(pid);
 		}
-	}
-	
-	private Long getBootTime(){
-		BufferedReader boottimeReader = null;
-		try{
-			boottimeReader = new BufferedReader(new FileReader("/proc/stat"));
-			String line;
-			while((line = boottimeReader.readLine()) != null){
-				StringTokenizer st = new StringTokenizer(line);
-				if(st.nextToken().equals("btime")){
-					return Long.parseLong(st.nextToken()) * 1000;
-				}
+		
+		Process processVertex = putProcessVertex(null, null, process, snapshot.agent, source);
+		procFsProcessesPut++;
+		for(Map.Entry<String, ArtifactIdentifier> entry : snapshot.fds.entrySet()){
+			setFd(pid, entry.getKey(), entry.getValue(), null); // Don't want the close edge
+		}
+		
+		Process parentProcessVertex = getVertex(process.ppid);
+		if(parentProcessVertex != null){
+			WasTriggeredBy childToParent = new WasTriggeredBy(processVertex, parentProcessVertex);
+			reporter.putEdge(childToParent, reporter.getOperation(SYSCALL.UNKNOWN), null, null, source);
+		}else{
+			List<ProcessIdentifier> siblings = procFsChildren.get(process.ppid);
+			if(siblings == null){
+				siblings = new ArrayList<ProcessIdentifier>();
+				procFsChildren.put(process.ppid, siblings);
 			}
-		}catch(Exception e){
-			logger.log(Level.WARNING, "Error reading boot time information from /proc/", e);
-		}finally{
-			if(boottimeReader != null){
-				try{
-					boottimeReader.close();
-				}catch(Exception e){
-					// ignore
+			siblings.add(process);
+		}
+		
+		List<ProcessIdentifier> children = procFsChildren.remove(pid);
+		if(children != null){
+			for(ProcessIdentifier child : children){
+				ProcessUnitState childState = getProcessUnitState(child.pid);
+				// Only if the child hasn't been replaced by the events
+				if(childState != null && childState.getProcess() == child){
+					WasTriggeredBy childToParent = new WasTriggeredBy(getVertex(child.pid), processVertex);
+					reporter.putEdge(childToParent, reporter.getOperation(SYSCALL.UNKNOWN), null, null, source);
 				}
 			}
 		}
-		return null;
+	}
+	
+	/**
+	 * @param process process identifier with start time
+	 * @return start time in milliseconds. /proc start time is in milliseconds and system call time is in seconds.
+	 */
+	private double getStartMillis(ProcessIdentifier process){
+		double startTime = CommonFunctions.parseDouble(process.startTime, 0.0);
+		return OPMConstants.SOURCE_PROCFS.equals(process.processSource) ? startTime : startTime * 1000;
+	}
+}
+
+/**
+ * Key and state of the process currently active with a pid. The state is null if the process has only been seen in
+ * an unsupported system call.
+ */
+class ActiveProcess{
+	final ProcessKey key;
+	final ProcessUnitState state;
+	
+	ActiveProcess(ProcessKey key, ProcessUnitState state){
+		this.key = key;
+		this.state = state;
 	}
 }
 
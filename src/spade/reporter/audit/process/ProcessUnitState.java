@@ -25,6 +25,7 @@ import java.util.logging.Logger;
 
 import spade.utility.CommonFunctions;
 import spade.utility.Series;
+import spade.vertex.opm.Process;
 
 /**
  * Maintains the state to deduplicate, and manages process and unit vertices
@@ -55,6 +56,9 @@ public class ProcessUnitState implements Serializable{
 	// If false then everything cleared.
 	private boolean hadUnits = false;
 	
+	// Vertex for the current process, agent and unit. Reset when the agent or the unit changes.
+	private transient Process vertex;
+	
 	protected ProcessUnitState(ProcessIdentifier process, AgentIdentifier agent){
 		this.process = process;
 		this.agent = agent;
@@ -88,6 +92,14 @@ public class ProcessUnitState implements Serializable{
 		return unit;
 	}
 	
+	protected Process getVertex(){
+		return vertex;
+	}
+	
+	protected void setVertex(Process vertex){
+		this.vertex = vertex;
+	}
+	
 	/**
 	 * Sets the current agent to the argument passed.
 	 * Also if a unit is active then sets the agent for that unit too (Needed for unit dependency event)
@@ -97,6 +109,7 @@ public class ProcessUnitState implements Serializable{
 	 */
 	protected void setAgent(Double time, AgentIdentifier agent){
 		this.agent = agent;
+		vertex = null;
 		if(time != null){
 			timeToAgent.add(time, agent);
 		}else{
@@ -106,6 +119,7 @@ public class ProcessUnitState implements Serializable{
 	
 	protected void unitEnter(UnitIdentifier unit){
 		this.unit = unit;
+		vertex = null;
 		if(!hadUnits){
 			hadUnits = true;
 		}
@@ -113,6 +127,7 @@ public class ProcessUnitState implements Serializable{
 	
 	protected void unitExit(){
 		unit = null;
+		vertex = null;
 	}
 	
 	protected boolean isUnitActive(){
@@ -135,5 +150,6 @@ public class ProcessUnitState implements Serializable{
 	protected void partialClean(){
 		unit = null;
 		agent = null;
+		vertex = null;
 	}
 }
@@ -36,16 +36,17 @@ import spade.vertex.opm.Process;
 public class ProcessWithoutAgentManager extends ProcessManager{
 
 	/**
-	 * Used to tell whether the agent has already be put or not. And also the source for the agent.
+	 * Used to tell whether the agent has already be put or not. Value is the vertex that was put with the source
+	 * for the agent.
 	 */
-	private final Map<AgentIdentifier, String> agentToSource = new HashMap<AgentIdentifier, String>();
+	private final Map<AgentIdentifier, Agent> agentVertices = new HashMap<AgentIdentifier, Agent>();
 	
 	public ProcessWithoutAgentManager(Audit reporter, boolean simplify, boolean units) throws Exception{
 		super(reporter, simplify, units);
 	}
 	
 	protected void clearAll(){
-		agentToSource.clear();
+		agentVertices.clear();
 	}
 	
 	protected Process buildVertex(ProcessIdentifier process, AgentIdentifier agent, UnitIdentifier unit){
@@ -60,37 +61,30 @@ public class ProcessWithoutAgentManager extends ProcessManager{
 		return vertex;
 	}
 	
-	/**
-	 * Assumes that there exists a source value for the given agent instance
-	 * 
-	 * @param agent agent identifier
-	 * @return agent vertex
-	 */
-	private Agent buildAgentVertex(AgentIdentifier agent){
+	private Agent buildAgentVertex(AgentIdentifier agent, String source){
 		Agent vertex = new Agent();
 		vertex.addAnnotations(agent.getAnnotationsMap());
-		vertex.addAnnotation(OPMConstants.SOURCE, agentToSource.get(agent));
+		vertex.addAnnotation(OPMConstants.SOURCE, source);
 		return vertex;
 	}
 	
 	/**
-	 * If a key value pair already exists for the given agent then that agent is returned.
+	 * If the vertex already exists for the given agent then that vertex is returned.
 	 * 
-	 * If no such key value pair exists then that is added, put, and returned.
+	 * If no such vertex exists then that is built, added, put, and returned.
 	 * 
 	 * @param agent agent identifier
 	 * @param source procfs or syscall at the moment
-	 * @return agent vertex
+	 * @return agent vertex. Shared by all the processes with the agent so must not be modified.
 	 */
 	private Agent putAgentVertex(AgentIdentifier agent, String source){
-		if(agentToSource.get(agent) == null){
-			agentToSource.put(agent, source);
-			Agent agentVertex = buildAgentVertex(agent);
+		Agent agentVertex = agentVertices.get(agent);
+		if(agentVertex == null){
+			agentVertex = buildAgentVertex(agent, source);
+			agentVertices.put(agent, agentVertex);
 			getReporter().putVertex(agentVertex);
-			return agentVertex;
-		}else{
-			return buildAgentVertex(agent);
 		}
+		return agentVertex;
 	}
 	
 	protected Process putProcessVertex(String time, String eventId, ProcessIdentifier process, AgentIdentifier agent, 
@@ -411,6 +411,20 @@ void read_file_path()
 	}
 }
 
+// Returns TRUE if the name ends with the suffix
+bool ends_with(const char *name, const char *suffix)
+{
+		size_t name_length = strlen(name);
+		size_t suffix_length = strlen(suffix);
+		return name_length >= suffix_length && strcmp(name + name_length - suffix_length, suffix) == 0;
+}
+
+// Block indexes of recorded logs ('<log>.index', and '<log>.index.tmp' while being written) are not audit logs
+bool is_index_file(const char *name)
+{
+		return ends_with(name, ".index") || ends_with(name, ".index.tmp");
+}
+
 ino_t find_next_file(time_t time, ino_t cur_inode)
 {
 		DIR *d;
@@ -443,6 +457,7 @@ ino_t find_next_file(time_t time, ino_t cur_inode)
 						continue;
 				}
 				if(!S_ISREG(sbuf.st_mode)) continue; // if the file is not a regular file (e.g., dir)
+				if(is_index_file(dir->d_name)) continue; // block index written next to the log by SPADE
 				
 				if(sbuf.st_mtime > time)
 				{
@@ -580,7 +595,10 @@ int main(int argc, char *argv[]) {
 		if(socketRead) socket_read(programName);
 		else if(fileRead) read_file_path();
 		else if(dirRead) dir_read();
-		else read_log(stdin, "stdin");
+		else {
+				read_log(stdin, "stdin");
+				UBSI_buffer_flush();
+		}
 
 		return 0;
 }
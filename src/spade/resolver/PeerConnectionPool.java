@@ -0,0 +1,650 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2015 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.resolver;
+
+import spade.core.Kernel;
+import spade.core.Settings;
+
+import javax.net.SocketFactory;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * A pool of persistent connections to the query servers of peer SPADE instances.
+ *
+ * Connections are keyed by host and port, opened on demand and closed after being idle
+ * for the idle timeout, so consecutive queries to a peer pay for a single TLS handshake.
+ *
+ * A request is a single line and its response is a fixed number of serialized objects.
+ * Requests are pipelined i.e. written without waiting for the responses of the earlier
+ * requests on the same connection. A reader thread per connection matches the responses
+ * to the requests in order.
+ *
+ * The query servers answer a failed request with a single String whatever the request
+ * (e.g. 'Error' or 'Result Empty'). For a response of more than one object the first
+ * object must be a class name. Any other String is taken to be such a reply, which fails
+ * that request only. Any other object means that the stream is out of step so all the
+ * pending requests on the connection fail and the connection is dropped. A response that
+ * doesn't arrive within the read timeout does the same.
+ */
+public class PeerConnectionPool
+{
+    private static final Logger logger = Logger.getLogger(PeerConnectionPool.class.getName());
+
+    private static final int DEFAULT_CONNECTIONS_PER_PEER = 4;
+    private static final int DEFAULT_CONNECT_TIMEOUT = 5000; // 5 sec
+    private static final long DEFAULT_IDLE_TIMEOUT = 60000; // 1 min
+    private static final int DEFAULT_READ_TIMEOUT = 300000; // 5 min
+
+    // Fully qualified class name as sent by the query servers before a result
+    private static final Pattern CLASS_NAME = Pattern.compile("([\\p{L}_$][\\p{L}\\p{N}_$]*\\.)+[\\p{L}_$][\\p{L}\\p{N}_$]*");
+
+    // null means Kernel.sslSocketFactory which is only available once the kernel has started
+    private final SocketFactory socketFactory;
+    private final String closeCommand;
+    private final int connectionsPerPeer;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final long idleTimeout;
+
+    private final Map<String, Peer> peers = new ConcurrentHashMap<>();
+
+    /**
+     * @param socketFactory factory for the connections. Null for the TLS sockets of the kernel
+     * @param closeCommand request line which ends the session with the peer
+     * @param connectionsPerPeer connections to open to a peer before pipelining on the existing ones
+     * @param connectTimeout connect timeout in millis
+     * @param readTimeout timeout in millis for a response. 0 for no timeout
+     * @param idleTimeout millis after which an idle connection is closed
+     */
+    public PeerConnectionPool(SocketFactory socketFactory, String closeCommand, int connectionsPerPeer,
+            int connectTimeout, int readTimeout, long idleTimeout)
+    {
+        this.socketFactory = socketFactory;
+        this.closeCommand = closeCommand;
+        this.connectionsPerPeer = Math.max(1, connectionsPerPeer);
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Creates a pool of TLS connections configured by the following kernel settings:
+     * resolver_connections_per_peer, connection_timeout, resolver_read_timeout and
+     * resolver_connection_idle_timeout.
+     *
+     * @param closeCommand request line which ends the session with the peer
+     * @return the pool
+     */
+    public static PeerConnectionPool create(String closeCommand)
+    {
+        int connectionsPerPeer = getSetting("resolver_connections_per_peer", DEFAULT_CONNECTIONS_PER_PEER);
+        int connectTimeout = getSetting("connection_timeout", DEFAULT_CONNECT_TIMEOUT);
+        int readTimeout = getSetting("resolver_read_timeout", DEFAULT_READ_TIMEOUT);
+        long idleTimeout = getSetting("resolver_connection_idle_timeout", (int) DEFAULT_IDLE_TIMEOUT);
+        return new PeerConnectionPool(null, closeCommand, connectionsPerPeer, connectTimeout, readTimeout, idleTimeout);
+    }
+
+    private static int getSetting(String key, int defaultValue)
+    {
+        String value = Settings.getProperty(key);
+        if(value != null)
+        {
+            try
+            {
+                return Integer.parseInt(value.trim());
+            }
+            catch(NumberFormatException ex)
+            {
+                logger.log(Level.WARNING, "Invalid value for '" + key + "': " + value + ". Using default: " + defaultValue);
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Sends the request to the peer on a pooled connection.
+     *
+     * @param host host of the peer
+     * @param port query port of the peer
+     * @param request request line
+     * @param responseCount number of objects in the response
+     * @return future of the response objects. Fails with an IOException if the connection fails
+     * or the peer replies with a single String instead of the responseCount objects
+     */
+    public Future<Object[]> submit(String host, int port, String request, int responseCount)
+    {
+        return submitAll(host, port, Collections.singletonList(request), responseCount).get(0);
+    }
+
+    /**
+     * Sends all the requests back to back on the same connection without waiting for the responses.
+     *
+     * @param host host of the peer
+     * @param port query port of the peer
+     * @param requests request lines
+     * @param responseCount number of objects in the response of each request
+     * @return futures of the responses in the order of the requests
+     */
+    public List<Future<Object[]>> submitAll(String host, int port, List<String> requests, int responseCount)
+    {
+        Peer peer = getPeer(host, port);
+        List<PendingRequest> pendingRequests = new ArrayList<>();
+        for(String request : requests)
+        {
+            pendingRequests.add(new PendingRequest(request, responseCount));
+        }
+        try
+        {
+            peer.send(pendingRequests);
+        }
+        catch(IOException ex)
+        {
+            for(PendingRequest pendingRequest : pendingRequests)
+            {
+                peer.failRequest(pendingRequest, ex);
+            }
+        }
+        List<Future<Object[]>> futures = new ArrayList<>();
+        for(PendingRequest pendingRequest : pendingRequests)
+        {
+            futures.add(pendingRequest.future);
+        }
+        return futures;
+    }
+
+    /**
+     * Sends the request to the peer and waits for the response.
+     *
+     * @return the response objects
+     * @throws IOException if the request failed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public Object[] query(String host, int port, String request, int responseCount)
+            throws IOException, InterruptedException
+    {
+        return getResponse(submit(host, port, request, responseCount));
+    }
+
+    /**
+     * Waits for the response of a submitted request.
+     *
+     * @return the response objects
+     * @throws IOException if the request failed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public static Object[] getResponse(Future<Object[]> future) throws IOException, InterruptedException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch(ExecutionException ex)
+        {
+            Throwable cause = ex.getCause();
+            if(cause instanceof IOException)
+            {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * @return metrics of the peers contacted so far keyed by 'host:port'
+     */
+    public Map<String, PeerMetrics> getMetrics()
+    {
+        Map<String, PeerMetrics> metrics = new TreeMap<>();
+        for(Map.Entry<String, Peer> entry : peers.entrySet())
+        {
+            metrics.put(entry.getKey(), entry.getValue().metrics);
+        }
+        return metrics;
+    }
+
+    /**
+     * Closes all the connections. Pending requests fail.
+     */
+    public void shutdown()
+    {
+        for(Peer peer : peers.values())
+        {
+            peer.closeAll();
+        }
+        peers.clear();
+    }
+
+    private Peer getPeer(String host, int port)
+    {
+        String key = host + ":" + port;
+        Peer peer = peers.get(key);
+        if(peer == null)
+        {
+            Peer newPeer = new Peer(host, port);
+            peer = peers.putIfAbsent(key, newPeer);
+            if(peer == null)
+            {
+                peer = newPeer;
+            }
+        }
+        return peer;
+    }
+
+    /**
+     * Latency and error counts for a peer.
+     */
+    public static class PeerMetrics
+    {
+        private final AtomicLong connectionsOpened = new AtomicLong();
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong totalLatencyNanos = new AtomicLong();
+        private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+        private void recordResponse(long latencyNanos)
+        {
+            requests.incrementAndGet();
+            totalLatencyNanos.addAndGet(latencyNanos);
+            long max;
+            while(latencyNanos > (max = maxLatencyNanos.get()))
+            {
+                if(maxLatencyNanos.compareAndSet(max, latencyNanos))
+                {
+                    break;
+                }
+            }
+        }
+
+        public long getConnectionsOpened()
+        {
+            return connectionsOpened.get();
+        }
+
+        public long getRequests()
+        {
+            return requests.get();
+        }
+
+        public long getErrors()
+        {
+            return errors.get();
+        }
+
+        public double getAverageLatencyMillis()
+        {
+            long count = requests.get();
+            return count == 0 ? 0 : totalLatencyNanos.get() / (count * 1000000.0);
+        }
+
+        public double getMaxLatencyMillis()
+        {
+            return maxLatencyNanos.get() / 1000000.0;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("connections=%d, requests=%d, errors=%d, avgLatency=%.2f ms, maxLatency=%.2f ms",
+                    getConnectionsOpened(), getRequests(), getErrors(), getAverageLatencyMillis(), getMaxLatencyMillis());
+        }
+    }
+
+    private static class PendingRequest
+    {
+        private final String request;
+        private final int responseCount;
+        private final CompletableFuture<Object[]> future = new CompletableFuture<>();
+        private long sentNanos;
+
+        private PendingRequest(String request, int responseCount)
+        {
+            this.request = request;
+            this.responseCount = responseCount;
+        }
+    }
+
+    private class Peer
+    {
+        private final String host;
+        private final int port;
+        private final PeerMetrics metrics = new PeerMetrics();
+        // guarded by this
+        private final List<PeerConnection> connections = new ArrayList<>();
+        // connections being opened. guarded by this
+        private int connecting = 0;
+
+        private Peer(String host, int port)
+        {
+            this.host = host;
+            this.port = port;
+        }
+
+        /*
+         * Writes under the lock of the peer so that a connection cannot be retired between
+         * being picked and the requests being queued on it. A new connection is opened without
+         * the lock so that a slow connect or handshake doesn't hold up the other requests.
+         */
+        private void send(List<PendingRequest> pendingRequests) throws IOException
+        {
+            synchronized(this)
+            {
+                PeerConnection connection = pickConnection();
+                if(connection != null)
+                {
+                    write(connection, pendingRequests);
+                    return;
+                }
+                connecting++;
+            }
+            Socket socket = null;
+            try
+            {
+                socket = connect();
+            }
+            finally
+            {
+                if(socket == null)
+                {
+                    synchronized(this)
+                    {
+                        connecting--;
+                    }
+                }
+            }
+            synchronized(this)
+            {
+                connecting--;
+                PeerConnection connection;
+                try
+                {
+                    connection = new PeerConnection(this, socket);
+                }
+                catch(IOException ex)
+                {
+                    socket.close();
+                    throw ex;
+                }
+                metrics.connectionsOpened.incrementAndGet();
+                connections.add(connection);
+                Thread readerThread = new Thread(connection, "PeerConnection-" + host + ":" + port);
+                readerThread.setDaemon(true);
+                readerThread.start();
+                write(connection, pendingRequests);
+            }
+        }
+
+        // Called with the lock held
+        private void write(PeerConnection connection, List<PendingRequest> pendingRequests) throws IOException
+        {
+            try
+            {
+                connection.write(pendingRequests);
+            }
+            catch(IOException ex)
+            {
+                connection.fail(ex);
+                throw ex;
+            }
+        }
+
+        /*
+         * An idle connection if any, otherwise null if a new one is allowed, otherwise the least loaded one.
+         * Called with the lock held.
+         */
+        private PeerConnection pickConnection()
+        {
+            PeerConnection leastLoaded = null;
+            for(PeerConnection connection : connections)
+            {
+                if(leastLoaded == null || connection.getPendingCount() < leastLoaded.getPendingCount())
+                {
+                    leastLoaded = connection;
+                }
+            }
+            if(leastLoaded != null && (leastLoaded.getPendingCount() == 0
+                    || connections.size() + connecting >= connectionsPerPeer))
+            {
+                return leastLoaded;
+            }
+            return null;
+        }
+
+        private Socket connect() throws IOException
+        {
+            SocketFactory factory = socketFactory != null ? socketFactory : Kernel.sslSocketFactory;
+            if(factory == null)
+            {
+                throw new IOException("No socket factory to connect to " + host + ":" + port);
+            }
+            Socket socket = factory.createSocket();
+            try
+            {
+                socket.connect(new InetSocketAddress(host, port), connectTimeout);
+                socket.setSoTimeout(readTimeout);
+                socket.setTcpNoDelay(true);
+                return socket;
+            }
+            catch(IOException ex)
+            {
+                socket.close();
+                throw ex;
+            }
+        }
+
+        private void failRequest(PendingRequest pendingRequest, IOException ex)
+        {
+            if(pendingRequest.future.completeExceptionally(ex))
+            {
+                metrics.errors.incrementAndGet();
+            }
+        }
+
+        private synchronized boolean retireIfIdle(PeerConnection connection)
+        {
+            if(connection.getPendingCount() == 0)
+            {
+                connections.remove(connection);
+                return true;
+            }
+            return false;
+        }
+
+        private synchronized void remove(PeerConnection connection)
+        {
+            connections.remove(connection);
+        }
+
+        private synchronized void closeAll()
+        {
+            for(PeerConnection connection : new ArrayList<>(connections))
+            {
+                connection.fail(new IOException("Connection pool shut down"));
+            }
+            connections.clear();
+        }
+    }
+
+    private class PeerConnection implements Runnable
+    {
+        private final Peer peer;
+        private final Socket socket;
+        private final PrintWriter writer;
+        private final BlockingQueue<PendingRequest> pending = new LinkedBlockingQueue<>();
+        // requests written and not yet answered, including the one being read
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private volatile boolean closed = false;
+
+        private PeerConnection(Peer peer, Socket socket) throws IOException
+        {
+            this.peer = peer;
+            this.socket = socket;
+            this.writer = new PrintWriter(socket.getOutputStream(), false);
+        }
+
+        private int getPendingCount()
+        {
+            return outstanding.get();
+        }
+
+        // Called with the lock of the peer held
+        private void write(List<PendingRequest> pendingRequests) throws IOException
+        {
+            if(closed)
+            {
+                throw new IOException("Connection to " + peer.host + ":" + peer.port + " closed");
+            }
+            for(PendingRequest pendingRequest : pendingRequests)
+            {
+                pendingRequest.sentNanos = System.nanoTime();
+                outstanding.incrementAndGet();
+                pending.add(pendingRequest);
+                writer.println(pendingRequest.request);
+            }
+            writer.flush();
+            if(writer.checkError())
+            {
+                throw new IOException("Failed to write to " + peer.host + ":" + peer.port);
+            }
+        }
+
+        @Override
+        public void run()
+        {
+            PendingRequest pendingRequest = null;
+            try
+            {
+                // The server writes the stream header when the connection is accepted
+                ObjectInputStream reader = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
+                while(!closed)
+                {
+                    pendingRequest = pending.poll(idleTimeout, TimeUnit.MILLISECONDS);
+                    if(pendingRequest == null)
+                    {
+                        if(peer.retireIfIdle(this))
+                        {
+                            close();
+                            return;
+                        }
+                        continue;
+                    }
+                    Object[] response = new Object[pendingRequest.responseCount];
+                    response[0] = reader.readObject();
+                    if(response.length > 1 && !isClassName(response[0]))
+                    {
+                        if(!(response[0] instanceof String))
+                        {
+                            throw new IOException("Unexpected response from " + peer.host + ":" + peer.port
+                                    + " to '" + pendingRequest.request + "': " + response[0]);
+                        }
+                        // A failure reply which is a single object
+                        outstanding.decrementAndGet();
+                        peer.failRequest(pendingRequest, new IOException("Request '" + pendingRequest.request
+                                + "' to " + peer.host + ":" + peer.port + " failed: " + response[0]));
+                        pendingRequest = null;
+                        continue;
+                    }
+                    for(int i = 1; i < response.length; i++)
+                    {
+                        response[i] = reader.readObject();
+                    }
+                    peer.metrics.recordResponse(System.nanoTime() - pendingRequest.sentNanos);
+                    outstanding.decrementAndGet();
+                    pendingRequest.future.complete(response);
+                    pendingRequest = null;
+                }
+            }
+            catch(Exception ex)
+            {
+                if(!closed)
+                {
+                    logger.log(Level.WARNING, "Connection to " + peer.host + ":" + peer.port + " failed", ex);
+                }
+                IOException failure = ex instanceof IOException ? (IOException) ex : new IOException(ex);
+                if(pendingRequest != null)
+                {
+                    peer.failRequest(pendingRequest, failure);
+                }
+                fail(failure);
+            }
+        }
+
+        private boolean isClassName(Object object)
+        {
+            return object instanceof String && CLASS_NAME.matcher((String) object).matches();
+        }
+
+        // Fails all the pending requests and discards the connection
+        private void fail(IOException ex)
+        {
+            peer.remove(this);
+            closeSocket();
+            PendingRequest pendingRequest;
+            while((pendingRequest = pending.poll()) != null)
+            {
+                peer.failRequest(pendingRequest, ex);
+            }
+        }
+
+        private void close()
+        {
+            if(closeCommand != null && !closed)
+            {
+                writer.println(closeCommand);
+                writer.flush();
+            }
+            closeSocket();
+        }
+
+        private void closeSocket()
+        {
+            closed = true;
+            try
+            {
+                socket.close();
+            }
+            catch(IOException ex)
+            {
+                logger.log(Level.FINE, "Failed to close connection to " + peer.host + ":" + peer.port, ex);
+            }
+        }
+    }
+}
@@ -23,27 +23,17 @@ import spade.core.AbstractResolver;
 import spade.core.AbstractVertex;
 import spade.core.Edge;
 import spade.core.Graph;
-import spade.core.Kernel;
 import spade.core.Settings;
 import spade.reporter.audit.OPMConstants;
 
-import javax.net.ssl.SSLSocket;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.ObjectInputStream;
-import java.io.OutputStream;
-import java.io.PrintWriter;
-import java.net.InetSocketAddress;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
 
 import static spade.core.AbstractStorage.PRIMARY_KEY;
 
@@ -52,14 +42,26 @@ import static spade.core.AbstractStorage.PRIMARY_KEY;
  */
 public class Recursive extends AbstractResolver
 {
-    private static final int NTHREADS = 10;
     private static final Logger logger = Logger.getLogger(Recursive.class.getName());
+    private static PeerConnectionPool connectionPool;
 
     public Recursive(Graph partialGraph, String function, int depth, String direction)
     {
         super(partialGraph, function, depth, direction);
     }
 
+    /**
+     * Persistent connections to the query servers of remote hosts shared by all the queries.
+     */
+    static synchronized PeerConnectionPool getConnectionPool()
+    {
+        if(connectionPool == null)
+        {
+            connectionPool = PeerConnectionPool.create("exit");
+        }
+        return connectionPool;
+    }
+
     @Override
     public void run()
     {
@@ -68,8 +70,8 @@ public class Recursive extends AbstractResolver
         try
         {
             // Perform remote query on network vertices.
-            ExecutorService  executor = Executors.newFixedThreadPool(NTHREADS);
-            List<Future<Graph>> futures = new ArrayList<>();
+            CompletionService<Graph> completionService = new ExecutorCompletionService<>(getExecutor());
+            int submitted = 0;
             for (Map.Entry<AbstractVertex, Integer> currentEntry : currentNetworkMap.entrySet())
             {
                 AbstractVertex networkVertex = currentEntry.getKey();
@@ -79,25 +81,34 @@ public class Recursive extends AbstractResolver
 
                 // Execute remote query
                 Callable<Graph> worker = new ContactRemote(networkVertex, depth - currentDepth, direction);
-                Future<Graph> submit = executor.submit(worker);
-                futures.add(submit);
+                completionService.submit(worker);
+                submitted++;
             }
-            for(Future<Graph> future: futures)
+            // Merge the remote graphs in the order in which they arrive
+            for(int completed = 0; completed < submitted; completed++)
             {
                 try
                 {
-                    Graph remoteGraph = future.get();
+                    Graph remoteGraph = completionService.take().get();
                     if(remoteGraph != null)
                     {
                         finalGraph.add(remoteGraph);
+                        resultGraph.addAll(remoteGraph);
                     }
                 }
+                catch(InterruptedException ex)
+                {
+                    logger.log(Level.SEVERE, "Interrupted while waiting for remote results", ex);
+                    Thread.currentThread().interrupt();
+                    break;
+                }
                 catch(Exception ex)
                 {
                     logger.log(Level.SEVERE, "Error in fetching the result from callable future", ex);
                 }
             }
-            executor.shutdown();
+            resultGraph.commitIndex();
+            logger.log(Level.INFO, "Remote hosts: " + getConnectionPool().getMetrics());
         }
         catch(Exception ex)
         {
@@ -132,19 +143,12 @@ class ContactRemote implements Callable<Graph>
         Graph resultGraph = null;
         try
         {
-            // Establish a connection to the remote host
+            // Requests are sent on a pooled connection to the remote host. Each response is the
+            // return type followed by the result.
+            PeerConnectionPool connectionPool = Recursive.getConnectionPool();
             String host = networkVertex.getAnnotation(OPMConstants.ARTIFACT_REMOTE_ADDRESS);
             int port = Integer.parseInt(Settings.getProperty("commandline_query_port"));
             logger.log(Level.INFO, "network Vertex: " + networkVertex);
-            SSLSocket remoteSocket = (SSLSocket) Kernel.sslSocketFactory.createSocket();
-            int connectTimeOut = 5000; // 5 sec
-            remoteSocket.connect(new InetSocketAddress(host, port), connectTimeOut);
-//            SSLSocket remoteSocket = (SSLSocket) Kernel.sslSocketFactory.createSocket(host, port);
-
-            OutputStream outStream = remoteSocket.getOutputStream();
-            InputStream inStream = remoteSocket.getInputStream();
-            ObjectInputStream graphInputStream = new ObjectInputStream(inStream);
-            PrintWriter remoteSocketOut = new PrintWriter(outStream, true);
 
             String networkVertexQuery = "GetVertex(" +
                     OPMConstants.ARTIFACT_LOCAL_ADDRESS +
@@ -168,14 +172,14 @@ class ContactRemote implements Callable<Graph>
                     OPMConstants.SOURCE_AUDIT_NETFILTER +
                     ")";
 
-            remoteSocketOut.println(networkVertexQuery);
             logger.log(Level.INFO, "remote vertex query: " + networkVertexQuery);
-            String returnType = (String) graphInputStream.readObject();
+            Object[] response = connectionPool.query(host, port, networkVertexQuery, 2);
+            String returnType = (String) response[0];
             // Check whether the remote query server returned a vertex set in response
             Set<AbstractVertex> vertexSet;
             if(returnType.equals(Set.class.getName()))
             {
-                vertexSet = (Set<AbstractVertex>) graphInputStream.readObject();
+                vertexSet = (Set<AbstractVertex>) response[1];
             }
             else
             {
@@ -203,17 +207,17 @@ class ContactRemote implements Callable<Graph>
                     ", " +
                     direction +
                     ")";
-            remoteSocketOut.println(lineageQuery);
             logger.log(Level.INFO, "remote lineage query: " + lineageQuery);
+            response = connectionPool.query(host, port, lineageQuery, 2);
 
-            returnType = (String) graphInputStream.readObject();
+            returnType = (String) response[0];
             if(returnType.equals(Graph.class.getName()))
             {
                 AbstractEdge localToRemoteEdge = new Edge(networkVertex, targetNetworkVertex);
                 localToRemoteEdge.addAnnotation("type", "WasDerivedFrom");
                 AbstractEdge remoteToLocalEdge = new Edge(targetNetworkVertex, networkVertex);
                 remoteToLocalEdge.addAnnotation("type", "WasDerivedFrom");
-                resultGraph = (Graph) graphInputStream.readObject();
+                resultGraph = (Graph) response[1];
                 resultGraph.putVertex(networkVertex);
                 resultGraph.putEdge(localToRemoteEdge);
                 resultGraph.putEdge(remoteToLocalEdge);
@@ -222,15 +226,8 @@ class ContactRemote implements Callable<Graph>
             {
                 logger.log(Level.INFO, "Return type not Graph!");
             }
-
-            remoteSocketOut.println("exit");
-            remoteSocketOut.close();
-            graphInputStream.close();
-            inStream.close();
-            outStream.close();
-            remoteSocket.close();
         }
-        catch (NumberFormatException | IOException | ClassNotFoundException exception)
+        catch (NumberFormatException | IOException exception)
         {
             logger.log(Level.SEVERE, "Remote resolution unsuccessful!", exception);
             return null;
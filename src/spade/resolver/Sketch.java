@@ -36,8 +36,8 @@ import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
-import java.io.PrintWriter;
 import java.net.Socket;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -46,6 +46,9 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -61,6 +64,7 @@ import static spade.core.AbstractStorage.PRIMARY_KEY;
 public class Sketch extends AbstractResolver
 {
     private static final Logger logger = Logger.getLogger(Sketch.class.getName());
+    private static PeerConnectionPool connectionPool;
     Socket clientSocket;
 
     public Sketch(Graph graph, String func, int d, String dir, Socket s)
@@ -69,6 +73,18 @@ public class Sketch extends AbstractResolver
         clientSocket = s;
     }
 
+    /**
+     * Persistent connections to the remote query servers shared by all the path queries.
+     */
+    private static synchronized PeerConnectionPool getConnectionPool()
+    {
+        if (connectionPool == null)
+        {
+            connectionPool = PeerConnectionPool.create("close");
+        }
+        return connectionPool;
+    }
+
     @Override
     public void run()
     {
@@ -250,13 +266,14 @@ public class Sketch extends AbstractResolver
                 Graph path = getPaths.execute(pathParams, 100);
                 if (!path.edgeSet().isEmpty())
                 {
-                    result = Graph.union(result, path);
+                    result.addAll(path);
                     logger.log(Level.INFO, "pathFragment.j - added path to result fragment");
                 }
             }
         }
         logger.log(Level.INFO, "pathFragment.k - returning fragment");
 
+        result.commitIndex();
         return result;
     }
 
@@ -340,7 +357,7 @@ public class Sketch extends AbstractResolver
                 Graph path = getPaths.execute(pathParams, 100);
                 if (!path.edgeSet().isEmpty())
                 {
-                    result = Graph.union(result, path);
+                    result.addAll(path);
 
                     logger.log(Level.INFO, "endPathFragment - added path to result fragment");
                 }
@@ -395,7 +412,7 @@ public class Sketch extends AbstractResolver
                 Graph path = getPaths.execute(pathParams, 100);
                 if (!path.edgeSet().isEmpty())
                 {
-                    result = Graph.union(result, path);
+                    result.addAll(path);
 
                     logger.log(Level.INFO, "endPathFragment - added path to result fragment");
 
@@ -405,6 +422,7 @@ public class Sketch extends AbstractResolver
 
         logger.log(Level.INFO, "endPathFragment - returning {0} end fragment", end);
 
+        result.commitIndex();
         return result;
     }
 
@@ -453,8 +471,7 @@ public class Sketch extends AbstractResolver
                 // it the notify command.
                 String remoteHost = currentVertex.getAnnotation("destination host");
                 RebuildSketch currentElement = new RebuildSketch(currentLevel, maxLevel, remoteHost);
-                Thread rebuildThread = new Thread(currentElement);
-                rebuildThread.start();
+                getExecutor().execute(currentElement);
             }
             catch (Exception exception)
             {
@@ -502,8 +519,7 @@ public class Sketch extends AbstractResolver
                 // the propagateSketch command on that SPADE instance.
                 String remoteHost = currentVertex.getAnnotation("destination host");
                 PropagateSketch currentElement = new PropagateSketch(currentLevel, maxLevel, remoteHost);
-                Thread propagateThread = new Thread(currentElement);
-                propagateThread.start();
+                getExecutor().execute(currentElement);
             }
             catch (Exception exception)
             {
@@ -583,26 +599,27 @@ public class Sketch extends AbstractResolver
 
         try
         {
-            // Connect to destination host and get all the destination network vertices
+            // Queries are sent on pooled connections to the remote query servers. The path
+            // queries to a host are pipelined on a single connection.
             int port = Integer.parseInt(Settings.getProperty("remote_query_port"));
-            SSLSocket remoteSocket = (SSLSocket) Kernel.sslSocketFactory.createSocket(dstHost, port);
-
-            OutputStream outStream = remoteSocket.getOutputStream();
-            InputStream inStream = remoteSocket.getInputStream();
-            ObjectInputStream graphInputStream = new ObjectInputStream(inStream);
-            PrintWriter remoteSocketOut = new PrintWriter(outStream, true);
+            PeerConnectionPool connectionPool = getConnectionPool();
 
+            // Get all the destination network vertices
             String expression = "query Neo4j vertices network:true";
-            remoteSocketOut.println(expression);
-            // Check whether the remote query server returned a graph in response
-            Graph tempResultGraph = (Graph) graphInputStream.readObject();
+            Graph tempResultGraph = (Graph) connectionPool.query(dstHost, port, expression, 1)[0];
             // Add those network vertices to the destination set that have a path
             // to the specified vertex
-            for (AbstractVertex currentVertex : tempResultGraph.vertexSet())
+            List<AbstractVertex> candidateVertices = new ArrayList<>(tempResultGraph.vertexSet());
+            List<String> pathQueries = new ArrayList<>();
+            for (AbstractVertex currentVertex : candidateVertices)
+            {
+                pathQueries.add("query Neo4j paths " + currentVertex.getAnnotation(PRIMARY_KEY) + " " + parentVertexId + " 20");
+            }
+            List<Future<Object[]>> pathResponses = connectionPool.submitAll(dstHost, port, pathQueries, 1);
+            for (int i = 0; i < candidateVertices.size(); i++)
             {
-                expression = "query Neo4j paths " + currentVertex.getAnnotation(PRIMARY_KEY) + " " + parentVertexId + " 20";
-                remoteSocketOut.println(expression);
-                Graph currentGraph = (Graph) graphInputStream.readObject();
+                AbstractVertex currentVertex = candidateVertices.get(i);
+                Graph currentGraph = (Graph) PeerConnectionPool.getResponse(pathResponses.get(i))[0];
                 if (!currentGraph.edgeSet().isEmpty()) {
                     destinationNetworkVertices.add(currentVertex);
 
@@ -610,33 +627,21 @@ public class Sketch extends AbstractResolver
                 }
             }
 
-            remoteSocketOut.println("close");
-            remoteSocketOut.close();
-            graphInputStream.close();
-            inStream.close();
-            outStream.close();
-            remoteSocket.close();
-
             logger.log(Level.INFO, "sketchPaths.1 - received data from {0}", dstHost);
 
-            // Connect to the source host and get all source network vertices.
-            port = Integer.parseInt(Settings.getProperty("remote_query_port"));
-            remoteSocket = (SSLSocket) Kernel.sslSocketFactory.createSocket(srcHost, port);
-
-            inStream = remoteSocket.getInputStream();
-            outStream = remoteSocket.getOutputStream();
-            graphInputStream = new ObjectInputStream(inStream);
-            remoteSocketOut = new PrintWriter(outStream, true);
-
-            expression = "query Neo4j vertices network:true";
-            remoteSocketOut.println(expression);
-            // Check whether the remote query server returned a graph in response
-            tempResultGraph = (Graph) graphInputStream.readObject();
-            for (AbstractVertex currentVertex : tempResultGraph.vertexSet())
+            // Get all the source network vertices
+            tempResultGraph = (Graph) connectionPool.query(srcHost, port, expression, 1)[0];
+            candidateVertices = new ArrayList<>(tempResultGraph.vertexSet());
+            pathQueries = new ArrayList<>();
+            for (AbstractVertex currentVertex : candidateVertices)
             {
-                expression = "query Neo4j paths " + childVertexId + " " + currentVertex.getAnnotation(PRIMARY_KEY) + " 20";
-                remoteSocketOut.println(expression);
-                Graph currentGraph = (Graph) graphInputStream.readObject();
+                pathQueries.add("query Neo4j paths " + childVertexId + " " + currentVertex.getAnnotation(PRIMARY_KEY) + " 20");
+            }
+            pathResponses = connectionPool.submitAll(srcHost, port, pathQueries, 1);
+            for (int i = 0; i < candidateVertices.size(); i++)
+            {
+                AbstractVertex currentVertex = candidateVertices.get(i);
+                Graph currentGraph = (Graph) PeerConnectionPool.getResponse(pathResponses.get(i))[0];
                 if (!currentGraph.edgeSet().isEmpty())
                 {
                     sourceNetworkVertices.add(currentVertex);
@@ -644,14 +649,8 @@ public class Sketch extends AbstractResolver
                 }
             }
 
-            remoteSocketOut.println("close");
-            remoteSocketOut.close();
-            graphInputStream.close();
-            inStream.close();
-            outStream.close();
-            remoteSocket.close();
-
             logger.log(Level.INFO, "sketchPaths.2 - received data from {0}", srcHost);
+            logger.log(Level.INFO, "sketchPaths.2 - remote hosts: {0}", connectionPool.getMetrics());
 
             List<String> hostsToContact = new LinkedList<>();
 
@@ -686,20 +685,17 @@ public class Sketch extends AbstractResolver
 
             // Retrieving path ends
             // Retrieve source end
-            List<Graph> graphResults = new LinkedList<>();
-            List<Thread> pathThreads = new LinkedList<>();
+            List<Graph> graphResults = Collections.synchronizedList(new LinkedList<Graph>());
+            List<Future<?>> pathFutures = new LinkedList<>();
+            ExecutorService executor = getExecutor();
 
-            // Start threads to get all path fragments in a multi-threaded manner.
+            // Get all path fragments in a multi-threaded manner.
             PathFragment srcFragment = new PathFragment(srcHost, "pathFragment_src", graphResults);
-            Thread srcFragmentThread = new Thread(srcFragment);
-            pathThreads.add(srcFragmentThread);
-            srcFragmentThread.start();
+            pathFutures.add(executor.submit(srcFragment));
 
             // Retrieve destination end
             PathFragment dstFragment = new PathFragment(dstHost, "pathFragment_dst", graphResults);
-            Thread dstFragmentThread = new Thread(dstFragment);
-            pathThreads.add(dstFragmentThread);
-            dstFragmentThread.start();
+            pathFutures.add(executor.submit(dstFragment));
 
             logger.log(Level.INFO, "sketchPaths.3 - contacting {0} hosts", hostsToContact.size());
 
@@ -707,25 +703,31 @@ public class Sketch extends AbstractResolver
             {
                 // Connect to each host and send it B's sketch
                 PathFragment midFragment = new PathFragment(hostsToContact.get(i), "pathFragment_mid", graphResults);
-                Thread midFragmentThread = new Thread(midFragment);
-                pathThreads.add(midFragmentThread);
-                midFragmentThread.start();
+                pathFutures.add(executor.submit(midFragment));
             }
 
-            // Wait for all threads to finish getting the results.
-            for (int i = 0; i < pathThreads.size(); i++)
+            // Wait for all the fragments.
+            for (Future<?> pathFuture : pathFutures)
             {
-                pathThreads.get(i).join();
+                try
+                {
+                    pathFuture.get();
+                }
+                catch (ExecutionException exception)
+                {
+                    logger.log(Level.SEVERE, "Failed to get path fragment", exception);
+                }
             }
 
             // Union all the results to get the final resulting graph.
             for (int i = 0; i < graphResults.size(); i++)
             {
-                result = Graph.union(result, graphResults.get(i));
+                result.addAll(graphResults.get(i));
             }
+            result.commitIndex();
 
         }
-        catch (NumberFormatException | IOException | ClassNotFoundException | InterruptedException exception)
+        catch (NumberFormatException | IOException | InterruptedException exception)
         {
             logger.log(Level.SEVERE, null, exception);
         }
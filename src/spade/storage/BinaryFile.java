@@ -0,0 +1,168 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2015 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.storage;
+
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import spade.core.AbstractEdge;
+import spade.core.AbstractStorage;
+import spade.core.AbstractVertex;
+import spade.core.Graph;
+import spade.storage.binary.BinaryFrameWriter;
+import spade.utility.CommonFunctions;
+
+/**
+ * A storage implementation that writes vertices and edges to a file as binary frames with
+ * dictionary encoded annotations. The file can be read back with the reporter spade.reporter.BinaryFile.
+ *
+ * Arguments (defaults in the config file): output=[path] append=[true|false] bufferSize=[bytes]
+ * syncEveryFrames=[count] syncIntervalMillis=[millis] maxDictionarySize=[count]
+ */
+public class BinaryFile extends AbstractStorage
+{
+
+    private static final Logger logger = Logger.getLogger(BinaryFile.class.getName());
+
+    private BinaryFrameWriter writer;
+    private String filePath;
+
+    @Override
+    public boolean initialize(String arguments)
+    {
+        try
+        {
+            Map<String, String> configMap = CommonFunctions.getGlobalsMapFromConfigAndArguments(BinaryFile.class, arguments);
+            filePath = configMap.get("output");
+            if(CommonFunctions.isNullOrEmpty(filePath))
+            {
+                logger.log(Level.SEVERE, "NULL/Empty 'output' argument");
+                return false;
+            }
+            boolean append = Boolean.parseBoolean(configMap.get("append"));
+            Long bufferSize = CommonFunctions.parseLong(configMap.get("bufferSize"), 1L << 20);
+            Long syncEveryFrames = CommonFunctions.parseLong(configMap.get("syncEveryFrames"), 0L);
+            Long syncIntervalMillis = CommonFunctions.parseLong(configMap.get("syncIntervalMillis"), 0L);
+            Long maxDictionarySize = CommonFunctions.parseLong(configMap.get("maxDictionarySize"), 1L << 20);
+            if(bufferSize < 1 || bufferSize > Integer.MAX_VALUE)
+            {
+                logger.log(Level.SEVERE, "Invalid 'bufferSize' argument: " + bufferSize);
+                return false;
+            }
+            if(maxDictionarySize < 0 || maxDictionarySize > Integer.MAX_VALUE)
+            {
+                logger.log(Level.SEVERE, "Invalid 'maxDictionarySize' argument: " + maxDictionarySize);
+                return false;
+            }
+            writer = new BinaryFrameWriter(filePath.trim(), append, bufferSize.intValue(), syncEveryFrames,
+                    syncIntervalMillis, maxDictionarySize.intValue());
+            logger.log(Level.INFO, "Writing to '" + filePath + "' (append=" + append + ", bufferSize=" + bufferSize
+                    + ", syncEveryFrames=" + syncEveryFrames + ", syncIntervalMillis=" + syncIntervalMillis + ")");
+            return true;
+        }
+        catch(Exception exception)
+        {
+            logger.log(Level.SEVERE, null, exception);
+            return false;
+        }
+    }
+
+    @Override
+    public boolean putVertex(AbstractVertex incomingVertex)
+    {
+        try
+        {
+            writer.writeVertex(incomingVertex);
+            return true;
+        }
+        catch(Exception exception)
+        {
+            logger.log(Level.SEVERE, null, exception);
+            return false;
+        }
+    }
+
+    @Override
+    public boolean putEdge(AbstractEdge incomingEdge)
+    {
+        try
+        {
+            writer.writeEdge(incomingEdge);
+            return true;
+        }
+        catch(Exception exception)
+        {
+            logger.log(Level.SEVERE, null, exception);
+            return false;
+        }
+    }
+
+    @Override
+    public Object executeQuery(String query)
+    {
+        return null;
+    }
+
+    @Override
+    public boolean shutdown()
+    {
+        try
+        {
+            if(writer != null)
+            {
+                writer.close();
+                logger.log(Level.INFO, "Wrote " + writer.getFramesWritten() + " frames to '" + filePath + "'");
+            }
+            return super.shutdown();
+        }
+        catch(Exception exception)
+        {
+            logger.log(Level.SEVERE, null, exception);
+            return false;
+        }
+    }
+
+    @Deprecated
+    @Override
+    public AbstractEdge getEdge(String childVertexHash, String parentVertexHash)
+    {
+        return null;
+    }
+
+    @Deprecated
+    @Override
+    public AbstractVertex getVertex(String vertexHash)
+    {
+        return null;
+    }
+
+    @Override
+    public Graph getChildren(String parentHash)
+    {
+        return null;
+    }
+
+    @Override
+    public Graph getParents(String childVertexHash)
+    {
+        return null;
+    }
+}
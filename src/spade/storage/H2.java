@@ -137,7 +137,7 @@ public class H2 extends SQL
             }
             dbStatement.close();
 
-            return true;
+            return initializeBulkWriter(CommonFunctions.parseKeyValPairs(arguments), "\"", "MERGE INTO ", " KEY(\"" + PRIMARY_KEY + "\")", false);
 
         }
         catch (Exception ex)
@@ -158,6 +158,10 @@ public class H2 extends SQL
     {
         try
         {
+            if(bulkWriter != null)
+            {
+                bulkWriter.close();
+            }
             dbConnection.commit();
             dbConnection.close();
             return true;
@@ -247,6 +251,15 @@ public class H2 extends SQL
     @Override
     public boolean putEdge(AbstractEdge incomingEdge)
     {
+        if(bulkWriter != null)
+        {
+            bulkWriter.putEdge(incomingEdge);
+            if(BUILD_SCAFFOLD)
+            {
+                insertScaffoldEntry(incomingEdge);
+            }
+            return true;
+        }
         String edgeHash = incomingEdge.bigHashCode();
         if(Cache.isPresent(edgeHash))
             return true;
@@ -357,6 +370,11 @@ public class H2 extends SQL
     @Override
     public boolean putVertex(AbstractVertex incomingVertex)
     {
+        if(bulkWriter != null)
+        {
+            bulkWriter.putVertex(incomingVertex);
+            return true;
+        }
         String vertexHash = incomingVertex.bigHashCode();
         if(Cache.isPresent(vertexHash))
             return true;
@@ -436,7 +454,19 @@ public class H2 extends SQL
         ResultSet result = null;
         try
         {
-            dbConnection.commit();
+            if(bulkWriter != null)
+            {
+                // Not while the writer is in the middle of a batch on the same connection
+                synchronized(bulkWriter)
+                {
+                    bulkWriter.flush();
+                    dbConnection.commit();
+                }
+            }
+            else
+            {
+                dbConnection.commit();
+            }
             Statement queryStatement = dbConnection.createStatement();
             if(CURSOR_FETCH_SIZE > 0)
                 queryStatement.setFetchSize(CURSOR_FETCH_SIZE);
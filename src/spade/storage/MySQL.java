@@ -138,7 +138,7 @@ public class MySQL extends SQL
             }
             dbStatement.close();
 
-            return true;
+            return initializeBulkWriter(CommonFunctions.parseKeyValPairs(arguments), "`", "INSERT IGNORE INTO ", "", true);
 
         }
         catch (Exception ex)
@@ -159,6 +159,10 @@ public class MySQL extends SQL
     {
         try
         {
+            if(bulkWriter != null)
+            {
+                bulkWriter.close();
+            }
             dbConnection.commit();
             dbConnection.close();
             return true;
@@ -248,6 +252,15 @@ public class MySQL extends SQL
     @Override
     public boolean putEdge(AbstractEdge incomingEdge)
     {
+        if(bulkWriter != null)
+        {
+            bulkWriter.putEdge(incomingEdge);
+            if(BUILD_SCAFFOLD)
+            {
+                insertScaffoldEntry(incomingEdge);
+            }
+            return true;
+        }
         String edgeHash = incomingEdge.bigHashCode();
         if(Cache.isPresent(edgeHash))
             return true;
@@ -352,6 +365,11 @@ public class MySQL extends SQL
     @Override
     public boolean putVertex(AbstractVertex incomingVertex)
     {
+        if(bulkWriter != null)
+        {
+            bulkWriter.putVertex(incomingVertex);
+            return true;
+        }
         String vertexHash = incomingVertex.bigHashCode();
         if(Cache.isPresent(vertexHash))
             return true;
@@ -431,7 +449,19 @@ public class MySQL extends SQL
         ResultSet result = null;
         try
         {
-            dbConnection.commit();
+            if(bulkWriter != null)
+            {
+                // Not while the writer is in the middle of a batch on the same connection
+                synchronized(bulkWriter)
+                {
+                    bulkWriter.flush();
+                    dbConnection.commit();
+                }
+            }
+            else
+            {
+                dbConnection.commit();
+            }
             Statement queryStatement = dbConnection.createStatement();
             if(CURSOR_FETCH_SIZE > 0)
                 queryStatement.setFetchSize(CURSOR_FETCH_SIZE);
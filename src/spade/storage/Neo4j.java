@@ -33,6 +33,7 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -60,6 +61,7 @@ import org.neo4j.graphdb.index.Index;
 import org.neo4j.graphdb.index.IndexHits;
 import org.neo4j.graphdb.index.IndexManager;
 import org.neo4j.graphdb.index.RelationshipIndex;
+import org.neo4j.graphdb.schema.IndexDefinition;
 import org.neo4j.helpers.collection.Iterators;
 import org.neo4j.graphdb.PathExpanders;
 
@@ -104,6 +106,8 @@ public class Neo4j extends AbstractStorage
     private String database;
 
     public final String HASHCODE_LABEL = "hashCode";
+    // Time to wait for the schema index on the hash of vertices to be built on startup
+    private static final long HASH_INDEX_ONLINE_TIMEOUT_SECONDS = 600;
     private double falsePositiveProbability = 0.0001;
 
     // Performance tuning note: Set this to higher value (up to Integer.MAX_VALUE) to reduce db hit rate.
@@ -195,6 +199,8 @@ public class Neo4j extends AbstractStorage
             }
             graphDb = graphDbBuilder.newGraphDatabase();
 
+            createHashIndex();
+
             try ( Transaction tx = graphDb.beginTx() )
             {
                 index = graphDb.index();
@@ -224,6 +230,56 @@ public class Neo4j extends AbstractStorage
         }
     }
 
+    /**
+     * Creates the schema index on the hash of vertices if it does not exist and waits for it to be online.
+     * Vertices are looked up by hash with the schema index instead of the legacy (Lucene) index.
+     */
+    private void createHashIndex()
+    {
+        boolean indexExists = false;
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            for (IndexDefinition indexDefinition : graphDb.schema().getIndexes(NodeTypes.VERTEX))
+            {
+                for (String propertyKey : indexDefinition.getPropertyKeys())
+                {
+                    if (propertyKey.equals(PRIMARY_KEY))
+                    {
+                        indexExists = true;
+                    }
+                }
+            }
+            if (!indexExists)
+            {
+                graphDb.schema().indexFor(NodeTypes.VERTEX).on(PRIMARY_KEY).create();
+                logger.log(Level.INFO, "Created schema index on '" + PRIMARY_KEY + "' of vertices");
+            }
+            tx.success();
+        }
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            graphDb.schema().awaitIndexesOnline(HASH_INDEX_ONLINE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            tx.success();
+        }
+    }
+
+    /**
+     * @param hash hash of the vertex
+     * @return node of the vertex or NULL. Must be called in a transaction.
+     */
+    public Node findVertexNode(String hash)
+    {
+        return graphDb.findNode(NodeTypes.VERTEX, PRIMARY_KEY, hash);
+    }
+
+    /**
+     * @return the embedded database. Used by queries that traverse the graph directly.
+     */
+    public GraphDatabaseService getGraphDatabase()
+    {
+        return graphDb;
+    }
+
     private BloomFilter loadBloomFilter(String fileName) {
 
     	try {
@@ -475,7 +531,7 @@ public class Neo4j extends AbstractStorage
 
           // L3: confirming from db if we have bloom filter false positive after FIFO cache miss
           Node newVertex;
-          newVertex = vertexIndex.get(HASHCODE_LABEL, bigHashCode).getSingle();
+          newVertex = findVertexNode(bigHashCode);
         	if (newVertex != null) {
              putInLocalCache(newVertex, bigHashCode);
              foundInDbCount++;
@@ -520,7 +576,7 @@ public class Neo4j extends AbstractStorage
         if (edgeBloomFilter.contains(bigHashCode))
         {
             Relationship edge;
-            edge = edgeIndex.get(HASHCODE_LABEL, bigHashCode).getSingle();
+            edge = edgeIndex.get(PRIMARY_KEY, bigHashCode).getSingle();
             if (edge != null)
             {
                 // if (LOG_PERFORMANCE_STATS == true) {
@@ -545,7 +601,7 @@ public class Neo4j extends AbstractStorage
             if (childNode == null)
             {
                 dbHitCountForEdge++;
-                childNode = vertexIndex.get(HASHCODE_LABEL, childVertexHash).getSingle();
+                childNode = findVertexNode(childVertexHash);
                 if (childNode == null)
                 {
                     // insert vertex if not in db
@@ -558,7 +614,7 @@ public class Neo4j extends AbstractStorage
             if (parentNode == null)
             {
                 dbHitCountForEdge++;
-                parentNode = vertexIndex.get(HASHCODE_LABEL, parentVertexHash).getSingle();
+                parentNode = findVertexNode(parentVertexHash);
                 if (parentNode == null)
                 {
                     // insert vertex if not in db
@@ -624,7 +680,17 @@ public class Neo4j extends AbstractStorage
 
     public static AbstractEdge convertRelationshipToEdge(Relationship relationship)
     {
-        AbstractEdge resultEdge = new Edge(convertNodeToVertex(relationship.getStartNode()), convertNodeToVertex(relationship.getEndNode()));
+        return convertRelationshipToEdge(relationship, convertNodeToVertex(relationship.getStartNode()),
+                convertNodeToVertex(relationship.getEndNode()));
+    }
+
+    /**
+     * Converts the relationship to an edge between the given (already converted) child and parent vertices.
+     */
+    public static AbstractEdge convertRelationshipToEdge(Relationship relationship, AbstractVertex childVertex,
+                                                         AbstractVertex parentVertex)
+    {
+        AbstractEdge resultEdge = new Edge(childVertex, parentVertex);
         for (String key : relationship.getPropertyKeys())
         {
             if(key.equals(PRIMARY_KEY) ||
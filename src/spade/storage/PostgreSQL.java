@@ -27,6 +27,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
@@ -35,6 +36,7 @@ import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
@@ -53,6 +55,50 @@ import spade.utility.CommonFunctions;
  */
 public class PostgreSQL extends SQL
 {
+    /**
+     * How annotations are stored. Set with 'tableLayout' in the config.
+     */
+    public enum TableLayout
+    {
+        /** One column per annotation key (the default) */
+        COLUMNS("columns", VERTEX_TABLE, EDGE_TABLE, null, null),
+        /** Annotations as (element hash, key id, value) rows */
+        KEY_VALUE("keyValue", "kv_vertex", "kv_edge", "kv_vertex_annotation", "kv_edge_annotation"),
+        /** Annotations in a JSONB column */
+        JSONB("jsonb", "json_vertex", "json_edge", null, null);
+
+        public final String configName;
+        public final String vertexTable;
+        public final String edgeTable;
+        public final String vertexAnnotationTable;
+        public final String edgeAnnotationTable;
+
+        TableLayout(String configName, String vertexTable, String edgeTable, String vertexAnnotationTable,
+                    String edgeAnnotationTable)
+        {
+            this.configName = configName;
+            this.vertexTable = vertexTable;
+            this.edgeTable = edgeTable;
+            this.vertexAnnotationTable = vertexAnnotationTable;
+            this.edgeAnnotationTable = edgeAnnotationTable;
+        }
+
+        public static TableLayout fromConfigName(String configName)
+        {
+            for(TableLayout layout : values())
+            {
+                if(layout.configName.equalsIgnoreCase(configName))
+                {
+                    return layout;
+                }
+            }
+            return null;
+        }
+    }
+
+    public static final String ANNOTATION_KEY_TABLE = "annotation_key";
+    public static final String ANNOTATIONS_COLUMN = "annotations";
+
     // Performance tuning note: Set this to higher value (e.g. 100000) to commit less often to db - This increases ingestion rate.
     // Downside: Any external (non atomic) quering to database won't report non-committed data.
     private int GLOBAL_TX_SIZE = 1000;
@@ -70,6 +116,19 @@ public class PostgreSQL extends SQL
     private List<Map<String, String>> vertexList = new ArrayList<>();
     private ArrayList<String> edgeColumnNames = new ArrayList<>();
     private ArrayList<String> vertexColumnNames = new ArrayList<>();
+    private TableLayout tableLayout = TableLayout.COLUMNS;
+    // Non-NULL if the table layout is not COLUMNS
+    private PostgreSQLAnnotationTables annotationTables;
+    // Guards the ingest transaction of dbConnection which queries flush and commit too
+    private final Object ingestLock = new Object();
+    // Read-only connection for cursor reads so that the commits of the ingest don't close the cursors
+    private Connection readConnection;
+    // Statements of the cursors open on readConnection. Guarded by readConnectionLock
+    private final List<Statement> cursorStatements = new ArrayList<>();
+    private final Object readConnectionLock = new Object();
+    private String databaseURL;
+    private String databaseUsername;
+    private String databasePassword;
 
 
     public PostgreSQL()
@@ -94,6 +153,14 @@ public class PostgreSQL extends SQL
         reportingEnabled = Boolean.parseBoolean(databaseConfigs.getProperty("reportingEnabled",
                 String.valueOf(reportingEnabled)));
 	GLOBAL_TX_SIZE = Integer.parseInt(databaseConfigs.getProperty("globalTxSize", String.valueOf(GLOBAL_TX_SIZE)));
+        String tableLayoutValue = databaseConfigs.getProperty("tableLayout", tableLayout.configName).trim();
+        tableLayout = TableLayout.fromConfigName(tableLayoutValue);
+        if(tableLayout == null)
+        {
+            logger.log(Level.WARNING, "Invalid table layout '" + tableLayoutValue + "'. Using '"
+                    + TableLayout.COLUMNS.configName + "'");
+            tableLayout = TableLayout.COLUMNS;
+        }
         if(reportingEnabled)
         {
             reportingInterval = 120;
@@ -130,12 +197,12 @@ public class PostgreSQL extends SQL
             Map<String, String> argsMap = CommonFunctions.parseKeyValPairs(arguments);
             String database = (argsMap.get("database") != null) ? argsMap.get("database") :
                     databaseConfigs.getProperty("database");
-            String databaseUsername = (argsMap.get("databaseUsername") != null) ? argsMap.get("databaseUsername") :
+            databaseUsername = (argsMap.get("databaseUsername") != null) ? argsMap.get("databaseUsername") :
                     databaseConfigs.getProperty("databaseUsername");
-            String databasePassword = (argsMap.get("databasePassword") != null) ? argsMap.get("databasePassword") :
+            databasePassword = (argsMap.get("databasePassword") != null) ? argsMap.get("databasePassword") :
                     databaseConfigs.getProperty("databasePassword");
 
-            String databaseURL = databaseConfigs.getProperty("databaseURLPrefix") + database;
+            databaseURL = databaseConfigs.getProperty("databaseURLPrefix") + database;
 
             Class.forName(databaseConfigs.getProperty("databaseDriver")).newInstance();
             dbConnection = DriverManager.getConnection(databaseURL, databaseUsername, databasePassword);
@@ -147,6 +214,24 @@ public class PostgreSQL extends SQL
             return false;
         }
 
+        if(tableLayout != TableLayout.COLUMNS)
+        {
+            try
+            {
+                annotationTables = new PostgreSQLAnnotationTables(tableLayout, dbConnection, logger, setPrimaryKey,
+                        bulkUpload, GLOBAL_TX_SIZE);
+                annotationTables.initialize();
+                globalTxCheckin(true);
+                logger.log(Level.INFO, "Table layout: " + tableLayout.configName);
+                return true;
+            }
+            catch(Exception ex)
+            {
+                logger.log(Level.SEVERE, "Unable to initialize storage successfully!", ex);
+                return false;
+            }
+        }
+
         try
         {
             Statement dbStatement = dbConnection.createStatement();
@@ -222,22 +307,25 @@ public class PostgreSQL extends SQL
 
     private void globalTxCheckin(boolean forcedFlush)
     {
-        if ((globalTxCount % GLOBAL_TX_SIZE == 0) || (forcedFlush))
+        synchronized(ingestLock)
         {
-            try
+            if ((globalTxCount % GLOBAL_TX_SIZE == 0) || (forcedFlush))
             {
-                dbConnection.commit();
-                globalTxCount = 0;
+                try
+                {
+                    dbConnection.commit();
+                    globalTxCount = 0;
+                }
+                catch(SQLException ex)
+                {
+                    logger.log(Level.SEVERE, null, ex);
+                }
             }
-            catch(SQLException ex)
+            else
             {
-                logger.log(Level.SEVERE, null, ex);
+                globalTxCount++;
             }
         }
-        else
-        {
-            globalTxCount++;
-        }
     }
 
     /**
@@ -251,13 +339,29 @@ public class PostgreSQL extends SQL
     {
         try
         {
-            dbConnection.commit();
-            if(bulkUpload)
+            synchronized(readConnectionLock)
             {
-                flushBulkEdges(true);
-                flushBulkVertices(true);
+                if(readConnection != null)
+                {
+                    readConnection.close();
+                    readConnection = null;
+                }
+                cursorStatements.clear();
+            }
+            synchronized(ingestLock)
+            {
+                if(annotationTables != null)
+                {
+                    annotationTables.flush();
+                }
+                dbConnection.commit();
+                if(bulkUpload && annotationTables == null)
+                {
+                    flushBulkEdges(true);
+                    flushBulkVertices(true);
+                }
+                dbConnection.close();
             }
-            dbConnection.close();
         }
         catch (Exception ex)
         {
@@ -313,6 +417,10 @@ public class PostgreSQL extends SQL
                 logger.log(Level.WARNING, "Duplicate column found in table. Error in rollback!", e);
                 return false;
             }
+            if(annotationTables != null)
+            {
+                annotationTables.rolledBack();
+            }
             if (ex.getSQLState().equals(DUPLICATE_COLUMN_ERROR_CODE))
             {
                 return true;
@@ -349,6 +457,28 @@ public class PostgreSQL extends SQL
     @Override
     public boolean putEdge(AbstractEdge incomingEdge)
     {
+        if(annotationTables != null)
+        {
+            try
+            {
+                boolean batchFull;
+                synchronized(ingestLock)
+                {
+                    batchFull = annotationTables.putEdge(incomingEdge);
+                }
+                globalTxCheckin(batchFull);
+                if(BUILD_SCAFFOLD)
+                {
+                    insertScaffoldEntry(incomingEdge);
+                }
+                return true;
+            }
+            catch(Exception ex)
+            {
+                logger.log(Level.SEVERE, null, ex);
+                return false;
+            }
+        }
         if(bulkUpload)
         {
             processBulkEdges(incomingEdge);
@@ -642,6 +772,24 @@ public class PostgreSQL extends SQL
     @Override
     public boolean putVertex(AbstractVertex incomingVertex)
     {
+        if(annotationTables != null)
+        {
+            try
+            {
+                boolean batchFull;
+                synchronized(ingestLock)
+                {
+                    batchFull = annotationTables.putVertex(incomingVertex);
+                }
+                globalTxCheckin(batchFull);
+                return true;
+            }
+            catch(Exception ex)
+            {
+                logger.log(Level.SEVERE, null, ex);
+                return false;
+            }
+        }
         if(bulkUpload)
         {
             processBulkVertices(incomingVertex);
@@ -727,17 +875,50 @@ public class PostgreSQL extends SQL
         return true;
     }
 
+    public TableLayout getTableLayout()
+    {
+        return tableLayout;
+    }
+
     @Override
     public ResultSet executeQuery(String query)
+    {
+        return executeQuery(query, CURSOR_FETCH_SIZE);
+    }
+
+    /**
+     * Runs the query. With a positive fetch size the result is read through a server-side cursor,
+     * fetchSize rows at a time, instead of all at once. Cursors are opened on a read-only connection
+     * of their own because the commits of the ingest transaction would close them partway through.
+     * The result must be closed with its statement.
+     *
+     * @param query query to run
+     * @param fetchSize rows to fetch at a time. 0 to fetch all.
+     * @return result or NULL on error
+     */
+    public ResultSet executeQuery(String query, int fetchSize)
     {
         ResultSet result = null;
         try
         {
-            globalTxCheckin(true);
-            Statement queryStatement = dbConnection.createStatement();
-            if(CURSOR_FETCH_SIZE > 0)
-                queryStatement.setFetchSize(CURSOR_FETCH_SIZE);
-            result = queryStatement.executeQuery(query);
+            synchronized(ingestLock)
+            {
+                if(annotationTables != null)
+                {
+                    // Buffered rows must be visible to the query
+                    annotationTables.flush();
+                }
+                globalTxCheckin(true);
+            }
+            if(fetchSize > 0)
+            {
+                result = executeCursorQuery(query, fetchSize);
+            }
+            else
+            {
+                Statement queryStatement = dbConnection.createStatement();
+                result = queryStatement.executeQuery(query);
+            }
         }
         catch (SQLException ex)
         {
@@ -746,4 +927,44 @@ public class PostgreSQL extends SQL
 
         return result;
     }
+
+    private ResultSet executeCursorQuery(String query, int fetchSize) throws SQLException
+    {
+        Statement queryStatement;
+        synchronized(readConnectionLock)
+        {
+            if(readConnection == null)
+            {
+                readConnection = DriverManager.getConnection(databaseURL, databaseUsername, databasePassword);
+                readConnection.setAutoCommit(false);
+                readConnection.setReadOnly(true);
+            }
+            Iterator<Statement> iterator = cursorStatements.iterator();
+            while(iterator.hasNext())
+            {
+                if(iterator.next().isClosed())
+                {
+                    iterator.remove();
+                }
+            }
+            if(cursorStatements.isEmpty())
+            {
+                // End the transaction of the earlier cursors so that it doesn't hold on to old row versions
+                readConnection.commit();
+            }
+            queryStatement = readConnection.createStatement();
+            queryStatement.closeOnCompletion();
+            cursorStatements.add(queryStatement);
+        }
+        queryStatement.setFetchSize(fetchSize);
+        try
+        {
+            return queryStatement.executeQuery(query);
+        }
+        catch(SQLException ex)
+        {
+            queryStatement.close();
+            throw ex;
+        }
+    }
 }
@@ -0,0 +1,540 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2016 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.storage;
+
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.json.JSONObject;
+import org.postgresql.copy.CopyManager;
+import org.postgresql.core.BaseConnection;
+
+import spade.core.AbstractEdge;
+import spade.core.AbstractStorage;
+import spade.core.AbstractVertex;
+import spade.storage.PostgreSQL.TableLayout;
+
+/**
+ * Writes vertices and edges for the PostgreSQL table layouts other than one column per annotation.
+ *
+ * keyValue: the vertex and edge tables only have the hashes (the edge table also has the endpoint hashes).
+ * Annotations are rows of (element hash, key id, value) in a separate table for vertices and for edges.
+ * Annotation keys are interned in the annotation_key table so that new keys never change the schema.
+ *
+ * jsonb: the vertex and edge tables have the hashes and one JSONB column with all the annotations.
+ *
+ * The hash columns are indexed for lookups, the endpoint hashes of edges are indexed in both orders for
+ * lineage joins, and annotations are indexed for selection by key and value (by md5 of the value for
+ * keyValue so that long values can be indexed, and with GIN for jsonb).
+ *
+ * With bulk upload rows are buffered and sent with COPY (streamed from the client) every batchSize
+ * elements. Otherwise every element is inserted with prepared statements. If hash is the primary key then
+ * COPY goes to temporary staging tables which are moved with INSERT ... ON CONFLICT DO NOTHING so that
+ * elements already in an earlier batch are skipped (with their annotation rows).
+ */
+class PostgreSQLAnnotationTables
+{
+    private final TableLayout layout;
+    private final Connection connection;
+    private final Logger logger;
+    private final boolean primaryKey;
+    private final boolean bulk;
+    private final int batchSize;
+
+    // Annotation key to its id in the annotation_key table
+    private final Map<String, Integer> keyIds = new HashMap<>();
+    // Rows in COPY text format
+    private final StringBuilder vertexRows = new StringBuilder();
+    private final StringBuilder edgeRows = new StringBuilder();
+    private final StringBuilder vertexAnnotationRows = new StringBuilder();
+    private final StringBuilder edgeAnnotationRows = new StringBuilder();
+    private final Set<String> bufferedHashes = new HashSet<>();
+    private int bufferedElements;
+
+    /**
+     * @param layout keyValue or jsonb
+     * @param connection connection with auto-commit disabled
+     * @param logger logger of the storage
+     * @param primaryKey true if hash is the primary key of the vertex and edge tables
+     * @param bulk true to buffer rows and send them with COPY
+     * @param batchSize number of elements to buffer with bulk
+     */
+    PostgreSQLAnnotationTables(TableLayout layout, Connection connection, Logger logger, boolean primaryKey,
+                               boolean bulk, int batchSize)
+    {
+        this.layout = layout;
+        this.connection = connection;
+        this.logger = logger;
+        this.primaryKey = primaryKey;
+        this.bulk = bulk;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Creates the tables and indexes if not already present and loads the annotation keys
+     *
+     * @throws SQLException if a statement fails
+     */
+    void initialize() throws SQLException
+    {
+        String hashColumn = "\"" + AbstractStorage.PRIMARY_KEY + "\" UUID NOT NULL" + (primaryKey ? " PRIMARY KEY" : "");
+        String endpointColumns = "\"" + AbstractStorage.CHILD_VERTEX_KEY + "\" UUID NOT NULL, "
+                + "\"" + AbstractStorage.PARENT_VERTEX_KEY + "\" UUID NOT NULL";
+        Statement statement = connection.createStatement();
+        try
+        {
+            if(layout == TableLayout.KEY_VALUE)
+            {
+                statement.execute("CREATE TABLE IF NOT EXISTS " + PostgreSQL.ANNOTATION_KEY_TABLE
+                        + " (id SERIAL PRIMARY KEY, name VARCHAR NOT NULL UNIQUE)");
+                statement.execute("CREATE TABLE IF NOT EXISTS " + layout.vertexTable + " (" + hashColumn + ")");
+                statement.execute("CREATE TABLE IF NOT EXISTS " + layout.edgeTable + " (" + hashColumn + ", "
+                        + endpointColumns + ")");
+                for(String table : new String[]{layout.vertexAnnotationTable, layout.edgeAnnotationTable})
+                {
+                    statement.execute("CREATE TABLE IF NOT EXISTS " + table + " (\"" + AbstractStorage.PRIMARY_KEY
+                            + "\" UUID NOT NULL, key_id INTEGER NOT NULL, value VARCHAR)");
+                    statement.execute("CREATE INDEX IF NOT EXISTS " + table + "_hash_index ON " + table
+                            + " (\"" + AbstractStorage.PRIMARY_KEY + "\", key_id)");
+                    statement.execute("CREATE INDEX IF NOT EXISTS " + table + "_value_index ON " + table
+                            + " (key_id, md5(value))");
+                }
+            }
+            else
+            {
+                String annotationsColumn = PostgreSQL.ANNOTATIONS_COLUMN + " JSONB NOT NULL";
+                statement.execute("CREATE TABLE IF NOT EXISTS " + layout.vertexTable + " (" + hashColumn + ", "
+                        + annotationsColumn + ")");
+                statement.execute("CREATE TABLE IF NOT EXISTS " + layout.edgeTable + " (" + hashColumn + ", "
+                        + endpointColumns + ", " + annotationsColumn + ")");
+                for(String table : new String[]{layout.vertexTable, layout.edgeTable})
+                {
+                    statement.execute("CREATE INDEX IF NOT EXISTS " + table + "_annotations_index ON " + table
+                            + " USING gin (" + PostgreSQL.ANNOTATIONS_COLUMN + " jsonb_path_ops)");
+                }
+            }
+            if(!primaryKey)
+            {
+                for(String table : new String[]{layout.vertexTable, layout.edgeTable})
+                {
+                    statement.execute("CREATE INDEX IF NOT EXISTS " + table + "_hash_index ON " + table
+                            + " (\"" + AbstractStorage.PRIMARY_KEY + "\")");
+                }
+            }
+            // Both orders so that lineage joins in either direction are index only
+            statement.execute("CREATE INDEX IF NOT EXISTS " + layout.edgeTable + "_child_index ON " + layout.edgeTable
+                    + " (\"" + AbstractStorage.CHILD_VERTEX_KEY + "\", \"" + AbstractStorage.PARENT_VERTEX_KEY + "\")");
+            statement.execute("CREATE INDEX IF NOT EXISTS " + layout.edgeTable + "_parent_index ON " + layout.edgeTable
+                    + " (\"" + AbstractStorage.PARENT_VERTEX_KEY + "\", \"" + AbstractStorage.CHILD_VERTEX_KEY + "\")");
+
+            if(bulk && primaryKey)
+            {
+                for(String table : getBulkTables())
+                {
+                    statement.execute("CREATE TEMPORARY TABLE IF NOT EXISTS " + stagingTable(table) + " (LIKE " + table
+                            + " INCLUDING DEFAULTS)");
+                }
+            }
+
+            if(layout == TableLayout.KEY_VALUE)
+            {
+                ResultSet result = statement.executeQuery("SELECT id, name FROM " + PostgreSQL.ANNOTATION_KEY_TABLE);
+                while(result.next())
+                {
+                    keyIds.put(result.getString(2), result.getInt(1));
+                }
+                result.close();
+            }
+        }
+        finally
+        {
+            statement.close();
+        }
+    }
+
+    /**
+     * @return true if buffered rows were sent and need to be committed
+     * @throws SQLException if a statement fails
+     */
+    boolean putVertex(AbstractVertex vertex) throws SQLException
+    {
+        String hash = vertex.bigHashCode();
+        if(!bulk)
+        {
+            String insert = "INSERT INTO " + layout.vertexTable + " VALUES (?::uuid"
+                    + (layout == TableLayout.JSONB ? ", ?::jsonb)" : ")") + (primaryKey ? " ON CONFLICT DO NOTHING" : "");
+            PreparedStatement statement = connection.prepareStatement(insert);
+            try
+            {
+                statement.setString(1, hash);
+                if(layout == TableLayout.JSONB)
+                {
+                    statement.setString(2, toJson(vertex.getAnnotations()));
+                }
+                if(statement.executeUpdate() > 0 && layout == TableLayout.KEY_VALUE)
+                {
+                    insertAnnotations(layout.vertexAnnotationTable, hash, vertex.getAnnotations());
+                }
+            }
+            catch(SQLException ex)
+            {
+                // The transaction is aborted by the failed statement
+                rollback("Failed to roll back failed vertex insert");
+                throw ex;
+            }
+            finally
+            {
+                statement.close();
+            }
+            return false;
+        }
+        if(!bufferedHashes.add(hash))
+        {
+            return false;
+        }
+        appendField(vertexRows, hash, layout != TableLayout.JSONB);
+        if(layout == TableLayout.JSONB)
+        {
+            appendField(vertexRows, toJson(vertex.getAnnotations()), true);
+        }
+        else
+        {
+            appendAnnotationRows(vertexAnnotationRows, hash, vertex.getAnnotations());
+        }
+        return buffered();
+    }
+
+    /**
+     * @return true if buffered rows were sent and need to be committed
+     * @throws SQLException if a statement fails
+     */
+    boolean putEdge(AbstractEdge edge) throws SQLException
+    {
+        String hash = edge.bigHashCode();
+        String childHash = edge.getChildVertex().bigHashCode();
+        String parentHash = edge.getParentVertex().bigHashCode();
+        if(!bulk)
+        {
+            String insert = "INSERT INTO " + layout.edgeTable + " VALUES (?::uuid, ?::uuid, ?::uuid"
+                    + (layout == TableLayout.JSONB ? ", ?::jsonb)" : ")") + (primaryKey ? " ON CONFLICT DO NOTHING" : "");
+            PreparedStatement statement = connection.prepareStatement(insert);
+            try
+            {
+                statement.setString(1, hash);
+                statement.setString(2, childHash);
+                statement.setString(3, parentHash);
+                if(layout == TableLayout.JSONB)
+                {
+                    statement.setString(4, toJson(edge.getAnnotations()));
+                }
+                if(statement.executeUpdate() > 0 && layout == TableLayout.KEY_VALUE)
+                {
+                    insertAnnotations(layout.edgeAnnotationTable, hash, edge.getAnnotations());
+                }
+            }
+            catch(SQLException ex)
+            {
+                // The transaction is aborted by the failed statement
+                rollback("Failed to roll back failed edge insert");
+                throw ex;
+            }
+            finally
+            {
+                statement.close();
+            }
+            return false;
+        }
+        if(!bufferedHashes.add(hash))
+        {
+            return false;
+        }
+        appendField(edgeRows, hash, false);
+        appendField(edgeRows, childHash, false);
+        appendField(edgeRows, parentHash, layout != TableLayout.JSONB);
+        if(layout == TableLayout.JSONB)
+        {
+            appendField(edgeRows, toJson(edge.getAnnotations()), true);
+        }
+        else
+        {
+            appendAnnotationRows(edgeAnnotationRows, hash, edge.getAnnotations());
+        }
+        return buffered();
+    }
+
+    private boolean buffered() throws SQLException
+    {
+        bufferedElements++;
+        if(bufferedElements >= batchSize)
+        {
+            flush();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Sends the buffered rows. Vertices are sent before edges. On failure the transaction is rolled back and
+     * the buffered rows are dropped.
+     *
+     * @throws SQLException if COPY fails
+     */
+    void flush() throws SQLException
+    {
+        if(bufferedElements == 0)
+        {
+            return;
+        }
+        try
+        {
+            if(primaryKey)
+            {
+                copy(stagingTable(layout.vertexTable), vertexRows);
+                copy(stagingTable(layout.edgeTable), edgeRows);
+                if(layout == TableLayout.KEY_VALUE)
+                {
+                    copy(stagingTable(layout.vertexAnnotationTable), vertexAnnotationRows);
+                    copy(stagingTable(layout.edgeAnnotationTable), edgeAnnotationRows);
+                }
+                moveStaged(layout.vertexTable, layout.vertexAnnotationTable);
+                moveStaged(layout.edgeTable, layout.edgeAnnotationTable);
+            }
+            else
+            {
+                copy(layout.vertexTable, vertexRows);
+                copy(layout.edgeTable, edgeRows);
+                if(layout == TableLayout.KEY_VALUE)
+                {
+                    copy(layout.vertexAnnotationTable, vertexAnnotationRows);
+                    copy(layout.edgeAnnotationTable, edgeAnnotationRows);
+                }
+            }
+            logger.log(Level.INFO, "Bulk uploaded " + bufferedElements + " vertices and edges");
+        }
+        catch(SQLException ex)
+        {
+            rollback("Failed to roll back failed bulk upload");
+            throw ex;
+        }
+        finally
+        {
+            vertexRows.setLength(0);
+            edgeRows.setLength(0);
+            vertexAnnotationRows.setLength(0);
+            edgeAnnotationRows.setLength(0);
+            bufferedHashes.clear();
+            bufferedElements = 0;
+        }
+    }
+
+    private String[] getBulkTables()
+    {
+        if(layout == TableLayout.KEY_VALUE)
+        {
+            return new String[]{layout.vertexTable, layout.edgeTable, layout.vertexAnnotationTable,
+                    layout.edgeAnnotationTable};
+        }
+        return new String[]{layout.vertexTable, layout.edgeTable};
+    }
+
+    private static String stagingTable(String table)
+    {
+        return table + "_staging";
+    }
+
+    /**
+     * Moves the staged rows of the element table into it, skipping hashes already present. For keyValue the
+     * annotation rows are moved only for the elements that were inserted.
+     */
+    private void moveStaged(String table, String annotationTable) throws SQLException
+    {
+        String hash = "\"" + AbstractStorage.PRIMARY_KEY + "\"";
+        Statement statement = connection.createStatement();
+        try
+        {
+            if(layout == TableLayout.KEY_VALUE)
+            {
+                statement.execute("WITH inserted AS (INSERT INTO " + table + " SELECT * FROM " + stagingTable(table)
+                        + " ON CONFLICT DO NOTHING RETURNING " + hash + ") INSERT INTO " + annotationTable
+                        + " SELECT staged.* FROM " + stagingTable(annotationTable) + " staged JOIN inserted ON staged."
+                        + hash + " = inserted." + hash);
+                statement.execute("TRUNCATE " + stagingTable(annotationTable));
+            }
+            else
+            {
+                statement.execute("INSERT INTO " + table + " SELECT * FROM " + stagingTable(table)
+                        + " ON CONFLICT DO NOTHING");
+            }
+            statement.execute("TRUNCATE " + stagingTable(table));
+        }
+        finally
+        {
+            statement.close();
+        }
+    }
+
+    private void copy(String table, StringBuilder rows) throws SQLException
+    {
+        if(rows.length() == 0)
+        {
+            return;
+        }
+        try
+        {
+            CopyManager copyManager = new CopyManager(connection.unwrap(BaseConnection.class));
+            copyManager.copyIn("COPY " + table + " FROM STDIN", new StringReader(rows.toString()));
+        }
+        catch(SQLException ex)
+        {
+            throw ex;
+        }
+        catch(Exception ex)
+        {
+            throw new SQLException("Failed to copy rows to table '" + table + "'", ex);
+        }
+    }
+
+    private void insertAnnotations(String table, String hash, Map<String, String> annotations) throws SQLException
+    {
+        if(annotations.isEmpty())
+        {
+            return;
+        }
+        PreparedStatement statement = connection.prepareStatement("INSERT INTO " + table + " VALUES (?::uuid, ?, ?)");
+        try
+        {
+            for(Map.Entry<String, String> annotation : annotations.entrySet())
+            {
+                if(annotation.getValue() == null)
+                {
+                    continue;
+                }
+                statement.setString(1, hash);
+                statement.setInt(2, getKeyId(annotation.getKey()));
+                statement.setString(3, annotation.getValue());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+        finally
+        {
+            statement.close();
+        }
+    }
+
+    private void appendAnnotationRows(StringBuilder rows, String hash, Map<String, String> annotations) throws SQLException
+    {
+        for(Map.Entry<String, String> annotation : annotations.entrySet())
+        {
+            if(annotation.getValue() == null)
+            {
+                continue;
+            }
+            appendField(rows, hash, false);
+            appendField(rows, String.valueOf(getKeyId(annotation.getKey())), false);
+            appendField(rows, annotation.getValue(), true);
+        }
+    }
+
+    private void rollback(String failureMessage)
+    {
+        try
+        {
+            connection.rollback();
+        }
+        catch(SQLException rollbackEx)
+        {
+            logger.log(Level.WARNING, failureMessage, rollbackEx);
+        }
+        rolledBack();
+    }
+
+    /**
+     * Must be called after the transaction of the connection is rolled back. Keys inserted in that
+     * transaction are gone so the cached ids are dropped. Ids of keys which were already committed are
+     * looked up again by {@link #getKeyId(String)}, which returns the existing id.
+     */
+    void rolledBack()
+    {
+        keyIds.clear();
+    }
+
+    /**
+     * Returns the id of the annotation key. New keys are added to the annotation_key table in the
+     * ingest transaction and the id is cached. See {@link #rolledBack()}.
+     * Keys added concurrently by another connection get the same id.
+     */
+    private int getKeyId(String key) throws SQLException
+    {
+        Integer id = keyIds.get(key);
+        if(id == null)
+        {
+            PreparedStatement statement = connection.prepareStatement("INSERT INTO " + PostgreSQL.ANNOTATION_KEY_TABLE
+                    + " (name) VALUES (?) ON CONFLICT (name) DO UPDATE SET name = EXCLUDED.name RETURNING id");
+            try
+            {
+                statement.setString(1, key);
+                ResultSet result = statement.executeQuery();
+                result.next();
+                id = result.getInt(1);
+                result.close();
+            }
+            finally
+            {
+                statement.close();
+            }
+            keyIds.put(key, id);
+        }
+        return id;
+    }
+
+    private static String toJson(Map<String, String> annotations)
+    {
+        return new JSONObject(annotations).toString();
+    }
+
+    // COPY text format: tab separated, backslash escapes
+    private static void appendField(StringBuilder rows, String value, boolean last)
+    {
+        for(int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            switch(c)
+            {
+                case '\\': rows.append("\\\\"); break;
+                case '\t': rows.append("\\t"); break;
+                case '\n': rows.append("\\n"); break;
+                case '\r': rows.append("\\r"); break;
+                default: rows.append(c); break;
+            }
+        }
+        rows.append(last ? '\n' : '\t');
+    }
+}
@@ -61,6 +61,10 @@ public abstract class SQL extends AbstractStorage
     protected String DUPLICATE_COLUMN_ERROR_CODE;
     protected int CURSOR_FETCH_SIZE = 0;
     public int MAX_COLUMN_VALUE_LENGTH = 256;
+    /**
+     * Non-NULL if vertices and edges are inserted in batches
+     */
+    protected SQLBulkWriter bulkWriter;
 
     public SQL()
     {
@@ -113,6 +117,60 @@ public abstract class SQL extends AbstractStorage
         return true;
     }
 
+    /**
+     * Creates the bulk writer if 'bulkUpload' is true in the arguments or in the config.
+     * Other keys: 'bulkMode' (batch, multiRow or loadData), 'batchSize' and 'flushIntervalMillis'.
+     * Must be called after the connection is opened and the known columns are loaded.
+     *
+     * @param argsMap arguments of the storage which override the config
+     * @param quote quote character for column names
+     * @param insertPrefix statement up to the table name e.g. 'INSERT IGNORE INTO '
+     * @param insertSuffix text between the column list and VALUES
+     * @param loadDataSupported whether the 'loadData' mode can be used
+     * @return false if the arguments are invalid
+     */
+    protected boolean initializeBulkWriter(Map<String, String> argsMap, String quote, String insertPrefix,
+                                           String insertSuffix, boolean loadDataSupported)
+    {
+        String bulkUpload = getArgument(argsMap, "bulkUpload", "false");
+        String bulkMode = getArgument(argsMap, "bulkMode", SQLBulkWriter.MODE_BATCH);
+        String batchSize = getArgument(argsMap, "batchSize", "1000");
+        String flushIntervalMillis = getArgument(argsMap, "flushIntervalMillis", "15000");
+        if(!Boolean.parseBoolean(bulkUpload))
+        {
+            return true;
+        }
+        if(!SQLBulkWriter.isValidMode(bulkMode)
+                || (SQLBulkWriter.MODE_LOAD_DATA.equals(bulkMode) && !loadDataSupported))
+        {
+            logger.log(Level.SEVERE, "Invalid 'bulkMode': " + bulkMode);
+            return false;
+        }
+        try
+        {
+            bulkWriter = new SQLBulkWriter(this, dbConnection, logger, quote, insertPrefix, insertSuffix, bulkMode,
+                    Integer.parseInt(batchSize), Long.parseLong(flushIntervalMillis));
+        }
+        catch(NumberFormatException ex)
+        {
+            logger.log(Level.SEVERE, "Invalid 'batchSize' or 'flushIntervalMillis'", ex);
+            return false;
+        }
+        logger.log(Level.INFO, "Bulk upload enabled. bulkMode: " + bulkMode + ", batchSize: " + batchSize
+                + ", flushIntervalMillis: " + flushIntervalMillis);
+        return true;
+    }
+
+    private String getArgument(Map<String, String> argsMap, String key, String defaultValue)
+    {
+        String value = argsMap.get(key);
+        if(value == null)
+        {
+            value = databaseConfigs.getProperty(key, defaultValue);
+        }
+        return value.trim();
+    }
+
     /**
      *  This function cleans the given column name for all characters
      * other than digits and alphabets.
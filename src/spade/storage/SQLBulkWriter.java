@@ -0,0 +1,560 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2015 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.storage;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import spade.core.AbstractEdge;
+import spade.core.AbstractStorage;
+import spade.core.AbstractVertex;
+
+/**
+ * Buffers vertices and edges for a SQL storage and inserts them in batches.
+ *
+ * Rows are grouped by their columns (the annotation keys) so that every group is inserted with
+ * one prepared statement. Columns are checked against the storage's known columns (loaded once
+ * at initialization) and only new ones are added with ALTER TABLE, before the batch is inserted.
+ *
+ * Modes:
+ * 1) batch: one row per statement execution, sent with JDBC batching
+ * 2) multiRow: many rows per statement (INSERT ... VALUES (...), (...), ...)
+ * 3) loadData: MySQL only. Rows are streamed as tab-separated text with LOAD DATA LOCAL INFILE.
+ *
+ * If a batch fails (e.g. a value too long for its column) the rows of that group are inserted
+ * one at a time so that only the bad rows are lost, as without batching.
+ *
+ * Rows are inserted when the buffer has batchSize rows, or by a timer thread once the oldest
+ * buffered row is flushIntervalMillis old so that an idle buffer is not held until a query or close.
+ *
+ * Thread safe. The storage's thread adds the rows while query threads and the timer flush them.
+ */
+class SQLBulkWriter
+{
+    static final String MODE_BATCH = "batch";
+    static final String MODE_MULTI_ROW = "multiRow";
+    static final String MODE_LOAD_DATA = "loadData";
+
+    // Limit on bind parameters in one statement (MySQL allows 65535)
+    private static final int MAX_PARAMETERS = 60000;
+    private static final int MAX_ROWS_PER_STATEMENT = 1000;
+    private static final int MAX_CACHED_STATEMENTS = 256;
+
+    private final SQL storage;
+    private final Connection connection;
+    private final Logger logger;
+    private final String quote;
+    private final String insertPrefix;
+    private final String insertSuffix;
+    private final String mode;
+    private final int batchSize;
+    private final long flushIntervalMillis;
+
+    // Vertex rows are flushed before edge rows
+    private final Map<String, Map<String, Group>> tables = new LinkedHashMap<>();
+    private final Map<String, Set<String>> bufferedHashes = new HashMap<>();
+    private final Map<String, PreparedStatement> statements = new HashMap<>();
+    // Annotation key to column name
+    private final Map<String, String> sanitizedColumns = new HashMap<>();
+    private int bufferedRows;
+    // Time at which the first row in the buffer was added
+    private long firstBufferedMillis;
+    private final Thread flushThread;
+    private volatile boolean closed;
+    private long rowsInserted;
+    private long rowsFailed;
+
+    /**
+     * @param storage storage whose connection and columns to use
+     * @param connection connection with auto-commit disabled
+     * @param logger logger of the storage
+     * @param quote quote character for column names
+     * @param insertPrefix statement up to the table name e.g. 'INSERT IGNORE INTO '
+     * @param insertSuffix text between the column list and VALUES e.g. ' KEY("hash")'
+     * @param mode one of batch, multiRow or loadData
+     * @param batchSize number of rows to buffer before inserting
+     * @param flushIntervalMillis maximum time rows stay in the buffer. Less than 1 to disable.
+     */
+    SQLBulkWriter(SQL storage, Connection connection, Logger logger, String quote, String insertPrefix,
+                  String insertSuffix, String mode, int batchSize, long flushIntervalMillis)
+    {
+        this.storage = storage;
+        this.connection = connection;
+        this.logger = logger;
+        this.quote = quote;
+        this.insertPrefix = insertPrefix;
+        this.insertSuffix = insertSuffix;
+        this.mode = mode;
+        this.batchSize = Math.max(1, batchSize);
+        this.flushIntervalMillis = flushIntervalMillis;
+        tables.put(SQL.VERTEX_TABLE, new LinkedHashMap<String, Group>());
+        tables.put(SQL.EDGE_TABLE, new LinkedHashMap<String, Group>());
+        bufferedHashes.put(SQL.VERTEX_TABLE, new HashSet<String>());
+        bufferedHashes.put(SQL.EDGE_TABLE, new HashSet<String>());
+        if(flushIntervalMillis > 0)
+        {
+            flushThread = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    flushPeriodically();
+                }
+            }, "SQLBulkWriter-flush");
+            flushThread.setDaemon(true);
+            flushThread.start();
+        }
+        else
+        {
+            flushThread = null;
+        }
+    }
+
+    static boolean isValidMode(String mode)
+    {
+        return MODE_BATCH.equals(mode) || MODE_MULTI_ROW.equals(mode) || MODE_LOAD_DATA.equals(mode);
+    }
+
+    synchronized void putVertex(AbstractVertex vertex)
+    {
+        String hash = vertex.bigHashCode();
+        Map<String, String> row = new LinkedHashMap<>();
+        row.put(AbstractStorage.PRIMARY_KEY, hash);
+        addAnnotations(row, vertex.getAnnotations());
+        add(SQL.VERTEX_TABLE, hash, row);
+    }
+
+    synchronized void putEdge(AbstractEdge edge)
+    {
+        String hash = edge.bigHashCode();
+        Map<String, String> row = new LinkedHashMap<>();
+        row.put(AbstractStorage.PRIMARY_KEY, hash);
+        if(!edge.getAnnotations().containsKey(AbstractStorage.CHILD_VERTEX_KEY))
+        {
+            row.put(AbstractStorage.CHILD_VERTEX_KEY, edge.getChildVertex().bigHashCode());
+        }
+        if(!edge.getAnnotations().containsKey(AbstractStorage.PARENT_VERTEX_KEY))
+        {
+            row.put(AbstractStorage.PARENT_VERTEX_KEY, edge.getParentVertex().bigHashCode());
+        }
+        addAnnotations(row, edge.getAnnotations());
+        add(SQL.EDGE_TABLE, hash, row);
+    }
+
+    /**
+     * Inserts all the buffered rows and commits
+     */
+    synchronized void flush()
+    {
+        if(bufferedRows == 0)
+        {
+            return;
+        }
+        for(Map.Entry<String, Map<String, Group>> table : tables.entrySet())
+        {
+            for(Group group : table.getValue().values())
+            {
+                if(!group.rows.isEmpty())
+                {
+                    insertGroup(table.getKey(), group);
+                    group.rows.clear();
+                }
+            }
+            // Drop the groups. Most column sets come again but the rare ones should not pile up.
+            table.getValue().clear();
+            bufferedHashes.get(table.getKey()).clear();
+        }
+        bufferedRows = 0;
+    }
+
+    /**
+     * Inserts all the buffered rows and releases the statements. The connection is not closed.
+     */
+    void close()
+    {
+        closed = true;
+        if(flushThread != null)
+        {
+            flushThread.interrupt();
+            try
+            {
+                flushThread.join();
+            }
+            catch(InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized(this)
+        {
+            closeBuffers();
+        }
+    }
+
+    private void closeBuffers()
+    {
+        flush();
+        closeStatements();
+        logger.log(Level.INFO, "Bulk insert: " + rowsInserted + " rows inserted, " + rowsFailed + " rows failed");
+    }
+
+    private void flushPeriodically()
+    {
+        while(!closed)
+        {
+            long sleepMillis = flushIntervalMillis;
+            synchronized(this)
+            {
+                if(bufferedRows > 0)
+                {
+                    long age = System.currentTimeMillis() - firstBufferedMillis;
+                    if(age >= flushIntervalMillis)
+                    {
+                        flush();
+                    }
+                    else
+                    {
+                        sleepMillis = flushIntervalMillis - age;
+                    }
+                }
+            }
+            try
+            {
+                Thread.sleep(sleepMillis);
+            }
+            catch(InterruptedException ex)
+            {
+                // Closed
+                break;
+            }
+        }
+    }
+
+    private void addAnnotations(Map<String, String> row, Map<String, String> annotations)
+    {
+        for(Map.Entry<String, String> entry : annotations.entrySet())
+        {
+            String key = entry.getKey();
+            String value = entry.getValue();
+            if(key == null)
+            {
+                continue;
+            }
+            if(storage.ENABLE_SANITIZATION)
+            {
+                String column = sanitizedColumns.get(key);
+                if(column == null)
+                {
+                    column = SQL.sanitizeColumn(key);
+                    sanitizedColumns.put(key, column);
+                }
+                key = column;
+                if(value != null)
+                {
+                    value = SQL.sanitizeString(value);
+                }
+            }
+            row.put(key, value);
+        }
+    }
+
+    private void add(String table, String hash, Map<String, String> row)
+    {
+        // Same as a duplicate primary key insert which would fail
+        if(!bufferedHashes.get(table).add(hash))
+        {
+            return;
+        }
+        String[] columns = row.keySet().toArray(new String[row.size()]);
+        String signature = String.join("\u0000", columns);
+        Map<String, Group> groups = tables.get(table);
+        Group group = groups.get(signature);
+        if(group == null)
+        {
+            for(String column : columns)
+            {
+                storage.addColumn(table, column);
+            }
+            group = new Group(signature, columns);
+            groups.put(signature, group);
+        }
+        group.rows.add(row.values().toArray(new String[columns.length]));
+        if(bufferedRows++ == 0)
+        {
+            firstBufferedMillis = System.currentTimeMillis();
+        }
+        if(bufferedRows >= batchSize)
+        {
+            flush();
+        }
+    }
+
+    private void insertGroup(String table, Group group)
+    {
+        try
+        {
+            if(MODE_LOAD_DATA.equals(mode))
+            {
+                loadData(table, group);
+            }
+            else if(MODE_MULTI_ROW.equals(mode))
+            {
+                int rowsPerStatement = Math.max(1, Math.min(MAX_ROWS_PER_STATEMENT, MAX_PARAMETERS / group.columns.length));
+                int index = 0;
+                while(index < group.rows.size())
+                {
+                    int rows = Math.min(rowsPerStatement, group.rows.size() - index);
+                    PreparedStatement statement = getStatement(table, group, rows);
+                    int parameter = 1;
+                    for(int i = index; i < index + rows; i++)
+                    {
+                        for(String value : group.rows.get(i))
+                        {
+                            statement.setString(parameter++, value);
+                        }
+                    }
+                    statement.executeUpdate();
+                    index += rows;
+                }
+            }
+            else
+            {
+                PreparedStatement statement = getStatement(table, group, 1);
+                for(String[] row : group.rows)
+                {
+                    for(int i = 0; i < row.length; i++)
+                    {
+                        statement.setString(i + 1, row[i]);
+                    }
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+            connection.commit();
+            rowsInserted += group.rows.size();
+        }
+        catch(Exception batchException)
+        {
+            rollback();
+            logger.log(Level.WARNING, "Batch insert of " + group.rows.size() + " rows into '" + table
+                    + "' failed. Inserting one row at a time.", batchException);
+            insertRowByRow(table, group);
+        }
+    }
+
+    private void insertRowByRow(String table, Group group)
+    {
+        Exception firstException = null;
+        long failed = 0;
+        try
+        {
+            PreparedStatement statement = getStatement(table, group, 1);
+            for(String[] row : group.rows)
+            {
+                try
+                {
+                    for(int i = 0; i < row.length; i++)
+                    {
+                        statement.setString(i + 1, row[i]);
+                    }
+                    statement.executeUpdate();
+                    connection.commit();
+                    rowsInserted++;
+                }
+                catch(SQLException rowException)
+                {
+                    rollback();
+                    failed++;
+                    if(firstException == null)
+                    {
+                        firstException = rowException;
+                    }
+                }
+            }
+        }
+        catch(Exception exception)
+        {
+            failed = group.rows.size();
+            firstException = exception;
+        }
+        if(failed > 0)
+        {
+            rowsFailed += failed;
+            logger.log(Level.SEVERE, "Failed to insert " + failed + " rows into '" + table + "'", firstException);
+        }
+    }
+
+    private void loadData(String table, Group group) throws Exception
+    {
+        StringBuilder data = new StringBuilder(group.rows.size() * group.columns.length * 16);
+        for(String[] row : group.rows)
+        {
+            for(int i = 0; i < row.length; i++)
+            {
+                if(i > 0)
+                {
+                    data.append('\t');
+                }
+                appendLoadDataValue(data, row[i]);
+            }
+            data.append('\n');
+        }
+        StringBuilder query = new StringBuilder(128);
+        query.append("LOAD DATA LOCAL INFILE 'spade-bulk' IGNORE INTO TABLE ").append(table)
+                .append(" CHARACTER SET utf8 (");
+        appendColumns(query, group.columns);
+        query.append(")");
+        Statement statement = connection.createStatement();
+        try
+        {
+            // The connector reads the 'file' from this stream instead of the file system
+            statement.unwrap(com.mysql.jdbc.Statement.class).setLocalInfileInputStream(
+                    new ByteArrayInputStream(data.toString().getBytes(StandardCharsets.UTF_8)));
+            statement.execute(query.toString());
+        }
+        finally
+        {
+            statement.close();
+        }
+    }
+
+    // Escaping as expected by LOAD DATA with the default FIELDS and LINES options
+    private static void appendLoadDataValue(StringBuilder data, String value)
+    {
+        if(value == null)
+        {
+            data.append("\\N");
+            return;
+        }
+        for(int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            switch(c)
+            {
+                case '\\': data.append("\\\\"); break;
+                case '\t': data.append("\\t"); break;
+                case '\n': data.append("\\n"); break;
+                case '\r': data.append("\\r"); break;
+                case '\0': data.append("\\0"); break;
+                default: data.append(c);
+            }
+        }
+    }
+
+    private PreparedStatement getStatement(String table, Group group, int rows) throws SQLException
+    {
+        String key = table + '\u0001' + rows + '\u0001' + group.signature;
+        PreparedStatement statement = statements.get(key);
+        if(statement == null)
+        {
+            if(statements.size() >= MAX_CACHED_STATEMENTS)
+            {
+                closeStatements();
+            }
+            StringBuilder query = new StringBuilder(64 + rows * group.columns.length * 3);
+            query.append(insertPrefix).append(table).append(" (");
+            appendColumns(query, group.columns);
+            query.append(")").append(insertSuffix).append(" VALUES ");
+            for(int row = 0; row < rows; row++)
+            {
+                query.append(row == 0 ? "(" : ", (");
+                for(int i = 0; i < group.columns.length; i++)
+                {
+                    query.append(i == 0 ? "?" : ", ?");
+                }
+                query.append(")");
+            }
+            statement = connection.prepareStatement(query.toString());
+            statements.put(key, statement);
+        }
+        return statement;
+    }
+
+    private void appendColumns(StringBuilder query, String[] columns)
+    {
+        for(int i = 0; i < columns.length; i++)
+        {
+            if(i > 0)
+            {
+                query.append(", ");
+            }
+            query.append(quote).append(columns[i]).append(quote);
+        }
+    }
+
+    private void closeStatements()
+    {
+        Iterator<PreparedStatement> iterator = statements.values().iterator();
+        while(iterator.hasNext())
+        {
+            try
+            {
+                iterator.next().close();
+            }
+            catch(SQLException ex)
+            {
+                logger.log(Level.WARNING, "Failed to close statement", ex);
+            }
+            iterator.remove();
+        }
+    }
+
+    private void rollback()
+    {
+        try
+        {
+            connection.rollback();
+        }
+        catch(SQLException ex)
+        {
+            logger.log(Level.WARNING, "Failed to rollback", ex);
+        }
+    }
+
+    /**
+     * Buffered rows with the same columns
+     */
+    private static class Group
+    {
+        private final String signature;
+        private final String[] columns;
+        private final List<String[]> rows = new ArrayList<>();
+
+        private Group(String signature, String[] columns)
+        {
+            this.signature = signature;
+            this.columns = columns;
+        }
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2015 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.storage.binary;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reads the frames written by {@link BinaryFrameWriter}.
+ */
+public class BinaryFrameReader implements Closeable
+{
+
+    private static final Logger logger = Logger.getLogger(BinaryFrameReader.class.getName());
+
+    /**
+     * A vertex or an edge read from the file
+     */
+    public static class Frame
+    {
+        private final boolean vertex;
+        private final byte[] hash;
+        private final byte[] childHash;
+        private final byte[] parentHash;
+        private final Map<String, String> annotations;
+
+        private Frame(boolean vertex, byte[] hash, byte[] childHash, byte[] parentHash, Map<String, String> annotations)
+        {
+            this.vertex = vertex;
+            this.hash = hash;
+            this.childHash = childHash;
+            this.parentHash = parentHash;
+            this.annotations = annotations;
+        }
+
+        public boolean isVertex()
+        {
+            return vertex;
+        }
+
+        /**
+         * @return MD5 of the vertex (same as bigHashCodeBytes). NULL for edges.
+         */
+        public byte[] getHash()
+        {
+            return hash;
+        }
+
+        public byte[] getChildHash()
+        {
+            return childHash;
+        }
+
+        public byte[] getParentHash()
+        {
+            return parentHash;
+        }
+
+        public Map<String, String> getAnnotations()
+        {
+            return annotations;
+        }
+    }
+
+    private final DataInputStream stream;
+    private final List<String> dictionary = new ArrayList<>();
+    private byte[] frame = new byte[1024];
+    private int position;
+    private int frameLength;
+
+    public BinaryFrameReader(String path, int bufferSize) throws IOException
+    {
+        this.stream = new DataInputStream(new BufferedInputStream(new FileInputStream(path), bufferSize));
+    }
+
+    /**
+     * @return the next vertex or edge OR NULL at the end of the file
+     * @throws IOException if the file is not in the expected format
+     */
+    public Frame read() throws IOException
+    {
+        while(true)
+        {
+            int type = stream.read();
+            if(type == -1)
+            {
+                return null;
+            }
+            if(type == BinaryFrameWriter.MAGIC[0])
+            {
+                try
+                {
+                    readHeader();
+                }
+                catch(EOFException e)
+                {
+                    // Header of an appended section was not completely written
+                    logger.log(Level.WARNING, "Ignoring incomplete header at the end of the file");
+                    return null;
+                }
+                continue;
+            }
+            if(type != BinaryFrameWriter.FRAME_VERTEX && type != BinaryFrameWriter.FRAME_EDGE)
+            {
+                throw new IOException("Unknown frame type: " + type);
+            }
+            try
+            {
+                frameLength = readStreamVarInt();
+                if(frame.length < frameLength)
+                {
+                    frame = new byte[Math.max(frameLength, frame.length * 2)];
+                }
+                stream.readFully(frame, 0, frameLength);
+            }
+            catch(EOFException e)
+            {
+                // Last frame was not completely written
+                logger.log(Level.WARNING, "Ignoring incomplete frame at the end of the file");
+                return null;
+            }
+            position = 0;
+            if(type == BinaryFrameWriter.FRAME_VERTEX)
+            {
+                byte[] hash = readHash();
+                return new Frame(true, hash, null, null, readAnnotations());
+            }
+            else
+            {
+                byte[] childHash = readHash();
+                byte[] parentHash = readHash();
+                return new Frame(false, null, childHash, parentHash, readAnnotations());
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        stream.close();
+    }
+
+    private void readHeader() throws IOException
+    {
+        byte[] magic = new byte[BinaryFrameWriter.MAGIC.length];
+        magic[0] = BinaryFrameWriter.MAGIC[0];
+        stream.readFully(magic, 1, magic.length - 1);
+        if(!Arrays.equals(magic, BinaryFrameWriter.MAGIC))
+        {
+            throw new IOException("Not a binary provenance file");
+        }
+        int version = stream.readUnsignedByte();
+        if(version != BinaryFrameWriter.VERSION)
+        {
+            throw new IOException("Unsupported binary provenance file version: " + version);
+        }
+        dictionary.clear();
+    }
+
+    private byte[] readHash() throws IOException
+    {
+        if(position + BinaryFrameWriter.HASH_LENGTH > frameLength)
+        {
+            throw new IOException("Truncated frame");
+        }
+        byte[] hash = Arrays.copyOfRange(frame, position, position + BinaryFrameWriter.HASH_LENGTH);
+        position += BinaryFrameWriter.HASH_LENGTH;
+        return hash;
+    }
+
+    private Map<String, String> readAnnotations() throws IOException
+    {
+        Map<String, String> annotations = new TreeMap<>();
+        int count = readVarInt();
+        for(int i = 0; i < count; i++)
+        {
+            String key = readString();
+            String value = readString();
+            annotations.put(key, value);
+        }
+        return annotations;
+    }
+
+    private String readString() throws IOException
+    {
+        int tag = readVarInt();
+        int kind = tag & 3;
+        int value = tag >>> 2;
+        if(kind == BinaryFrameWriter.TAG_REFERENCE)
+        {
+            if(value >= dictionary.size())
+            {
+                throw new IOException("Invalid dictionary reference: " + value);
+            }
+            return dictionary.get(value);
+        }
+        if(kind != BinaryFrameWriter.TAG_LITERAL && kind != BinaryFrameWriter.TAG_DEFINE)
+        {
+            throw new IOException("Invalid string tag: " + tag);
+        }
+        if(position + value > frameLength)
+        {
+            throw new IOException("Truncated frame");
+        }
+        String string = new String(frame, position, value, StandardCharsets.UTF_8);
+        position += value;
+        if(kind == BinaryFrameWriter.TAG_DEFINE)
+        {
+            dictionary.add(string);
+        }
+        return string;
+    }
+
+    private int readVarInt() throws IOException
+    {
+        int result = 0;
+        for(int shift = 0; shift < 32; shift += 7)
+        {
+            if(position >= frameLength)
+            {
+                throw new IOException("Truncated frame");
+            }
+            byte b = frame[position++];
+            result |= (b & 0x7F) << shift;
+            if((b & 0x80) == 0)
+            {
+                return result;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private int readStreamVarInt() throws IOException
+    {
+        int result = 0;
+        for(int shift = 0; shift < 32; shift += 7)
+        {
+            int b = stream.readUnsignedByte();
+            result |= (b & 0x7F) << shift;
+            if((b & 0x80) == 0)
+            {
+                return result;
+            }
+        }
+        throw new IOException("Malformed frame length");
+    }
+}
@@ -0,0 +1,356 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2015 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.storage.binary;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import spade.core.AbstractEdge;
+import spade.core.AbstractVertex;
+
+/**
+ * Writes vertices and edges as length-prefixed binary frames.
+ *
+ * File layout:
+ *
+ * header: 'SPADEBIN' version(1 byte). Written at the start of every session (also when appending)
+ * frame: type(1 byte: 'V' vertex or 'E' edge) length(varint) payload
+ * vertex payload: hash(16 bytes) count(varint) count x (key value)
+ * edge payload: childHash(16 bytes) parentHash(16 bytes) count(varint) count x (key value)
+ *
+ * Keys and values are dictionary encoded. Each string is a varint tag followed by:
+ * - tag & 3 = 0: a literal (length = tag >> 2, UTF-8 bytes)
+ * - tag & 3 = 1: a literal (length = tag >> 2, UTF-8 bytes) which gets the next id in the dictionary
+ * - tag & 3 = 2: a reference to the string with id = tag >> 2 in the dictionary
+ *
+ * The dictionary starts empty after every header. The values of a key stop being added to the
+ * dictionary if most of them are unique (e.g. time) to keep the dictionary small.
+ *
+ * With a sync interval, a timer thread also syncs the frames written since the last sync once the
+ * interval has passed, so that the last frames of a burst are not left unsynced while nothing is written.
+ * The methods are synchronized since the timer syncs from its own thread.
+ */
+public class BinaryFrameWriter implements Closeable
+{
+
+    static final byte[] MAGIC = "SPADEBIN".getBytes(StandardCharsets.US_ASCII);
+    static final int VERSION = 1;
+    static final byte FRAME_VERTEX = 'V';
+    static final byte FRAME_EDGE = 'E';
+    static final int HASH_LENGTH = 16;
+    static final int TAG_LITERAL = 0;
+    static final int TAG_DEFINE = 1;
+    static final int TAG_REFERENCE = 2;
+
+    // Values of a key are checked for repetition after this many values
+    private static final int KEY_SAMPLE_SIZE = 1024;
+
+    private static final Logger logger = Logger.getLogger(BinaryFrameWriter.class.getName());
+
+    private final FileOutputStream fileStream;
+    private final OutputStream stream;
+    private final long syncEveryFrames;
+    private final long syncIntervalMillis;
+    private final int maxDictionarySize;
+
+    private final Map<String, Integer> dictionary = new HashMap<>();
+    private final Map<String, KeyStatistics> keyStatistics = new HashMap<>();
+    private byte[] frame = new byte[1024];
+    private int frameLength;
+    private long framesSinceSync;
+    private long lastSyncMillis;
+    private long framesWritten;
+    private final Thread syncThread;
+    private volatile boolean closed;
+
+    /**
+     * @param path file to write to
+     * @param append append to the file instead of overwriting it
+     * @param bufferSize size of the write buffer in bytes
+     * @param syncEveryFrames force the data to disk after this many frames. Less than 1 to disable.
+     * @param syncIntervalMillis force the data to disk if this much time has passed since the last time, also
+     * while no frames are written. Less than 1 to disable.
+     * @param maxDictionarySize maximum number of strings in the dictionary
+     * @throws IOException if the file cannot be opened
+     */
+    public BinaryFrameWriter(String path, boolean append, int bufferSize, long syncEveryFrames,
+                             long syncIntervalMillis, int maxDictionarySize) throws IOException
+    {
+        this.fileStream = new FileOutputStream(path, append);
+        this.stream = new BufferedOutputStream(fileStream, bufferSize);
+        this.syncEveryFrames = syncEveryFrames;
+        this.syncIntervalMillis = syncIntervalMillis;
+        this.maxDictionarySize = maxDictionarySize;
+        this.lastSyncMillis = System.currentTimeMillis();
+        stream.write(MAGIC);
+        stream.write(VERSION);
+        if(syncIntervalMillis > 0)
+        {
+            syncThread = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    syncPeriodically();
+                }
+            }, "BinaryFrameWriter-sync");
+            syncThread.setDaemon(true);
+            syncThread.start();
+        }
+        else
+        {
+            syncThread = null;
+        }
+    }
+
+    public synchronized void writeVertex(AbstractVertex vertex) throws IOException
+    {
+        frameLength = 0;
+        writeBytes(vertex.bigHashCodeBytes());
+        writeAnnotations(vertex.getAnnotations());
+        writeFrame(FRAME_VERTEX);
+    }
+
+    public synchronized void writeEdge(AbstractEdge edge) throws IOException
+    {
+        frameLength = 0;
+        writeBytes(edge.getChildVertex().bigHashCodeBytes());
+        writeBytes(edge.getParentVertex().bigHashCodeBytes());
+        writeAnnotations(edge.getAnnotations());
+        writeFrame(FRAME_EDGE);
+    }
+
+    public synchronized long getFramesWritten()
+    {
+        return framesWritten;
+    }
+
+    /**
+     * Writes the buffered frames to the file and forces them to disk
+     */
+    public synchronized void sync() throws IOException
+    {
+        stream.flush();
+        fileStream.getFD().sync();
+        framesSinceSync = 0;
+        lastSyncMillis = System.currentTimeMillis();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        closed = true;
+        if(syncThread != null)
+        {
+            syncThread.interrupt();
+            try
+            {
+                syncThread.join();
+            }
+            catch(InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized(this)
+        {
+            try
+            {
+                sync();
+            }
+            finally
+            {
+                stream.close();
+            }
+        }
+    }
+
+    private void syncPeriodically()
+    {
+        while(!closed)
+        {
+            long sleepMillis = syncIntervalMillis;
+            synchronized(this)
+            {
+                if(framesSinceSync > 0)
+                {
+                    long age = System.currentTimeMillis() - lastSyncMillis;
+                    if(age >= syncIntervalMillis)
+                    {
+                        try
+                        {
+                            sync();
+                        }
+                        catch(IOException ex)
+                        {
+                            logger.log(Level.SEVERE, "Failed to sync frames", ex);
+                        }
+                    }
+                    else
+                    {
+                        sleepMillis = syncIntervalMillis - age;
+                    }
+                }
+            }
+            try
+            {
+                Thread.sleep(sleepMillis);
+            }
+            catch(InterruptedException ex)
+            {
+                // Closed
+                break;
+            }
+        }
+    }
+
+    private void writeAnnotations(Map<String, String> annotations)
+    {
+        int count = 0;
+        for(Map.Entry<String, String> entry : annotations.entrySet())
+        {
+            if(entry.getKey() != null && entry.getValue() != null)
+            {
+                count++;
+            }
+        }
+        writeVarInt(count);
+        for(Map.Entry<String, String> entry : annotations.entrySet())
+        {
+            String key = entry.getKey();
+            String value = entry.getValue();
+            if(key == null || value == null)
+            {
+                continue;
+            }
+            writeString(key, true);
+            KeyStatistics statistics = keyStatistics.get(key);
+            if(statistics == null)
+            {
+                statistics = new KeyStatistics();
+                keyStatistics.put(key, statistics);
+            }
+            boolean defined = writeString(value, statistics.dictionaryEncoded);
+            statistics.update(defined);
+        }
+    }
+
+    /**
+     * @return true if the string was added to the dictionary
+     */
+    private boolean writeString(String string, boolean addToDictionary)
+    {
+        Integer id = dictionary.get(string);
+        if(id != null)
+        {
+            writeVarInt((id << 2) | TAG_REFERENCE);
+            return false;
+        }
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        boolean define = addToDictionary && dictionary.size() < maxDictionarySize;
+        writeVarInt((bytes.length << 2) | (define ? TAG_DEFINE : TAG_LITERAL));
+        writeBytes(bytes);
+        if(define)
+        {
+            dictionary.put(string, dictionary.size());
+        }
+        return define;
+    }
+
+    private void writeFrame(byte type) throws IOException
+    {
+        stream.write(type);
+        int length = frameLength;
+        while((length & ~0x7F) != 0)
+        {
+            stream.write((length & 0x7F) | 0x80);
+            length >>>= 7;
+        }
+        stream.write(length);
+        stream.write(frame, 0, frameLength);
+        framesWritten++;
+        framesSinceSync++;
+        if((syncEveryFrames > 0 && framesSinceSync >= syncEveryFrames)
+                || (syncIntervalMillis > 0 && System.currentTimeMillis() - lastSyncMillis >= syncIntervalMillis))
+        {
+            sync();
+        }
+    }
+
+    private void writeVarInt(int value)
+    {
+        ensureCapacity(5);
+        while((value & ~0x7F) != 0)
+        {
+            frame[frameLength++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        frame[frameLength++] = (byte) value;
+    }
+
+    private void writeBytes(byte[] bytes)
+    {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, frame, frameLength, bytes.length);
+        frameLength += bytes.length;
+    }
+
+    private void ensureCapacity(int extra)
+    {
+        if(frameLength + extra > frame.length)
+        {
+            frame = Arrays.copyOf(frame, Math.max(frame.length * 2, frameLength + extra));
+        }
+    }
+
+    private static class KeyStatistics
+    {
+        private boolean dictionaryEncoded = true;
+        private int values;
+        private int defined;
+
+        private void update(boolean definedValue)
+        {
+            if(!dictionaryEncoded)
+            {
+                return;
+            }
+            values++;
+            if(definedValue)
+            {
+                defined++;
+            }
+            // Mostly unique values. Stop adding them.
+            if(values == KEY_SAMPLE_SIZE && defined * 2 > values)
+            {
+                dictionaryEncoded = false;
+            }
+        }
+    }
+}
@@ -24,6 +24,7 @@ import spade.core.AbstractEdge;
 import spade.core.AbstractTransformer;
 import spade.core.AbstractVertex;
 import spade.core.Graph;
+import spade.core.GraphView;
 import spade.core.Settings;
 import spade.reporter.audit.OPMConstants;
 import spade.utility.FileUtility;
@@ -61,36 +62,31 @@ public class Blacklist extends AbstractTransformer
 	
 	public Graph putGraph(Graph graph, QueryMetaData queryMetaData)
 	{
-		Graph resultGraph = new Graph();
-		
-		AbstractVertex queriedVertex = null;
-		
-		if(queryMetaData != null)
-		{
-			queriedVertex = queryMetaData.getRootVertex();
-		}
-		
-		for(AbstractEdge edge : graph.edgeSet())
+		return GraphView.materialize(graph, getView(queryMetaData));
+	}
+
+	@Override
+	public GraphView getView(QueryMetaData queryMetaData)
+	{
+		final AbstractVertex queriedVertex = (queryMetaData != null) ? queryMetaData.getRootVertex() : null;
+
+		return new GraphView()
 		{
-			String srcFilepath = getAnnotationSafe(edge.getChildVertex(), OPMConstants.ARTIFACT_PATH);
-			String dstFilepath = getAnnotationSafe(edge.getParentVertex(), OPMConstants.ARTIFACT_PATH);
-			if(!(fileEqualsVertex(srcFilepath, queriedVertex) || fileEqualsVertex(dstFilepath, queriedVertex)))
+			@Override
+			public boolean viewEdge(AbstractEdge edge)
 			{
-				if(isFileToBeRemoved(srcFilepath) || isFileToBeRemoved(dstFilepath))
+				String srcFilepath = getAnnotationSafe(edge.getChildVertex(), OPMConstants.ARTIFACT_PATH);
+				String dstFilepath = getAnnotationSafe(edge.getParentVertex(), OPMConstants.ARTIFACT_PATH);
+				if(!(fileEqualsVertex(srcFilepath, queriedVertex) || fileEqualsVertex(dstFilepath, queriedVertex)))
 				{
-					continue;
+					if(isFileToBeRemoved(srcFilepath) || isFileToBeRemoved(dstFilepath))
+					{
+						return false;
+					}
 				}
+				return true;
 			}
-			AbstractEdge newEdge = createNewWithoutAnnotations(edge);
-			if(newEdge != null && newEdge.getChildVertex() != null && newEdge.getParentVertex() != null)
-			{
-				resultGraph.putVertex(newEdge.getChildVertex());
-				resultGraph.putVertex(newEdge.getParentVertex());
-				resultGraph.putEdge(newEdge);
-			}
-		}
-
-		return resultGraph;
+		};
 	}
 	
 	private boolean isFileToBeRemoved(String path)
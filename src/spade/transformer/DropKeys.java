@@ -26,6 +26,7 @@ import spade.core.AbstractEdge;
 import spade.core.AbstractTransformer;
 import spade.core.AbstractVertex;
 import spade.core.Graph;
+import spade.core.GraphView;
 import spade.core.Settings;
 import spade.utility.CommonFunctions;
 
@@ -97,20 +98,35 @@ public class DropKeys extends AbstractTransformer
 
 	public Graph putGraph(Graph graph, QueryMetaData queryMetaData)
 	{
-		Graph resultGraph = new Graph();
-	
-		for(AbstractVertex vertex : graph.vertexSet())
-		{
-			AbstractVertex newVertex = createNewWithoutAnnotations(vertex, annotationsToRemove);
-			resultGraph.putVertex(newVertex);
-		}
-		
-		for(AbstractEdge edge : graph.edgeSet())
+		return GraphView.materialize(graph, getView(queryMetaData));
+	}
+
+	@Override
+	public GraphView getView(QueryMetaData queryMetaData)
+	{
+		return new GraphView()
 		{
-			AbstractEdge newEdge = createNewWithoutAnnotations(edge, annotationsToRemove);
-			resultGraph.putEdge(newEdge);
-		}			
+			@Override
+			public AbstractVertex viewVertex(AbstractVertex vertex)
+			{
+				return withoutAnnotations(vertex, annotationsToRemove);
+			}
+
+			@Override
+			public boolean viewEdge(AbstractEdge edge)
+			{
+				for(String annotation : annotationsToRemove)
+				{
+					edge.removeAnnotation(annotation);
+				}
+				return true;
+			}
 
-		return resultGraph;
+			@Override
+			public boolean keepsUnconnectedVertices()
+			{
+				return true;
+			}
+		};
 	}
 }
@@ -23,6 +23,7 @@ import spade.client.QueryMetaData;
 import spade.core.AbstractEdge;
 import spade.core.AbstractTransformer;
 import spade.core.Graph;
+import spade.core.GraphView;
 import spade.reporter.audit.OPMConstants;
 
 public class LastName extends AbstractTransformer
@@ -30,22 +31,20 @@ public class LastName extends AbstractTransformer
 
 	public Graph putGraph(Graph graph, QueryMetaData queryMetaData)
 	{
-		Graph resultGraph = new Graph();
-		for(AbstractEdge edge : graph.edgeSet())
+		return GraphView.materialize(graph, getView(queryMetaData));
+	}
+
+	@Override
+	public GraphView getView(QueryMetaData queryMetaData)
+	{
+		return new GraphView()
 		{
-			String operation = getAnnotationSafe(edge, OPMConstants.EDGE_OPERATION);
-			if(OPMConstants.isMmapRenameLinkRead(operation) || OPMConstants.isMmapRenameLink(operation))
-			{
-				continue;
-			}
-			AbstractEdge newEdge = createNewWithoutAnnotations(edge);
-			if(newEdge != null && newEdge.getChildVertex() != null && newEdge.getParentVertex() != null)
+			@Override
+			public boolean viewEdge(AbstractEdge edge)
 			{
-				resultGraph.putVertex(newEdge.getChildVertex());
-				resultGraph.putVertex(newEdge.getParentVertex());
-				resultGraph.putEdge(newEdge);
+				String operation = getAnnotationSafe(edge, OPMConstants.EDGE_OPERATION);
+				return !(OPMConstants.isMmapRenameLinkRead(operation) || OPMConstants.isMmapRenameLink(operation));
 			}
-		}
-		return resultGraph;
+		};
 	}
 }
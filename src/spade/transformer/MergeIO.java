@@ -22,7 +22,9 @@ package spade.transformer;
 import spade.client.QueryMetaData;
 import spade.core.AbstractEdge;
 import spade.core.AbstractTransformer;
+import spade.core.AbstractVertex;
 import spade.core.Graph;
+import spade.core.GraphView;
 import spade.reporter.audit.OPMConstants;
 
 public class MergeIO extends AbstractTransformer
@@ -30,17 +32,28 @@ public class MergeIO extends AbstractTransformer
 
 	public Graph putGraph(Graph graph, QueryMetaData queryMetaData)
 	{
-		Graph resultGraph = new Graph();
-		for(AbstractEdge edge : graph.edgeSet())
+		return GraphView.materialize(graph, getView(queryMetaData));
+	}
+
+	// Edges which only differ in time and size are merged when the graph is materialized
+	@Override
+	public GraphView getView(QueryMetaData queryMetaData)
+	{
+		return new GraphView()
 		{
-			AbstractEdge newEdge = createNewWithoutAnnotations(edge, OPMConstants.EDGE_TIME, OPMConstants.EDGE_SIZE);
-			if(newEdge != null && newEdge.getChildVertex() != null && newEdge.getParentVertex() != null)
+			@Override
+			public AbstractVertex viewVertex(AbstractVertex vertex)
+			{
+				return withoutAnnotations(vertex, OPMConstants.EDGE_TIME, OPMConstants.EDGE_SIZE);
+			}
+
+			@Override
+			public boolean viewEdge(AbstractEdge edge)
 			{
-				resultGraph.putVertex(newEdge.getChildVertex());
-				resultGraph.putVertex(newEdge.getParentVertex());
-				resultGraph.putEdge(newEdge);
+				edge.removeAnnotation(OPMConstants.EDGE_TIME);
+				edge.removeAnnotation(OPMConstants.EDGE_SIZE);
+				return true;
 			}
-		}
-		return resultGraph;
+		};
 	}
 }
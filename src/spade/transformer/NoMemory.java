@@ -23,6 +23,7 @@ import spade.client.QueryMetaData;
 import spade.core.AbstractEdge;
 import spade.core.AbstractTransformer;
 import spade.core.Graph;
+import spade.core.GraphView;
 import spade.reporter.audit.OPMConstants;
 
 //remove memory artifacts along with edges
@@ -31,23 +32,21 @@ public class NoMemory extends AbstractTransformer
 
 	public Graph putGraph(Graph graph, QueryMetaData queryMetaData)
 	{
-		Graph resultGraph = new Graph();
-		for(AbstractEdge edge : graph.edgeSet())
+		return GraphView.materialize(graph, getView(queryMetaData));
+	}
+
+	@Override
+	public GraphView getView(QueryMetaData queryMetaData)
+	{
+		return new GraphView()
 		{
-			if(getAnnotationSafe(edge.getChildVertex(), OPMConstants.ARTIFACT_SUBTYPE).equals(OPMConstants.SUBTYPE_MEMORY_ADDRESS)
-					|| getAnnotationSafe(edge.getParentVertex(),
-					OPMConstants.ARTIFACT_SUBTYPE).equals(OPMConstants.SUBTYPE_MEMORY_ADDRESS))
-			{
-				continue;
-			}
-			AbstractEdge newEdge = createNewWithoutAnnotations(edge);
-			if(newEdge != null && newEdge.getChildVertex() != null && newEdge.getParentVertex() != null)
+			@Override
+			public boolean viewEdge(AbstractEdge edge)
 			{
-				resultGraph.putVertex(newEdge.getChildVertex());
-				resultGraph.putVertex(newEdge.getParentVertex());
-				resultGraph.putEdge(newEdge);	
+				return !(getAnnotationSafe(edge.getChildVertex(), OPMConstants.ARTIFACT_SUBTYPE).equals(OPMConstants.SUBTYPE_MEMORY_ADDRESS)
+						|| getAnnotationSafe(edge.getParentVertex(),
+						OPMConstants.ARTIFACT_SUBTYPE).equals(OPMConstants.SUBTYPE_MEMORY_ADDRESS));
 			}
-		}
-		return resultGraph;
+		};
 	}
 }
@@ -22,7 +22,9 @@ package spade.transformer;
 import spade.client.QueryMetaData;
 import spade.core.AbstractEdge;
 import spade.core.AbstractTransformer;
+import spade.core.AbstractVertex;
 import spade.core.Graph;
+import spade.core.GraphView;
 import spade.reporter.audit.OPMConstants;
 
 //remove units and edges to units
@@ -31,21 +33,30 @@ public class NoUnits extends AbstractTransformer
 
 	public Graph putGraph(Graph graph, QueryMetaData queryMetaData)
 	{
-		Graph resultGraph = new Graph();
-		for(AbstractEdge edge : graph.edgeSet())
+		return GraphView.materialize(graph, getView(queryMetaData));
+	}
+
+	@Override
+	public GraphView getView(QueryMetaData queryMetaData)
+	{
+		return new GraphView()
 		{
-			if(getAnnotationSafe(edge, OPMConstants.EDGE_OPERATION).equals(OPMConstants.OPERATION_UNIT))
+			@Override
+			public AbstractVertex viewVertex(AbstractVertex vertex)
 			{
-				continue;
+				return withoutAnnotations(vertex, OPMConstants.PROCESS_UNIT);
 			}
-			AbstractEdge newEdge = createNewWithoutAnnotations(edge, OPMConstants.PROCESS_UNIT);
-			if(newEdge != null && newEdge.getChildVertex() != null && newEdge.getParentVertex() != null)
+
+			@Override
+			public boolean viewEdge(AbstractEdge edge)
 			{
-				resultGraph.putVertex(newEdge.getChildVertex());
-				resultGraph.putVertex(newEdge.getParentVertex());
-				resultGraph.putEdge(newEdge);
+				if(getAnnotationSafe(edge, OPMConstants.EDGE_OPERATION).equals(OPMConstants.OPERATION_UNIT))
+				{
+					return false;
+				}
+				edge.removeAnnotation(OPMConstants.PROCESS_UNIT);
+				return true;
 			}
-		}
-		return resultGraph;
+		};
 	}
 }
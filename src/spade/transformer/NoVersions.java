@@ -22,7 +22,9 @@ package spade.transformer;
 import spade.client.QueryMetaData;
 import spade.core.AbstractEdge;
 import spade.core.AbstractTransformer;
+import spade.core.AbstractVertex;
 import spade.core.Graph;
+import spade.core.GraphView;
 import spade.reporter.audit.OPMConstants;
 
 public class NoVersions extends AbstractTransformer
@@ -30,21 +32,30 @@ public class NoVersions extends AbstractTransformer
 
 	public Graph putGraph(Graph graph, QueryMetaData queryMetaData)
 	{
-		Graph resultGraph = new Graph();
-		for(AbstractEdge edge : graph.edgeSet())
+		return GraphView.materialize(graph, getView(queryMetaData));
+	}
+
+	@Override
+	public GraphView getView(QueryMetaData queryMetaData)
+	{
+		return new GraphView()
 		{
-			if(getAnnotationSafe(edge, OPMConstants.EDGE_OPERATION).equals(OPMConstants.OPERATION_UPDATE))
+			@Override
+			public AbstractVertex viewVertex(AbstractVertex vertex)
 			{
-				continue;
+				return withoutAnnotations(vertex, OPMConstants.ARTIFACT_VERSION);
 			}
-			AbstractEdge newEdge = createNewWithoutAnnotations(edge, OPMConstants.ARTIFACT_VERSION);
-			if(newEdge != null && newEdge.getChildVertex() != null && newEdge.getParentVertex() != null)
+
+			@Override
+			public boolean viewEdge(AbstractEdge edge)
 			{
-				resultGraph.putVertex(newEdge.getChildVertex());
-				resultGraph.putVertex(newEdge.getParentVertex());
-				resultGraph.putEdge(newEdge);
+				if(getAnnotationSafe(edge, OPMConstants.EDGE_OPERATION).equals(OPMConstants.OPERATION_UPDATE))
+				{
+					return false;
+				}
+				edge.removeAnnotation(OPMConstants.ARTIFACT_VERSION);
+				return true;
 			}
-		}
-		return resultGraph;
+		};
 	}
 }
@@ -23,7 +23,9 @@ package spade.transformer;
 import spade.client.QueryMetaData;
 import spade.core.AbstractEdge;
 import spade.core.AbstractTransformer;
+import spade.core.AbstractVertex;
 import spade.core.Graph;
+import spade.core.GraphView;
 import spade.reporter.audit.OPMConstants;
 
 import java.util.HashMap;
@@ -54,25 +56,27 @@ public class OPM2Prov extends AbstractTransformer{
 
 	public Graph putGraph(Graph graph, QueryMetaData queryMetaData)
 	{
-		Graph resultGraph = new Graph();
+		return GraphView.materialize(graph, getView(queryMetaData));
+	}
 
-		for(AbstractEdge edge : graph.edgeSet())
+	@Override
+	public GraphView getView(QueryMetaData queryMetaData)
+	{
+		return new GraphView()
 		{
-			if(edge != null && edge.getChildVertex() != null && edge.getParentVertex() != null)
+			@Override
+			public AbstractVertex viewVertex(AbstractVertex vertex)
 			{
-				String edgeType = getAnnotationSafe(edge, "type");
-				String srcType = getAnnotationSafe(edge.getChildVertex(), "type");
-				String dstType = getAnnotationSafe(edge.getParentVertex(), "type");
-				AbstractEdge newEdge = createNewWithoutAnnotations(edge);
-				newEdge.addAnnotation("type", getProvEdgeTypeEquivalentToOPMEdgeType(edgeType));
-				newEdge.getChildVertex().addAnnotation("type", getProvVertexTypeEquivalentToOPMVertexType(srcType));
-				newEdge.getParentVertex().addAnnotation("type", getProvVertexTypeEquivalentToOPMVertexType(dstType));
-				resultGraph.putVertex(newEdge.getChildVertex());
-				resultGraph.putVertex(newEdge.getParentVertex());
-				resultGraph.putEdge(newEdge);
+				return withAnnotation(vertex, "type", getProvVertexTypeEquivalentToOPMVertexType(getAnnotationSafe(vertex, "type")));
 			}
-		}
-		return resultGraph;
+
+			@Override
+			public boolean viewEdge(AbstractEdge edge)
+			{
+				edge.addAnnotation("type", getProvEdgeTypeEquivalentToOPMEdgeType(getAnnotationSafe(edge, "type")));
+				return true;
+			}
+		};
 	}
 
 	private String getProvEdgeTypeEquivalentToOPMEdgeType(String opmEdgeType)
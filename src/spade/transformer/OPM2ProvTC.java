@@ -22,10 +22,13 @@ package spade.transformer;
 
 import spade.client.QueryMetaData;
 import spade.core.AbstractEdge;
+import spade.core.AbstractVertex;
 import spade.core.Graph;
+import spade.core.GraphView;
 import spade.core.Settings;
 import spade.utility.FileUtility;
 
+import java.util.ArrayList;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -54,35 +57,57 @@ public class OPM2ProvTC extends OPM2Prov
 
 	public Graph putGraph(Graph graph, QueryMetaData queryMetaData)
 	{
-		graph = super.putGraph(graph, queryMetaData);
-		graph.commitIndex();
+		return GraphView.materialize(graph, getView(queryMetaData));
+	}
+
+	@Override
+	public GraphView getView(QueryMetaData queryMetaData)
+	{
+		final GraphView typeView = super.getView(queryMetaData);
+
+		return new GraphView()
+		{
+			@Override
+			public AbstractVertex viewVertex(AbstractVertex vertex)
+			{
+				vertex = typeView.viewVertex(vertex);
+				return vertex == null ? null : replaceAnnotations(vertex, opm2ProvTCMapping);
+			}
 
-		Graph resultGraph = new Graph();
+			@Override
+			public boolean viewEdge(AbstractEdge edge)
+			{
+				if(!typeView.viewEdge(edge))
+				{
+					return false;
+				}
+				replaceAnnotations(edge.getAnnotations(), opm2ProvTCMapping);
+				return true;
+			}
+		};
+	}
 
-		for(AbstractEdge edge : graph.edgeSet())
+	private AbstractVertex replaceAnnotations(AbstractVertex vertex, Map<String, String> newMapping)
+	{
+		for(String annotation : vertex.getAnnotations().keySet())
 		{
-			if(edge != null && edge.getChildVertex() != null && edge.getParentVertex() != null)
+			if(newMapping.get(annotation) != null)
 			{
-				AbstractEdge newEdge = createNewWithoutAnnotations(edge);
-				replaceAnnotations(newEdge.getAnnotations(), opm2ProvTCMapping);
-				replaceAnnotations(newEdge.getChildVertex().getAnnotations(), opm2ProvTCMapping);
-				replaceAnnotations(newEdge.getParentVertex().getAnnotations(), opm2ProvTCMapping);
-				resultGraph.putVertex(newEdge.getChildVertex());
-				resultGraph.putVertex(newEdge.getParentVertex());
-				resultGraph.putEdge(newEdge);
+				AbstractVertex newVertex = createNewWithoutAnnotations(vertex);
+				replaceAnnotations(newVertex.getAnnotations(), newMapping);
+				return newVertex;
 			}
 		}
-		return resultGraph;
+		return vertex;
 	}
 
 	private void replaceAnnotations(Map<String, String> annotations, Map<String, String> newMapping)
 	{
-		for(String annotation : annotations.keySet())
+		for(String annotation : new ArrayList<>(annotations.keySet()))
 		{
 			if(newMapping.get(annotation) != null)
 			{
-				annotations.put(newMapping.get(annotation), annotations.get(annotation));
-				annotations.remove(annotation);
+				annotations.put(newMapping.get(annotation), annotations.remove(annotation));
 			}
 		}
 	}
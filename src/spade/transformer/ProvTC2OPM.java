@@ -22,10 +22,13 @@ package spade.transformer;
 
 import spade.client.QueryMetaData;
 import spade.core.AbstractEdge;
+import spade.core.AbstractVertex;
 import spade.core.Graph;
+import spade.core.GraphView;
 import spade.core.Settings;
 import spade.utility.FileUtility;
 
+import java.util.ArrayList;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -53,36 +56,57 @@ public class ProvTC2OPM extends Prov2OPM
 
 	public Graph putGraph(Graph graph, QueryMetaData queryMetaData)
 	{
-		graph = super.putGraph(graph, queryMetaData);
-		graph.commitIndex();
+		return GraphView.materialize(graph, getView(queryMetaData));
+	}
 
-		Graph resultGraph = new Graph();
+	@Override
+	public GraphView getView(QueryMetaData queryMetaData)
+	{
+		final GraphView typeView = super.getView(queryMetaData);
 
-		for(AbstractEdge edge : graph.edgeSet())
+		return new GraphView()
 		{
-			if(edge != null && edge.getChildVertex() != null && edge.getParentVertex() != null)
+			@Override
+			public AbstractVertex viewVertex(AbstractVertex vertex)
 			{
-				AbstractEdge newEdge = createNewWithoutAnnotations(edge);
-				replaceAnnotations(newEdge.getAnnotations(), provTC2OpmMapping);
-				replaceAnnotations(newEdge.getChildVertex().getAnnotations(), provTC2OpmMapping);
-				replaceAnnotations(newEdge.getParentVertex().getAnnotations(), provTC2OpmMapping);
-				resultGraph.putVertex(newEdge.getChildVertex());
-				resultGraph.putVertex(newEdge.getParentVertex());
-				resultGraph.putEdge(newEdge);
+				vertex = typeView.viewVertex(vertex);
+				return vertex == null ? null : replaceAnnotations(vertex, provTC2OpmMapping);
 			}
-		}
 
-		return resultGraph;
+			@Override
+			public boolean viewEdge(AbstractEdge edge)
+			{
+				if(!typeView.viewEdge(edge))
+				{
+					return false;
+				}
+				replaceAnnotations(edge.getAnnotations(), provTC2OpmMapping);
+				return true;
+			}
+		};
+	}
+
+	private AbstractVertex replaceAnnotations(AbstractVertex vertex, Map<String, String> newMapping)
+	{
+		for(String annotation : vertex.getAnnotations().keySet())
+		{
+			if(newMapping.get(annotation) != null)
+			{
+				AbstractVertex newVertex = createNewWithoutAnnotations(vertex);
+				replaceAnnotations(newVertex.getAnnotations(), newMapping);
+				return newVertex;
+			}
+		}
+		return vertex;
 	}
 
 	private void replaceAnnotations(Map<String, String> annotations, Map<String, String> newMapping)
 	{
-		for(String annotation : annotations.keySet())
+		for(String annotation : new ArrayList<>(annotations.keySet()))
 		{
 			if(newMapping.get(annotation) != null)
 			{
-				annotations.put(newMapping.get(annotation), annotations.get(annotation));
-				annotations.remove(annotation);
+				annotations.put(newMapping.get(annotation), annotations.remove(annotation));
 			}
 		}
 	}
@@ -0,0 +1,452 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2015 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+
+package spade.utility;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Parallel external merge sort of audit logs by (time, event id).
+ *
+ * The input is split into chunks and the key of each record is parsed once. The chunks are sorted
+ * and written to temporary files by a pool of threads. The sorted chunks are then
+ * merged with a heap. Records with the same key keep their order in the input so the records of an
+ * event stay together and in order. Duplicate records are removed. Records without a key are
+ * written at the end.
+ */
+public class AuditLogSorter {
+
+	private static final byte[] KEY_PREFIX = "audit(".getBytes();
+	private static final int BUFFER_SIZE = 1024 * 1024;
+	private static final int MERGE_BUFFER_SIZE = 256 * 1024;
+
+	private final int threads;
+	private final int chunkRecords;
+
+	/**
+	 * @param threads number of threads to sort the chunks with
+	 * @param chunkRecords maximum number of records in a chunk
+	 */
+	public AuditLogSorter(int threads, int chunkRecords){
+		this.threads = threads < 1 ? 1 : threads;
+		this.chunkRecords = chunkRecords < 1 ? 1 : chunkRecords;
+	}
+
+	/**
+	 * @param inputFile audit log to sort
+	 * @param outputFile sorted audit log
+	 * @param tempDirectory directory for the sorted chunks
+	 * @return number of records written
+	 * @throws Exception if reading, writing or sorting fails
+	 */
+	public long sort(File inputFile, File outputFile, File tempDirectory) throws Exception{
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<File>> chunkFutures = new ArrayList<Future<File>>();
+		List<File> chunkFiles = new ArrayList<File>();
+		try{
+			// Limits the number of chunks in memory
+			final Semaphore chunksInMemory = new Semaphore(threads + 1);
+			InputStream inputStream = new FileInputStream(inputFile);
+			try{
+				LineReader reader = new LineReader(inputStream);
+				Chunk chunk = new Chunk(chunkRecords);
+				byte[] line;
+				while((line = reader.readLine()) != null){
+					if(line.length == 0){
+						continue;
+					}
+					chunk.add(line);
+					if(chunk.size == chunkRecords){
+						chunkFutures.add(submitChunk(executor, chunk, chunkFutures.size(), tempDirectory, chunksInMemory));
+						chunk = new Chunk(chunkRecords);
+					}
+				}
+				if(chunk.size > 0){
+					chunkFutures.add(submitChunk(executor, chunk, chunkFutures.size(), tempDirectory, chunksInMemory));
+				}
+			}finally{
+				inputStream.close();
+			}
+			for(Future<File> chunkFuture : chunkFutures){
+				chunkFiles.add(getResult(chunkFuture));
+			}
+			return merge(chunkFiles, outputFile);
+		}finally{
+			executor.shutdownNow();
+			for(Future<File> chunkFuture : chunkFutures){
+				if(chunkFuture.isDone() && !chunkFuture.isCancelled()){
+					try{
+						chunkFuture.get().delete();
+					}catch(Exception e){
+						// failed chunk. no file.
+					}
+				}
+			}
+		}
+	}
+
+	private Future<File> submitChunk(ExecutorService executor, final Chunk chunk, final int chunkIndex,
+			final File tempDirectory, final Semaphore chunksInMemory) throws InterruptedException{
+		chunksInMemory.acquire();
+		return executor.submit(new Callable<File>(){
+			@Override
+			public File call() throws Exception{
+				try{
+					int[] order = chunk.sortedOrder();
+					File chunkFile = File.createTempFile("sortauditlog-" + chunkIndex + "-", ".chunk", tempDirectory);
+					DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(chunkFile), BUFFER_SIZE));
+					try{
+						for(int i = 0; i < chunk.size; i++){
+							int record = order[i];
+							byte[] line = chunk.lines[record];
+							out.writeLong(chunk.times[record]);
+							out.writeLong(chunk.eventIds[record]);
+							out.writeInt(line.length);
+							out.write(line);
+						}
+					}finally{
+						out.close();
+					}
+					return chunkFile;
+				}finally{
+					chunksInMemory.release();
+				}
+			}
+		});
+	}
+
+	private long merge(List<File> chunkFiles, File outputFile) throws IOException{
+		PriorityQueue<ChunkReader> heap = new PriorityQueue<ChunkReader>(Math.max(1, chunkFiles.size()));
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(outputFile), BUFFER_SIZE);
+		long written = 0;
+		try{
+			for(int i = 0; i < chunkFiles.size(); i++){
+				ChunkReader reader = new ChunkReader(chunkFiles.get(i), i);
+				if(reader.next()){
+					heap.add(reader);
+				}else{
+					reader.close();
+				}
+			}
+			// Records with the current key. To remove duplicates.
+			Set<ByteBuffer> currentKeyRecords = new HashSet<ByteBuffer>();
+			long currentTime = 0, currentEventId = 0;
+			while(!heap.isEmpty()){
+				ChunkReader reader = heap.poll();
+				if(currentKeyRecords.isEmpty() || reader.time != currentTime || reader.eventId != currentEventId){
+					currentKeyRecords.clear();
+					currentTime = reader.time;
+					currentEventId = reader.eventId;
+				}
+				if(currentKeyRecords.add(ByteBuffer.wrap(reader.line))){
+					out.write(reader.line);
+					out.write('\n');
+					written++;
+				}
+				if(reader.next()){
+					heap.add(reader);
+				}else{
+					reader.close();
+				}
+			}
+		}finally{
+			for(ChunkReader reader : heap){
+				reader.close();
+			}
+			out.close();
+		}
+		return written;
+	}
+
+	/**
+	 * Parses the time (in milliseconds) and the event id from the record.
+	 *
+	 * Expected format of line -> "type='TYPE' msg=audit('time':'eventid'):"
+	 *
+	 * @param line the record
+	 * @param key array to put the time and the event id in
+	 * @return false if the record doesn't have the time and the event id
+	 */
+	static boolean parseKey(byte[] line, long[] key){
+		int start = indexOf(line, KEY_PREFIX);
+		if(start < 0){
+			return false;
+		}
+		int i = start + KEY_PREFIX.length;
+		long seconds = 0, millis = 0, eventId = 0;
+		int digits = 0;
+		for(; i < line.length && line[i] >= '0' && line[i] <= '9'; i++, digits++){
+			seconds = seconds * 10 + (line[i] - '0');
+		}
+		if(digits == 0 || i == line.length){
+			return false;
+		}
+		if(line[i] == '.'){
+			i++;
+			int fractionDigits = 0;
+			for(; i < line.length && line[i] >= '0' && line[i] <= '9'; i++, fractionDigits++){
+				if(fractionDigits < 3){
+					millis = millis * 10 + (line[i] - '0');
+				}
+			}
+			for(; fractionDigits < 3; fractionDigits++){
+				millis *= 10;
+			}
+		}
+		if(i == line.length || line[i] != ':'){
+			return false;
+		}
+		i++;
+		digits = 0;
+		for(; i < line.length && line[i] >= '0' && line[i] <= '9'; i++, digits++){
+			eventId = eventId * 10 + (line[i] - '0');
+		}
+		if(digits == 0 || i == line.length || line[i] != ')'){
+			return false;
+		}
+		key[0] = seconds * 1000 + millis;
+		key[1] = eventId;
+		return true;
+	}
+
+	private static int indexOf(byte[] array, byte[] pattern){
+		outer:
+		for(int i = 0; i <= array.length - pattern.length; i++){
+			for(int j = 0; j < pattern.length; j++){
+				if(array[i + j] != pattern[j]){
+					continue outer;
+				}
+			}
+			return i;
+		}
+		return -1;
+	}
+
+	private static int compareKeys(long time1, long eventId1, long time2, long eventId2){
+		if(time1 != time2){
+			return time1 < time2 ? -1 : 1;
+		}
+		if(eventId1 != eventId2){
+			return eventId1 < eventId2 ? -1 : 1;
+		}
+		return 0;
+	}
+
+	private static <T> T getResult(Future<T> future) throws Exception{
+		try{
+			return future.get();
+		}catch(ExecutionException e){
+			Throwable cause = e.getCause();
+			if(cause instanceof Exception){
+				throw (Exception)cause;
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Records of a chunk with their keys in primitive arrays
+	 */
+	private static class Chunk{
+		private final byte[][] lines;
+		private final long[] times, eventIds;
+		private final long[] key = new long[2];
+		private int size;
+
+		private Chunk(int capacity){
+			lines = new byte[capacity][];
+			times = new long[capacity];
+			eventIds = new long[capacity];
+		}
+
+		private void add(byte[] line){
+			lines[size++] = line;
+		}
+
+		/**
+		 * Parses the keys (on the sorting thread) and returns the record indices in a stable merge
+		 * sort order of the keys
+		 */
+		private int[] sortedOrder(){
+			for(int i = 0; i < size; i++){
+				if(parseKey(lines[i], key)){
+					times[i] = key[0];
+					eventIds[i] = key[1];
+				}else{
+					times[i] = Long.MAX_VALUE;
+					eventIds[i] = Long.MAX_VALUE;
+				}
+			}
+			int[] order = new int[size];
+			for(int i = 0; i < size; i++){
+				order[i] = i;
+			}
+			int[] buffer = new int[size];
+			for(int width = 1; width < size; width *= 2){
+				for(int low = 0; low < size; low += 2 * width){
+					int middle = Math.min(low + width, size);
+					int high = Math.min(low + 2 * width, size);
+					if(middle == high){
+						System.arraycopy(order, low, buffer, low, high - low);
+						continue;
+					}
+					int left = low, right = middle, out = low;
+					while(left < middle && right < high){
+						int a = order[left], b = order[right];
+						if(compareKeys(times[b], eventIds[b], times[a], eventIds[a]) < 0){
+							buffer[out++] = b;
+							right++;
+						}else{
+							buffer[out++] = a;
+							left++;
+						}
+					}
+					while(left < middle){
+						buffer[out++] = order[left++];
+					}
+					while(right < high){
+						buffer[out++] = order[right++];
+					}
+				}
+				int[] swap = order;
+				order = buffer;
+				buffer = swap;
+			}
+			return order;
+		}
+	}
+
+	/**
+	 * Cursor over a sorted chunk file. Ordered by the key of the current record and then by the
+	 * position of the chunk in the input.
+	 */
+	private static class ChunkReader implements Comparable<ChunkReader>{
+		private final DataInputStream in;
+		private final int chunkIndex;
+		private long time, eventId;
+		private byte[] line;
+
+		private ChunkReader(File file, int chunkIndex) throws IOException{
+			this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), MERGE_BUFFER_SIZE));
+			this.chunkIndex = chunkIndex;
+		}
+
+		private boolean next() throws IOException{
+			try{
+				time = in.readLong();
+			}catch(EOFException e){
+				return false;
+			}
+			eventId = in.readLong();
+			line = new byte[in.readInt()];
+			in.readFully(line);
+			return true;
+		}
+
+		private void close(){
+			try{
+				in.close();
+			}catch(Exception e){
+				// nothing to do
+			}
+		}
+
+		@Override
+		public int compareTo(ChunkReader other){
+			int result = compareKeys(time, eventId, other.time, other.eventId);
+			if(result == 0){
+				result = chunkIndex < other.chunkIndex ? -1 : (chunkIndex == other.chunkIndex ? 0 : 1);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Reads lines as bytes (without the line terminator) using a large buffer
+	 */
+	private static class LineReader{
+		private final InputStream in;
+		private final byte[] buffer = new byte[BUFFER_SIZE];
+		private int position, limit;
+
+		private LineReader(InputStream in){
+			this.in = in;
+		}
+
+		private byte[] readLine() throws IOException{
+			byte[] pending = null;
+			while(true){
+				if(position == limit){
+					limit = in.read(buffer);
+					position = 0;
+					if(limit <= 0){
+						limit = 0;
+						return pending;
+					}
+				}
+				int start = position;
+				while(position < limit && buffer[position] != '\n'){
+					position++;
+				}
+				int end = position;
+				boolean endOfLine = position < limit;
+				if(endOfLine){
+					position++; // skip the new line
+				}
+				byte[] part = Arrays.copyOfRange(buffer, start, end);
+				if(pending != null){
+					byte[] joined = Arrays.copyOf(pending, pending.length + part.length);
+					System.arraycopy(part, 0, joined, pending.length, part.length);
+					part = joined;
+				}
+				if(endOfLine){
+					if(part.length > 0 && part[part.length - 1] == '\r'){
+						part = Arrays.copyOf(part, part.length - 1);
+					}
+					return part;
+				}
+				pending = part;
+			}
+		}
+	}
+}
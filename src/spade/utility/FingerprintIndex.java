@@ -0,0 +1,306 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2015 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.utility;
+
+import java.nio.ByteBuffer;
+
+import spade.utility.map.external.store.Store;
+
+/**
+ * Exact set of 128-bit fingerprints in two tiers.
+ *
+ * Recent fingerprints are kept in memory in hash tables which grow as needed. The memory tier is split
+ * into segments (by fingerprint) which are locked independently so that the index can be used by
+ * multiple threads.
+ *
+ * Each segment has a current and a previous generation. When the current generation is full the
+ * previous generation is written to the store (the history) and dropped, and the current generation
+ * becomes the previous one. The store is only looked up on a memory miss and only if it has anything
+ * in it. Fingerprints found in the store are cached in memory separately and are not written again.
+ * The memory tier is written to the store on close so that the index can be reopened.
+ */
+public class FingerprintIndex{
+
+	/**
+	 * Key in the store which tells that the store has fingerprints. Value is the number of fingerprints
+	 * written to the store so far.
+	 */
+	private static final byte[] METADATA_KEY = new byte[]{0};
+
+	private static final int INITIAL_TABLE_SLOTS = 1024;
+
+	private final Store<byte[], byte[]> store;
+	private final Segment[] segments;
+	private final int segmentMask;
+	private final int generationCapacity;
+
+	private volatile boolean storeHasFingerprints;
+	private long fingerprintsInStore;
+
+	/**
+	 * @param store store for the history. Keys are 16 byte fingerprints. Closed on close.
+	 * @param maxMemoryFingerprints maximum number of fingerprints in memory
+	 * @param segmentCount number of independently locked segments. Rounded up to a power of 2.
+	 * @throws Exception if the store cannot be read
+	 */
+	public FingerprintIndex(Store<byte[], byte[]> store, long maxMemoryFingerprints, int segmentCount) throws Exception{
+		if(store == null){
+			throw new IllegalArgumentException("NULL store");
+		}
+		int count = 1;
+		while(count < segmentCount){
+			count <<= 1;
+		}
+		this.store = store;
+		this.segments = new Segment[count];
+		this.segmentMask = count - 1;
+		this.generationCapacity = (int)Math.max(1, Math.min(Integer.MAX_VALUE / 2, maxMemoryFingerprints / (3L * count)));
+		for(int i = 0; i < count; i++){
+			segments[i] = new Segment();
+		}
+		byte[] metadata = store.get(METADATA_KEY);
+		if(metadata != null && metadata.length == 8){
+			fingerprintsInStore = ByteBuffer.wrap(metadata).getLong();
+		}
+		storeHasFingerprints = metadata != null;
+	}
+
+	/**
+	 * Adds the fingerprint to the index
+	 *
+	 * @param high first 64 bits of the fingerprint
+	 * @param low last 64 bits of the fingerprint
+	 * @return true if the fingerprint was already in the index
+	 * @throws Exception if the store fails
+	 */
+	public boolean containsAndAdd(long high, long low) throws Exception{
+		if(high == 0 && low == 0){
+			// Reserved for empty slots
+			low = 1;
+		}
+		Segment segment = segments[(int)(high >>> 32) & segmentMask];
+		synchronized(segment){
+			segment.lookups++;
+			if(segment.current.contains(high, low) || segment.previous.contains(high, low)
+					|| segment.fromStore.contains(high, low)){
+				segment.memoryHits++;
+				return true;
+			}
+			if(storeHasFingerprints){
+				segment.storeLookups++;
+				if(store.contains(toKey(high, low))){
+					segment.storeHits++;
+					// Cached so that the store is not looked up again. Not written back since it is already there.
+					if(segment.fromStore.size() >= generationCapacity){
+						segment.fromStore = new Table();
+					}
+					segment.fromStore.add(high, low);
+					return true;
+				}
+			}
+			if(segment.current.size() >= generationCapacity){
+				retire(segment);
+			}
+			segment.current.add(high, low);
+			return false;
+		}
+	}
+
+	/**
+	 * @return counts of lookups and hits so far
+	 */
+	public Statistics getStatistics(){
+		Statistics statistics = new Statistics();
+		for(Segment segment : segments){
+			synchronized(segment){
+				statistics.lookups += segment.lookups;
+				statistics.memoryHits += segment.memoryHits;
+				statistics.storeLookups += segment.storeLookups;
+				statistics.storeHits += segment.storeHits;
+				statistics.memoryFingerprints += segment.current.size() + segment.previous.size() + segment.fromStore.size();
+			}
+		}
+		synchronized(this){
+			statistics.storeFingerprints = fingerprintsInStore;
+		}
+		return statistics;
+	}
+
+	/**
+	 * Writes the fingerprints in memory to the store and closes the store
+	 *
+	 * @throws Exception if the store fails
+	 */
+	public void close() throws Exception{
+		try{
+			for(Segment segment : segments){
+				synchronized(segment){
+					writeToStore(segment.previous);
+					writeToStore(segment.current);
+				}
+			}
+		}finally{
+			store.close();
+		}
+	}
+
+	// The previous generation leaves memory and the current one takes its place
+	private void retire(Segment segment) throws Exception{
+		writeToStore(segment.previous);
+		segment.previous = segment.current;
+		segment.current = new Table();
+	}
+
+	private void writeToStore(Table table) throws Exception{
+		if(table.size() == 0){
+			return;
+		}
+		if(!storeHasFingerprints){
+			// Marker first so that the store is looked up after a restart even if close is not called
+			writeMetadata();
+			storeHasFingerprints = true;
+		}
+		byte[] value = new byte[0];
+		long[] slots = table.slots;
+		for(int i = 0; i < slots.length; i += 2){
+			if(slots[i] != 0 || slots[i + 1] != 0){
+				store.put(toKey(slots[i], slots[i + 1]), value);
+			}
+		}
+		synchronized(this){
+			fingerprintsInStore += table.size();
+		}
+		writeMetadata();
+	}
+
+	private synchronized void writeMetadata() throws Exception{
+		store.put(METADATA_KEY, ByteBuffer.allocate(8).putLong(fingerprintsInStore).array());
+	}
+
+	private static byte[] toKey(long high, long low){
+		return ByteBuffer.allocate(16).putLong(high).putLong(low).array();
+	}
+
+	/**
+	 * Counts since the index was created except the store fingerprint count which is the total
+	 */
+	public static class Statistics{
+		public long lookups, memoryHits, storeLookups, storeHits;
+		public long memoryFingerprints, storeFingerprints;
+
+		public long getHits(){
+			return memoryHits + storeHits;
+		}
+
+		public long getMisses(){
+			return lookups - getHits();
+		}
+
+		@Override
+		public String toString(){
+			return "lookups=" + lookups
+					+ ", duplicates=" + getHits() + " (" + percent(getHits(), lookups) + ")"
+					+ ", memoryHits=" + memoryHits
+					+ ", storeHits=" + storeHits
+					+ ", misses=" + getMisses() + " (" + percent(getMisses(), lookups) + ")"
+					+ ", storeLookups=" + storeLookups
+					+ ", storeMissRate=" + percent(storeLookups - storeHits, storeLookups)
+					+ ", memoryFingerprints=" + memoryFingerprints
+					+ ", storeFingerprints=" + storeFingerprints;
+		}
+
+		private static String percent(long count, long total){
+			return total == 0 ? "0%" : String.format("%.3f%%", count * 100.0 / total);
+		}
+	}
+
+	private static class Segment{
+		private Table current = new Table();
+		private Table previous = new Table();
+		private Table fromStore = new Table();
+		private long lookups, memoryHits, storeLookups, storeHits;
+	}
+
+	/**
+	 * Open addressing (linear probing) table of fingerprints. Two longs per slot. All zeros is empty.
+	 */
+	private static class Table{
+		private long[] slots = new long[INITIAL_TABLE_SLOTS * 2];
+		private int size;
+
+		private int size(){
+			return size;
+		}
+
+		private boolean contains(long high, long low){
+			int mask = (slots.length >>> 1) - 1;
+			int slot = (int)low & mask;
+			while(true){
+				long slotHigh = slots[slot << 1];
+				long slotLow = slots[(slot << 1) + 1];
+				if(slotHigh == high && slotLow == low){
+					return true;
+				}
+				if(slotHigh == 0 && slotLow == 0){
+					return false;
+				}
+				slot = (slot + 1) & mask;
+			}
+		}
+
+		private void add(long high, long low){
+			// Load factor of at most 0.75
+			if((size + 1) * 4L > (slots.length >>> 1) * 3L){
+				grow();
+			}
+			if(insert(slots, high, low)){
+				size++;
+			}
+		}
+
+		private void grow(){
+			long[] newSlots = new long[slots.length * 2];
+			for(int i = 0; i < slots.length; i += 2){
+				if(slots[i] != 0 || slots[i + 1] != 0){
+					insert(newSlots, slots[i], slots[i + 1]);
+				}
+			}
+			slots = newSlots;
+		}
+
+		private static boolean insert(long[] slots, long high, long low){
+			int mask = (slots.length >>> 1) - 1;
+			int slot = (int)low & mask;
+			while(true){
+				long slotHigh = slots[slot << 1];
+				long slotLow = slots[(slot << 1) + 1];
+				if(slotHigh == high && slotLow == low){
+					return false;
+				}
+				if(slotHigh == 0 && slotLow == 0){
+					slots[slot << 1] = high;
+					slots[(slot << 1) + 1] = low;
+					return true;
+				}
+				slot = (slot + 1) & mask;
+			}
+		}
+	}
+}
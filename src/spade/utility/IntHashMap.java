@@ -0,0 +1,167 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2015 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.utility;
+
+import java.util.Arrays;
+
+/**
+ * Map from int keys to non-null values without boxing the keys or allocating an entry per mapping.
+ *
+ * Open addressing with linear probing in parallel key and value arrays. An empty slot has a null value.
+ * Removal shifts the following entries of the probe sequence back so no tombstones are left.
+ *
+ * Not thread safe.
+ */
+public class IntHashMap<V>{
+
+	private static final int MIN_CAPACITY = 16;
+
+	private int[] keys;
+	private Object[] values;
+	private int mask;
+	private int size = 0;
+	// Grows when size reaches this (load factor 0.5)
+	private int threshold;
+
+	public IntHashMap(){
+		this(MIN_CAPACITY);
+	}
+
+	public IntHashMap(int expectedSize){
+		int capacity = MIN_CAPACITY;
+		while(capacity < expectedSize * 2){
+			capacity <<= 1;
+		}
+		allocate(capacity);
+	}
+
+	private void allocate(int capacity){
+		keys = new int[capacity];
+		values = new Object[capacity];
+		mask = capacity - 1;
+		threshold = capacity / 2;
+	}
+
+	private int slot(int key){
+		int hash = key * 0x9E3779B9;
+		return (hash ^ (hash >>> 16)) & mask;
+	}
+
+	public int size(){
+		return size;
+	}
+
+	public boolean isEmpty(){
+		return size == 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	public V get(int key){
+		for(int i = slot(key); values[i] != null; i = (i + 1) & mask){
+			if(keys[i] == key){
+				return (V)values[i];
+			}
+		}
+		return null;
+	}
+
+	public boolean containsKey(int key){
+		return get(key) != null;
+	}
+
+	/**
+	 * @param key key
+	 * @param value non-null value
+	 * @return the previous value or null
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(int key, V value){
+		if(value == null){
+			throw new IllegalArgumentException("NULL value");
+		}
+		int i = slot(key);
+		for(; values[i] != null; i = (i + 1) & mask){
+			if(keys[i] == key){
+				V previous = (V)values[i];
+				values[i] = value;
+				return previous;
+			}
+		}
+		keys[i] = key;
+		values[i] = value;
+		if(++size >= threshold){
+			resize(keys.length * 2);
+		}
+		return null;
+	}
+
+	/**
+	 * @param key key
+	 * @return the removed value or null
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(int key){
+		int i = slot(key);
+		for(; values[i] != null; i = (i + 1) & mask){
+			if(keys[i] == key){
+				break;
+			}
+		}
+		V removed = (V)values[i];
+		if(removed == null){
+			return null;
+		}
+		// Move back the entries after it which can't be found anymore with this slot empty
+		int gap = i;
+		for(int j = (gap + 1) & mask; values[j] != null; j = (j + 1) & mask){
+			int home = slot(keys[j]);
+			// Can move if home is not in (gap, j] cyclically
+			if(((j - home) & mask) >= ((j - gap) & mask)){
+				keys[gap] = keys[j];
+				values[gap] = values[j];
+				gap = j;
+			}
+		}
+		values[gap] = null;
+		size--;
+		return removed;
+	}
+
+	public void clear(){
+		Arrays.fill(values, null);
+		size = 0;
+	}
+
+	private void resize(int capacity){
+		int[] oldKeys = keys;
+		Object[] oldValues = values;
+		allocate(capacity);
+		for(int i = 0; i < oldValues.length; i++){
+			if(oldValues[i] != null){
+				int j = slot(oldKeys[i]);
+				while(values[j] != null){
+					j = (j + 1) & mask;
+				}
+				keys[j] = oldKeys[i];
+				values[j] = oldValues[i];
+			}
+		}
+	}
+}
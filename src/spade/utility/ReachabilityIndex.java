@@ -0,0 +1,257 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2015 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.utility;
+
+import java.util.Arrays;
+
+/**
+ * Incremental reachability over a growing directed acyclic graph with dense int vertex ids.
+ *
+ * Edges point from child to parent. Instead of ancestor sets, the index keeps the adjacency lists as
+ * int arrays and a topological order (ord) with every child ordered after its parents. The order is
+ * maintained with the dynamic topological sort of Pearce and Kelly.
+ *
+ * Provenance mostly arrives with children after their parents. Such an edge already agrees with the
+ * order, so it is added in constant time and needs no search. Other edges and reachability queries
+ * only search the vertices between the two endpoints in the order, and the visited marks are reset
+ * in constant time (with a full clear once every 2^31 searches). Memory is linear in vertices and edges.
+ *
+ * Not thread safe.
+ */
+public class ReachabilityIndex{
+
+	private static final int INITIAL_CAPACITY = 1024;
+	private static final int INITIAL_DEGREE = 2;
+
+	private int size = 0;
+	// Position of each vertex in the topological order. A child has a greater ord than its parents.
+	private int[] ord = new int[INITIAL_CAPACITY];
+	private int[][] parents = new int[INITIAL_CAPACITY][];
+	private int[] parentCounts = new int[INITIAL_CAPACITY];
+	private int[][] children = new int[INITIAL_CAPACITY][];
+	private int[] childCounts = new int[INITIAL_CAPACITY];
+
+	// Visited marks: a vertex is visited in the current search if its mark equals the current stamp
+	private int[] marks = new int[INITIAL_CAPACITY];
+	private int stamp = 0;
+	// Search stack and the vertices found by the forward and backward searches
+	private int[] stack = new int[64];
+	private int[] forward = new int[64];
+	private int forwardCount;
+	private int[] backward = new int[64];
+	private int backwardCount;
+
+	private long edges = 0, orderedEdges = 0, reorderedEdges = 0, rejectedEdges = 0, searchedVertices = 0;
+
+	/**
+	 * @return id of the new vertex. Ids are consecutive from 0.
+	 */
+	public int addVertex(){
+		if(size == ord.length){
+			int capacity = ord.length * 2;
+			ord = Arrays.copyOf(ord, capacity);
+			parents = Arrays.copyOf(parents, capacity);
+			parentCounts = Arrays.copyOf(parentCounts, capacity);
+			children = Arrays.copyOf(children, capacity);
+			childCounts = Arrays.copyOf(childCounts, capacity);
+			marks = Arrays.copyOf(marks, capacity);
+		}
+		int id = size++;
+		// Last in the order since it has no children yet
+		ord[id] = id;
+		return id;
+	}
+
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * Adds the edge unless it would close a cycle.
+	 *
+	 * @param child id of the child vertex
+	 * @param parent id of the parent vertex
+	 * @return false if the parent reaches the child (the edge would close a cycle) and the edge was not added
+	 */
+	public boolean addEdge(int child, int parent){
+		if(child == parent){
+			rejectedEdges++;
+			return false;
+		}
+		if(ord[child] < ord[parent]){
+			// The affected region is the vertices ordered between the two
+			int lower = ord[child], upper = ord[parent];
+			if(searchParents(parent, child, lower)){
+				rejectedEdges++;
+				return false;
+			}
+			searchChildren(child, upper);
+			reorder();
+			reorderedEdges++;
+		}else{
+			orderedEdges++;
+		}
+		parents[child] = append(parents[child], parentCounts[child]++, parent);
+		children[parent] = append(children[parent], childCounts[parent]++, child);
+		edges++;
+		return true;
+	}
+
+	/**
+	 * @return true if there is a path from the child to the parent following edges from child to parent
+	 */
+	public boolean reaches(int child, int parent){
+		if(child == parent){
+			return true;
+		}
+		if(ord[child] < ord[parent]){
+			// Paths go from greater to smaller ord
+			return false;
+		}
+		return searchParents(child, parent, ord[parent]);
+	}
+
+	/**
+	 * Depth first search from the vertex over parent edges, skipping vertices ordered before the lower bound.
+	 * Visited vertices are collected in 'forward'.
+	 *
+	 * @return true if the target was found
+	 */
+	private boolean searchParents(int start, int target, int lowerBound){
+		nextStamp();
+		forwardCount = 0;
+		int top = 0;
+		stack = ensure(stack, 1);
+		stack[top++] = start;
+		marks[start] = stamp;
+		while(top > 0){
+			int vertex = stack[--top];
+			forward = ensure(forward, forwardCount + 1);
+			forward[forwardCount++] = vertex;
+			searchedVertices++;
+			int[] vertexParents = parents[vertex];
+			for(int i = 0; i < parentCounts[vertex]; i++){
+				int next = vertexParents[i];
+				if(next == target){
+					return true;
+				}
+				if(marks[next] != stamp && ord[next] > lowerBound){
+					marks[next] = stamp;
+					stack = ensure(stack, top + 1);
+					stack[top++] = next;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Depth first search from the vertex over child edges, skipping vertices ordered after the upper bound.
+	 * Visited vertices are collected in 'backward'.
+	 */
+	private void searchChildren(int start, int upperBound){
+		nextStamp();
+		backwardCount = 0;
+		int top = 0;
+		stack[top++] = start;
+		marks[start] = stamp;
+		while(top > 0){
+			int vertex = stack[--top];
+			backward = ensure(backward, backwardCount + 1);
+			backward[backwardCount++] = vertex;
+			searchedVertices++;
+			int[] vertexChildren = children[vertex];
+			for(int i = 0; i < childCounts[vertex]; i++){
+				int next = vertexChildren[i];
+				if(marks[next] != stamp && ord[next] < upperBound){
+					marks[next] = stamp;
+					stack = ensure(stack, top + 1);
+					stack[top++] = next;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Starts a new search. When the stamp would overflow, the marks are cleared and the stamps restart so
+	 * that a mark left by an old search never equals the current stamp. Unvisited marks are 0.
+	 */
+	private void nextStamp(){
+		if(stamp == Integer.MAX_VALUE){
+			Arrays.fill(marks, 0, size, 0);
+			stamp = 0;
+		}
+		stamp++;
+	}
+
+	/**
+	 * Gives the ords of the found vertices to the parent side (forward) first and then to the child side
+	 * (backward), keeping the relative order within each side.
+	 */
+	private void reorder(){
+		sortByOrd(forward, forwardCount);
+		sortByOrd(backward, backwardCount);
+		int[] ords = new int[forwardCount + backwardCount];
+		for(int i = 0; i < forwardCount; i++){
+			ords[i] = ord[forward[i]];
+		}
+		for(int i = 0; i < backwardCount; i++){
+			ords[forwardCount + i] = ord[backward[i]];
+		}
+		Arrays.sort(ords);
+		for(int i = 0; i < forwardCount; i++){
+			ord[forward[i]] = ords[i];
+		}
+		for(int i = 0; i < backwardCount; i++){
+			ord[backward[i]] = ords[forwardCount + i];
+		}
+	}
+
+	private void sortByOrd(int[] vertices, int count){
+		// Sorted as (ord, vertex) pairs packed in longs. Ords are non-negative.
+		long[] pairs = new long[count];
+		for(int i = 0; i < count; i++){
+			pairs[i] = ((long)ord[vertices[i]] << 32) | vertices[i];
+		}
+		Arrays.sort(pairs);
+		for(int i = 0; i < count; i++){
+			vertices[i] = (int)pairs[i];
+		}
+	}
+
+	private static int[] append(int[] array, int index, int value){
+		if(array == null){
+			array = new int[INITIAL_DEGREE];
+		}else if(index == array.length){
+			array = Arrays.copyOf(array, array.length * 2);
+		}
+		array[index] = value;
+		return array;
+	}
+
+	private static int[] ensure(int[] array, int length){
+		return length <= array.length ? array : Arrays.copyOf(array, Math.max(length, array.length * 2));
+	}
+
+	public String getStatistics(){
+		return String.format("Vertices: %d, edges: %d (in order: %d, reordered: %d), rejected edges: %d, "
+				+ "vertices searched: %d", size, edges, orderedEdges, reorderedEdges, rejectedEdges, searchedVertices);
+	}
+}
@@ -26,11 +26,14 @@ import spade.core.Settings;
 import java.io.File;
 import java.nio.charset.Charset;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 public class SortAuditLog {
 
+	private static final long DEFAULT_CHUNK_RECORDS = 500000;
+
 	public static void main(String[] args){
 		if(args.length < 2){
 			//temp directory is optional. if not given then read from config file and otherwise use the system temp directory
@@ -40,6 +43,18 @@ public class SortAuditLog {
 		File inputAuditLogFile = new File(args[0]);
 		File sortedOutputLogFile = new File(args[1]);
 		File tempDirectory = null;
+		Map<String, String> configProperties = null;
+		try{
+			File configFile = new File(Settings.getDefaultConfigFilePath(SortAuditLog.class));
+			if(configFile.exists()){
+				configProperties = FileUtility.readConfigFileAsKeyValueMap(configFile.getAbsolutePath(), "=");
+			}
+		}catch(Exception e){
+			System.err.println("Failed to read config file. Using defaults.");
+		}
+		if(configProperties == null){
+			configProperties = new HashMap<String, String>();
+		}
 		if(args.length >= 3){ //passed in temp dir
 			if(args[2].trim().isEmpty()){
 				System.err.println("Invalid temp directory path in arguments");
@@ -48,27 +63,16 @@ public class SortAuditLog {
 				tempDirectory = new File(args[2]);
 			}
 		}else{ //didn't pass in temp directory. use the one in config file
-			try{
-				File configFile = new File(Settings.getDefaultConfigFilePath(SortAuditLog.class));
-				if(configFile.exists()){
-					Map<String, String> configProperties = FileUtility.readConfigFileAsKeyValueMap(configFile.getAbsolutePath(), "=");
-					String tempDirectoryPath = configProperties.get("tempSortingDirectory");
-					if(tempDirectoryPath != null){
-						tempDirectory = new File(tempDirectoryPath);
-					}
-				}
-			}catch(Exception e){
-				System.err.println("Failed to read config file. Exited");
-				return;
-			}finally{
-				if(tempDirectory == null){ //failed to read the config file too. Use the system temp 
-					String systemTempDirectoryPath = System.getProperty("java.io.tmpdir");
-					if(systemTempDirectoryPath != null){
-						tempDirectory = new File(systemTempDirectoryPath);
-					}else{
-						System.err.println("Failed to locate a system temp directory. Exited.");
-						return;
-					}
+			String tempDirectoryPath = configProperties.get("tempSortingDirectory");
+			if(tempDirectoryPath != null){
+				tempDirectory = new File(tempDirectoryPath);
+			}else{ //not in the config file too. Use the system temp 
+				String systemTempDirectoryPath = System.getProperty("java.io.tmpdir");
+				if(systemTempDirectoryPath != null){
+					tempDirectory = new File(systemTempDirectoryPath);
+				}else{
+					System.err.println("Failed to locate a system temp directory. Exited.");
+					return;
 				}
 			}
 		}
@@ -85,6 +89,24 @@ public class SortAuditLog {
 			}
 		}
 		
+		if(!"externalsort".equals(configProperties.get("sortMode"))){
+			Long threads = CommonFunctions.parseLong(configProperties.get("sortThreads"), 0L);
+			Long chunkRecords = CommonFunctions.parseLong(configProperties.get("sortChunkRecords"), null);
+			if(threads == null || threads < 1){
+				threads = (long)Runtime.getRuntime().availableProcessors();
+			}
+			if(chunkRecords == null || chunkRecords < 1 || chunkRecords > Integer.MAX_VALUE){
+				chunkRecords = DEFAULT_CHUNK_RECORDS;
+			}
+			try{
+				new AuditLogSorter(threads.intValue(), chunkRecords.intValue()).sort(inputAuditLogFile, sortedOutputLogFile, tempDirectory);
+			}catch(Exception e){
+				System.err.print("Failed to sort log file");
+				e.printStackTrace(System.err);
+			}
+			return;
+		}
+		
 		Comparator<String> comparator = new Comparator<String>(){
 			@Override
 			public int compare(String record1, String record2) {
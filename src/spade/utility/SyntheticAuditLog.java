@@ -0,0 +1,431 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2017 SRI International
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.utility;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates a Linux Audit log (auditd format) of a simulated workload so that the Audit reporter can be
+ * replayed without a live kernel audit stream.
+ *
+ * The workload starts with one process. At every event a random live process either forks (and possibly execs),
+ * exits, or does file, network or IPC I/O. The shape of the process tree is bounded by 'maxProcesses' live
+ * processes, 'maxDepth' and 'fanout' children per process. A fraction 'unitProcesses' of the processes is
+ * instrumented for UBSI and emits unit entry/exit and memory read/write dependencies (as kill system calls)
+ * every 'unitLength' events.
+ *
+ * Settings are read from the config file and can be overridden with key=value arguments. The same seed
+ * always produces the same log.
+ */
+public class SyntheticAuditLog{
+
+	private static final String[] PROGRAMS = {"bash", "cat", "grep", "python", "sshd", "curl", "gcc", "make"};
+	private static final int[] PORTS = {22, 80, 443, 8080};
+	private static final int FD_FILE = 0, FD_SOCKET = 1, FD_PIPE_READ = 2, FD_PIPE_WRITE = 3;
+	// UBSI instrumentation arguments of kill as matched by spadeAuditBridge
+	private static final String UENTRY = "ffffff9c", UEXIT = "ffffff9b", MREAD1 = "ffffff38", MREAD2 = "ffffff37",
+			MWRITE1 = "fffffed4", MWRITE2 = "fffffed3";
+	private static final int UNIT_ADDRESSES = 16;
+
+	private final long events, seed, startTime, eventsPerSecond;
+	private final int maxProcesses, maxDepth, fanout, files, hosts, unitLength;
+	private final double forkRate, execRate, exitRate, unitProcesses;
+	private final double fileWeight, networkWeight, ipcWeight;
+
+	/**
+	 * Counts of what was written.
+	 */
+	public static final class Summary{
+		public final long events, records, processes, units;
+
+		private Summary(long events, long records, long processes, long units){
+			this.events = events;
+			this.records = records;
+			this.processes = processes;
+			this.units = units;
+		}
+
+		@Override
+		public String toString(){
+			return "events=" + events + ", records=" + records + ", processes=" + processes + ", units=" + units;
+		}
+	}
+
+	private static final class SimulatedProcess{
+		final int pid, ppid, depth;
+		final boolean instrumented;
+		String comm, exe;
+		int children;
+		int nextFd = 3;
+		final Map<Integer, Integer> fds = new LinkedHashMap<Integer, Integer>();
+		int unitId, unitEvents;
+		boolean inUnit;
+		long writtenAddresses;
+
+		SimulatedProcess(int pid, int ppid, int depth, String comm, boolean instrumented){
+			this.pid = pid;
+			this.ppid = ppid;
+			this.depth = depth;
+			this.comm = comm;
+			this.exe = "/usr/bin/" + comm;
+			this.instrumented = instrumented;
+		}
+
+		int open(int kind){
+			int fd = nextFd++;
+			fds.put(fd, kind);
+			return fd;
+		}
+
+		int findFd(int kind){
+			for(Map.Entry<Integer, Integer> entry : fds.entrySet()){
+				if(entry.getValue() == kind){
+					return entry.getKey();
+				}
+			}
+			return -1;
+		}
+	}
+
+	private SyntheticAuditLog(Map<String, String> settings, long events, long seed, long startTime,
+			long eventsPerSecond) throws Exception{
+		this.events = events;
+		this.seed = seed;
+		this.startTime = startTime;
+		this.eventsPerSecond = eventsPerSecond;
+		this.maxProcesses = (int)parseLong(settings, "maxProcesses", 1, Integer.MAX_VALUE);
+		this.maxDepth = (int)parseLong(settings, "maxDepth", 0, Integer.MAX_VALUE);
+		this.fanout = (int)parseLong(settings, "fanout", 0, Integer.MAX_VALUE);
+		this.files = (int)parseLong(settings, "files", 1, Integer.MAX_VALUE);
+		this.hosts = (int)parseLong(settings, "hosts", 1, 65536);
+		this.unitLength = (int)parseLong(settings, "unitLength", 1, Integer.MAX_VALUE);
+		this.forkRate = parseDouble(settings, "forkRate", 0, 1);
+		this.execRate = parseDouble(settings, "execRate", 0, 1);
+		this.exitRate = parseDouble(settings, "exitRate", 0, 1);
+		this.unitProcesses = parseDouble(settings, "unitProcesses", 0, 1);
+		this.fileWeight = parseDouble(settings, "fileWeight", 0, Double.MAX_VALUE);
+		this.networkWeight = parseDouble(settings, "networkWeight", 0, Double.MAX_VALUE);
+		this.ipcWeight = parseDouble(settings, "ipcWeight", 0, Double.MAX_VALUE);
+		if(fileWeight + networkWeight + ipcWeight <= 0){
+			throw new Exception("At least one of 'fileWeight', 'networkWeight' and 'ipcWeight' must be positive");
+		}
+	}
+
+	private static long parseLong(Map<String, String> settings, String key, long min, long max) throws Exception{
+		Result<Long> result = CommonFunctions.parseLong(settings.get(key), 10, min, max);
+		if(result.error){
+			throw new Exception("Invalid value for '" + key + "': " + result.errorMessage);
+		}
+		return result.result;
+	}
+
+	private static double parseDouble(Map<String, String> settings, String key, double min, double max) throws Exception{
+		Result<Double> result = CommonFunctions.parseDouble(settings.get(key), min, max);
+		if(result.error){
+			throw new Exception("Invalid value for '" + key + "': " + result.errorMessage);
+		}
+		return result.result;
+	}
+
+	/**
+	 * @param arguments key=value pairs that override the config file (can be null)
+	 * @return the generator or the error
+	 */
+	public static Result<SyntheticAuditLog> create(String arguments){
+		try{
+			Map<String, String> settings = CommonFunctions.getGlobalsMapFromConfigAndArguments(SyntheticAuditLog.class, arguments);
+			return Result.successful(new SyntheticAuditLog(settings,
+					parseLong(settings, "events", 1, Long.MAX_VALUE),
+					parseLong(settings, "seed", Long.MIN_VALUE, Long.MAX_VALUE),
+					parseLong(settings, "startTime", 0, Integer.MAX_VALUE),
+					parseLong(settings, "eventsPerSecond", 1, Long.MAX_VALUE)));
+		}catch(Exception e){
+			return Result.failed("Invalid synthetic audit log settings", e, null);
+		}
+	}
+
+	public Summary write(String outputPath) throws IOException{
+		BufferedWriter writer = new BufferedWriter(new FileWriter(outputPath), 1 << 16);
+		try{
+			return write(writer);
+		}finally{
+			writer.close();
+		}
+	}
+
+	public Summary write(Writer writer) throws IOException{
+		Random random = new Random(seed);
+		StringBuilder builder = new StringBuilder(4096);
+		List<SimulatedProcess> live = new ArrayList<SimulatedProcess>();
+		int nextPid = 1000;
+		// spadeAuditBridge ignores the units of loop id 0
+		int nextUnitId = 1;
+		SimulatedProcess root = new SimulatedProcess(nextPid++, 1, 0, "bash", random.nextDouble() < unitProcesses);
+		live.add(root);
+		long processes = 1, units = 0, records = 0;
+		long eventId = 1;
+		double ioWeight = fileWeight + networkWeight + ipcWeight;
+
+		while(eventId <= events){
+			SimulatedProcess process = live.get(random.nextInt(live.size()));
+			if(process.instrumented && !process.inUnit){
+				// A new iteration of the event loop. Ends the previous unit
+				process.inUnit = true;
+				process.unitEvents = 0;
+				units++;
+				// The loop id of the process. Later iterations of the loop are counted by spadeAuditBridge.
+				if(process.unitId == 0){
+					process.unitId = nextUnitId++;
+				}
+				records += kill(builder, eventId++, process, UENTRY, process.unitId);
+			}else{
+				double action = random.nextDouble();
+				if(action < forkRate && live.size() < maxProcesses && process.depth < maxDepth
+						&& process.children < fanout){
+					SimulatedProcess child = new SimulatedProcess(nextPid++, process.pid, process.depth + 1,
+							process.comm, random.nextDouble() < unitProcesses);
+					process.children++;
+					processes++;
+					live.add(child);
+					records += syscall(builder, eventId++, process, 56, "yes", child.pid, 0x1200011, 0, 0, 0);
+					if(eventId <= events && random.nextDouble() < execRate){
+						child.comm = PROGRAMS[random.nextInt(PROGRAMS.length)];
+						child.exe = "/usr/bin/" + child.comm;
+						records += execve(builder, eventId++, child);
+					}
+				}else if(action < forkRate + exitRate && process != root && (!process.inUnit || eventId < events)){
+					// Two events if in a unit
+					if(process.inUnit){
+						records += kill(builder, eventId++, process, UEXIT, process.unitId);
+					}
+					records += exitGroup(builder, eventId++, process);
+					live.remove(process);
+				}else{
+					double kind = random.nextDouble() * ioWeight;
+					if(kind < fileWeight){
+						records += fileIO(builder, eventId++, process, random);
+					}else if(kind < fileWeight + networkWeight){
+						records += networkIO(builder, eventId++, process, random);
+					}else{
+						records += ipc(builder, eventId++, process, random);
+					}
+					if(process.inUnit && ++process.unitEvents >= unitLength && eventId + 1 <= events){
+						// Memory dependencies between the iterations of the event loop
+						int address = random.nextInt(UNIT_ADDRESSES);
+						if(random.nextBoolean() || process.writtenAddresses == 0){
+							process.writtenAddresses |= 1L << address;
+							records += memoryAccess(builder, eventId, process, MWRITE1, MWRITE2, address);
+						}else{
+							while((process.writtenAddresses & (1L << address)) == 0){
+								address = (address + 1) % UNIT_ADDRESSES;
+							}
+							records += memoryAccess(builder, eventId, process, MREAD1, MREAD2, address);
+						}
+						eventId += 2;
+						process.inUnit = false;
+					}
+				}
+			}
+			if(builder.length() > 3072){
+				writer.write(builder.toString());
+				builder.setLength(0);
+			}
+		}
+		writer.write(builder.toString());
+		writer.flush();
+		return new Summary(eventId - 1, records, processes, units);
+	}
+
+	private void header(StringBuilder builder, String type, long eventId){
+		long millis = (eventId - 1) * 1000 / eventsPerSecond;
+		long seconds = startTime + millis / 1000;
+		millis = millis % 1000;
+		builder.append("type=").append(type).append(" msg=audit(").append(seconds).append('.');
+		if(millis < 100){
+			builder.append('0');
+		}
+		if(millis < 10){
+			builder.append('0');
+		}
+		builder.append(millis).append(':').append(eventId).append("): ");
+	}
+
+	private void processFields(StringBuilder builder, SimulatedProcess process){
+		builder.append(" ppid=").append(process.ppid).append(" pid=").append(process.pid);
+		builder.append(" auid=1000 uid=1000 gid=1000 euid=1000 suid=1000 fsuid=1000 egid=1000 sgid=1000 fsgid=1000");
+		builder.append(" tty=pts0 ses=1 comm=\"").append(process.comm).append("\" exe=\"").append(process.exe);
+		builder.append("\" key=(null)\n");
+	}
+
+	private int syscall(StringBuilder builder, long eventId, SimulatedProcess process, int syscall, String success,
+			long exit, long a0, long a1, long a2, int items){
+		header(builder, "SYSCALL", eventId);
+		builder.append("arch=c000003e syscall=").append(syscall);
+		if(success != null){
+			builder.append(" success=").append(success).append(" exit=").append(exit);
+		}
+		builder.append(" a0=").append(Long.toHexString(a0)).append(" a1=").append(Long.toHexString(a1));
+		builder.append(" a2=").append(Long.toHexString(a2)).append(" a3=0 items=").append(items);
+		processFields(builder, process);
+		return 1;
+	}
+
+	private int path(StringBuilder builder, long eventId, int item, String name, long inode, String nameType){
+		header(builder, "PATH", eventId);
+		builder.append("item=").append(item).append(" name=\"").append(name).append("\" inode=").append(inode);
+		builder.append(" dev=08:01 mode=0100644 ouid=1000 ogid=1000 rdev=00:00 nametype=").append(nameType).append('\n');
+		return 1;
+	}
+
+	private int cwd(StringBuilder builder, long eventId){
+		header(builder, "CWD", eventId);
+		builder.append(" cwd=\"/home/user\"\n");
+		return 1;
+	}
+
+	private int execve(StringBuilder builder, long eventId, SimulatedProcess process){
+		int records = syscall(builder, eventId, process, 59, "yes", 0, 0x26f7c68, 0x2722d88, 0x26f6008, 2);
+		header(builder, "EXECVE", eventId);
+		builder.append("argc=1 a0=\"").append(process.comm).append("\"\n");
+		records += 1 + cwd(builder, eventId);
+		records += path(builder, eventId, 0, process.exe, 38 + process.comm.length(), "NORMAL");
+		records += path(builder, eventId, 1, "/lib64/ld-linux-x86-64.so.2", 2101, "NORMAL");
+		// The file descriptors are inherited but not tracked across exec here
+		process.fds.clear();
+		return records;
+	}
+
+	private int exitGroup(StringBuilder builder, long eventId, SimulatedProcess process){
+		// Audit records exit_group without success and exit since it does not return
+		return syscall(builder, eventId, process, 231, null, 0, 0, 0x3c, 0, 0);
+	}
+
+	private int close(StringBuilder builder, long eventId, SimulatedProcess process, int fd){
+		process.fds.remove(fd);
+		return syscall(builder, eventId, process, 3, "yes", 0, fd, 0, 0, 0);
+	}
+
+	private int fileIO(StringBuilder builder, long eventId, SimulatedProcess process, Random random){
+		int fd = process.findFd(FD_FILE);
+		int choice = random.nextInt(10);
+		if(fd == -1 || choice == 0){
+			int file = random.nextInt(files);
+			fd = process.open(FD_FILE);
+			int records = syscall(builder, eventId, process, 2, "yes", fd, 0x7f00ff9a735cL, 0x42, 0x1b6, 1);
+			records += cwd(builder, eventId);
+			return records + path(builder, eventId, 0, "/home/user/dir" + (file % 100) + "/file" + file, 100000 + file,
+					"NORMAL");
+		}else if(choice == 1){
+			return close(builder, eventId, process, fd);
+		}else if(choice < 7){
+			return syscall(builder, eventId, process, 0, "yes", 4096, fd, 0x7ffc3f59a968L, 4096, 0);
+		}else{
+			return syscall(builder, eventId, process, 1, "yes", 512, fd, 0x24dd008, 512, 0);
+		}
+	}
+
+	private int networkIO(StringBuilder builder, long eventId, SimulatedProcess process, Random random){
+		int fd = process.findFd(FD_SOCKET);
+		int choice = random.nextInt(10);
+		if(fd == -1){
+			fd = process.open(FD_SOCKET);
+			return syscall(builder, eventId, process, 41, "yes", fd, 2, 1, 0, 0);
+		}else if(choice == 0){
+			return close(builder, eventId, process, fd);
+		}else if(choice < 3){
+			int host = random.nextInt(hosts);
+			int records = syscall(builder, eventId, process, 42, "yes", 0, fd, 0x7ffe6a4d6120L, 0x10, 0);
+			header(builder, "SOCKADDR", eventId);
+			builder.append("saddr=0200").append(String.format("%04X", PORTS[host % PORTS.length]));
+			builder.append(String.format("0A%02X%02X%02X", (host >> 16) & 0xff, (host >> 8) & 0xff, host & 0xff));
+			builder.append("0000000000000000\n");
+			return records + 1;
+		}else if(choice < 7){
+			return syscall(builder, eventId, process, 44, "yes", 1024, fd, 0x7f1d1e6b4430L, 1024, 0);
+		}else{
+			return syscall(builder, eventId, process, 45, "yes", 1024, fd, 0x7ffd88c386f0L, 4096, 0);
+		}
+	}
+
+	private int ipc(StringBuilder builder, long eventId, SimulatedProcess process, Random random){
+		int readFd = process.findFd(FD_PIPE_READ);
+		int writeFd = process.findFd(FD_PIPE_WRITE);
+		int choice = random.nextInt(10);
+		if(readFd == -1 || writeFd == -1){
+			readFd = process.open(FD_PIPE_READ);
+			writeFd = process.open(FD_PIPE_WRITE);
+			int records = syscall(builder, eventId, process, 22, "yes", 0, 0x7ffc3f598720L, 0, 0, 0);
+			header(builder, "FD_PAIR", eventId);
+			builder.append("fd0=").append(readFd).append(" fd1=").append(writeFd).append('\n');
+			return records + 1;
+		}else if(choice == 0){
+			return close(builder, eventId, process, readFd);
+		}else if(choice < 5){
+			return syscall(builder, eventId, process, 1, "yes", 64, writeFd, 0x24dd008, 64, 0);
+		}else{
+			return syscall(builder, eventId, process, 0, "yes", 64, readFd, 0x7ffc3f59a968L, 64, 0);
+		}
+	}
+
+	private int kill(StringBuilder builder, long eventId, SimulatedProcess process, String a0, long a1){
+		header(builder, "SYSCALL", eventId);
+		builder.append("arch=c000003e syscall=62 success=yes exit=0 a0=").append(a0);
+		builder.append(" a1=").append(Long.toHexString(a1)).append(" a2=0 a3=0 items=0");
+		processFields(builder, process);
+		return 1;
+	}
+
+	private int memoryAccess(StringBuilder builder, long eventId, SimulatedProcess process, String first,
+			String second, int address){
+		long value = 0x7f0000000000L + address * 0x1000L;
+		kill(builder, eventId, process, first, value >>> 32);
+		kill(builder, eventId + 1, process, second, value & 0xffffffffL);
+		return 2;
+	}
+
+	public static void main(String[] args){
+		if(args.length < 1){
+			System.err.println("Invalid arguments. Valid arguments = <outputAuditLog> [<key>=<value> ...]");
+			return;
+		}
+		StringBuilder arguments = new StringBuilder();
+		for(int i = 1; i < args.length; i++){
+			arguments.append(args[i]).append(' ');
+		}
+		Result<SyntheticAuditLog> generatorResult = create(arguments.toString());
+		if(generatorResult.error){
+			System.err.println(generatorResult.toErrorString());
+			return;
+		}
+		try{
+			long start = System.currentTimeMillis();
+			Summary summary = generatorResult.result.write(args[0]);
+			System.out.println("Wrote " + summary + " to " + args[0] + " in "
+					+ (System.currentTimeMillis() - start) + " ms");
+		}catch(Exception e){
+			System.err.println("Failed to write synthetic audit log: " + e.getMessage());
+		}
+	}
+}
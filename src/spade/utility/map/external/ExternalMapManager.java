@@ -215,6 +215,27 @@ public class ExternalMapManager{
 	
 	public static <K, V> Result<ExternalMap<K, V>> create(ExternalMapArgument argument,
 			Converter<K, byte[]> keyConverter, Converter<V, byte[]> valueConverter){
+		return create(argument, keyConverter, valueConverter, false);
+	}
+	
+	public static <K, V> Result<ExternalMap<K, V>> create(ExternalMapArgument argument,
+			Converter<K, byte[]> keyConverter, Converter<V, byte[]> valueConverter, boolean screenKeyBytes){
+		return create(argument, keyConverter, valueConverter, screenKeyBytes, null);
+	}
+	
+	/**
+	 * @param argument map argument
+	 * @param keyConverter converter for the key in the store
+	 * @param valueConverter converter for the value in the store
+	 * @param screenKeyBytes screen the keys by the bytes from the key converter instead of the screen's default.
+	 * Only for key converters which give equal bytes for equal keys
+	 * @param format name of the encoding of the converters. Saved with the screen and the store, and a saved
+	 * screen or an existing store with another (or no) format is refused. NULL to not check
+	 * @return the map or error
+	 */
+	public static <K, V> Result<ExternalMap<K, V>> create(ExternalMapArgument argument,
+			Converter<K, byte[]> keyConverter, Converter<V, byte[]> valueConverter, boolean screenKeyBytes,
+			String format){
 		if(keyConverter == null){
 			return Result.failed("NULL key converter");
 		}else if(valueConverter == null){
@@ -224,7 +245,8 @@ public class ExternalMapManager{
 			if(argumentResult.error){
 				return Result.failed("Invalid external map argument", argumentResult);
 			}else{
-				Result<? extends Screen<K>> screenResult = ScreenManager.createScreen(argument.screenArgument);
+				Result<? extends Screen<K>> screenResult = ScreenManager.createScreen(argument.screenArgument, 
+						screenKeyBytes ? keyConverter : null, screenKeyBytes ? format : null);
 				if(screenResult.error){
 					return Result.failed("Failed to create screen", screenResult);
 				}else{
@@ -235,7 +257,7 @@ public class ExternalMapManager{
 					}else{
 						Cache<K, V> cache = cacheResult.result;
 						Result<? extends Store<K, V>> storeResult = 
-								StoreManager.createStore(argument.storeArgument, keyConverter, valueConverter);
+								StoreManager.createStore(argument.storeArgument, keyConverter, valueConverter, format);
 						if(storeResult.error){
 							return Result.failed("Failed to create store", storeResult);
 						}else{
@@ -27,6 +27,7 @@ import java.util.Map;
 
 import spade.core.BloomFilter;
 import spade.utility.CommonFunctions;
+import spade.utility.Converter;
 import spade.utility.Result;
 
 /**
@@ -169,10 +170,14 @@ public class BloomFilterManager extends ScreenManager{
 	 * If BloomFilterArgument.CreateFromArgs then tries to create fresh bloom filter
 	 * 
 	 * @param ScreenArgument must be BloomFilterArgument
+	 * @param keyConverter bytes of the keys to hash. If NULL then the bytes of toString
+	 * @param keyFormat name of the encoding of the key converter. NULL for the bytes of toString.
+	 * A bloomfilter loaded from file must have been saved with the same format
 	 * @return Screen object or error
 	 */
 	@Override
-	public <K> Result<Screen<K>> createFromArgument(ScreenArgument genericArgument){
+	public <K> Result<Screen<K>> createFromArgument(ScreenArgument genericArgument, Converter<K, byte[]> keyConverter,
+			String keyFormat){
 		Result<BloomFilterArgument> validResult = validateArgument(genericArgument);
 		if(validResult.error){
 			return Result.failed("Invalid screen argument", validResult);
@@ -187,7 +192,7 @@ public class BloomFilterManager extends ScreenManager{
 					bloomFilter = new BloomFilter<K>(createArg.falsePositiveProbability, createArg.expectedElements);
 				}else if(argument.getClass().equals(BloomFilterArgument.LoadFromFile.class)){
 					BloomFilterArgument.LoadFromFile loadArg = (BloomFilterArgument.LoadFromFile)argument;
-					Result<BloomFilter<K>> resultBloomFilter = loadBloomFilterFromFile(loadArg.loadPath);
+					Result<BloomFilter<K>> resultBloomFilter = loadBloomFilterFromFile(loadArg.loadPath, keyFormat);
 					if(resultBloomFilter.error){
 						return Result.failed("Invalid load path", resultBloomFilter);
 					}else{
@@ -199,7 +204,7 @@ public class BloomFilterManager extends ScreenManager{
 				if(bloomFilter == null){
 					return Result.failed("NULL BloomFilter for unknown reason");
 				}else{
-					BloomFilterScreen<K> screen = new BloomFilterScreen<K>(argument.savePath, bloomFilter);
+					BloomFilterScreen<K> screen = new BloomFilterScreen<K>(argument.savePath, bloomFilter, keyConverter, keyFormat);
 					return Result.successful(screen);
 				}
 			}
@@ -209,19 +214,33 @@ public class BloomFilterManager extends ScreenManager{
 	/**
 	 * Loads BloomFilter from path
 	 * 
+	 * The file has the key format (as written by BloomFilterScreen) before the bloomfilter, or only the
+	 * bloomfilter if the keys were hashed by the bytes of toString
+	 * 
 	 * @param <K> key type
 	 * @param path path of the file to load bloomfilter from
+	 * @param keyFormat expected key format. NULL for the bytes of toString
 	 * @return bloomfilter object
 	 */
-	private <K> Result<BloomFilter<K>> loadBloomFilterFromFile(String path){
+	private <K> Result<BloomFilter<K>> loadBloomFilterFromFile(String path, String keyFormat){
 		try{
 			FileInputStream fis = new FileInputStream(new File(path));
 			ObjectInputStream ois = new ObjectInputStream(fis);
+			Object object = ois.readObject();
+			String savedKeyFormat = null;
+			if(object instanceof String){
+				savedKeyFormat = (String)object;
+				object = ois.readObject();
+			}
 			@SuppressWarnings("unchecked")
-			BloomFilter<K> bloomFilter = (BloomFilter<K>)ois.readObject();
+			BloomFilter<K> bloomFilter = (BloomFilter<K>)object;
 			ois.close();
 			fis.close();
-			if(bloomFilter == null){
+			if(!CommonFunctions.objectsEqual(keyFormat, savedKeyFormat)){
+				// The same keys would hash to other bits and be missed
+				return Result.failed("BloomFilter at path '"+path+"' was saved with key format '"+savedKeyFormat+"' but '"
+						+keyFormat+"' is needed. Delete it or create a new one instead of loading it");
+			}else if(bloomFilter == null){
 				return Result.failed("NULL BloomFilter loadede from path: '"+path+"'");
 			}else{
 				return Result.successful(bloomFilter);
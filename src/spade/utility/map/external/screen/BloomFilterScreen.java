@@ -22,9 +22,11 @@ package spade.utility.map.external.screen;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
 
 import spade.core.BloomFilter;
 import spade.utility.CommonFunctions;
+import spade.utility.Converter;
 
 /**
  * Bloom filter screen
@@ -40,10 +42,46 @@ public class BloomFilterScreen<K> implements Screen<K>{
 	 * Bloomfilter object
 	 */
 	private final BloomFilter<K> bloomFilter;
+	/**
+	 * Converter for the bytes of the key to hash. If NULL then the UTF-8 bytes of toString are hashed
+	 */
+	private final Converter<K, byte[]> keyConverter;
+	/**
+	 * Name of the encoding of the keyConverter. Saved before the bloomfilter so that it is not loaded for
+	 * another encoding. If NULL then only the bloomfilter is saved (as for the bytes of toString)
+	 */
+	private final String keyFormat;
 	
 	protected BloomFilterScreen(String savePath, BloomFilter<K> bloomFilter){
+		this(savePath, bloomFilter, null, null);
+	}
+	
+	protected BloomFilterScreen(String savePath, BloomFilter<K> bloomFilter, Converter<K, byte[]> keyConverter,
+			String keyFormat){
 		this.savePath = savePath;
 		this.bloomFilter = bloomFilter;
+		this.keyConverter = keyConverter;
+		this.keyFormat = keyFormat;
+	}
+	
+	/**
+	 * Falls back to the bytes of toString if the converter fails which is the same for the same key
+	 * 
+	 * @param key non-NULL key
+	 * @return bytes to hash
+	 */
+	private byte[] getKeyBytes(K key){
+		if(keyConverter != null){
+			try{
+				byte[] bytes = keyConverter.serialize(key);
+				if(bytes != null){
+					return bytes;
+				}
+			}catch(Exception e){
+				// Use toString
+			}
+		}
+		return key.toString().getBytes(StandardCharsets.UTF_8);
 	}
 	
 	@Override
@@ -51,7 +89,7 @@ public class BloomFilterScreen<K> implements Screen<K>{
 		if(key == null){
 			bloomFilter.add(String.valueOf(key).getBytes());
 		}else{
-			bloomFilter.add(key);
+			bloomFilter.add(getKeyBytes(key));
 		}
 	}
 	
@@ -60,7 +98,7 @@ public class BloomFilterScreen<K> implements Screen<K>{
 		if(key == null){
 			return bloomFilter.contains(String.valueOf(key).getBytes());
 		}else{
-			return bloomFilter.contains(key);
+			return bloomFilter.contains(getKeyBytes(key));
 		}
 	}
 
@@ -79,6 +117,9 @@ public class BloomFilterScreen<K> implements Screen<K>{
 		if(!CommonFunctions.isNullOrEmpty(savePath)){
 			FileOutputStream fos = new FileOutputStream(new File(savePath));
 			ObjectOutputStream oos = new ObjectOutputStream(fos);
+			if(keyFormat != null){
+				oos.writeObject(keyFormat);
+			}
 			oos.writeObject(bloomFilter);
 			oos.close();
 			fos.close();
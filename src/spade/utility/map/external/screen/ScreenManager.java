@@ -22,6 +22,7 @@ package spade.utility.map.external.screen;
 import java.util.Map;
 
 import spade.utility.CommonFunctions;
+import spade.utility.Converter;
 import spade.utility.Result;
 import spade.utility.profile.ReportingArgument;
 
@@ -32,7 +33,8 @@ public abstract class ScreenManager{
 	
 	public abstract Result<ScreenArgument> parseArgument(String arguments);
 	public abstract Result<ScreenArgument> parseArgument(Map<String, String> arguments);
-	public abstract <K> Result<Screen<K>> createFromArgument(ScreenArgument genericArgument);
+	public abstract <K> Result<Screen<K>> createFromArgument(ScreenArgument genericArgument, Converter<K, byte[]> keyConverter,
+			String keyFormat);
 	
 	/**
 	 * Parse Screen arguments
@@ -79,6 +81,20 @@ public abstract class ScreenManager{
 	 * @return Screen object or error
 	 */
 	public static <K> Result<? extends Screen<K>> createScreen(ScreenArgument screenArgument){
+		return createScreen(screenArgument, null, null);
+	}
+	
+	/**
+	 * Create screen for the external map which screens the keys by the bytes from the key converter
+	 * 
+	 * @param screenArgument argument of the screen
+	 * @param keyConverter converter for the bytes of the key. If NULL then the screen's default is used
+	 * @param keyFormat name of the encoding of the key converter. A saved screen with another format is refused.
+	 * NULL for the screen's default
+	 * @return Screen object or error
+	 */
+	public static <K> Result<? extends Screen<K>> createScreen(ScreenArgument screenArgument, Converter<K, byte[]> keyConverter,
+			String keyFormat){
 		if(screenArgument == null){
 			return Result.failed("NULL screen argument");
 		}else{
@@ -90,7 +106,7 @@ public abstract class ScreenManager{
 				if(screenManager == null){
 					return Result.failed("Unhandled screen name: " + screenName);
 				}else{
-					Result<Screen<K>> screenResult = screenManager.createFromArgument(screenArgument);
+					Result<Screen<K>> screenResult = screenManager.createFromArgument(screenArgument, keyConverter, keyFormat);
 					if(screenResult.error){
 						return screenResult;
 					}else{
@@ -20,6 +20,7 @@
 package spade.utility.map.external.store;
 
 import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
 
 import spade.utility.Converter;
 import spade.utility.map.external.store.db.DatabaseHandle;
@@ -37,14 +38,63 @@ public class DBStore<K, V> extends Store<K, V>{
 	 */
 	private DatabaseHandle dbHandle;
 	
+	/**
+	 * Key of the record which has the format of the keys and values. Not the key bytes of a converter which
+	 * starts with a version byte or a java serialization header
+	 */
+	private static final byte[] FORMAT_KEY = "spade.external.map.format".getBytes(StandardCharsets.UTF_8);
+	
+	/**
+	 * Name of the encoding of the converters. NULL if not checked
+	 */
+	private final String format;
+	
 	/**
 	 * @param dbHandle 			NON-NULL
 	 * @param keyConverter 		NON-NULL
 	 * @param valueConverter	NON-NULL
 	 */
 	public DBStore(DatabaseHandle dbHandle, Converter<K, byte[]> keyConverter, Converter<V, byte[]> valueConverter){
+		this(dbHandle, keyConverter, valueConverter, null);
+	}
+	
+	/**
+	 * @param dbHandle 			NON-NULL
+	 * @param keyConverter 		NON-NULL
+	 * @param valueConverter	NON-NULL
+	 * @param format			name of the encoding of the converters. NULL to not check
+	 */
+	public DBStore(DatabaseHandle dbHandle, Converter<K, byte[]> keyConverter, Converter<V, byte[]> valueConverter,
+			String format){
 		super(keyConverter, valueConverter);
 		this.dbHandle = dbHandle;
+		this.format = format;
+	}
+	
+	/**
+	 * Saves the format in an empty database. Fails if the database has data of another format, or data without
+	 * a format (written before the format was saved), because its keys would not be found.
+	 * 
+	 * @throws Exception if the format does not match or any exception by the underlying database
+	 */
+	public void checkFormat() throws Exception{
+		if(format == null){
+			return;
+		}
+		byte[] savedFormatBytes = dbHandle.get(FORMAT_KEY);
+		if(savedFormatBytes == null){
+			if(!dbHandle.isEmpty()){
+				throw new Exception("Database has data without a format but format '"+format+"' is needed. "
+						+ "Delete the database or use another path");
+			}
+			dbHandle.put(FORMAT_KEY, format.getBytes(StandardCharsets.UTF_8));
+		}else{
+			String savedFormat = new String(savedFormatBytes, StandardCharsets.UTF_8);
+			if(!savedFormat.equals(format)){
+				throw new Exception("Database has data of format '"+savedFormat+"' but format '"+format+"' is needed. "
+						+ "Delete the database or use another path");
+			}
+		}
 	}
 	
 	@Override
@@ -75,6 +125,9 @@ public class DBStore<K, V> extends Store<K, V>{
 	@Override
 	public void clear() throws Exception{
 		dbHandle.clear();
+		if(format != null){
+			dbHandle.put(FORMAT_KEY, format.getBytes(StandardCharsets.UTF_8));
+		}
 	}
 	
 	@Override
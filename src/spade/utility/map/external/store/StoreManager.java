@@ -84,6 +84,23 @@ public class StoreManager{
 	 */
 	public static <K, V> Result<? extends Store<K, V>> createStore(StoreArgument storeArgument, 
 			Converter<K, byte[]> keyConverter, Converter<V, byte[]> valueConverter){
+		return createStore(storeArgument, keyConverter, valueConverter, null);
+	}
+	
+	/**
+	 * Create store for the external map which checks the format of the existing data
+	 * 
+	 * @param <K> type of key
+	 * @param <V> type of value
+	 * @param storeArgument argument of the store
+	 * @param keyConverter byte array converter for the key type
+	 * @param valueConverter byte array converter for the value type
+	 * @param format name of the encoding of the converters. An existing database with another (or no) format
+	 * is refused. NULL to not check
+	 * @return Store object or error
+	 */
+	public static <K, V> Result<? extends Store<K, V>> createStore(StoreArgument storeArgument, 
+			Converter<K, byte[]> keyConverter, Converter<V, byte[]> valueConverter, String format){
 		if(storeArgument == null){
 			return Result.failed("NULL store argument");
 		}else{
@@ -104,7 +121,18 @@ public class StoreManager{
 							return Result.failed("Database open failed", dbHandleResult);
 						}else{
 							DatabaseHandle dbHandle = dbHandleResult.result;
-							Store<K, V> store = new DBStore<K, V>(dbHandle, keyConverter, valueConverter);
+							DBStore<K, V> dbStore = new DBStore<K, V>(dbHandle, keyConverter, valueConverter, format);
+							try{
+								dbStore.checkFormat();
+							}catch(Exception e){
+								try{
+									dbHandle.close();
+								}catch(Exception closeException){
+									// Already failing
+								}
+								return Result.failed("Database format check failed", e, null);
+							}
+							Store<K, V> store = dbStore;
 							if(storeArgument.getReportingArgument() != null){
 								store = new ProfiledStore<K, V>(store, storeArgument.getReportingArgument());
 							}
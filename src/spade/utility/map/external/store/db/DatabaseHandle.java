@@ -74,5 +74,12 @@ public interface DatabaseHandle{
 	 * @throws Exception any exception by the underlying database
 	 */
 	public boolean contains(byte[] key) throws Exception;
+	/**
+	 * Returns 'true' if there is no key value pair in the database
+	 * 
+	 * @return true/false
+	 * @throws Exception any exception by the underlying database
+	 */
+	public boolean isEmpty() throws Exception;
 	
 }
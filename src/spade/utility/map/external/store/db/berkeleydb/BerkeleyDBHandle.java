@@ -112,6 +112,11 @@ public class BerkeleyDBHandle implements DatabaseHandle{
 		}
 	}
 
+	@Override
+	public boolean isEmpty() throws Exception{
+		return database.count() == 0;
+	}
+
 	@Override
 	public void remove(byte[] key) throws Exception{
 		DatabaseEntry keyEntry = new DatabaseEntry(key);
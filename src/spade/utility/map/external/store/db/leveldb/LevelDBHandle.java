@@ -26,6 +26,7 @@ import java.math.BigInteger;
 
 import org.apache.commons.io.FileUtils;
 import org.iq80.leveldb.DB;
+import org.iq80.leveldb.DBIterator;
 import org.iq80.leveldb.Options;
 
 import spade.utility.CommonFunctions;
@@ -94,6 +95,17 @@ public class LevelDBHandle implements DatabaseHandle{
 		return get(key) != null;
 	}
 
+	@Override
+	public boolean isEmpty() throws Exception{
+		DBIterator iterator = db.iterator();
+		try{
+			iterator.seekToFirst();
+			return !iterator.hasNext();
+		}finally{
+			iterator.close();
+		}
+	}
+
 	@Override
 	public void close() throws Exception{
 		LevelDBManager.instance.closeHandle(this);
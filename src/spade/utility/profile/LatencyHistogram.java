@@ -0,0 +1,139 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2019 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.utility.profile;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records latencies (or any non-negative values) in log-linear buckets like HdrHistogram: each power of
+ * two is split into 8 buckets, so a percentile is off by at most 12.5%.
+ * 
+ * Can be recorded to from several threads without locks. The count and the sum are striped counters.
+ * Reads are not atomic with respect to recording.
+ */
+public class LatencyHistogram{
+
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+	private static int bucketIndex(long value){
+		if(value < SUB_BUCKETS){
+			return (int)value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int)(value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	// Largest value in the bucket
+	private static long bucketValue(int index){
+		if(index < SUB_BUCKETS){
+			return index;
+		}
+		int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long width = 1L << (exponent - SUB_BUCKET_BITS);
+		return (SUB_BUCKETS + index % SUB_BUCKETS) * width + width - 1;
+	}
+
+	/**
+	 * @param value negative values are recorded as 0
+	 */
+	public void record(long value){
+		record(value, 1);
+	}
+
+	/**
+	 * Records the value as if it was recorded 'count' times. Used when only one in 'count' values is measured.
+	 * 
+	 * @param value negative values are recorded as 0
+	 * @param count number of times
+	 */
+	public void record(long value, long count){
+		if(value < 0){
+			value = 0;
+		}
+		this.count.add(count);
+		sum.add(value * count);
+		buckets.addAndGet(bucketIndex(value), count);
+		long currentMax = max.get();
+		while(value > currentMax && !max.compareAndSet(currentMax, value)){
+			currentMax = max.get();
+		}
+	}
+
+	public long getCount(){
+		return count.sum();
+	}
+
+	public long getSum(){
+		return sum.sum();
+	}
+
+	public long getMax(){
+		return max.get();
+	}
+
+	public double getMean(){
+		long currentCount = count.sum();
+		return currentCount == 0 ? 0 : (double)sum.sum() / currentCount;
+	}
+
+	/**
+	 * @param percentile between 0 and 100
+	 * @return The value at the percentile or 0 if nothing recorded
+	 */
+	public long getPercentile(double percentile){
+		long total = 0;
+		long[] counts = new long[BUCKETS];
+		for(int i = 0; i < BUCKETS; i++){
+			counts[i] = buckets.get(i);
+			total += counts[i];
+		}
+		if(total == 0){
+			return 0;
+		}
+		long rank = Math.max(1, (long)Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100));
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++){
+			seen += counts[i];
+			if(seen >= rank){
+				return Math.min(bucketValue(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	public void reset(){
+		count.reset();
+		sum.reset();
+		max.set(0);
+		for(int i = 0; i < BUCKETS; i++){
+			buckets.set(i, 0);
+		}
+	}
+}
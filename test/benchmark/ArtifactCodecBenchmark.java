@@ -0,0 +1,246 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2015 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package benchmark;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import spade.reporter.audit.artifact.ArtifactCodec;
+import spade.reporter.audit.artifact.ArtifactIdentifier;
+import spade.reporter.audit.artifact.ArtifactState;
+import spade.reporter.audit.artifact.BlockDeviceIdentifier;
+import spade.reporter.audit.artifact.CharacterDeviceIdentifier;
+import spade.reporter.audit.artifact.DirectoryIdentifier;
+import spade.reporter.audit.artifact.FileIdentifier;
+import spade.reporter.audit.artifact.LinkIdentifier;
+import spade.reporter.audit.artifact.MemoryIdentifier;
+import spade.reporter.audit.artifact.NamedPipeIdentifier;
+import spade.reporter.audit.artifact.NetworkSocketIdentifier;
+import spade.reporter.audit.artifact.UnixSocketIdentifier;
+import spade.reporter.audit.artifact.UnknownIdentifier;
+import spade.reporter.audit.artifact.UnnamedNetworkSocketPairIdentifier;
+import spade.reporter.audit.artifact.UnnamedPipeIdentifier;
+import spade.reporter.audit.artifact.UnnamedUnixSocketPairIdentifier;
+import spade.utility.Converter;
+import spade.utility.Serializable2ByteArrayConverter;
+
+/**
+ * Encoding and decoding of the keys and values of the Audit artifacts map with ArtifactCodec ('binary') and
+ * with Java serialization ('java'). 'screenKey' is the bytes hashed by the Bloom filter screen, which are the
+ * bytes of toString without a key converter. The bytes per key and value are printed once per trial.
+ *
+ * The identifiers are a mix like Audit's: mostly files, then sockets, memory, pipes and unknown fds.
+ *
+ * The setup fails if decoding the encoding of an identifier or a state does not give an equal one back. That is
+ * checked for the mix and for identifiers of every class (every tag of the codec) with the field forms the codec
+ * encodes differently: null, decimal, hex, IPv4, non-canonical numbers and paths with and without a known prefix.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+public class ArtifactCodecBenchmark
+{
+    private static final String[] DIRECTORIES = {"/usr/lib/x86_64-linux-gnu/", "/etc/", "/proc/", "/tmp/",
+            "/home/user/project/src/", "/var/log/", "/dev/pts/", "/opt/app/data/"};
+
+    @Param({"binary", "java"})
+    public String codec;
+
+    private Converter<ArtifactIdentifier, byte[]> identifierConverter;
+    private Converter<ArtifactState, byte[]> stateConverter;
+    private ArtifactIdentifier[] identifiers;
+    private ArtifactState[] states;
+    private byte[][] identifierBytes;
+    private byte[][] stateBytes;
+    private int next;
+
+    private static ArtifactIdentifier createIdentifier(Random random)
+    {
+        int choice = random.nextInt(20);
+        String tgid = String.valueOf(1000 + random.nextInt(30000));
+        if(choice < 12)
+        {
+            String directory = DIRECTORIES[random.nextInt(DIRECTORIES.length)];
+            String name = directory.equals("/proc/") ? tgid + "/status" : "file" + random.nextInt(5000) + ".so";
+            return new FileIdentifier(directory + name);
+        }
+        else if(choice < 15)
+        {
+            return new NetworkSocketIdentifier("10.0." + random.nextInt(256) + "." + random.nextInt(256),
+                    String.valueOf(1024 + random.nextInt(60000)), "93.184.216." + random.nextInt(256), "443", "6");
+        }
+        else if(choice < 17)
+        {
+            return new MemoryIdentifier(tgid, Long.toHexString(0x7f0000000000L + random.nextInt(1 << 30)),
+                    Integer.toHexString(4096 * (1 + random.nextInt(256))));
+        }
+        else if(choice < 19)
+        {
+            int fd = 3 + random.nextInt(60);
+            return new UnnamedPipeIdentifier(tgid, String.valueOf(fd), String.valueOf(fd + 1));
+        }
+        else
+        {
+            return new UnknownIdentifier(tgid, String.valueOf(random.nextInt(100)));
+        }
+    }
+
+    private static ArtifactState createState(Random random)
+    {
+        Set<String> previousPutPermissions = new HashSet<String>();
+        previousPutPermissions.add("0644");
+        return new ArtifactState(true, BigInteger.valueOf(random.nextInt(3)), BigInteger.valueOf(random.nextInt(50)),
+                BigInteger.ZERO, BigInteger.valueOf(random.nextInt(50)), "0644", "0644", previousPutPermissions);
+    }
+
+    private static ArtifactIdentifier[] createIdentifiersOfEveryTag()
+    {
+        return new ArtifactIdentifier[]{
+                new FileIdentifier("/usr/lib/x86_64-linux-gnu/libc.so.6"),
+                new FileIdentifier("relative/path"),
+                new FileIdentifier(""),
+                new DirectoryIdentifier("/home/user/"),
+                new LinkIdentifier("/etc/alternatives/java"),
+                new NamedPipeIdentifier("/tmp/fifo"),
+                new UnixSocketIdentifier("/run/systemd/notify"),
+                new BlockDeviceIdentifier("/dev/sda1"),
+                new CharacterDeviceIdentifier("/dev/pts/0"),
+                new NetworkSocketIdentifier("10.0.0.1", "22", "93.184.216.34", "443", "6"),
+                new NetworkSocketIdentifier("::1", "0022", "010.0.0.1", "-1", null),
+                new NetworkSocketIdentifier(null, null, null, null, null),
+                new MemoryIdentifier("1234", "7f0000001000", "1000"),
+                new MemoryIdentifier("01234", "7F0000001000", "0x1000"),
+                new UnknownIdentifier("1234", "3"),
+                new UnknownIdentifier("1234", "99999999999999999999"),
+                new UnnamedPipeIdentifier("1234", "3", "4"),
+                new UnnamedUnixSocketPairIdentifier("1234", "5", "6"),
+                new UnnamedNetworkSocketPairIdentifier("1234", "7", "8", "17"),
+                new UnnamedNetworkSocketPairIdentifier("1234", null, "8", "tcp")
+        };
+    }
+
+    private static <T> void checkRoundTrip(Converter<T, byte[]> converter, T value) throws Exception
+    {
+        T decoded = converter.deserialize(converter.serialize(value));
+        if(!value.equals(decoded) || !value.toString().equals(decoded.toString()))
+        {
+            throw new IllegalStateException("Round trip changed '" + value + "' to '" + decoded + "'");
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception
+    {
+        if(codec.equals("binary"))
+        {
+            identifierConverter = ArtifactCodec.identifierConverter;
+            stateConverter = ArtifactCodec.stateConverter;
+        }
+        else
+        {
+            identifierConverter = new Serializable2ByteArrayConverter<ArtifactIdentifier>();
+            stateConverter = new Serializable2ByteArrayConverter<ArtifactState>();
+        }
+        Random random = new Random(1);
+        identifiers = new ArtifactIdentifier[1024];
+        states = new ArtifactState[1024];
+        identifierBytes = new byte[1024][];
+        stateBytes = new byte[1024][];
+        long keyBytes = 0, valueBytes = 0;
+        for(int i = 0; i < 1024; i++)
+        {
+            identifiers[i] = createIdentifier(random);
+            states[i] = createState(random);
+            identifierBytes[i] = identifierConverter.serialize(identifiers[i]);
+            stateBytes[i] = stateConverter.serialize(states[i]);
+            keyBytes += identifierBytes[i].length;
+            valueBytes += stateBytes[i].length;
+            checkRoundTrip(identifierConverter, identifiers[i]);
+            checkRoundTrip(stateConverter, states[i]);
+        }
+        for(ArtifactIdentifier identifier : createIdentifiersOfEveryTag())
+        {
+            checkRoundTrip(identifierConverter, identifier);
+        }
+        checkRoundTrip(stateConverter, new ArtifactState());
+        System.out.println(String.format("%n%s: %.1f bytes per key, %.1f bytes per value", codec, keyBytes / 1024.0,
+                valueBytes / 1024.0));
+    }
+
+    @Benchmark
+    public byte[] encodeIdentifier() throws Exception
+    {
+        return identifierConverter.serialize(identifiers[next++ & 1023]);
+    }
+
+    @Benchmark
+    public ArtifactIdentifier decodeIdentifier() throws Exception
+    {
+        return identifierConverter.deserialize(identifierBytes[next++ & 1023]);
+    }
+
+    @Benchmark
+    public byte[] encodeState() throws Exception
+    {
+        return stateConverter.serialize(states[next++ & 1023]);
+    }
+
+    @Benchmark
+    public ArtifactState decodeState() throws Exception
+    {
+        return stateConverter.deserialize(stateBytes[next++ & 1023]);
+    }
+
+    @Benchmark
+    public byte[] screenKey() throws Exception
+    {
+        ArtifactIdentifier identifier = identifiers[next++ & 1023];
+        if(codec.equals("binary"))
+        {
+            return ArtifactCodec.identifierConverter.serialize(identifier);
+        }
+        else
+        {
+            return identifier.toString().getBytes(StandardCharsets.UTF_8);
+        }
+    }
+}
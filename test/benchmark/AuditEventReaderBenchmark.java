@@ -0,0 +1,143 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2017 SRI International
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import spade.reporter.audit.AuditEventReader;
+
+/**
+ * AuditEventReader parsing of a synthetic Linux Audit log held in memory. The log cycles through
+ * execve, open, read, write, clone and close events of a few processes with the records Linux Audit
+ * emits for each (EXECVE, CWD, PATH, PROCTITLE and EOE). 'scale' is the number of events in the log and
+ * every thread (-t) parses its own copy.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(1)
+public class AuditEventReaderBenchmark
+{
+    @Param({"10000", "100000"})
+    public int scale;
+
+    private byte[] log;
+
+    static String syntheticLog(int events)
+    {
+        StringBuilder builder = new StringBuilder(events * 400);
+        long eventId = 21884;
+        for(int i = 0; i < events; i++)
+        {
+            int pid = 4204 + (i / 64) % 16;
+            String header = "msg=audit(1465934562." + String.format("%03d", i % 1000) + ":" + (eventId++) + "): ";
+            String process = " ppid=24413 pid=" + pid + " auid=1000 uid=1000 gid=1000 euid=1000 suid=1000"
+                    + " fsuid=1000 egid=1000 sgid=1000 fsgid=1000 tty=pts2 ses=4 comm=\"touch\" exe=\"/bin/touch\""
+                    + " key=(null)\n";
+            String path = "/home/vagrant/dir" + (i % 100) + "/file" + (i % 1000);
+            switch(i % 8)
+            {
+                case 0:
+                    builder.append("type=SYSCALL ").append(header).append("arch=c000003e syscall=59 success=yes")
+                            .append(" exit=0 a0=26f7c68 a1=2722d88 a2=26f6008 a3=7ffc3f59a7c0 items=2").append(process);
+                    builder.append("type=EXECVE ").append(header).append("argc=2 a0=\"touch\" a1=\"").append(path)
+                            .append("\"\n");
+                    builder.append("type=CWD ").append(header).append(" cwd=\"/home/vagrant\"\n");
+                    builder.append("type=PATH ").append(header).append("item=0 name=\"/usr/bin/touch\" inode=38")
+                            .append(" dev=08:01 mode=0100755 ouid=0 ogid=0 rdev=00:00 nametype=NORMAL\n");
+                    builder.append("type=PATH ").append(header).append("item=1 name=\"/lib64/ld-linux-x86-64.so.2\"")
+                            .append(" inode=2101 dev=08:01 mode=0100755 ouid=0 ogid=0 rdev=00:00 nametype=NORMAL\n");
+                    builder.append("type=PROCTITLE ").append(header).append("proctitle=746F756368\n");
+                    break;
+                case 1:
+                case 5:
+                    builder.append("type=SYSCALL ").append(header).append("arch=c000003e syscall=2 success=yes")
+                            .append(" exit=3 a0=7fa4cb573e47 a1=80000 a2=1 a3=ffffffff items=1").append(process);
+                    builder.append("type=CWD ").append(header).append(" cwd=\"/home/vagrant\"\n");
+                    builder.append("type=PATH ").append(header).append("item=0 name=\"").append(path)
+                            .append("\" inode=").append(76447 + i % 1000).append(" dev=08:01 mode=0100644")
+                            .append(" ouid=0 ogid=0 rdev=00:00 nametype=NORMAL\n");
+                    builder.append("type=PROCTITLE ").append(header).append("proctitle=746F756368\n");
+                    break;
+                case 2:
+                    builder.append("type=SYSCALL ").append(header).append("arch=c000003e syscall=0 success=yes")
+                            .append(" exit=832 a0=3 a1=7ffc3f59a968 a2=340 a3=8 items=0").append(process);
+                    break;
+                case 3:
+                    builder.append("type=SYSCALL ").append(header).append("arch=c000003e syscall=1 success=yes")
+                            .append(" exit=36 a0=3 a1=7f1d1e6b4430 a2=24 a3=8 items=0").append(process);
+                    break;
+                case 4:
+                    builder.append("type=SYSCALL ").append(header).append("arch=c000003e syscall=56 success=yes")
+                            .append(" exit=").append(pid + 1).append(" a0=1200011 a1=0 a2=0 a3=7f01005ada10 items=0")
+                            .append(process);
+                    break;
+                default:
+                    builder.append("type=SYSCALL ").append(header).append("arch=c000003e syscall=3 success=yes")
+                            .append(" exit=0 a0=3 a1=7ffc3f59a900 a2=7ffc3f59a980 a3=8 items=0").append(process);
+                    break;
+            }
+            builder.append("type=EOE ").append(header).append("\n");
+        }
+        return builder.toString();
+    }
+
+    @Setup
+    public void setup()
+    {
+        log = syntheticLog(scale).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public int readEvents() throws Exception
+    {
+        AuditEventReader reader = new AuditEventReader("benchmark", new ByteArrayInputStream(log), false);
+        int events = 0;
+        int keys = 0;
+        Map<String, String> eventData;
+        while((eventData = reader.readEventData()) != null)
+        {
+            events++;
+            keys += eventData.size();
+        }
+        reader.close();
+        if(events != scale)
+        {
+            throw new IllegalStateException("Read " + events + " events instead of " + scale);
+        }
+        return keys;
+    }
+}
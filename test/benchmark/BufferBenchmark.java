@@ -0,0 +1,124 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2017 SRI International
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import spade.core.AbstractEdge;
+import spade.core.AbstractVertex;
+import spade.core.Buffer;
+
+/**
+ * Buffer put and poll under contention.
+ *
+ * putPoll: every thread puts an element and polls one. The thread count is set with -t.
+ * reporters: reporter threads put and one kernel thread polls, like the Kernel main loop. The thread counts
+ * are set with -tg (e.g. -tg 4,1). Reporters skip the put while the buffer has more than twice 'scale'
+ * elements so that the queue stays bounded when the consumer falls behind.
+ *
+ * 'scale' is the number of elements in the buffer when an iteration starts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BufferBenchmark
+{
+    @Param({"1000", "100000"})
+    public int scale;
+
+    private Buffer buffer;
+    private AbstractVertex[] vertices;
+    private AbstractEdge[] edges;
+
+    @Setup(Level.Trial)
+    public void createElements()
+    {
+        List<AbstractVertex> vertexList = SyntheticElements.vertices(1024);
+        vertices = vertexList.toArray(new AbstractVertex[0]);
+        edges = SyntheticElements.edges(vertexList, 1024, 0).toArray(new AbstractEdge[0]);
+    }
+
+    @Setup(Level.Iteration)
+    public void fillBuffer()
+    {
+        buffer = new Buffer();
+        for(int i = 0; i < scale; i++)
+        {
+            buffer.putVertex(vertices[i & 1023]);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor
+    {
+        int next;
+    }
+
+    private boolean offer(Cursor cursor)
+    {
+        int i = cursor.next++ & 1023;
+        return ((i & 1) == 0) ? buffer.putVertex(vertices[i]) : buffer.putEdge(edges[i]);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public Object putPoll(Cursor cursor)
+    {
+        offer(cursor);
+        return buffer.getBufferElement();
+    }
+
+    @Benchmark
+    @Group("reporters")
+    @GroupThreads(2)
+    public boolean put(Cursor cursor)
+    {
+        if(buffer.size() > 2 * scale)
+        {
+            return false;
+        }
+        return offer(cursor);
+    }
+
+    @Benchmark
+    @Group("reporters")
+    @GroupThreads(1)
+    public Object poll()
+    {
+        return buffer.getBufferElement();
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2017 SRI International
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import spade.core.AbstractEdge;
+import spade.core.AbstractVertex;
+import spade.core.Edge;
+import spade.core.Vertex;
+
+/**
+ * Construction and bigHashCode of vertices and edges. 'annotations' is the number of annotations per
+ * element. The thread count is set with -t.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+public class ElementBenchmark
+{
+    @Param({"5", "20"})
+    public int annotations;
+
+    private String[] keys;
+    private String[] values;
+    private AbstractVertex vertex;
+    private AbstractEdge edge;
+
+    @Setup
+    public void setup()
+    {
+        keys = new String[annotations];
+        values = new String[annotations];
+        for(int i = 0; i < annotations; i++)
+        {
+            keys[i] = "key" + i;
+            values[i] = "/home/user/dir" + i + "/value" + (i * 31);
+        }
+        List<AbstractVertex> vertices = SyntheticElements.vertices(2);
+        vertex = newVertex();
+        edge = new Edge(vertices.get(1), vertices.get(0));
+        for(int i = 0; i < annotations; i++)
+        {
+            edge.addAnnotation(keys[i], values[i]);
+        }
+    }
+
+    private AbstractVertex newVertex()
+    {
+        AbstractVertex newVertex = new Vertex();
+        for(int i = 0; i < annotations; i++)
+        {
+            newVertex.addAnnotation(keys[i], values[i]);
+        }
+        return newVertex;
+    }
+
+    @Benchmark
+    public AbstractVertex constructVertex()
+    {
+        return newVertex();
+    }
+
+    @Benchmark
+    public AbstractEdge constructEdge()
+    {
+        AbstractEdge newEdge = new Edge(edge.getChildVertex(), edge.getParentVertex());
+        for(int i = 0; i < annotations; i++)
+        {
+            newEdge.addAnnotation(keys[i], values[i]);
+        }
+        return newEdge;
+    }
+
+    @Benchmark
+    public String vertexBigHashCode()
+    {
+        return vertex.bigHashCode();
+    }
+
+    @Benchmark
+    public String edgeBigHashCode()
+    {
+        return edge.bigHashCode();
+    }
+
+    @Benchmark
+    public int vertexHashCode()
+    {
+        return vertex.hashCode();
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2017 SRI International
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package benchmark;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import spade.utility.Result;
+import spade.utility.map.external.ExternalMap;
+import spade.utility.map.external.ExternalMapArgument;
+import spade.utility.map.external.ExternalMapManager;
+
+/**
+ * ExternalMap get and put for each store with the LRU cache holding 'cachePercent' percent of the keys.
+ * 'scale' is the number of keys in the map. ExternalMap is not thread-safe so every thread (-t) has its own
+ * map and store, like the Audit reporter maps.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(1)
+public class ExternalMapBenchmark
+{
+    @Param({"100000"})
+    public int scale;
+
+    @Param({"0", "10", "100"})
+    public int cachePercent;
+
+    @Param({"LevelDB", "BerkeleyDB"})
+    public String store;
+
+    private File directory;
+    private ExternalMap<String, String> map;
+    private String[] keys;
+    private String[] values;
+    private Random random;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        directory = Files.createTempDirectory("spade-externalmap").toFile();
+        String mapId = "BenchmarkMap";
+        Map<String, String> arguments = new HashMap<>();
+        arguments.put(mapId + "." + ExternalMapArgument.keyMapArgument, "flushOnClose=false");
+        arguments.put(mapId + "." + ExternalMapArgument.keyScreenName, "BloomFilter");
+        arguments.put(mapId + "." + ExternalMapArgument.keyScreenArgument,
+                "expectedElements=" + scale + " falsePositiveProbability=0.0001");
+        arguments.put(mapId + "." + ExternalMapArgument.keyCacheName, "LRU");
+        arguments.put(mapId + "." + ExternalMapArgument.keyCacheArgument, "size=" + ((long) scale * cachePercent / 100));
+        arguments.put(mapId + "." + ExternalMapArgument.keyStoreName, store);
+        if(store.equals("LevelDB"))
+        {
+            arguments.put(mapId + "." + ExternalMapArgument.keyStoreArgument,
+                    "databasePath=" + new File(directory, "db").getAbsolutePath() + " deleteOnClose=true");
+        }
+        else
+        {
+            arguments.put(mapId + "." + ExternalMapArgument.keyStoreArgument,
+                    "environmentPath=" + new File(directory, "db").getAbsolutePath() + " dbName=" + mapId
+                            + " deleteOnClose=true");
+        }
+        Result<ExternalMapArgument> argumentResult = ExternalMapManager.parseArgumentFromMap(mapId, arguments);
+        if(argumentResult.error)
+        {
+            throw new IllegalStateException(argumentResult.toErrorString());
+        }
+        Result<ExternalMap<String, String>> mapResult = ExternalMapManager.create(argumentResult.result);
+        if(mapResult.error)
+        {
+            throw new IllegalStateException(mapResult.toErrorString());
+        }
+        map = mapResult.result;
+
+        keys = new String[scale];
+        values = new String[scale];
+        for(int i = 0; i < scale; i++)
+        {
+            keys[i] = "1000" + i + ":/home/user/dir" + (i % 100) + "/file" + i;
+            values[i] = "inode=" + (76447 + i) + " version=" + (i % 7) + " epoch=0";
+            map.put(keys[i], values[i]);
+        }
+        random = new Random(0);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception
+    {
+        map.close();
+        FileUtils.deleteQuietly(directory);
+    }
+
+    @Benchmark
+    public String get()
+    {
+        return map.get(keys[random.nextInt(scale)]);
+    }
+
+    @Benchmark
+    public void put()
+    {
+        int i = random.nextInt(scale);
+        map.put(keys[i], values[i]);
+    }
+}
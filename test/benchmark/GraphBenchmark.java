@@ -0,0 +1,96 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2017 SRI International
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import spade.core.AbstractEdge;
+import spade.core.AbstractVertex;
+import spade.core.Graph;
+
+/**
+ * Building a Graph with putVertex and putEdge and the union of two graphs that share half of their
+ * elements. 'scale' is the number of vertices per graph, with twice as many edges. Each thread (-t) builds
+ * its own graphs since Graph is not thread-safe.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(1)
+public class GraphBenchmark
+{
+    @Param({"1000", "50000"})
+    public int scale;
+
+    private List<AbstractVertex> vertices;
+    private List<AbstractEdge> edges;
+    private Graph first;
+    private Graph second;
+
+    @Setup
+    public void setup()
+    {
+        vertices = SyntheticElements.vertices(scale * 3 / 2);
+        edges = SyntheticElements.edges(vertices, scale * 3, 0);
+        first = build(0, scale, 0, scale * 2);
+        second = build(scale / 2, scale * 3 / 2, scale, scale * 3);
+    }
+
+    private Graph build(int fromVertex, int toVertex, int fromEdge, int toEdge)
+    {
+        Graph graph = new Graph();
+        for(int i = fromVertex; i < toVertex; i++)
+        {
+            graph.putVertex(vertices.get(i));
+        }
+        for(int i = fromEdge; i < toEdge; i++)
+        {
+            graph.putEdge(edges.get(i));
+        }
+        graph.commitIndex();
+        return graph;
+    }
+
+    @Benchmark
+    public Graph putVerticesAndEdges()
+    {
+        return build(0, scale, 0, scale * 2);
+    }
+
+    @Benchmark
+    public Graph union()
+    {
+        return Graph.union(first, second);
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2017 SRI International
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package benchmark;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import spade.core.AbstractEdge;
+import spade.core.AbstractVertex;
+import spade.storage.TextFile;
+import spade.storage.kafka.Edge;
+import spade.storage.kafka.FileWriter;
+import spade.storage.kafka.GraphElement;
+import spade.storage.kafka.Vertex;
+
+/**
+ * Serialisation of vertices and edges by the TextFile storage and by the Kafka storage file writer (Avro
+ * records as built by spade.storage.Kafka). 'annotations' is the number of extra annotations per element on
+ * top of the usual ones. Every thread (-t) writes its own files, which are recreated for every iteration.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+public class SerializationBenchmark
+{
+    private static final String KAFKA_SCHEMA = "cfg/spade.storage.Kafka.avsc";
+
+    @Param({"0", "20"})
+    public int annotations;
+
+    private AbstractVertex[] vertices;
+    private AbstractEdge[] edges;
+    private int next;
+    private File textFilePath;
+    private File kafkaFilePath;
+    private TextFile textFile;
+    private FileWriter kafkaWriter;
+
+    @Setup(Level.Trial)
+    public void createElements()
+    {
+        List<AbstractVertex> vertexList = SyntheticElements.vertices(1024);
+        List<AbstractEdge> edgeList = SyntheticElements.edges(vertexList, 1024, 0);
+        for(int i = 0; i < 1024; i++)
+        {
+            for(int j = 0; j < annotations; j++)
+            {
+                vertexList.get(i).addAnnotation("extra" + j, "value" + (i * j));
+                edgeList.get(i).addAnnotation("extra" + j, "value" + (i * j));
+            }
+        }
+        vertices = vertexList.toArray(new AbstractVertex[0]);
+        edges = edgeList.toArray(new AbstractEdge[0]);
+    }
+
+    @Setup(Level.Iteration)
+    public void openFiles() throws Exception
+    {
+        textFilePath = File.createTempFile("spade-textfile", ".txt");
+        kafkaFilePath = File.createTempFile("spade-kafka", ".avro");
+        textFile = new TextFile();
+        if(!textFile.initialize(textFilePath.getAbsolutePath()))
+        {
+            throw new IllegalStateException("Failed to initialize TextFile storage");
+        }
+        kafkaWriter = new FileWriter(KAFKA_SCHEMA, kafkaFilePath.getAbsolutePath());
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeFiles() throws Exception
+    {
+        textFile.shutdown();
+        kafkaWriter.close();
+        textFilePath.delete();
+        kafkaFilePath.delete();
+    }
+
+    @Benchmark
+    public boolean textFileVertex()
+    {
+        return textFile.putVertex(vertices[next++ & 1023]);
+    }
+
+    @Benchmark
+    public boolean textFileEdge()
+    {
+        return textFile.putEdge(edges[next++ & 1023]);
+    }
+
+    @Benchmark
+    public void kafkaFileVertex() throws Exception
+    {
+        AbstractVertex vertex = vertices[next++ & 1023];
+        Vertex.Builder vertexBuilder = Vertex.newBuilder();
+        vertexBuilder.setAnnotations(vertex.getAnnotations());
+        vertexBuilder.setHash(String.valueOf(vertex.hashCode()));
+        kafkaWriter.writeRecord(GraphElement.newBuilder().setElement(vertexBuilder.build()).build());
+    }
+
+    @Benchmark
+    public void kafkaFileEdge() throws Exception
+    {
+        AbstractEdge edge = edges[next++ & 1023];
+        Edge.Builder edgeBuilder = Edge.newBuilder();
+        edgeBuilder.setAnnotations(edge.getAnnotations());
+        edgeBuilder.setChildVertexHash(String.valueOf(edge.getChildVertex().hashCode()));
+        edgeBuilder.setParentVertexHash(String.valueOf(edge.getParentVertex().hashCode()));
+        edgeBuilder.setHash(String.valueOf(edge.hashCode()));
+        kafkaWriter.writeRecord(GraphElement.newBuilder().setElement(edgeBuilder.build()).build());
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2017 SRI International
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import spade.core.AbstractVertex;
+import spade.core.BloomFilter;
+import spade.core.MatrixFilter;
+
+/**
+ * BloomFilter and MatrixFilter add and contains. 'scale' is the expected number of elements of the filters,
+ * which are filled to that many elements before measuring. The filters are shared by the threads (-t) as in
+ * the sketches; MatrixFilter locks on updates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+public class SketchFilterBenchmark
+{
+    private static final double FALSE_POSITIVE_PROBABILITY = 0.0001;
+
+    @Param({"10000", "1000000"})
+    public int scale;
+
+    private AbstractVertex[] vertices;
+    private BloomFilter<AbstractVertex> bloomFilter;
+    private MatrixFilter matrixFilter;
+
+    @Setup
+    public void setup()
+    {
+        // More vertices than the filters hold so that lookups include absent elements
+        List<AbstractVertex> vertexList = SyntheticElements.vertices(Math.min(scale * 2, 1 << 20));
+        vertices = vertexList.toArray(new AbstractVertex[0]);
+        bloomFilter = new BloomFilter<>(FALSE_POSITIVE_PROBABILITY, scale);
+        matrixFilter = new MatrixFilter(FALSE_POSITIVE_PROBABILITY, scale);
+        for(int i = 0; i < scale; i++)
+        {
+            AbstractVertex vertex = vertices[i % vertices.length];
+            bloomFilter.add(vertex);
+            matrixFilter.add(vertex, vertices[(i + 1) % vertices.length]);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor
+    {
+        int next;
+
+        AbstractVertex next(AbstractVertex[] vertices)
+        {
+            next = (next + 1) % vertices.length;
+            return vertices[next];
+        }
+    }
+
+    @Benchmark
+    public void bloomFilterAdd(Cursor cursor)
+    {
+        bloomFilter.add(cursor.next(vertices));
+    }
+
+    @Benchmark
+    public boolean bloomFilterContains(Cursor cursor)
+    {
+        return bloomFilter.contains(cursor.next(vertices));
+    }
+
+    @Benchmark
+    public void matrixFilterAdd(Cursor cursor)
+    {
+        matrixFilter.add(cursor.next(vertices), cursor.next(vertices));
+    }
+
+    @Benchmark
+    public boolean matrixFilterContains(Cursor cursor)
+    {
+        return matrixFilter.contains(cursor.next(vertices));
+    }
+}
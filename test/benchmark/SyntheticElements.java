@@ -0,0 +1,95 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2017 SRI International
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import spade.core.AbstractEdge;
+import spade.core.AbstractVertex;
+import spade.core.Edge;
+import spade.core.Vertex;
+
+/**
+ * Deterministic vertices and edges shaped like the ones the Audit reporter emits, shared by the benchmarks
+ * so that their numbers are comparable.
+ */
+final class SyntheticElements
+{
+    private SyntheticElements()
+    {
+    }
+
+    static AbstractVertex vertex(int i)
+    {
+        AbstractVertex vertex = new Vertex();
+        if(i % 4 == 0)
+        {
+            vertex.addAnnotation("type", "Process");
+            vertex.addAnnotation("pid", String.valueOf(1000 + i));
+            vertex.addAnnotation("ppid", String.valueOf(1000 + i / 2));
+            vertex.addAnnotation("name", "proc" + (i % 50));
+            vertex.addAnnotation("uid", "1000");
+            vertex.addAnnotation("start time", String.valueOf(1465934562L + i));
+        }
+        else
+        {
+            vertex.addAnnotation("type", "Artifact");
+            vertex.addAnnotation("subtype", "file");
+            vertex.addAnnotation("path", "/home/user/dir" + (i % 100) + "/file" + i);
+            vertex.addAnnotation("version", String.valueOf(i % 7));
+            vertex.addAnnotation("epoch", "0");
+        }
+        return vertex;
+    }
+
+    static AbstractEdge edge(AbstractVertex child, AbstractVertex parent, int i)
+    {
+        AbstractEdge edge = new Edge(child, parent);
+        edge.addAnnotation("type", (i % 2 == 0) ? "Used" : "WasGeneratedBy");
+        edge.addAnnotation("operation", (i % 3 == 0) ? "read" : "write");
+        edge.addAnnotation("event id", String.valueOf(i));
+        edge.addAnnotation("time", "1465934562." + (i % 1000));
+        edge.addAnnotation("size", String.valueOf(i % 4096));
+        return edge;
+    }
+
+    static List<AbstractVertex> vertices(int count)
+    {
+        List<AbstractVertex> vertices = new ArrayList<>(count);
+        for(int i = 0; i < count; i++)
+        {
+            vertices.add(vertex(i));
+        }
+        return vertices;
+    }
+
+    // Mostly recent parents, like provenance from a running system
+    static List<AbstractEdge> edges(List<AbstractVertex> vertices, int count, long seed)
+    {
+        Random random = new Random(seed);
+        List<AbstractEdge> edges = new ArrayList<>(count);
+        for(int i = 0; i < count; i++)
+        {
+            int child = 1 + random.nextInt(vertices.size() - 1);
+            int parent = Math.max(0, child - 1 - random.nextInt(Math.min(child, 200)));
+            edges.add(edge(vertices.get(child), vertices.get(parent), i));
+        }
+        return edges;
+    }
+}
@@ -0,0 +1,385 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2017 SRI International
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package core;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import spade.core.AbstractEdge;
+import spade.core.AbstractStorage;
+import spade.core.AbstractVertex;
+import spade.core.Buffer;
+import spade.core.Graph;
+import spade.core.Kernel;
+import spade.reporter.Audit;
+import spade.utility.Result;
+import spade.utility.SyntheticAuditLog;
+import spade.utility.profile.LatencyHistogram;
+
+/**
+ * Sustained ingest rate of SPADE for a filter/storage configuration. Starts SPADE headless in this JVM,
+ * replays a synthetic Audit log (spade.utility.SyntheticAuditLog) or the given log through the Audit reporter
+ * and reports records/sec, vertices/sec and edges/sec, the latency from the reporter buffer to the storages,
+ * peak heap and GC time.
+ *
+ * The modules file has the control commands of cfg/spade.config ('add filter ...', 'add storage ...'). The
+ * reporter lines in it are ignored. Arguments:
+ *   log=path                 replay this log instead of generating one
+ *   audit.key=value          passed to Audit (defaults: fileIO=true netIO=true units=true if UBSI units are
+ *                            generated)
+ *   reportSeconds=n          seconds between progress lines (default 5)
+ *   any other key=value      passed to the generator (see cfg/spade.utility.SyntheticAuditLog.config)
+ *
+ * Audit replays logs through spadeAuditBridge so it must be built (make build-linuxaudit). Run with a
+ * heap that fits the configuration, e.g. java -Xmx4g.
+ *
+ * Usage: IngestHarness modulesFile|- [key=value ...]
+ */
+public class IngestHarness
+{
+    // One in this many buffered elements is timed to the storages
+    private static final int LATENCY_SAMPLE_RATE = 16;
+    // Samples not at the storages after this long were dropped or replaced by a filter
+    private static final long SAMPLE_EXPIRY_NANOS = 60L * 1000 * 1000 * 1000;
+
+    // Guarded by enqueueTimes
+    private static final Map<Object, Long> enqueueTimes = new IdentityHashMap<>();
+    // Sampled elements in the order sampled. Guarded by enqueueTimes
+    private static final Deque<Object> sampleOrder = new ArrayDeque<>();
+    private static long expiredSamples = 0;
+    private static final LatencyHistogram latency = new LatencyHistogram();
+
+    private static class TimedBuffer extends Buffer
+    {
+        private final AtomicLong puts = new AtomicLong();
+
+        private void sample(Object element)
+        {
+            if(puts.incrementAndGet() % LATENCY_SAMPLE_RATE == 0)
+            {
+                long now = System.nanoTime();
+                synchronized(enqueueTimes)
+                {
+                    enqueueTimes.put(element, now);
+                    sampleOrder.addLast(element);
+                    expireSamples(now);
+                }
+            }
+        }
+
+        @Override
+        public boolean putVertex(AbstractVertex incomingVertex)
+        {
+            sample(incomingVertex);
+            return super.putVertex(incomingVertex);
+        }
+
+        @Override
+        public boolean putEdge(AbstractEdge incomingEdge)
+        {
+            sample(incomingEdge);
+            return super.putEdge(incomingEdge);
+        }
+    }
+
+    // Drops the samples timed already and the ones too old to still reach the storages. Called with the lock
+    private static void expireSamples(long now)
+    {
+        Object oldest;
+        while((oldest = sampleOrder.peekFirst()) != null)
+        {
+            Long start = enqueueTimes.get(oldest);
+            if(start != null)
+            {
+                if(now - start < SAMPLE_EXPIRY_NANOS)
+                {
+                    break;
+                }
+                enqueueTimes.remove(oldest);
+                expiredSamples++;
+            }
+            sampleOrder.removeFirst();
+        }
+    }
+
+    // Receives every element that reaches the storages. Elements replaced by filters are not timed.
+    private static class ProbeStorage extends AbstractStorage
+    {
+        private final LongAdder vertices = new LongAdder();
+        private final LongAdder edges = new LongAdder();
+
+        private void time(Object element)
+        {
+            Long start;
+            synchronized(enqueueTimes)
+            {
+                start = enqueueTimes.isEmpty() ? null : enqueueTimes.remove(element);
+            }
+            if(start != null)
+            {
+                latency.record(System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        public boolean initialize(String arguments)
+        {
+            return true;
+        }
+
+        @Override
+        public AbstractEdge getEdge(String childVertexHash, String parentVertexHash)
+        {
+            return null;
+        }
+
+        @Override
+        public AbstractVertex getVertex(String vertexHash)
+        {
+            return null;
+        }
+
+        @Override
+        public Graph getChildren(String parentHash)
+        {
+            return null;
+        }
+
+        @Override
+        public Graph getParents(String childVertexHash)
+        {
+            return null;
+        }
+
+        @Override
+        public boolean putEdge(AbstractEdge incomingEdge)
+        {
+            edges.increment();
+            time(incomingEdge);
+            return true;
+        }
+
+        @Override
+        public boolean putVertex(AbstractVertex incomingVertex)
+        {
+            vertices.increment();
+            time(incomingVertex);
+            return true;
+        }
+
+        @Override
+        public Object executeQuery(String query)
+        {
+            return null;
+        }
+    }
+
+    private static long countRecords(String path) throws Exception
+    {
+        long records = 0;
+        try(BufferedReader reader = new BufferedReader(new FileReader(path)))
+        {
+            while(reader.readLine() != null)
+            {
+                records++;
+            }
+        }
+        return records;
+    }
+
+    private static void addModules(String modulesFile) throws Exception
+    {
+        if(modulesFile.equals("-"))
+        {
+            return;
+        }
+        try(BufferedReader reader = new BufferedReader(new FileReader(modulesFile)))
+        {
+            String line;
+            while((line = reader.readLine()) != null)
+            {
+                line = line.trim();
+                if(line.isEmpty() || line.startsWith("#") || line.toLowerCase().startsWith("add reporter"))
+                {
+                    continue;
+                }
+                System.out.print(line + ": ");
+                Kernel.executeCommand(line, System.out);
+            }
+        }
+    }
+
+    private static long heapPeak()
+    {
+        long peak = 0;
+        for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if(pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null)
+            {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    private static long[] gcTotals()
+    {
+        long[] totals = new long[2];
+        for(GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+        {
+            totals[0] += Math.max(0, collector.getCollectionCount());
+            totals[1] += Math.max(0, collector.getCollectionTime());
+        }
+        return totals;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        if(args.length < 1)
+        {
+            System.err.println("Usage: IngestHarness modulesFile|- [log=path] [audit.key=value ...] [reportSeconds=n] [generator key=value ...]");
+            return;
+        }
+        String logPath = null;
+        int reportSeconds = 5;
+        StringBuilder auditArguments = new StringBuilder();
+        StringBuilder generatorArguments = new StringBuilder();
+        for(int i = 1; i < args.length; i++)
+        {
+            String[] tokens = args[i].split("=", 2);
+            if(tokens.length != 2)
+            {
+                System.err.println("Not a key=value argument: " + args[i]);
+                return;
+            }
+            if(tokens[0].equals("log"))
+            {
+                logPath = tokens[1];
+            }
+            else if(tokens[0].equals("reportSeconds"))
+            {
+                reportSeconds = Integer.parseInt(tokens[1]);
+            }
+            else if(tokens[0].startsWith("audit."))
+            {
+                auditArguments.append(' ').append(tokens[0].substring(6)).append('=').append(tokens[1]);
+            }
+            else
+            {
+                generatorArguments.append(' ').append(args[i]);
+            }
+        }
+
+        // Before anything logs so that Kernel installs its LogManager
+        Kernel.startHeadless();
+
+        long records;
+        boolean units = false;
+        if(logPath == null)
+        {
+            Result<SyntheticAuditLog> generatorResult = SyntheticAuditLog.create(generatorArguments.toString());
+            if(generatorResult.error)
+            {
+                System.err.println(generatorResult.toErrorString());
+                return;
+            }
+            File logFile = File.createTempFile("spade-synthetic-audit", ".log");
+            logFile.deleteOnExit();
+            logPath = logFile.getAbsolutePath();
+            long start = System.nanoTime();
+            SyntheticAuditLog.Summary summary = generatorResult.result.write(logPath);
+            System.out.println(String.format("Generated %s in %.1f s", summary, (System.nanoTime() - start) / 1e9));
+            records = summary.records;
+            units = summary.units > 0;
+        }
+        else
+        {
+            records = countRecords(logPath);
+        }
+        String arguments = "inputLog=" + logPath + " fileIO=true netIO=true units=" + units + auditArguments;
+
+        addModules(args[0]);
+        ProbeStorage probe = new ProbeStorage();
+        Kernel.storages.add(probe);
+
+        System.gc();
+        for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            pool.resetPeakUsage();
+        }
+        long[] gcBefore = gcTotals();
+        long start = System.nanoTime();
+
+        TimedBuffer buffer = new TimedBuffer();
+        Audit audit = new Audit();
+        System.out.println("Audit " + arguments);
+        if(!Kernel.addReporter(audit, buffer, arguments))
+        {
+            System.err.println("Failed to launch Audit. See the log for the reason");
+            System.exit(1);
+        }
+
+        long lastReport = System.nanoTime();
+        long lastElements = 0;
+        while(audit.isReadingEvents())
+        {
+            Thread.sleep(100);
+            long now = System.nanoTime();
+            if(now - lastReport >= reportSeconds * 1000000000L)
+            {
+                long elements = probe.vertices.sum() + probe.edges.sum();
+                System.out.println(String.format("%6.0f s: %d vertices, %d edges, %.0f elements/s, %d buffered",
+                        (now - start) / 1e9, probe.vertices.sum(), probe.edges.sum(),
+                        (elements - lastElements) / ((now - lastReport) / 1e9), buffer.size()));
+                lastReport = now;
+                lastElements = elements;
+            }
+        }
+        // Waits for the buffer and the filters to be drained and shuts down the storages
+        Kernel.shutdown();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long[] gcAfter = gcTotals();
+
+        long vertices = probe.vertices.sum();
+        long edges = probe.edges.sum();
+        System.out.println(String.format("Ingested %d records (%d vertices, %d edges) in %.1f s", records, vertices,
+                edges, seconds));
+        System.out.println(String.format("Throughput: %.0f records/s, %.0f vertices/s, %.0f edges/s",
+                records / seconds, vertices / seconds, edges / seconds));
+        System.out.println(String.format("Buffer to storage latency (%d sampled): p50 %.3f ms, p90 %.3f ms, p99 %.3f ms, p99.9 %.3f ms, max %.3f ms",
+                latency.getCount(), latency.getPercentile(50) / 1e6, latency.getPercentile(90) / 1e6,
+                latency.getPercentile(99) / 1e6, latency.getPercentile(99.9) / 1e6, latency.getMax() / 1e6));
+        synchronized(enqueueTimes)
+        {
+            System.out.println("Samples dropped or replaced by filters: " + (expiredSamples + enqueueTimes.size()));
+        }
+        System.out.println(String.format("Peak heap: %d MB, GC: %d collections, %.1f s (%.1f%% of the run)",
+                heapPeak() >> 20, gcAfter[0] - gcBefore[0], (gcAfter[1] - gcBefore[1]) / 1e3,
+                (gcAfter[1] - gcBefore[1]) / 10.0 / seconds));
+    }
+}
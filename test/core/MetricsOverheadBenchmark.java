@@ -0,0 +1,177 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2017 SRI International
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import spade.core.AbstractEdge;
+import spade.core.AbstractFilter;
+import spade.core.AbstractStorage;
+import spade.core.AbstractVertex;
+import spade.core.Edge;
+import spade.core.Graph;
+import spade.core.Metrics;
+import spade.core.Vertex;
+import spade.filter.FinalCommitFilter;
+
+/**
+ * Time per element through a filter list of pass-through filters and a storage that drops everything,
+ * with metrics disabled and enabled. This is the overhead of the instrumentation on the hot path.
+ *
+ * Usage: MetricsOverheadBenchmark [elements] [filters] [rounds] [sample rate]
+ */
+public class MetricsOverheadBenchmark
+{
+
+    private static class PassThrough extends AbstractFilter
+    {
+        @Override
+        public void putVertex(AbstractVertex incomingVertex)
+        {
+            putInNextFilter(incomingVertex);
+        }
+
+        @Override
+        public void putEdge(AbstractEdge incomingEdge)
+        {
+            putInNextFilter(incomingEdge);
+        }
+    }
+
+    private static class NullStorage extends AbstractStorage
+    {
+        private long count = 0;
+
+        @Override
+        public boolean initialize(String arguments)
+        {
+            return true;
+        }
+
+        @Override
+        public AbstractEdge getEdge(String childVertexHash, String parentVertexHash)
+        {
+            return null;
+        }
+
+        @Override
+        public AbstractVertex getVertex(String vertexHash)
+        {
+            return null;
+        }
+
+        @Override
+        public Graph getChildren(String parentHash)
+        {
+            return null;
+        }
+
+        @Override
+        public Graph getParents(String childVertexHash)
+        {
+            return null;
+        }
+
+        @Override
+        public boolean putEdge(AbstractEdge incomingEdge)
+        {
+            count++;
+            return true;
+        }
+
+        @Override
+        public boolean putVertex(AbstractVertex incomingVertex)
+        {
+            count++;
+            return true;
+        }
+
+        @Override
+        public Object executeQuery(String query)
+        {
+            return null;
+        }
+    }
+
+    // Created with metrics enabled or disabled since filters and storages check once when created
+    private static AbstractFilter createFilters(int filterCount)
+    {
+        FinalCommitFilter commitFilter = new FinalCommitFilter();
+        commitFilter.storages = Collections.synchronizedSet(new HashSet<AbstractStorage>());
+        commitFilter.storages.add(new NullStorage());
+        AbstractFilter next = commitFilter;
+        for(int i = 0; i < filterCount; i++)
+        {
+            AbstractFilter filter = new PassThrough();
+            filter.setNextFilter(next);
+            next = filter;
+        }
+        return next;
+    }
+
+    private static long run(AbstractFilter first, List<AbstractVertex> vertices, List<AbstractEdge> edges)
+    {
+        long start = System.nanoTime();
+        for(int i = 0; i < vertices.size(); i++)
+        {
+            AbstractFilter.putInFilter(first, vertices.get(i));
+            AbstractFilter.putInFilter(first, edges.get(i));
+        }
+        return System.nanoTime() - start;
+    }
+
+    public static void main(String[] args)
+    {
+        int elements = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int filterCount = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        if(args.length > 3)
+        {
+            Metrics.setSampleRate(Integer.parseInt(args[3]));
+        }
+
+        List<AbstractVertex> vertices = new ArrayList<>();
+        List<AbstractEdge> edges = new ArrayList<>();
+        AbstractVertex previous = new Vertex();
+        for(int i = 0; i < elements / 2; i++)
+        {
+            AbstractVertex vertex = new Vertex();
+            vertex.addAnnotation("pid", String.valueOf(i));
+            vertices.add(vertex);
+            edges.add(new Edge(vertex, previous));
+            previous = vertex;
+        }
+
+        Metrics.setEnabled(false);
+        AbstractFilter disabled = createFilters(filterCount);
+        Metrics.setEnabled(true);
+        AbstractFilter enabled = createFilters(filterCount);
+
+        for(int round = 1; round <= rounds; round++)
+        {
+            long disabledNanos = run(disabled, vertices, edges);
+            long enabledNanos = run(enabled, vertices, edges);
+            System.out.println(String.format("Round %d: disabled %.1f ns/element, enabled %.1f ns/element (%d filters)",
+                    round, (double) disabledNanos / elements, (double) enabledNanos / elements, filterCount));
+        }
+        Metrics.sample();
+        System.out.println(Metrics.getReport());
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2017 SRI International
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package filter;
+
+import spade.core.AbstractEdge;
+import spade.core.AbstractFilter;
+import spade.core.AbstractVertex;
+import spade.core.Edge;
+import spade.core.Vertex;
+import spade.filter.CycleAvoidance;
+import spade.filter.GraphFinesse;
+import spade.utility.ReachabilityIndex;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Cycle checks on synthetic Audit-like graphs with the ancestor and descendant sets that GraphFinesse
+ * used to keep against ReachabilityIndex, followed by GraphFinesse and CycleAvoidance end to end.
+ *
+ * The graph has processes that read and write files and fork. Files are not versioned on write so
+ * reads and writes of the same file create cycles, as in Audit without versioning.
+ *
+ * Usage: ReachabilityBenchmark [largest event count] [largest event count for ancestor sets]
+ * Run from the SPADE directory since GraphFinesse reads its external maps from cfg.
+ */
+public class ReachabilityBenchmark {
+
+	// Edges as child, parent pairs of vertex ids
+	private static int[][] createGraph(int events, Random random, List<AbstractVertex> vertices){
+		List<Integer> processes = new ArrayList<Integer>();
+		List<Integer> files = new ArrayList<Integer>();
+		int[][] edges = new int[events][];
+		processes.add(addVertex(vertices, "Process", 0));
+		for(int event = 0; event < events; event++){
+			int process = processes.get(Math.max(0, processes.size() - 1 - random.nextInt(Math.min(processes.size(), 50))));
+			int choice = random.nextInt(10);
+			if(choice == 0){
+				// fork
+				int child = addVertex(vertices, "Process", vertices.size());
+				processes.add(child);
+				edges[event] = new int[]{child, process};
+			}else if(choice < 3 || files.isEmpty()){
+				// create a file
+				int file = addVertex(vertices, "Artifact", vertices.size());
+				files.add(file);
+				edges[event] = new int[]{file, process};
+			}else{
+				// mostly recent files, like a working set
+				int file = files.get(Math.max(0, files.size() - 1 - random.nextInt(Math.min(files.size(), 200))));
+				edges[event] = (choice < 7) ? new int[]{process, file} : new int[]{file, process};
+			}
+		}
+		return edges;
+	}
+
+	private static int addVertex(List<AbstractVertex> vertices, String type, int id){
+		AbstractVertex vertex = new Vertex();
+		vertex.addAnnotation("type", type);
+		vertex.addAnnotation(type.equals("Process") ? "pid" : "path", String.valueOf(id));
+		vertices.add(vertex);
+		return vertices.size() - 1;
+	}
+
+	// The transitive closure kept as in the previous GraphFinesse
+	private static long ancestorSets(int vertexCount, int[][] edges){
+		Map<Integer, Set<Integer>> ancestors = new HashMap<Integer, Set<Integer>>();
+		Map<Integer, Set<Integer>> descendants = new HashMap<Integer, Set<Integer>>();
+		for(int i = 0; i < vertexCount; i++){
+			ancestors.put(i, new HashSet<Integer>());
+			descendants.put(i, new HashSet<Integer>());
+		}
+		long rejected = 0;
+		for(int[] edge : edges){
+			int child = edge[0], parent = edge[1];
+			if(child == parent || ancestors.get(parent).contains(child)){
+				rejected++;
+				continue;
+			}
+			Set<Integer> newAncestors = new HashSet<Integer>(ancestors.get(parent));
+			newAncestors.add(parent);
+			Set<Integer> newDescendants = new HashSet<Integer>(descendants.get(child));
+			newDescendants.add(child);
+			for(int descendant : newDescendants){
+				ancestors.get(descendant).addAll(newAncestors);
+			}
+			for(int ancestor : newAncestors){
+				descendants.get(ancestor).addAll(newDescendants);
+			}
+		}
+		return rejected;
+	}
+
+	private static long index(int vertexCount, int[][] edges, ReachabilityIndex index){
+		for(int i = 0; i < vertexCount; i++){
+			index.addVertex();
+		}
+		long rejected = 0;
+		for(int[] edge : edges){
+			if(!index.addEdge(edge[0], edge[1])){
+				rejected++;
+			}
+		}
+		return rejected;
+	}
+
+	private static class CountingFilter extends AbstractFilter{
+		private long vertices = 0, edges = 0;
+
+		@Override
+		public void putVertex(AbstractVertex incomingVertex){
+			vertices++;
+		}
+
+		@Override
+		public void putEdge(AbstractEdge incomingEdge){
+			edges++;
+		}
+	}
+
+	private static void runFilter(AbstractFilter filter, List<AbstractVertex> vertices, int[][] edges){
+		if(!filter.initialize("")){
+			throw new IllegalStateException("Failed to initialize " + filter.getClass().getSimpleName());
+		}
+		CountingFilter sink = new CountingFilter();
+		filter.setNextFilter(sink);
+		// Vertices are put before their first edge as reporters do
+		boolean[] put = new boolean[vertices.size()];
+		long start = System.nanoTime();
+		for(int[] edge : edges){
+			for(int vertex : edge){
+				if(!put[vertex]){
+					filter.putVertex(vertices.get(vertex));
+					put[vertex] = true;
+				}
+			}
+			AbstractEdge copy = new Edge(vertices.get(edge[0]), vertices.get(edge[1]));
+			copy.addAnnotation("type", "Used");
+			filter.putEdge(copy);
+		}
+		long nanos = System.nanoTime() - start;
+		filter.shutdown();
+		System.out.println(String.format("  %-15s %8.0f ms, passed %d vertices and %d edges",
+				filter.getClass().getSimpleName(), nanos / 1e6, sink.vertices, sink.edges));
+	}
+
+	public static void main(String[] args){
+		int largest = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int largestForSets = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+
+		for(int events = 1000; events <= largest; events *= 10){
+			List<AbstractVertex> vertices = new ArrayList<AbstractVertex>();
+			int[][] edges = createGraph(events, new Random(0), vertices);
+			System.out.println("Events: " + events + ", vertices: " + vertices.size());
+
+			if(events <= largestForSets){
+				long start = System.nanoTime();
+				long rejected = ancestorSets(vertices.size(), edges);
+				System.out.println(String.format("  %-15s %8.0f ms, cycles: %d", "ancestor sets",
+						(System.nanoTime() - start) / 1e6, rejected));
+			}
+
+			ReachabilityIndex index = new ReachabilityIndex();
+			long start = System.nanoTime();
+			long rejected = index(vertices.size(), edges, index);
+			System.out.println(String.format("  %-15s %8.0f ms, cycles: %d", "index", (System.nanoTime() - start) / 1e6, rejected));
+			System.out.println("  " + index.getStatistics());
+
+			runFilter(new GraphFinesse(), vertices, edges);
+			runFilter(new CycleAvoidance(), vertices, edges);
+		}
+	}
+}
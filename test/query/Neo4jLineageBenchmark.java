@@ -0,0 +1,154 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2017 SRI International
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package query;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import spade.core.AbstractEdge;
+import spade.core.AbstractQuery;
+import spade.core.AbstractVertex;
+import spade.core.Edge;
+import spade.core.Graph;
+import spade.core.Vertex;
+import spade.storage.Neo4j;
+
+import static spade.core.AbstractStorage.PRIMARY_KEY;
+
+/**
+ * Lineage queries on a synthetic graph in an embedded Neo4j database with the per-node transactions of
+ * spade.storage.Neo4j.getLineage (legacy index lookup) and with spade.query.neo4j.GetLineage (schema index
+ * lookup and one depth limited traversal).
+ *
+ * The database is created in a new temporary directory.
+ *
+ * Usage: Neo4jLineageBenchmark [vertices] [edges] [queries] [maxDepth]
+ */
+public class Neo4jLineageBenchmark
+{
+
+    // Every vertex has edges to earlier vertices (its parents) so that lineage grows with depth
+    private static void createGraph(Neo4j storage, int vertexCount, int edgeCount, Random random,
+                                    List<String> hashes)
+    {
+        List<AbstractVertex> vertices = new ArrayList<>();
+        for(int i = 0; i < vertexCount; i++)
+        {
+            AbstractVertex vertex = new Vertex();
+            if(i % 4 == 0)
+            {
+                vertex.addAnnotation("type", "Process");
+                vertex.addAnnotation("pid", String.valueOf(i));
+                vertex.addAnnotation("name", "proc" + (i % 50));
+            }
+            else
+            {
+                vertex.addAnnotation("type", "Artifact");
+                vertex.addAnnotation("path", "/home/user/dir" + (i % 100) + "/file" + i);
+                vertex.addAnnotation("version", String.valueOf(i % 7));
+            }
+            vertices.add(vertex);
+            hashes.add(vertex.bigHashCode());
+            storage.putVertex(vertex);
+        }
+        for(int i = 0; i < edgeCount; i++)
+        {
+            int child = 1 + random.nextInt(vertexCount - 1);
+            // Mostly recent parents, like provenance from a running system
+            int parent = Math.max(0, child - 1 - random.nextInt(Math.min(child, 200)));
+            AbstractEdge edge = new Edge(vertices.get(child), vertices.get(parent));
+            edge.addAnnotation("type", (i % 2 == 0) ? "Used" : "WasGeneratedBy");
+            edge.addAnnotation("operation", (i % 3 == 0) ? "read" : "write");
+            edge.addAnnotation("event id", String.valueOf(i));
+            storage.putEdge(edge);
+        }
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        int vertexCount = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int edgeCount = args.length > 1 ? Integer.parseInt(args[1]) : 300000;
+        int queryCount = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        int maxDepth = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+        File directory = Files.createTempDirectory("neo4j-lineage").toFile();
+        Neo4j storage = new Neo4j();
+        if(!storage.initialize("database=" + directory.getAbsolutePath()))
+        {
+            throw new RuntimeException("Failed to initialize storage");
+        }
+        AbstractQuery.setCurrentStorage(storage);
+        System.out.println("Database: " + directory.getAbsolutePath());
+
+        Random random = new Random(0);
+        List<String> hashes = new ArrayList<>();
+        long start = System.nanoTime();
+        createGraph(storage, vertexCount, edgeCount, random, hashes);
+        // Commits the open transaction
+        storage.shutdown();
+        System.out.println(String.format("Inserted %d vertices and %d edges in %.0f ms", vertexCount, edgeCount,
+                (System.nanoTime() - start) / 1e6));
+        storage = new Neo4j();
+        if(!storage.initialize("database=" + directory.getAbsolutePath()))
+        {
+            throw new RuntimeException("Failed to reopen storage");
+        }
+        AbstractQuery.setCurrentStorage(storage);
+
+        List<String> roots = new ArrayList<>();
+        for(int i = 0; i < queryCount; i++)
+        {
+            roots.add(hashes.get(vertexCount / 2 + random.nextInt(vertexCount / 2)));
+        }
+
+        spade.query.neo4j.GetLineage getLineage = new spade.query.neo4j.GetLineage();
+        for(int round = 1; round <= 2; round++)
+        {
+            long[] legacySizes = new long[2];
+            long[] traversalSizes = new long[2];
+            long legacyStart = System.nanoTime();
+            for(String root : roots)
+            {
+                Graph graph = storage.getLineage(PRIMARY_KEY + ":" + root, maxDepth, "ancestors", null);
+                if(graph != null)
+                {
+                    legacySizes[0] += graph.vertexSet().size();
+                    legacySizes[1] += graph.edgeSet().size();
+                }
+            }
+            long legacyNanos = System.nanoTime() - legacyStart;
+            long traversalStart = System.nanoTime();
+            for(String root : roots)
+            {
+                Graph graph = getLineage.execute(PRIMARY_KEY + " = " + root + ", " + maxDepth + ", ancestors");
+                if(graph != null)
+                {
+                    traversalSizes[0] += graph.vertexSet().size();
+                    traversalSizes[1] += graph.edgeSet().size();
+                }
+            }
+            long traversalNanos = System.nanoTime() - traversalStart;
+            System.out.println(String.format("Round %d: legacy %8.0f ms (vertices=%d edges=%d)  traversal %8.0f ms (vertices=%d edges=%d)",
+                    round, legacyNanos / 1e6, legacySizes[0], legacySizes[1], traversalNanos / 1e6,
+                    traversalSizes[0], traversalSizes[1]));
+        }
+        storage.shutdown();
+    }
+}
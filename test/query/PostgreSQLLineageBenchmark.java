@@ -0,0 +1,141 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2017 SRI International
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package query;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import spade.core.AbstractEdge;
+import spade.core.AbstractQuery;
+import spade.core.AbstractVertex;
+import spade.core.Edge;
+import spade.core.Graph;
+import spade.core.Vertex;
+import spade.storage.PostgreSQL;
+
+/**
+ * Lineage queries on a synthetic graph with the traversal in Java (spade.query.common.GetLineage, a query
+ * per vertex and edge) and in PostgreSQL (spade.query.postgresql.GetLineage, one recursive query).
+ *
+ * Needs a running PostgreSQL server configured in cfg/spade.storage.PostgreSQL.config and an empty database.
+ * The table layout is the one in the config.
+ *
+ * Usage: PostgreSQLLineageBenchmark database user password [vertices] [edges] [queries] [maxDepth]
+ */
+public class PostgreSQLLineageBenchmark
+{
+
+    // Every vertex has edges to earlier vertices (its parents) so that lineage grows with depth
+    private static void createGraph(PostgreSQL storage, int vertexCount, int edgeCount, Random random,
+                                    List<String> hashes)
+    {
+        List<AbstractVertex> vertices = new ArrayList<>();
+        for(int i = 0; i < vertexCount; i++)
+        {
+            AbstractVertex vertex = new Vertex();
+            if(i % 4 == 0)
+            {
+                vertex.addAnnotation("type", "Process");
+                vertex.addAnnotation("pid", String.valueOf(i));
+                vertex.addAnnotation("name", "proc" + (i % 50));
+            }
+            else
+            {
+                vertex.addAnnotation("type", "Artifact");
+                vertex.addAnnotation("path", "/home/user/dir" + (i % 100) + "/file" + i);
+                vertex.addAnnotation("version", String.valueOf(i % 7));
+            }
+            vertices.add(vertex);
+            hashes.add(vertex.bigHashCode());
+            storage.putVertex(vertex);
+        }
+        for(int i = 0; i < edgeCount; i++)
+        {
+            int child = 1 + random.nextInt(vertexCount - 1);
+            // Mostly recent parents, like provenance from a running system
+            int parent = Math.max(0, child - 1 - random.nextInt(Math.min(child, 200)));
+            AbstractEdge edge = new Edge(vertices.get(child), vertices.get(parent));
+            edge.addAnnotation("type", (i % 2 == 0) ? "Used" : "WasGeneratedBy");
+            edge.addAnnotation("operation", (i % 3 == 0) ? "read" : "write");
+            edge.addAnnotation("event id", String.valueOf(i));
+            storage.putEdge(edge);
+        }
+    }
+
+    private static long run(AbstractQuery<Graph> query, List<String> roots, int maxDepth, long[] sizes)
+    {
+        long start = System.nanoTime();
+        for(String root : roots)
+        {
+            Graph graph = query.execute("hash = " + root + ", " + maxDepth + ", ancestors");
+            if(graph != null)
+            {
+                sizes[0] += graph.vertexSet().size();
+                sizes[1] += graph.edgeSet().size();
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        if(args.length < 3)
+        {
+            System.err.println("Usage: PostgreSQLLineageBenchmark database user password [vertices] [edges] [queries] [maxDepth]");
+            return;
+        }
+        int vertexCount = args.length > 3 ? Integer.parseInt(args[3]) : 200000;
+        int edgeCount = args.length > 4 ? Integer.parseInt(args[4]) : 600000;
+        int queryCount = args.length > 5 ? Integer.parseInt(args[5]) : 20;
+        int maxDepth = args.length > 6 ? Integer.parseInt(args[6]) : 5;
+
+        PostgreSQL storage = new PostgreSQL();
+        if(!storage.initialize("database=" + args[0] + " databaseUsername=" + args[1] + " databasePassword=" + args[2]))
+        {
+            throw new RuntimeException("Failed to initialize storage");
+        }
+        AbstractQuery.setCurrentStorage(storage);
+        System.out.println("Table layout: " + storage.getTableLayout().configName);
+
+        Random random = new Random(0);
+        List<String> hashes = new ArrayList<>();
+        long start = System.nanoTime();
+        createGraph(storage, vertexCount, edgeCount, random, hashes);
+        // Flushes buffered rows
+        storage.executeQuery("SELECT 1").close();
+        System.out.println(String.format("Inserted %d vertices and %d edges in %.0f ms", vertexCount, edgeCount,
+                (System.nanoTime() - start) / 1e6));
+
+        List<String> roots = new ArrayList<>();
+        for(int i = 0; i < queryCount; i++)
+        {
+            roots.add(hashes.get(vertexCount / 2 + random.nextInt(vertexCount / 2)));
+        }
+
+        for(int round = 1; round <= 2; round++)
+        {
+            long[] javaSizes = new long[2];
+            long[] sqlSizes = new long[2];
+            long javaNanos = run(new spade.query.common.GetLineage(), roots, maxDepth, javaSizes);
+            long sqlNanos = run(new spade.query.postgresql.GetLineage(), roots, maxDepth, sqlSizes);
+            System.out.println(String.format("Round %d: java %8.0f ms (vertices=%d edges=%d)  recursive %8.0f ms (vertices=%d edges=%d)",
+                    round, javaNanos / 1e6, javaSizes[0], javaSizes[1], sqlNanos / 1e6, sqlSizes[0], sqlSizes[1]));
+        }
+        storage.shutdown();
+    }
+}
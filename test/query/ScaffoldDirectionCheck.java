@@ -0,0 +1,103 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2017 SRI International
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package query;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import spade.core.AbstractVertex;
+import spade.core.Edge;
+import spade.core.Vertex;
+import spade.query.scaffold.Scaffold;
+import spade.query.scaffold.ScaffoldFactory;
+
+/**
+ * Checks that a scaffold keeps the two directions apart for a vertex with both a parent and a child:
+ * child -> middle -> parent. The lookups, the lineage and the paths of the middle vertex must only
+ * contain the neighbor in the asked direction.
+ *
+ * Usage: ScaffoldDirectionCheck [scaffold name, InMemory by default] [scaffold arguments]
+ */
+public class ScaffoldDirectionCheck
+{
+
+    private static void check(String what, Object expected, Object actual)
+    {
+        if(!expected.equals(actual))
+        {
+            throw new IllegalStateException(what + ": expected " + expected + " but was " + actual);
+        }
+        System.out.println("OK " + what + ": " + actual);
+    }
+
+    private static AbstractVertex createVertex(String name, long run)
+    {
+        AbstractVertex vertex = new Vertex();
+        vertex.addAnnotation("name", name);
+        // New vertices on every run since a scaffold can keep the entries of the previous runs
+        vertex.addAnnotation("run", String.valueOf(run));
+        return vertex;
+    }
+
+    public static void main(String[] args)
+    {
+        String scaffoldName = args.length > 0 ? args[0] : "InMemory";
+        String scaffoldArguments = args.length > 1 ? args[1] : "";
+        Scaffold scaffold = ScaffoldFactory.createScaffold(scaffoldName);
+        if(!scaffold.initialize(scaffoldArguments))
+        {
+            throw new IllegalStateException("Failed to initialize scaffold " + scaffoldName);
+        }
+        try
+        {
+            long run = System.nanoTime();
+            AbstractVertex child = createVertex("child", run);
+            AbstractVertex middle = createVertex("middle", run);
+            AbstractVertex parent = createVertex("parent", run);
+            scaffold.insertEntry(new Edge(child, middle));
+            scaffold.insertEntry(new Edge(middle, parent));
+            String childHash = child.bigHashCode(), middleHash = middle.bigHashCode(), parentHash = parent.bigHashCode();
+
+            check("parents", Collections.singleton(parentHash), scaffold.getParents(middleHash));
+            check("children", Collections.singleton(childHash), scaffold.getChildren(middleHash));
+            check("batched parents", Collections.singleton(parentHash),
+                    scaffold.getParents(Collections.singletonList(middleHash)).get(middleHash));
+            check("batched children", Collections.singleton(childHash),
+                    scaffold.getChildren(Collections.singletonList(middleHash)).get(middleHash));
+            check("neighbors", new HashSet<>(Arrays.asList(childHash, parentHash)),
+                    scaffold.getNeighbors(middleHash));
+
+            Map<String, Set<String>> ancestors = scaffold.getLineage(middleHash, "ancestors", 5);
+            check("ancestors", Collections.singletonMap(middleHash, Collections.singleton(parentHash)), ancestors);
+            Map<String, Set<String>> descendants = scaffold.getLineage(middleHash, "descendants", 5);
+            check("descendants", Collections.singletonMap(middleHash, Collections.singleton(childHash)), descendants);
+
+            // No path goes from the parent back down to the child
+            Map<String, Set<String>> paths = scaffold.getPaths(parentHash, childHash, 5);
+            check("reverse paths", Collections.emptyMap(), paths);
+            paths = scaffold.getPaths(childHash, parentHash, 5);
+            check("paths", new HashSet<>(Arrays.asList(childHash, middleHash, parentHash)), paths.keySet());
+        }
+        finally
+        {
+            scaffold.shutdown();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2017 SRI International
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package query;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import spade.core.AbstractEdge;
+import spade.core.AbstractVertex;
+import spade.core.Edge;
+import spade.core.Vertex;
+import spade.query.scaffold.InMemory;
+import spade.query.scaffold.Scaffold;
+
+/**
+ * Lineage queries on a synthetic in-memory scaffold with the single threaded loop the scaffolds used
+ * before (a lookup per vertex), with spade.query.scaffold.ParallelTraversal restricted to the calling
+ * thread and with ParallelTraversal in its fork-join pool.
+ *
+ * Vertices and edges are generated the same way as in ScaffoldProfiler's storage, with parents mostly
+ * close to their children.
+ *
+ * Usage: ScaffoldTraversalBenchmark [vertices] [edges] [queries] [maxDepth]
+ */
+public class ScaffoldTraversalBenchmark
+{
+
+    private static Map<String, Set<String>> serialLineage(Scaffold scaffold, String hash, int maxDepth)
+    {
+        Set<String> remainingVertices = new HashSet<>();
+        Set<String> visitedVertices = new HashSet<>();
+        Map<String, Set<String>> lineageMap = new HashMap<>();
+        remainingVertices.add(hash);
+        for(int depth = 0; !remainingVertices.isEmpty() && depth < maxDepth; depth++)
+        {
+            visitedVertices.addAll(remainingVertices);
+            Set<String> currentSet = new HashSet<>();
+            for(String currentHash : remainingVertices)
+            {
+                Set<String> neighbors = scaffold.getParents(currentHash);
+                if(neighbors != null)
+                {
+                    lineageMap.put(currentHash, neighbors);
+                    for(String vertexHash : neighbors)
+                    {
+                        if(!visitedVertices.contains(vertexHash))
+                        {
+                            currentSet.add(vertexHash);
+                        }
+                    }
+                }
+            }
+            remainingVertices = currentSet;
+        }
+        return lineageMap;
+    }
+
+    // NULL for a vertex not in the scaffold
+    private static int size(Map<String, Set<String>> lineage)
+    {
+        return lineage == null ? 0 : lineage.size();
+    }
+
+    public static void main(String[] args)
+    {
+        int vertexCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int edgeCount = args.length > 1 ? Integer.parseInt(args[1]) : 4000000;
+        int queryCount = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        int maxDepth = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+
+        // Nothing is inserted during the queries so the maps can be read from several threads
+        Scaffold scaffold = new InMemory()
+        {
+            @Override
+            public boolean supportsConcurrentReads()
+            {
+                return true;
+            }
+        };
+        scaffold.initialize("");
+        // Same data, lookups from the calling thread only
+        Scaffold serialScaffold = new InMemory();
+
+        Random random = new Random(0);
+        List<AbstractVertex> vertices = new ArrayList<>();
+        List<String> hashes = new ArrayList<>();
+        long start = System.nanoTime();
+        for(int i = 0; i < vertexCount; i++)
+        {
+            AbstractVertex vertex = new Vertex();
+            vertex.addAnnotation("type", (i % 4 == 0) ? "Process" : "Artifact");
+            vertex.addAnnotation("id", String.valueOf(i));
+            vertices.add(vertex);
+            hashes.add(vertex.bigHashCode());
+        }
+        for(int i = 0; i < edgeCount; i++)
+        {
+            int child = 1 + random.nextInt(vertexCount - 1);
+            int parent = Math.max(0, child - 1 - random.nextInt(Math.min(child, 1000)));
+            scaffold.insertEntry(new Edge(vertices.get(child), vertices.get(parent)));
+        }
+        System.out.println(String.format("Inserted %d vertices and %d edges in %.0f ms", vertexCount, edgeCount,
+                (System.nanoTime() - start) / 1e6));
+
+        List<String> roots = new ArrayList<>();
+        for(int i = 0; i < queryCount; i++)
+        {
+            roots.add(hashes.get(vertexCount / 2 + random.nextInt(vertexCount / 2)));
+        }
+
+        for(int round = 1; round <= 3; round++)
+        {
+            long serialSize = 0, batchedSize = 0, parallelSize = 0;
+            long serialStart = System.nanoTime();
+            for(String root : roots)
+            {
+                serialSize += serialLineage(scaffold, root, maxDepth).size();
+            }
+            long serialNanos = System.nanoTime() - serialStart;
+            long batchedStart = System.nanoTime();
+            for(String root : roots)
+            {
+                batchedSize += size(serialScaffold.getLineage(root, "ancestors", maxDepth));
+            }
+            long batchedNanos = System.nanoTime() - batchedStart;
+            long parallelStart = System.nanoTime();
+            for(String root : roots)
+            {
+                parallelSize += size(scaffold.getLineage(root, "ancestors", maxDepth));
+            }
+            long parallelNanos = System.nanoTime() - parallelStart;
+            System.out.println(String.format("Round %d: serial %7.0f ms (%d)  batched %7.0f ms (%d)  parallel %7.0f ms (%d)",
+                    round, serialNanos / 1e6, serialSize, batchedNanos / 1e6, batchedSize, parallelNanos / 1e6,
+                    parallelSize));
+        }
+    }
+}
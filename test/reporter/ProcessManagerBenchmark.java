@@ -0,0 +1,131 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2015 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package reporter;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import spade.core.Buffer;
+import spade.core.Kernel;
+import spade.reporter.Audit;
+import spade.reporter.audit.AuditEventReader;
+import spade.reporter.audit.Globals;
+import spade.reporter.audit.process.ProcessManager;
+import spade.reporter.audit.process.ProcessWithoutAgentManager;
+
+/**
+ * Heap per tracked process and the time of ProcessManager.handleProcessFromSyscall for processes that
+ * are already tracked, which is the call made for almost every Audit record.
+ *
+ * The processes are created from syscall records (as for processes that existed before Audit started)
+ * with the same agent in every later record. The heap is measured after a full GC with the event data
+ * maps and the buffer already drained so it is the ProcessManager state only.
+ *
+ * Usage: ProcessManagerBenchmark [processes] [rounds]
+ */
+public class ProcessManagerBenchmark {
+
+	private static Map<String, String> eventData(int pid, long eventId){
+		Map<String, String> eventData = new HashMap<String, String>();
+		eventData.put(AuditEventReader.PID, String.valueOf(pid));
+		eventData.put(AuditEventReader.PPID, "1");
+		eventData.put(AuditEventReader.COMM, "worker" + (pid % 64));
+		eventData.put(AuditEventReader.CWD, "/home/user/work" + (pid % 16));
+		eventData.put(AuditEventReader.TIME, String.format("%d.%03d", 1500000000L + eventId / 1000, eventId % 1000));
+		eventData.put(AuditEventReader.EVENT_ID, String.valueOf(eventId));
+		eventData.put(AuditEventReader.UID, "1000");
+		eventData.put(AuditEventReader.EUID, "1000");
+		eventData.put(AuditEventReader.SUID, "1000");
+		eventData.put(AuditEventReader.FSUID, "1000");
+		eventData.put(AuditEventReader.GID, "1000");
+		eventData.put(AuditEventReader.EGID, "1000");
+		eventData.put(AuditEventReader.SGID, "1000");
+		eventData.put(AuditEventReader.FSGID, "1000");
+		return eventData;
+	}
+
+	private static void drain(Buffer buffer){
+		while(buffer.getBufferElement() != null){
+		}
+	}
+
+	private static long usedHeap(){
+		Runtime runtime = Runtime.getRuntime();
+		for(int i = 0; i < 3; i++){
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	public static void main(String[] args) throws Exception{
+		int processes = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+		// Before anything logs so that Kernel installs its LogManager
+		Kernel.startHeadless();
+
+		Buffer buffer = new Buffer();
+		Audit audit = new Audit();
+		audit.setBuffer(buffer);
+		// Set by launch which would start reading events
+		Field globals = Audit.class.getDeclaredField("globals");
+		globals.setAccessible(true);
+		globals.set(audit, Globals.parseArguments(""));
+
+		List<Map<String, String>> events = new ArrayList<Map<String, String>>(processes);
+		for(int pid = 2; pid < processes + 2; pid++){
+			events.add(eventData(pid, pid));
+		}
+
+		long heapBefore = usedHeap();
+		ProcessManager manager = new ProcessWithoutAgentManager(audit, false, false);
+		long start = System.nanoTime();
+		for(Map<String, String> event : events){
+			manager.handleProcessFromSyscall(event);
+			drain(buffer);
+		}
+		double createSeconds = (System.nanoTime() - start) / 1e9;
+		long heapAfter = usedHeap();
+		System.out.println(String.format("Created %d processes in %.2f s: %.0f bytes of heap per process", processes,
+				createSeconds, (heapAfter - heapBefore) / (double)processes));
+
+		long calls = 0;
+		long checksum = 0;
+		for(int round = 0; round < rounds; round++){
+			start = System.nanoTime();
+			for(Map<String, String> event : events){
+				checksum += manager.handleProcessFromSyscall(event).hashCode();
+			}
+			long elapsed = System.nanoTime() - start;
+			drain(buffer);
+			calls += events.size();
+			if(round == rounds / 2 || round == rounds - 1){
+				System.out.println(String.format("Round %d: %.1f ns per handleProcessFromSyscall", round,
+						elapsed / (double)events.size()));
+			}
+		}
+		System.out.println(calls + " calls (checksum " + checksum + ")");
+		manager.doCleanUp();
+		System.exit(0);
+	}
+}
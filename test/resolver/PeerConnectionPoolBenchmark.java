@@ -0,0 +1,178 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2017 SRI International
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package resolver;
+
+import spade.resolver.PeerConnectionPool;
+
+import javax.net.SocketFactory;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * Compares a new connection per request against the pooled and pipelined connections of
+ * PeerConnectionPool using a loopback query server. The server delays every accepted connection
+ * to stand in for the TLS handshake and answers each request line with its return type and
+ * result, as the remote query servers do.
+ *
+ * Usage: PeerConnectionPoolBenchmark [requests] [handshake delay in ms]
+ */
+public class PeerConnectionPoolBenchmark
+{
+    private static final String HOST = "127.0.0.1";
+    private static final String CLOSE_COMMAND = "exit";
+
+    private static ServerSocket startServer(final int handshakeDelay) throws Exception
+    {
+        final ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getByName(HOST));
+        Thread acceptThread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                while(!serverSocket.isClosed())
+                {
+                    try
+                    {
+                        final Socket socket = serverSocket.accept();
+                        Thread connectionThread = new Thread(new Runnable()
+                        {
+                            @Override
+                            public void run()
+                            {
+                                serve(socket, handshakeDelay);
+                            }
+                        });
+                        connectionThread.setDaemon(true);
+                        connectionThread.start();
+                    }
+                    catch(Exception ex)
+                    {
+                        // server closed
+                    }
+                }
+            }
+        });
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+        return serverSocket;
+    }
+
+    private static void serve(Socket socket, int handshakeDelay)
+    {
+        try
+        {
+            Thread.sleep(handshakeDelay);
+            ObjectOutputStream outputStream = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            outputStream.flush();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            String line;
+            while((line = reader.readLine()) != null && !line.equals(CLOSE_COMMAND))
+            {
+                outputStream.writeObject(String.class.getName());
+                outputStream.writeObject("result of " + line);
+                outputStream.flush();
+            }
+            socket.close();
+        }
+        catch(Exception ex)
+        {
+            // client went away
+        }
+    }
+
+    private static long newConnectionPerRequest(int port, int requests) throws Exception
+    {
+        long start = System.nanoTime();
+        for(int i = 0; i < requests; i++)
+        {
+            Socket socket = new Socket();
+            socket.connect(new InetSocketAddress(HOST, port));
+            ObjectInputStream inputStream = new ObjectInputStream(socket.getInputStream());
+            PrintWriter writer = new PrintWriter(socket.getOutputStream(), true);
+            writer.println("GetVertex(" + i + ")");
+            inputStream.readObject();
+            check(i, inputStream.readObject());
+            writer.println(CLOSE_COMMAND);
+            socket.close();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long pooled(PeerConnectionPool pool, int port, int requests) throws Exception
+    {
+        long start = System.nanoTime();
+        for(int i = 0; i < requests; i++)
+        {
+            Object[] response = pool.query(HOST, port, "GetVertex(" + i + ")", 2);
+            check(i, response[1]);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long pipelined(PeerConnectionPool pool, int port, int requests) throws Exception
+    {
+        long start = System.nanoTime();
+        List<String> lines = new ArrayList<>();
+        for(int i = 0; i < requests; i++)
+        {
+            lines.add("GetVertex(" + i + ")");
+        }
+        List<Future<Object[]>> responses = pool.submitAll(HOST, port, lines, 2);
+        for(int i = 0; i < requests; i++)
+        {
+            check(i, PeerConnectionPool.getResponse(responses.get(i))[1]);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void check(int request, Object result)
+    {
+        if(!("result of GetVertex(" + request + ")").equals(result))
+        {
+            throw new IllegalStateException("Response out of order for request " + request + ": " + result);
+        }
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int handshakeDelay = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        ServerSocket serverSocket = startServer(handshakeDelay);
+        int port = serverSocket.getLocalPort();
+        PeerConnectionPool pool = new PeerConnectionPool(SocketFactory.getDefault(), CLOSE_COMMAND, 4, 5000, 10000, 60000);
+
+        System.out.println("New connection per request: " + (newConnectionPerRequest(port, requests) / 1000000) + " ms");
+        System.out.println("Pooled connection:          " + (pooled(pool, port, requests) / 1000000) + " ms");
+        System.out.println("Pipelined on a connection:  " + (pipelined(pool, port, requests) / 1000000) + " ms");
+        System.out.println("Peer metrics: " + pool.getMetrics());
+
+        pool.shutdown();
+        serverSocket.close();
+    }
+}
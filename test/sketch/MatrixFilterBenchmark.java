@@ -0,0 +1,209 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2017 SRI International
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package sketch;
+
+import spade.core.AbstractVertex;
+import spade.core.BloomFilter;
+import spade.core.MatrixFilter;
+import spade.core.Vertex;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares MatrixFilter against the previous implementation (a list of BloomFilter rows indexed
+ * by MD5 hashes of strings) on the operations done by the sketches and on the size of the
+ * serialized sketch.
+ *
+ * Usage: MatrixFilterBenchmark [false positive probability] [expected elements] [network vertices] [operations]
+ */
+public class MatrixFilterBenchmark
+{
+    /**
+     * The previous implementation of MatrixFilter.
+     */
+    private static class LegacyMatrixFilter implements Serializable
+    {
+        private List<BloomFilter> filterSet = new LinkedList<>();
+        private double filtersPerElement;
+        private int expectedNumberOfElements;
+        private int filterSetSize;
+        private int k;
+
+        LegacyMatrixFilter(double falsePositiveProbability, int expectedNumberOfElements)
+        {
+            this.k = (int) Math.ceil(-(Math.log(falsePositiveProbability) / Math.log(2)));
+            this.filtersPerElement = k / Math.log(2);
+            this.expectedNumberOfElements = expectedNumberOfElements;
+            this.filterSetSize = (int) Math.ceil(filtersPerElement * expectedNumberOfElements);
+            for(int i = 0; i < filterSetSize; i++)
+            {
+                filterSet.add(new BloomFilter(filtersPerElement, expectedNumberOfElements, k));
+            }
+        }
+
+        private int row(String sketchString, int x)
+        {
+            return Math.abs((int) (MatrixFilter.createHash(sketchString + Integer.toString(x)) % (long) filterSetSize));
+        }
+
+        void add(AbstractVertex parentVertex, AbstractVertex childVertex)
+        {
+            String valString = sketchString(parentVertex);
+            for(int x = 0; x < k; x++)
+            {
+                filterSet.get(row(valString, x)).add(childVertex);
+            }
+        }
+
+        void updateAncestors(AbstractVertex vertex, BloomFilter ancestorsToAdd)
+        {
+            String valString = sketchString(vertex);
+            for(int x = 0; x < k; x++)
+            {
+                filterSet.get(row(valString, x)).getBitSet().or(ancestorsToAdd.getBitSet());
+            }
+        }
+
+        BloomFilter get(AbstractVertex vertex)
+        {
+            BloomFilter result = new BloomFilter(filtersPerElement, expectedNumberOfElements, k);
+            result.getBitSet().set(0, result.getBitSet().size() - 1, true);
+            String valString = sketchString(vertex);
+            for(int x = 0; x < k; x++)
+            {
+                result.getBitSet().and(filterSet.get(row(valString, x)).getBitSet());
+            }
+            return result;
+        }
+
+        private static String sketchString(AbstractVertex vertex)
+        {
+            if(vertex.getAnnotation("source host").compareTo(vertex.getAnnotation("destination host")) < 0)
+            {
+                return vertex.getAnnotation("source host") + vertex.getAnnotation("source port")
+                        + vertex.getAnnotation("destination host") + vertex.getAnnotation("destination port");
+            }
+            return vertex.getAnnotation("destination host") + vertex.getAnnotation("destination port")
+                    + vertex.getAnnotation("source host") + vertex.getAnnotation("source port");
+        }
+    }
+
+    private static List<AbstractVertex> createNetworkVertices(int count)
+    {
+        Random random = new Random(0);
+        List<AbstractVertex> vertices = new ArrayList<>();
+        for(int i = 0; i < count; i++)
+        {
+            AbstractVertex vertex = new Vertex();
+            vertex.addAnnotation("type", "Artifact");
+            vertex.addAnnotation("subtype", "network");
+            vertex.addAnnotation("source host", "10.0." + random.nextInt(256) + "." + random.nextInt(256));
+            vertex.addAnnotation("source port", String.valueOf(1024 + random.nextInt(60000)));
+            vertex.addAnnotation("destination host", "10.1." + random.nextInt(256) + "." + random.nextInt(256));
+            vertex.addAnnotation("destination port", String.valueOf(1 + random.nextInt(1024)));
+            vertices.add(vertex);
+        }
+        return vertices;
+    }
+
+    private static int javaSerializedSize(Object object) throws Exception
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream outputStream = new ObjectOutputStream(bytes);
+        outputStream.writeObject(object);
+        outputStream.close();
+        return bytes.size();
+    }
+
+    private static Object javaRoundTrip(Object object) throws Exception
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream outputStream = new ObjectOutputStream(bytes);
+        outputStream.writeObject(object);
+        outputStream.close();
+        return new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        double falsePositiveProbability = args.length > 0 ? Double.parseDouble(args[0]) : 0.1;
+        int expectedElements = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int vertexCount = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        int operations = args.length > 3 ? Integer.parseInt(args[3]) : 200000;
+
+        List<AbstractVertex> vertices = createNetworkVertices(vertexCount);
+        Random random = new Random(1);
+        int[] parents = new int[operations];
+        int[] children = new int[operations];
+        for(int i = 0; i < operations; i++)
+        {
+            parents[i] = random.nextInt(vertexCount);
+            children[i] = random.nextInt(vertexCount);
+        }
+
+        for(int iteration = 0; iteration < 3; iteration++)
+        {
+            LegacyMatrixFilter legacy = new LegacyMatrixFilter(falsePositiveProbability, expectedElements);
+            long start = System.nanoTime();
+            for(int i = 0; i < operations; i++)
+            {
+                AbstractVertex parent = vertices.get(parents[i]);
+                AbstractVertex child = vertices.get(children[i]);
+                legacy.add(parent, child);
+                legacy.updateAncestors(child, legacy.get(parent));
+            }
+            long legacyTime = System.nanoTime() - start;
+
+            MatrixFilter matrixFilter = new MatrixFilter(falsePositiveProbability, expectedElements);
+            start = System.nanoTime();
+            for(int i = 0; i < operations; i++)
+            {
+                AbstractVertex parent = vertices.get(parents[i]);
+                AbstractVertex child = vertices.get(children[i]);
+                matrixFilter.add(parent, child);
+                matrixFilter.updateAncestors(child, matrixFilter.get(parent));
+            }
+            long matrixTime = System.nanoTime() - start;
+
+            boolean roundTrip = matrixFilter.equals(MatrixFilter.fromByteArray(matrixFilter.toByteArray()))
+                    && matrixFilter.equals(javaRoundTrip(matrixFilter));
+            System.out.println("Iteration " + iteration + ": rows=" + matrixFilter.size() + ", k=" + matrixFilter.getK()
+                    + ", legacy=" + (legacyTime / 1000000) + " ms, matrix=" + (matrixTime / 1000000) + " ms"
+                    + ", serialized legacy=" + javaSerializedSize(legacy) + " bytes, matrix=" + javaSerializedSize(matrixFilter)
+                    + " bytes (encoded " + matrixFilter.toByteArray().length + " bytes), round trip=" + roundTrip);
+        }
+
+        // Sparse sketch: a few connections only
+        MatrixFilter sparse = new MatrixFilter(falsePositiveProbability, expectedElements);
+        LegacyMatrixFilter sparseLegacy = new LegacyMatrixFilter(falsePositiveProbability, expectedElements);
+        for(int i = 0; i < 5; i++)
+        {
+            sparse.add(vertices.get(parents[i]), vertices.get(children[i]));
+            sparseLegacy.add(vertices.get(parents[i]), vertices.get(children[i]));
+        }
+        System.out.println("Sparse sketch: serialized legacy=" + javaSerializedSize(sparseLegacy) + " bytes, matrix="
+                + javaSerializedSize(sparse) + " bytes (encoded " + sparse.toByteArray().length + " bytes)");
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2015 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package storage;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import spade.core.AbstractEdge;
+import spade.core.AbstractStorage;
+import spade.core.AbstractVertex;
+import spade.core.Edge;
+import spade.core.Graph;
+import spade.core.Vertex;
+import spade.storage.BinaryFile;
+import spade.storage.Graphviz;
+import spade.storage.TextFile;
+import spade.storage.binary.BinaryFrameReader;
+
+/**
+ * Compares the write time and the size of the output of the TextFile, Graphviz and BinaryFile
+ * storages, and the time to read back the DOT file (Graph.importGraph) and the binary file, on a
+ * synthetic audit-like graph.
+ *
+ * Usage: BinaryFileBenchmark [processes] [events] [output directory]
+ */
+public class BinaryFileBenchmark
+{
+
+    private static final String[] OPERATIONS = {"read", "write", "open", "close", "mmap", "load"};
+
+    private static AbstractVertex process(int pid, int ppid)
+    {
+        AbstractVertex vertex = new Vertex();
+        vertex.addAnnotation("type", "Process");
+        vertex.addAnnotation("source", "syscall");
+        vertex.addAnnotation("pid", String.valueOf(pid));
+        vertex.addAnnotation("ppid", String.valueOf(ppid));
+        vertex.addAnnotation("name", "proc" + (pid % 50));
+        vertex.addAnnotation("exe", "/usr/bin/proc" + (pid % 50));
+        vertex.addAnnotation("uid", "1000");
+        vertex.addAnnotation("euid", "1000");
+        vertex.addAnnotation("gid", "1000");
+        vertex.addAnnotation("egid", "1000");
+        vertex.addAnnotation("start time", String.valueOf(1500000000L + pid) + ".123");
+        return vertex;
+    }
+
+    private static AbstractVertex artifact(int id, int version)
+    {
+        AbstractVertex vertex = new Vertex();
+        vertex.addAnnotation("type", "Artifact");
+        vertex.addAnnotation("source", "syscall");
+        vertex.addAnnotation("subtype", "file");
+        vertex.addAnnotation("path", "/home/user/data/dir" + (id % 100) + "/file" + id + ".txt");
+        vertex.addAnnotation("version", String.valueOf(version));
+        vertex.addAnnotation("epoch", "0");
+        return vertex;
+    }
+
+    private static AbstractEdge edge(AbstractVertex child, AbstractVertex parent, String type, String operation, long eventId)
+    {
+        AbstractEdge edge = new Edge(child, parent);
+        edge.addAnnotation("type", type);
+        edge.addAnnotation("source", "syscall");
+        edge.addAnnotation("operation", operation);
+        edge.addAnnotation("event id", String.valueOf(eventId));
+        edge.addAnnotation("time", String.valueOf(1500000000L + eventId / 100) + "." + String.format("%03d", eventId % 1000));
+        edge.addAnnotation("size", String.valueOf(eventId % 8192));
+        return edge;
+    }
+
+    private static List<Object> createWorkload(int processes, int events)
+    {
+        Random random = new Random(0);
+        List<Object> workload = new ArrayList<>();
+        List<AbstractVertex> processVertices = new ArrayList<>();
+        for(int pid = 1; pid <= processes; pid++)
+        {
+            AbstractVertex vertex = process(pid, pid == 1 ? 0 : 1 + random.nextInt(pid - 1));
+            processVertices.add(vertex);
+            workload.add(vertex);
+            if(pid > 1)
+            {
+                workload.add(edge(vertex, processVertices.get(random.nextInt(pid - 1)), "WasTriggeredBy", "fork", pid));
+            }
+        }
+        Map<Integer, Integer> versions = new HashMap<>();
+        for(int event = 0; event < events; event++)
+        {
+            int id = random.nextInt(events / 10 + 1);
+            Integer version = versions.get(id);
+            version = version == null ? 0 : version + 1;
+            versions.put(id, version);
+            AbstractVertex file = artifact(id, version);
+            AbstractVertex process = processVertices.get(random.nextInt(processVertices.size()));
+            String operation = OPERATIONS[random.nextInt(OPERATIONS.length)];
+            workload.add(file);
+            if(event % 2 == 0)
+            {
+                workload.add(edge(process, file, "Used", operation, processes + event));
+            }
+            else
+            {
+                workload.add(edge(file, process, "WasGeneratedBy", operation, processes + event));
+            }
+        }
+        return workload;
+    }
+
+    private static long write(AbstractStorage storage, String arguments, List<Object> workload)
+    {
+        long start = System.nanoTime();
+        if(!storage.initialize(arguments))
+        {
+            throw new RuntimeException("Failed to initialize " + storage.getClass().getName());
+        }
+        for(Object object : workload)
+        {
+            if(object instanceof AbstractVertex)
+            {
+                storage.putVertex((AbstractVertex) object);
+            }
+            else
+            {
+                storage.putEdge((AbstractEdge) object);
+            }
+        }
+        storage.shutdown();
+        return System.nanoTime() - start;
+    }
+
+    private static long readBinary(String path, long[] counts) throws Exception
+    {
+        long start = System.nanoTime();
+        Map<ByteBuffer, AbstractVertex> vertices = new HashMap<>();
+        BinaryFrameReader reader = new BinaryFrameReader(path, 1 << 20);
+        BinaryFrameReader.Frame frame;
+        while((frame = reader.read()) != null)
+        {
+            if(frame.isVertex())
+            {
+                AbstractVertex vertex = new Vertex();
+                vertex.addAnnotations(frame.getAnnotations());
+                vertices.put(ByteBuffer.wrap(frame.getHash()), vertex);
+                counts[0]++;
+            }
+            else
+            {
+                AbstractEdge edge = new Edge(vertices.get(ByteBuffer.wrap(frame.getChildHash())),
+                        vertices.get(ByteBuffer.wrap(frame.getParentHash())));
+                edge.addAnnotations(frame.getAnnotations());
+                counts[1]++;
+            }
+        }
+        reader.close();
+        return System.nanoTime() - start;
+    }
+
+    private static String millis(long nanos)
+    {
+        return String.format("%8.1f ms", nanos / 1e6);
+    }
+
+    private static String megabytes(File file)
+    {
+        return String.format("%8.2f MB", file.length() / (1024.0 * 1024.0));
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        int processes = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int events = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+        File directory = new File(args.length > 2 ? args[2] : System.getProperty("java.io.tmpdir"));
+
+        File textFile = new File(directory, "benchmark.txt");
+        File dotFile = new File(directory, "benchmark.dot");
+        File binaryFile = new File(directory, "benchmark.bin");
+
+        List<Object> workload = createWorkload(processes, events);
+        System.out.println("Workload: " + workload.size() + " vertices and edges");
+
+        for(int round = 1; round <= 3; round++)
+        {
+            System.out.println("Round " + round);
+            long textNanos = write(new TextFile(), textFile.getPath(), workload);
+            long dotNanos = write(new Graphviz(), "output=" + dotFile.getPath(), workload);
+            long binaryNanos = write(new BinaryFile(), "output=" + binaryFile.getPath() + " syncIntervalMillis=0", workload);
+            System.out.println("  write TextFile   " + millis(textNanos) + megabytes(textFile));
+            System.out.println("  write Graphviz   " + millis(dotNanos) + megabytes(dotFile));
+            System.out.println("  write BinaryFile " + millis(binaryNanos) + megabytes(binaryFile));
+
+            long start = System.nanoTime();
+            Graph graph = Graph.importGraph(dotFile.getPath());
+            long dotReadNanos = System.nanoTime() - start;
+            long[] counts = new long[2];
+            long binaryReadNanos = readBinary(binaryFile.getPath(), counts);
+            System.out.println("  read  Graphviz   " + millis(dotReadNanos) + "  " + graph.vertexSet().size()
+                    + " vertices, " + graph.edgeSet().size() + " edges");
+            System.out.println("  read  BinaryFile " + millis(binaryReadNanos) + "  " + counts[0]
+                    + " vertices, " + counts[1] + " edges");
+        }
+
+        textFile.delete();
+        dotFile.delete();
+        binaryFile.delete();
+    }
+}
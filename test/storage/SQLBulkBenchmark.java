@@ -0,0 +1,142 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2015 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package storage;
+
+import java.io.File;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import spade.core.AbstractEdge;
+import spade.core.AbstractVertex;
+import spade.core.Edge;
+import spade.core.Vertex;
+import spade.storage.H2;
+
+/**
+ * Insert throughput of the H2 storage (embedded, in a temporary directory) with and without bulk upload.
+ *
+ * Usage: SQLBulkBenchmark [vertices] [edges]
+ */
+public class SQLBulkBenchmark
+{
+
+    private static List<AbstractVertex> createVertices(int count, Random random)
+    {
+        List<AbstractVertex> vertices = new ArrayList<>();
+        for(int i = 0; i < count; i++)
+        {
+            AbstractVertex vertex = new Vertex();
+            if(i % 5 == 0)
+            {
+                vertex.addAnnotation("type", "Process");
+                vertex.addAnnotation("pid", String.valueOf(i));
+                vertex.addAnnotation("ppid", String.valueOf(random.nextInt(i + 1)));
+                vertex.addAnnotation("name", "proc" + (i % 50));
+                vertex.addAnnotation("uid", "1000");
+            }
+            else
+            {
+                vertex.addAnnotation("type", "Artifact");
+                vertex.addAnnotation("subtype", "file");
+                vertex.addAnnotation("path", "/home/user/dir" + (i % 100) + "/file'" + i);
+                vertex.addAnnotation("version", String.valueOf(i % 7));
+                if(i % 3 == 0)
+                {
+                    vertex.addAnnotation("epoch", "0");
+                }
+            }
+            vertices.add(vertex);
+        }
+        return vertices;
+    }
+
+    private static List<AbstractEdge> createEdges(List<AbstractVertex> vertices, int count, Random random)
+    {
+        List<AbstractEdge> edges = new ArrayList<>();
+        for(int i = 0; i < count; i++)
+        {
+            AbstractVertex process = vertices.get(5 * random.nextInt(vertices.size() / 5));
+            AbstractVertex artifact = vertices.get(1 + 5 * random.nextInt(vertices.size() / 5));
+            AbstractEdge edge = (i % 2 == 0) ? new Edge(process, artifact) : new Edge(artifact, process);
+            edge.addAnnotation("type", (i % 2 == 0) ? "Used" : "WasGeneratedBy");
+            edge.addAnnotation("operation", (i % 3 == 0) ? "read" : "write");
+            edge.addAnnotation("event id", String.valueOf(i));
+            edge.addAnnotation("time", String.valueOf(1500000000 + i / 100) + "." + (i % 1000));
+            edges.add(edge);
+        }
+        return edges;
+    }
+
+    private static long count(H2 storage, String table) throws Exception
+    {
+        ResultSet result = storage.executeQuery("SELECT COUNT(*) FROM " + table);
+        result.next();
+        return result.getLong(1);
+    }
+
+    private static void run(String name, String arguments, List<AbstractVertex> vertices, List<AbstractEdge> edges) throws Exception
+    {
+        File directory = new File(System.getProperty("java.io.tmpdir"), "spade-sql-bulk-benchmark");
+        for(File file : directory.listFiles() == null ? new File[0] : directory.listFiles())
+        {
+            file.delete();
+        }
+        directory.mkdirs();
+        H2 storage = new H2();
+        if(!storage.initialize("database=" + directory.getPath() + "/db databaseUsername=sa databasePassword=null " + arguments))
+        {
+            throw new RuntimeException("Failed to initialize storage");
+        }
+        long start = System.nanoTime();
+        for(AbstractVertex vertex : vertices)
+        {
+            storage.putVertex(vertex);
+        }
+        for(AbstractEdge edge : edges)
+        {
+            storage.putEdge(edge);
+        }
+        long vertexCount = count(storage, "vertex");
+        long edgeCount = count(storage, "edge");
+        long nanos = System.nanoTime() - start;
+        storage.shutdown();
+        System.out.println(String.format("%-10s %8.0f ms %10.0f rows/s  vertices=%d edges=%d", name, nanos / 1e6,
+                (vertices.size() + edges.size()) / (nanos / 1e9), vertexCount, edgeCount));
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        int vertexCount = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        int edgeCount = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        Random random = new Random(0);
+        List<AbstractVertex> vertices = createVertices(vertexCount, random);
+        List<AbstractEdge> edges = createEdges(vertices, edgeCount, random);
+
+        for(int round = 1; round <= 2; round++)
+        {
+            System.out.println("Round " + round);
+            run("legacy", "bulkUpload=false", vertices, edges);
+            run("batch", "bulkUpload=true bulkMode=batch batchSize=5000", vertices, edges);
+            run("multiRow", "bulkUpload=true bulkMode=multiRow batchSize=5000", vertices, edges);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2017 SRI International
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package transformer;
+
+import spade.core.AbstractTransformer;
+import spade.core.AbstractVertex;
+import spade.core.Edge;
+import spade.core.Graph;
+import spade.core.GraphView;
+import spade.core.Vertex;
+import spade.reporter.audit.OPMConstants;
+import spade.transformer.LastName;
+import spade.transformer.MergeIO;
+import spade.transformer.NoMemory;
+import spade.transformer.NoUnits;
+import spade.transformer.NoVersions;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares applying a chain of transformers one at a time (a new graph after each) against applying
+ * their views in a single pass on a synthetic lineage graph.
+ *
+ * Usage: TransformerPipelineBenchmark [vertices] [edges] [iterations]
+ */
+public class TransformerPipelineBenchmark
+{
+    private static final String[] OPERATIONS = {
+            OPMConstants.OPERATION_READ, OPMConstants.OPERATION_WRITE, OPMConstants.OPERATION_UPDATE,
+            OPMConstants.OPERATION_UNIT, OPMConstants.OPERATION_RENAME
+    };
+
+    private static Graph createLineageGraph(int vertexCount, int edgeCount)
+    {
+        Random random = new Random(0);
+        Graph graph = new Graph();
+        List<AbstractVertex> vertices = new ArrayList<>();
+        for(int i = 0; i < vertexCount; i++)
+        {
+            AbstractVertex vertex = new Vertex();
+            if(i % 4 == 0)
+            {
+                vertex.addAnnotation(OPMConstants.TYPE, OPMConstants.PROCESS);
+                vertex.addAnnotation(OPMConstants.PROCESS_PID, String.valueOf(i / 8));
+                vertex.addAnnotation(OPMConstants.PROCESS_UNIT, String.valueOf(i % 8));
+            }
+            else
+            {
+                vertex.addAnnotation(OPMConstants.TYPE, OPMConstants.ARTIFACT);
+                vertex.addAnnotation(OPMConstants.ARTIFACT_PATH, "/tmp/file" + (i / 4));
+                vertex.addAnnotation(OPMConstants.ARTIFACT_VERSION, String.valueOf(i % 4));
+                vertex.addAnnotation(OPMConstants.ARTIFACT_SUBTYPE,
+                        i % 13 == 0 ? OPMConstants.SUBTYPE_MEMORY_ADDRESS : OPMConstants.SUBTYPE_FILE);
+            }
+            graph.putVertex(vertex);
+            vertices.add(vertex);
+        }
+        for(int i = 0; i < edgeCount; i++)
+        {
+            Edge edge = new Edge(vertices.get(random.nextInt(vertexCount)), vertices.get(random.nextInt(vertexCount)));
+            edge.addAnnotation(OPMConstants.TYPE, OPMConstants.USED);
+            edge.addAnnotation(OPMConstants.EDGE_OPERATION, OPERATIONS[random.nextInt(OPERATIONS.length)]);
+            edge.addAnnotation(OPMConstants.EDGE_TIME, String.valueOf(i));
+            edge.addAnnotation(OPMConstants.EDGE_SIZE, String.valueOf(random.nextInt(4096)));
+            graph.putEdge(edge);
+        }
+        graph.commitIndex();
+        return graph;
+    }
+
+    public static void main(String[] args)
+    {
+        int vertexCount = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int edgeCount = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        Graph graph = createLineageGraph(vertexCount, edgeCount);
+        AbstractTransformer[] transformers = {new NoUnits(), new NoVersions(), new NoMemory(), new LastName(), new MergeIO()};
+        System.out.println("Graph: " + graph.vertexSet().size() + " vertices, " + graph.edgeSet().size() + " edges");
+
+        for(int iteration = 0; iteration < iterations; iteration++)
+        {
+            long start = System.nanoTime();
+            Graph chained = graph;
+            for(AbstractTransformer transformer : transformers)
+            {
+                chained = transformer.putGraph(chained, null);
+                chained.commitIndex();
+            }
+            long chainedTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            List<GraphView> views = new ArrayList<>();
+            for(AbstractTransformer transformer : transformers)
+            {
+                views.add(transformer.getView(null));
+            }
+            Graph fused = GraphView.materialize(graph, views);
+            fused.commitIndex();
+            long fusedTime = System.nanoTime() - start;
+
+            boolean same = new HashSet<>(chained.vertexSet()).equals(new HashSet<>(fused.vertexSet()))
+                    && new HashSet<>(chained.edgeSet()).equals(new HashSet<>(fused.edgeSet()));
+            System.out.println("Iteration " + iteration + ": chained=" + (chainedTime / 1000000) + " ms, fused="
+                    + (fusedTime / 1000000) + " ms, result=" + fused.vertexSet().size() + " vertices, "
+                    + fused.edgeSet().size() + " edges, same=" + same);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2017 SRI International
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package utility;
+
+import com.google.code.externalsorting.ExternalSort;
+import spade.utility.AuditLogSorter;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the externalsortinginjava sort of SortAuditLog against AuditLogSorter on a synthetic
+ * audit log in which the events are out of order within a window.
+ *
+ * Usage: SortAuditLogBenchmark [events] [threads] [chunk records]
+ */
+public class SortAuditLogBenchmark {
+
+	private static final String[] RECORD_TYPES = {"SYSCALL", "CWD", "PATH", "PATH"};
+
+	private static void createLog(File file, int events) throws Exception{
+		Random random = new Random(0);
+		BufferedWriter writer = new BufferedWriter(new FileWriter(file), 1024 * 1024);
+		List<Integer> window = new ArrayList<Integer>();
+		for(int event = 1; event <= events; event++){
+			window.add(event);
+			if(window.size() == 1000 || event == events){
+				Collections.shuffle(window, random);
+				for(int eventId : window){
+					long time = 1500000000000L + eventId / 3;
+					String prefix = "msg=audit(" + (time / 1000) + "." + String.format("%03d", time % 1000) + ":" + eventId + "): ";
+					int records = 1 + random.nextInt(RECORD_TYPES.length);
+					for(int record = 0; record < records; record++){
+						writer.write("type=" + RECORD_TYPES[record] + " " + prefix + "arch=c000003e syscall=2 success=yes exit=3 a0=7ffd"
+								+ " a1=0 items=1 ppid=1 pid=" + (eventId % 500) + " auid=1000 uid=1000 comm=\"cat\" exe=\"/bin/cat\" item=" + record);
+						writer.newLine();
+					}
+				}
+				window.clear();
+			}
+		}
+		writer.close();
+	}
+
+	private static long legacySort(File input, File output, File tempDirectory) throws Exception{
+		// Same as SortAuditLog with sortMode=externalsort
+		Comparator<String> comparator = new Comparator<String>(){
+			@Override
+			public int compare(String record1, String record2) {
+				long record1EventId = Long.parseLong(record1.substring(record1.indexOf(":") + 1, record1.indexOf(")")));
+				long record2EventId = Long.parseLong(record2.substring(record2.indexOf(":") + 1, record2.indexOf(")")));
+				return (int)(record1EventId - record2EventId);
+			}
+		};
+		long start = System.nanoTime();
+		List<File> l = ExternalSort.sortInBatch(input, comparator, ExternalSort.DEFAULTMAXTEMPFILES, Charset.defaultCharset(), tempDirectory, true);
+		ExternalSort.mergeSortedFiles(l, output, comparator);
+		return System.nanoTime() - start;
+	}
+
+	private static List<Long> eventIds(File file) throws Exception{
+		List<Long> eventIds = new ArrayList<Long>();
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		String line;
+		while((line = reader.readLine()) != null){
+			eventIds.add(Long.parseLong(line.substring(line.indexOf(":") + 1, line.indexOf(")"))));
+		}
+		reader.close();
+		return eventIds;
+	}
+
+	public static void main(String[] args) throws Exception{
+		int events = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		int chunkRecords = args.length > 2 ? Integer.parseInt(args[2]) : 500000;
+
+		File tempDirectory = Files.createTempDirectory("sortauditlog").toFile();
+		File input = new File(tempDirectory, "audit.log");
+		File legacyOutput = new File(tempDirectory, "legacy.log");
+		File parallelOutput = new File(tempDirectory, "parallel.log");
+		createLog(input, events);
+		System.out.println("Input: " + events + " events, " + (input.length() / (1024 * 1024)) + " MB");
+
+		long legacyTime = legacySort(input, legacyOutput, tempDirectory);
+		System.out.println("externalsortinginjava: " + (legacyTime / 1000000) + " ms");
+
+		long start = System.nanoTime();
+		long records = new AuditLogSorter(threads, chunkRecords).sort(input, parallelOutput, tempDirectory);
+		long parallelTime = System.nanoTime() - start;
+		System.out.println("AuditLogSorter (" + threads + " threads): " + (parallelTime / 1000000) + " ms, "
+				+ (records * 1000000000L / Math.max(1, parallelTime)) + " records/s");
+
+		List<Long> expected = eventIds(legacyOutput);
+		List<Long> actual = eventIds(parallelOutput);
+		System.out.println("Same order of events: " + expected.equals(actual) + " (" + actual.size() + " records)");
+
+		for(File file : tempDirectory.listFiles()){
+			file.delete();
+		}
+		tempDirectory.delete();
+	}
+}